@@ -9,7 +9,23 @@ import cn.popcraft.villagepro.listener.*;
 import cn.popcraft.villagepro.manager.*;
 import cn.popcraft.villagepro.model.Village;
 import cn.popcraft.villagepro.model.VillagerEntity;
-import cn.popcraft.villagepro.storage.SQLiteStorage;
+import cn.popcraft.villagepro.storage.BackupService;
+import cn.popcraft.villagepro.storage.CropRepository;
+import cn.popcraft.villagepro.storage.DataTransfer;
+import cn.popcraft.villagepro.storage.DatabaseMaintenance;
+import cn.popcraft.villagepro.storage.LogVillageRepository;
+import cn.popcraft.villagepro.storage.ShardedCropRepository;
+import cn.popcraft.villagepro.storage.ShardedTaskRepository;
+import cn.popcraft.villagepro.storage.ShardedVillageRepository;
+import cn.popcraft.villagepro.storage.ShutdownFlush;
+import cn.popcraft.villagepro.storage.SqlCropRepository;
+import cn.popcraft.villagepro.storage.SqlTaskRepository;
+import cn.popcraft.villagepro.storage.StartupLoader;
+import cn.popcraft.villagepro.storage.StorageService;
+import cn.popcraft.villagepro.storage.StorageShards;
+import cn.popcraft.villagepro.storage.TaskRepository;
+import cn.popcraft.villagepro.storage.VillageArchiver;
+import cn.popcraft.villagepro.storage.VillageRepository;
 import cn.popcraft.villagepro.storage.VillageStorage;
 import cn.popcraft.villagepro.util.ItemNameUtil;
 import cn.popcraft.villagepro.util.VillagerUtils;
@@ -23,10 +39,13 @@ import org.bukkit.plugin.EventExecutor;
 import org.bukkit.plugin.Plugin;
 import org.bukkit.plugin.java.JavaPlugin;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.UUID;
+import java.util.logging.Level;
 
 public final class VillagePro extends JavaPlugin {
     private static VillagePro instance;
@@ -48,7 +67,16 @@ public final class VillagePro extends JavaPlugin {
     private TaskGUI taskGUI;
     
     // Storage
-    private VillageStorage villageStorage;
+    private StorageShards storageShards;
+    private StorageService storageService;
+    private VillageRepository villageStorage;
+    private VillageRepository villageRepository;
+    private TaskRepository taskRepository;
+    private CropRepository cropRepository;
+    private BackupService backupService;
+    private VillageArchiver villageArchiver;
+    private DatabaseMaintenance databaseMaintenance;
+    private DataTransfer dataTransfer;
     
     // Villager entities map
     private final Map<UUID, VillagerEntity> villagerEntities = new HashMap<UUID, VillagerEntity>();
@@ -68,19 +96,14 @@ public final class VillagePro extends JavaPlugin {
         // 初始化消息管理器
         this.messageManager = new MessageManager(this);
         
-        // 初始化存储
-        villageStorage = new VillageStorage(this, gson);
-        
-        // 确保数据库表已初始化
-        try {
-            // 手动触发表初始化
-            java.lang.reflect.Method initMethod = villageStorage.getClass().getDeclaredMethod("initializeTables");
-            initMethod.setAccessible(true);
-            initMethod.invoke(villageStorage);
-            getLogger().info("数据库表初始化完成");
-        } catch (Exception e) {
-            getLogger().warning("手动初始化数据库表时发生错误: " + e.getMessage());
-        }
+        // 初始化存储（所有管理器共享同一组数据库服务，每个分片的表结构只初始化一次）
+        long storageStart = System.nanoTime();
+        storageShards = new StorageShards(this);
+        storageService = storageShards.primary();
+        createRepositories();
+        villageRepository = createVillageRepository();
+        backupService = new BackupService(this, storageShards);
+        getLogger().info(String.format("数据库初始化耗时 %.1f ms", (System.nanoTime() - storageStart) / 1_000_000.0));
         
         // 初始化经济管理器
         this.economyManager = new EconomyManager(this);
@@ -93,14 +116,8 @@ public final class VillagePro extends JavaPlugin {
         this.followManager = new FollowManager(this);
         this.questsIntegrationManager = new QuestsIntegrationManager(this); // 初始化Quests集成管理器
         
-        // 加载所有村庄数据
-        this.villageManager.loadAll();
-        
-        // 加载所有作物数据
-        this.cropManager.loadAll();
-        
-        // 加载所有任务数据
-        this.taskManager.loadAll();
+        // 一次读取所有数据并分发给各个管理器
+        new StartupLoader(this, villageRepository, taskRepository).load(villageManager, cropManager, taskManager);
         
         // 初始化GUI（在所有管理器初始化之后）
         this.productionGUI = new ProductionGUI(this);
@@ -114,9 +131,11 @@ public final class VillagePro extends JavaPlugin {
         this.getCommand("recruit").setExecutor(new RecruitCommand(this));
         this.getCommand("upgrade").setExecutor(new UpgradeCommand(this));
         this.getCommand("task").setExecutor(new TaskCommand(this));
+        this.getCommand("villagepro").setExecutor(new VillageProCommand(this));
         
         // 注册事件监听器
         Bukkit.getPluginManager().registerEvents(new VillagerListener(this), this);
+        Bukkit.getPluginManager().registerEvents(new PlayerConnectionListener(this), this);
         Bukkit.getPluginManager().registerEvents(new CropListener(this), this);
         Bukkit.getPluginManager().registerEvents(new GUIListener(this), this);
         Bukkit.getPluginManager().registerEvents(new SkillListener(this), this);
@@ -135,15 +154,76 @@ public final class VillagePro extends JavaPlugin {
         // 启动定时任务
         startVillagerFollowTask();
         startAutoSaveTask();
+        backupService.start();
+        villageArchiver = new VillageArchiver(this, villageRepository, villageManager);
+        villageArchiver.start();
+        databaseMaintenance = new DatabaseMaintenance(this, storageShards);
+        databaseMaintenance.start();
+        dataTransfer = new DataTransfer(this);
 
         // 物品名称映射初始化
         ItemNameUtil.init(this);
+
+        // 启动完成后主线程只允许异步访问存储（仅在调试选项开启时检查）
+        storageShards.setPrimaryThreadGuardActive(true);
         
         getLogger().info("VillagePro 已启用!");
     }
     
+    /**
+     * 为每个分片创建数据库存储，有多个分片时用分片存储包装，之后把不在所属分片中的玩家数据搬过去
+     */
+    private void createRepositories() {
+        if (storageShards.size() == 1) {
+            villageStorage = new VillageStorage(this, gson, storageService);
+            taskRepository = new SqlTaskRepository(this, gson, storageService);
+            cropRepository = new SqlCropRepository(storageService);
+            storageShards.rebalance();
+            return;
+        }
+        List<VillageStorage> villages = new ArrayList<>();
+        List<SqlTaskRepository> tasks = new ArrayList<>();
+        List<SqlCropRepository> crops = new ArrayList<>();
+        for (StorageService shard : storageShards.all()) {
+            villages.add(new VillageStorage(this, gson, shard));
+            tasks.add(new SqlTaskRepository(this, gson, shard));
+            crops.add(new SqlCropRepository(shard));
+        }
+        villageStorage = new ShardedVillageRepository(storageShards, villages);
+        taskRepository = new ShardedTaskRepository(storageShards, tasks);
+        cropRepository = new ShardedCropRepository(storageShards, crops);
+        storageShards.rebalance();
+    }
+
+    /**
+     * 根据配置选择村庄数据存储
+     * 使用日志存储且日志为空时，从数据库导入已有的村庄
+     */
+    private VillageRepository createVillageRepository() {
+        if (!"log".equalsIgnoreCase(getConfig().getString("storage.village-backend", "database"))) {
+            return villageStorage;
+        }
+        try {
+            LogVillageRepository logRepository = new LogVillageRepository(this);
+            int imported = logRepository.importFrom(villageStorage);
+            if (imported > 0) {
+                getLogger().info("已从数据库导入 " + imported + " 个村庄数据到村庄日志");
+            }
+            logRepository.start();
+            return logRepository;
+        } catch (Exception e) {
+            getLogger().log(Level.SEVERE, "初始化村庄日志失败，改用数据库存储村庄数据", e);
+            return villageStorage;
+        }
+    }
+    
     @Override
     public void onDisable() {
+        // 关闭流程在主线程上同步写入剩余数据
+        if (storageShards != null) {
+            storageShards.setPrimaryThreadGuardActive(false);
+        }
+
         // 清理村民实体
         for (VillagerEntity villagerEntity : villagerEntities.values()) {
             org.bukkit.entity.Villager villager = villagerEntity.getBukkitEntity();
@@ -155,13 +235,31 @@ public final class VillagePro extends JavaPlugin {
             }
         }
         
-        // 保存并关闭所有数据管理器
-        if (villageManager != null) {
-            villageManager.close();
+        if (backupService != null) {
+            backupService.close();
+        }
+        if (villageArchiver != null) {
+            villageArchiver.close();
+        }
+        if (databaseMaintenance != null) {
+            databaseMaintenance.close();
+        }
+        if (dataTransfer != null) {
+            dataTransfer.close();
+        }
+        
+        // 在限定时间内用一个事务写入所有管理器的剩余数据
+        if (storageShards != null) {
+            new ShutdownFlush(this, storageShards).run();
         }
         
-        if (cropManager != null) {
-            cropManager.close();
+        if (villageRepository != null) {
+            villageRepository.close();
+        }
+        
+        // 最后关闭数据库连接
+        if (storageShards != null) {
+            storageShards.close();
         }
         
         getLogger().info("VillagePro 已禁用!");
@@ -227,10 +325,45 @@ public final class VillagePro extends JavaPlugin {
     }
     
     // 获取存储
-    public VillageStorage getDatabase() {
+    public VillageRepository getDatabase() {
         return villageStorage;
     }
     
+    // 获取村庄数据存储
+    public VillageRepository getVillageRepository() {
+        return villageRepository;
+    }
+    
+    // 获取任务数据存储
+    public TaskRepository getTaskRepository() {
+        return taskRepository;
+    }
+    
+    // 获取作物数量存储
+    public CropRepository getCropRepository() {
+        return cropRepository;
+    }
+    
+    // 获取共享数据库服务（分片存储时为第一个分片）
+    public StorageService getStorageService() {
+        return storageService;
+    }
+
+    // 获取所有数据库分片
+    public StorageShards getStorageShards() {
+        return storageShards;
+    }
+    
+    // 获取数据库备份服务
+    public BackupService getBackupService() {
+        return backupService;
+    }
+    
+    // 获取数据导出导入服务
+    public DataTransfer getDataTransfer() {
+        return dataTransfer;
+    }
+    
     // 获取村民实体映射
     public Map<UUID, VillagerEntity> getVillagerEntities() {
         return villagerEntities;
@@ -263,7 +396,8 @@ public final class VillagePro extends JavaPlugin {
      */
     private void startAutoSaveTask() {
         // 每30分钟保存一次数据
-        getServer().getScheduler().runTaskTimerAsynchronously(this, () -> {
+        getServer().getScheduler().runTaskTimer(this, () -> {
+            // 村庄快照和任务快照都在主线程获取，异步线程只负责写入编码后的数据
             villageManager.saveAll();
             taskManager.saveAll();
             getLogger().info("数据已自动保存");
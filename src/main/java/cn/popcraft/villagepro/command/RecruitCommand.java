@@ -49,11 +49,12 @@ public class RecruitCommand implements CommandExecutor {
         }
 
         // 真正的业务交给 VillageManager 完成（包括消息发送）
-        boolean success = plugin.getVillageManager().recruitVillager(player, target);
-        if (success) {
-            // 成功后询问是否跟随
-            followManager.requestFollow(player, target);
-        }
+        plugin.getVillageManager().recruitVillager(player, target).thenAccept(success -> {
+            if (success) {
+                // 成功后询问是否跟随
+                followManager.requestFollow(player, target);
+            }
+        });
         // 若失败，错误信息已在 recruitVillager 中发送
         return true;
     }
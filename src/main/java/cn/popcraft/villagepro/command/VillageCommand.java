@@ -51,8 +51,8 @@ public class VillageCommand implements CommandExecutor, TabCompleter {
         // 处理子命令
         if (args[0].equalsIgnoreCase("create")) {
             if (player.hasPermission("villagepro.village.create") || player.hasPermission("villagepro.admin")) {
-                plugin.getVillageManager().getOrCreateVillage(player);
-                player.sendMessage(messageManager.getMessage("village.created"));
+                plugin.getVillageManager().getOrCreateVillageAsync(player.getUniqueId()).whenComplete((village, throwable) ->
+                        player.sendMessage(messageManager.getMessage(throwable == null ? "village.created" : "village.load-failed")));
             } else {
                 player.sendMessage(messageManager.getMessage("no-permission"));
             }
@@ -128,9 +128,17 @@ public class VillageCommand implements CommandExecutor, TabCompleter {
      * @param targetLevel 目标等级
      */
     private void upgradeToLevel(Player player, UpgradeType type, int targetLevel) {
-        // 获取或创建村庄
-        Village village = plugin.getVillageManager().getOrCreateVillage(player);
-        
+        // 获取或创建村庄，不在内存中时读取完成后在主线程上继续
+        plugin.getVillageManager().getOrCreateVillageAsync(player.getUniqueId()).whenComplete((village, throwable) -> {
+            if (throwable != null) {
+                player.sendMessage(plugin.getMessageManager().getMessage("village.load-failed"));
+            } else if (player.isOnline()) {
+                upgradeToLevel(player, village, type, targetLevel);
+            }
+        });
+    }
+
+    private void upgradeToLevel(Player player, Village village, UpgradeType type, int targetLevel) {
         // 获取当前等级
         int currentLevel = village.getUpgradeLevel(type);
         
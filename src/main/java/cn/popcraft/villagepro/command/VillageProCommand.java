@@ -0,0 +1,228 @@
+package cn.popcraft.villagepro.command;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.storage.BackupService;
+import cn.popcraft.villagepro.storage.CropCounters;
+import cn.popcraft.villagepro.storage.DataTransfer;
+import cn.popcraft.villagepro.storage.SqlDialect;
+import cn.popcraft.villagepro.storage.StorageMetrics;
+import cn.popcraft.villagepro.storage.TaskProgressJournal;
+import cn.popcraft.villagepro.storage.VillageSaveQueue;
+import org.bukkit.Bukkit;
+import org.bukkit.ChatColor;
+import org.bukkit.command.Command;
+import org.bukkit.command.CommandExecutor;
+import org.bukkit.command.CommandSender;
+import org.bukkit.command.TabCompleter;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * 插件管理命令 /villagepro（/vpro），控制台也可以执行
+ */
+public class VillageProCommand implements CommandExecutor, TabCompleter {
+    private final VillagePro plugin;
+
+    public VillageProCommand(VillagePro plugin) {
+        this.plugin = plugin;
+    }
+
+    @Override
+    public boolean onCommand(@NotNull CommandSender sender, @NotNull Command command, @NotNull String label, @NotNull String[] args) {
+        if (!sender.hasPermission("villagepro.admin")) {
+            sender.sendMessage(plugin.getMessageManager().getMessage("no-permission"));
+            return true;
+        }
+
+        if (args.length == 0 || args[0].equalsIgnoreCase("help")) {
+            showHelp(sender, label);
+            return true;
+        }
+
+        switch (args[0].toLowerCase()) {
+            case "backup":
+                if (args.length < 2 || !args[1].equalsIgnoreCase("now")) {
+                    sender.sendMessage(ChatColor.RED + "用法: /" + label + " backup now");
+                    return true;
+                }
+                backupNow(sender);
+                break;
+            case "storage":
+                if (args.length < 2 || !args[1].equalsIgnoreCase("stats")) {
+                    sender.sendMessage(ChatColor.RED + "用法: /" + label + " storage stats");
+                    return true;
+                }
+                showStorageStats(sender);
+                break;
+            case "export":
+                exportData(sender, args.length >= 2 ? args[1] : null);
+                break;
+            case "import":
+                if (args.length < 2) {
+                    sender.sendMessage(ChatColor.RED + "用法: /" + label + " import <文件名>");
+                    return true;
+                }
+                importData(sender, args[1]);
+                break;
+            default:
+                showHelp(sender, label);
+                break;
+        }
+        return true;
+    }
+
+    private void showHelp(CommandSender sender, String label) {
+        sender.sendMessage(ChatColor.GOLD + "=== VillagePro 管理命令 ===");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " backup now" + ChatColor.WHITE + " - 立即备份数据库");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " storage stats" + ChatColor.WHITE + " - 查看存储操作统计");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " export [文件名]" + ChatColor.WHITE + " - 导出村庄、作物和任务数据");
+        sender.sendMessage(ChatColor.YELLOW + "/" + label + " import <文件名>" + ChatColor.WHITE + " - 导入数据，中断后再次执行从中断处继续");
+    }
+
+    private void showStorageStats(CommandSender sender) {
+        StorageMetrics metrics = plugin.getStorageService().getMetrics();
+        int shardCount = plugin.getStorageShards().size();
+        sender.sendMessage(ChatColor.GOLD + "=== 存储操作统计 (" + plugin.getStorageService().getType()
+                + (shardCount > 1 ? ", " + shardCount + " 个分片" : "") + ") ===");
+        List<StorageMetrics.Operation> operations = metrics.getOperations();
+        if (operations.isEmpty()) {
+            sender.sendMessage(ChatColor.GRAY + "暂无存储操作记录");
+        }
+        for (StorageMetrics.Operation operation : operations) {
+            sender.sendMessage(ChatColor.YELLOW + operation.getName() + ChatColor.WHITE + String.format(
+                    ": %d 次 (失败 %d), %.1f KB, 平均 %.2f ms, p50 %.2f ms, p99 %.2f ms, 最大 %.2f ms",
+                    operation.getCount(), operation.getFailures(), operation.getBytes() / 1024.0,
+                    operation.getAverageMillis(), operation.getPercentileMillis(0.5),
+                    operation.getPercentileMillis(0.99), operation.getMaxMillis()));
+        }
+        sender.sendMessage(ChatColor.YELLOW + "慢操作" + ChatColor.WHITE + String.format(": %d 次 (阈值 %d ms)",
+                metrics.getSlowCount(), metrics.getSlowThresholdMillis()));
+        sender.sendMessage(ChatColor.YELLOW + "版本冲突" + ChatColor.WHITE + String.format(": %d 次 (已合并后写入)",
+                metrics.getConflictCount()));
+        long compressionInput = metrics.getCompressionInputBytes();
+        sender.sendMessage(ChatColor.YELLOW + "压缩" + ChatColor.WHITE + String.format(
+                ": %d/%d 行, %.1f KB -> %.1f KB (节省 %.0f%%), %.1f μs/KB",
+                metrics.getCompressedRows(), metrics.getCompressionAttempts(), compressionInput / 1024.0,
+                metrics.getCompressionOutputBytes() / 1024.0,
+                compressionInput == 0 ? 0.0 : 100.0 - metrics.getCompressionOutputBytes() * 100.0 / compressionInput,
+                metrics.getCompressionMicrosPerKb()));
+
+        VillageSaveQueue saveQueue = plugin.getVillageManager().getSaveQueue();
+        sender.sendMessage(ChatColor.YELLOW + "保存队列" + ChatColor.WHITE + String.format(
+                ": 待写入 %d, 合并 %d, 已写入 %d, 失败 %d, 平均 %.1f ms, 最大 %.1f ms",
+                saveQueue.getQueueDepth(), saveQueue.getCoalescedCount(), saveQueue.getFlushedCount(),
+                saveQueue.getFailedCount(), saveQueue.getAverageFlushMillis(), saveQueue.getMaxFlushMillis()));
+
+        CropCounters counters = plugin.getCropManager().getCounters();
+        sender.sendMessage(ChatColor.YELLOW + "作物计数" + ChatColor.WHITE + String.format(
+                ": 记录 %d 次, 已写入 %d 行, 失败 %d 次",
+                counters.getRecordedCount(), counters.getWrittenRows(), counters.getFailedCount()));
+
+        TaskProgressJournal journal = plugin.getTaskManager().getJournal();
+        sender.sendMessage(ChatColor.YELLOW + "任务日志" + ChatColor.WHITE + String.format(
+                ": 记录 %d 次, 已提交 %d 条, 快照 %d 个, 失败 %d 次",
+                journal.getAppendedCount(), journal.getCommittedCount(), journal.getSnapshotCount(), journal.getFailedCount()));
+    }
+
+    private void backupNow(CommandSender sender) {
+        if (plugin.getStorageService().getDialect() != SqlDialect.SQLITE) {
+            sender.sendMessage(ChatColor.RED + "只有 SQLite 存储支持在线备份，MySQL/MariaDB 请使用数据库自带的备份工具");
+            return;
+        }
+        BackupService backupService = plugin.getBackupService();
+        if (backupService.isRunning()) {
+            sender.sendMessage(ChatColor.YELLOW + "已有备份正在进行，请稍后再试");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "正在后台备份数据库...");
+        plugin.getStorageService().onMainThread(backupService.backupNow())
+                .whenComplete((file, throwable) -> reportBackup(sender, backupService, file, throwable));
+    }
+
+    private void reportBackup(CommandSender sender, BackupService backupService, File file, Throwable throwable) {
+        if (throwable != null) {
+            plugin.getLogger().log(Level.SEVERE, "备份数据库失败", throwable);
+            sender.sendMessage(ChatColor.RED + "备份失败，详情请查看控制台");
+        } else if (file == null) {
+            sender.sendMessage(ChatColor.YELLOW + "已有备份正在进行，请稍后再试");
+        } else {
+            sender.sendMessage(ChatColor.GREEN + "数据库已备份到 " + backupService.getDirectory().getName() + "/" + file.getName());
+        }
+    }
+
+    private void exportData(CommandSender sender, String name) {
+        DataTransfer transfer = plugin.getDataTransfer();
+        if (transfer.isRunning()) {
+            sender.sendMessage(ChatColor.YELLOW + "已有导出或导入正在进行，请稍后再试");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "正在后台导出数据...");
+        plugin.getStorageService().onMainThread(transfer.export(name, progressReporter(sender)))
+                .whenComplete((result, throwable) -> reportTransfer(sender, "导出", result, throwable));
+    }
+
+    private void importData(CommandSender sender, String name) {
+        DataTransfer transfer = plugin.getDataTransfer();
+        if (transfer.isRunning()) {
+            sender.sendMessage(ChatColor.YELLOW + "已有导出或导入正在进行，请稍后再试");
+            return;
+        }
+        sender.sendMessage(ChatColor.YELLOW + "正在后台导入数据...");
+        plugin.getStorageService().onMainThread(transfer.importFile(name, progressReporter(sender)))
+                .whenComplete((result, throwable) -> reportTransfer(sender, "导入", result, throwable));
+    }
+
+    /**
+     * 进度在导出导入线程上产生，回到主线程再发送给执行者
+     */
+    private Consumer<String> progressReporter(CommandSender sender) {
+        return message -> Bukkit.getScheduler().runTask(plugin, () -> sender.sendMessage(ChatColor.GRAY + message));
+    }
+
+    private void reportTransfer(CommandSender sender, String action, DataTransfer.Result result, Throwable throwable) {
+        if (throwable != null) {
+            plugin.getLogger().log(Level.SEVERE, action + "数据失败", throwable);
+            Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+            sender.sendMessage(ChatColor.RED + action + "失败: " + cause.getMessage());
+        } else if (result == null) {
+            sender.sendMessage(ChatColor.YELLOW + "已有导出或导入正在进行，请稍后再试");
+        } else {
+            sender.sendMessage(ChatColor.GREEN + String.format("已%s %d 条记录%s (%s/%s)", action, result.records(),
+                    result.resumedFrom() > 0 ? "，跳过已完成的 " + result.resumedFrom() + " 条" : "",
+                    plugin.getDataTransfer().getDirectory().getName(), result.file().getName()));
+        }
+    }
+
+    @Override
+    public @Nullable List<String> onTabComplete(@NotNull CommandSender sender, @NotNull Command command, @NotNull String alias, @NotNull String[] args) {
+        if (!sender.hasPermission("villagepro.admin")) {
+            return Collections.emptyList();
+        }
+        List<String> completions = new ArrayList<>();
+        if (args.length == 1) {
+            for (String option : List.of("help", "backup", "storage", "export", "import")) {
+                if (option.startsWith(args[0].toLowerCase())) {
+                    completions.add(option);
+                }
+            }
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("backup") && "now".startsWith(args[1].toLowerCase())) {
+            completions.add("now");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("storage") && "stats".startsWith(args[1].toLowerCase())) {
+            completions.add("stats");
+        } else if (args.length == 2 && args[0].equalsIgnoreCase("import")) {
+            for (String file : plugin.getDataTransfer().listFiles()) {
+                if (file.startsWith(args[1])) {
+                    completions.add(file);
+                }
+            }
+        }
+        return completions;
+    }
+}
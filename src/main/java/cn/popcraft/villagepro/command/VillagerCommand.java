@@ -193,11 +193,13 @@ public class VillagerCommand implements CommandExecutor, TabExecutor {
             UUID villagerId = UUID.fromString(args[1]);
             
             // 移除村民
-            if (plugin.getVillageManager().removeVillager(player, villagerId)) {
-                player.sendMessage(messageManager.getMessage("villager.removed"));
-            } else {
-                player.sendMessage(messageManager.getMessage("villager.not-found"));
-            }
+            plugin.getVillageManager().removeVillager(player, villagerId).thenAccept(removed -> {
+                if (removed) {
+                    player.sendMessage(messageManager.getMessage("villager.removed"));
+                } else {
+                    player.sendMessage(messageManager.getMessage("villager.not-found"));
+                }
+            });
         } catch (IllegalArgumentException e) {
             player.sendMessage(messageManager.getMessage("commands.villager.remove.invalid-id"));
         }
@@ -478,14 +480,7 @@ public class VillagerCommand implements CommandExecutor, TabExecutor {
             try {
                 UUID villagerId = UUID.fromString(args[1]);
                 
-                // 获取玩家的村庄
-                Village village = plugin.getVillageManager().getVillage(player.getUniqueId());
-                if (village == null || !village.getVillagerIds().contains(villagerId)) {
-                    player.sendMessage(messageManager.getMessage("villager.not-found"));
-                    return;
-                }
-                
-                // 移除村民
+                // 移除村民，所有者和权限在查找到所有者后检查，村庄未加载时同样适用
                 plugin.getVillageManager().removeVillager(player, villagerId);
             } catch (IllegalArgumentException e) {
                 player.sendMessage(messageManager.getMessage("villager.not-found"));
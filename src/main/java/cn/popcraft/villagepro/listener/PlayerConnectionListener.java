@@ -0,0 +1,37 @@
+package cn.popcraft.villagepro.listener;
+
+import cn.popcraft.villagepro.VillagePro;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+/**
+ * 玩家连接监听器
+ * 登录前异步预加载村庄数据，退出时开始计算闲置时间，登录和退出时记录最近上线时间
+ */
+public class PlayerConnectionListener implements Listener {
+    private final VillagePro plugin;
+
+    public PlayerConnectionListener(VillagePro plugin) {
+        this.plugin = plugin;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(AsyncPlayerPreLoginEvent event) {
+        if (event.getLoginResult() != AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            return;
+        }
+        // 在登录线程上读取，玩家进入服务器时村庄已经在内存中
+        plugin.getVillageManager().prefetch(event.getUniqueId());
+        // 预加载时已从归档中恢复，之后再更新上线时间
+        plugin.getVillageManager().markSeen(event.getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(PlayerQuitEvent event) {
+        plugin.getVillageManager().touch(event.getPlayer().getUniqueId());
+        plugin.getVillageManager().markSeen(event.getPlayer().getUniqueId());
+    }
+}
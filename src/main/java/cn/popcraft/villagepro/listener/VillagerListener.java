@@ -99,24 +99,23 @@ public class VillagerListener implements Listener {
         
         // 检查是否是被招募的村民
         UUID villagerUuid = villager.getUniqueId();
-        if (plugin.getVillagerEntities().containsKey(villagerUuid)) {
+        VillagerEntity villagerEntity = plugin.getVillagerEntities().remove(villagerUuid);
+        if (villagerEntity != null) {
             // 移除村民技能效果
             plugin.getVillagerSkillManager().removeVillagerSkills(villager);
-            
-            // 从缓存中移除
-            VillagerEntity villagerEntity = plugin.getVillagerEntities().remove(villagerUuid);
-            
-            // 从村庄数据中移除
-            UUID ownerUuid = villagerEntity.getOwnerId();
-            plugin.getVillageManager().getVillage(ownerUuid).getVillagerIds().remove(villagerUuid);
-            plugin.getVillageManager().saveVillage(plugin.getVillageManager().getVillage(ownerUuid));
-            
+        }
+        
+        // 从所属村庄中移除，村庄未加载时从数据库查找所有者，村民实体未注册时同样适用，结果在主线程上返回
+        plugin.getVillageManager().detachVillager(villagerUuid).thenAccept(ownerUuid -> {
+            if (ownerUuid == null) {
+                return;
+            }
             // 通知玩家
             Player owner = plugin.getServer().getPlayer(ownerUuid);
             if (owner != null && owner.isOnline()) {
                 owner.sendMessage("§c[VillagePro] 你的一名村民死亡了!");
             }
-        }
+        });
     }
     
     @EventHandler
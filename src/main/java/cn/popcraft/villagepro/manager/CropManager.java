@@ -3,7 +3,7 @@ package cn.popcraft.villagepro.manager;
 
 import cn.popcraft.villagepro.VillagePro;
 import cn.popcraft.villagepro.model.CropStorage;
-import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.storage.CropCounters;
 import org.bukkit.Material;
 
 import java.util.Map;
@@ -11,42 +11,41 @@ import java.util.HashMap;
 import java.util.UUID;
 import java.util.Arrays;
 import java.util.List;
-import java.util.Collection;
 
 public class CropManager {
     private final VillagePro plugin;
     private final Map<UUID, CropStorage> cropStorages = new HashMap<>();
+    private final CropCounters counters;
     
     public CropManager(VillagePro plugin) {
         this.plugin = plugin;
-        // 初始化作物存储
-        loadCropStorages();
+        this.counters = new CropCounters(plugin, plugin.getCropRepository());
+        this.counters.start();
     }
     
-    private void loadCropStorages() {
-        // 从VillageStorage加载所有村庄数据，然后提取作物存储信息
-        try {
-            // 获取所有村庄数据
-            Collection<Village> villages = plugin.getDatabase().findAll();
-            
-            // 从每个村庄提取作物存储数据
-            for (Village village : villages) {
-                UUID playerId = village.getOwnerUuid();
-                if (playerId != null) {
-                    // 创建作物存储对象
-                    Map<String, Integer> crops = village.getCropStorage();
-                    if (crops != null && !crops.isEmpty()) {
-                        CropStorage storage = new CropStorage(playerId, crops);
-                        cropStorages.put(playerId, storage);
-                    }
-                }
-            }
-            
-            plugin.getLogger().info("已加载 " + cropStorages.size() + " 个作物存储数据");
-        } catch (Exception e) {
-            plugin.getLogger().severe("加载作物存储数据时发生错误: " + e.getMessage());
-            e.printStackTrace();
-        }
+    /**
+     * 接收启动时读取到的作物数量
+     * @param playerUuid 玩家UUID
+     * @param cropType 作物类型
+     * @param amount 数量
+     */
+    public void loadCrop(UUID playerUuid, String cropType, int amount) {
+        getCropStorage(playerUuid).setCropAmount(cropType, amount);
+    }
+    
+    /**
+     * 获取作物数量计数器
+     * @return 作物数量计数器
+     */
+    public CropCounters getCounters() {
+        return counters;
+    }
+    
+    /**
+     * @return 已加载的作物存储数量
+     */
+    public int getLoadedStorageCount() {
+        return cropStorages.size();
     }
     
     /**
@@ -79,6 +78,7 @@ public class CropManager {
         
         CropStorage storage = getCropStorage(playerUuid);
         storage.addCrop(cropType, amount);
+        counters.add(playerUuid, cropType.toLowerCase(), amount);
         return true;
     }
     
@@ -93,7 +93,25 @@ public class CropManager {
         if (amount <= 0) return false;
         
         CropStorage storage = getCropStorage(playerUuid);
-        return storage.removeCrop(cropType, amount);
+        if (!storage.removeCrop(cropType, amount)) {
+            return false;
+        }
+        counters.add(playerUuid, cropType.toLowerCase(), -amount);
+        return true;
+    }
+    
+    /**
+     * 把玩家的作物数量设为指定值，用于导入数据
+     * @param playerUuid 玩家UUID
+     * @param cropType 作物类型
+     * @param amount 数量，0表示清空
+     */
+    public void setCrop(UUID playerUuid, String cropType, int amount) {
+        String key = cropType.toLowerCase();
+        CropStorage storage = getCropStorage(playerUuid);
+        int delta = Math.max(0, amount) - storage.getCropAmount(key);
+        storage.setCropAmount(key, amount);
+        counters.add(playerUuid, key, delta);
     }
     
     /**
@@ -123,10 +141,12 @@ public class CropManager {
     }
     
     /**
-     * 关闭作物管理器，保存数据
+     * 关闭作物管理器，取出尚未写入的作物数量变化，由关闭流程统一写入
+     *
+     * @return 所有者 -> (作物, 增量)
      */
-    public void close() {
-        saveAll();
+    public Map<UUID, Map<String, Integer>> close() {
+        return counters.drain();
     }
     
     /**
@@ -161,60 +181,9 @@ public class CropManager {
     
     /**
      * 保存所有作物数据
+     * 作物数量以增量方式写入，这里只需要立即刷新尚未写入的增量
      */
     public void saveAll() {
-        // 遍历所有作物存储并保存到数据库
-        int savedCount = 0;
-        for (Map.Entry<UUID, CropStorage> entry : cropStorages.entrySet()) {
-            UUID playerId = entry.getKey();
-            CropStorage storage = entry.getValue();
-            
-            // 检查存储是否为空，避免保存空数据
-            if (!storage.isEmpty()) {
-                // 获取玩家的村庄数据
-                cn.popcraft.villagepro.model.Village village = plugin.getVillageManager().getVillage(playerId);
-                if (village != null) {
-                    // 更新村庄中的作物存储数据
-                    village.setCropStorage(storage.getCrops());
-                    // 保存村庄数据（包含作物存储）
-                    try {
-                        plugin.getDatabase().save(village);
-                        savedCount++;
-                    } catch (java.sql.SQLException e) {
-                        plugin.getLogger().severe("保存作物数据失败: 玩家=" + playerId + ", 错误=" + e.getMessage());
-                    }
-                }
-            }
-        }
-        plugin.getLogger().info("已保存 " + savedCount + " 个作物存储数据");
-    }
-    
-    /**
-     * 加载所有作物数据
-     */
-    public void loadAll() {
-        // 从VillageStorage加载所有村庄数据，然后提取作物存储信息
-        try {
-            // 获取所有村庄数据
-            Collection<cn.popcraft.villagepro.model.Village> villages = plugin.getDatabase().findAll();
-            
-            // 从每个村庄提取作物存储数据
-            for (cn.popcraft.villagepro.model.Village village : villages) {
-                UUID playerId = village.getOwnerUuid();
-                if (playerId != null) {
-                    // 创建作物存储对象
-                    Map<String, Integer> crops = village.getCropStorage();
-                    if (crops != null && !crops.isEmpty()) {
-                        CropStorage storage = new CropStorage(playerId, crops);
-                        cropStorages.put(playerId, storage);
-                    }
-                }
-            }
-            
-            plugin.getLogger().info("已加载 " + cropStorages.size() + " 个作物存储数据");
-        } catch (Exception e) {
-            plugin.getLogger().severe("加载作物存储数据时发生错误: " + e.getMessage());
-            e.printStackTrace();
-        }
+        counters.flush();
     }
 }
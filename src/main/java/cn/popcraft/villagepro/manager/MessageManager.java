@@ -58,6 +58,7 @@ public class MessageManager {
         messages.put("village.created", "&a村庄创建成功!");
         messages.put("village.upgraded", "&a村庄升级成功! 当前等级: &e{level}");
         messages.put("village.max-level", "&c村庄已达到最高等级!");
+        messages.put("village.load-failed", "&c读取村庄数据失败，请稍后再试!");
         messages.put("village.not-found", "&c你还没有村庄，请先创建一个!");
         
         // 升级相关消息
@@ -3,6 +3,7 @@ package cn.popcraft.villagepro.manager;
 import cn.popcraft.villagepro.VillagePro;
 import cn.popcraft.villagepro.model.PlayerTaskData;
 import cn.popcraft.villagepro.model.Task;
+import cn.popcraft.villagepro.storage.TaskProgressJournal;
 import org.bukkit.Bukkit;
 import org.bukkit.ChatColor;
 import org.bukkit.entity.Player;
@@ -21,16 +22,31 @@ import java.util.concurrent.ConcurrentHashMap;
 public class TaskManager {
     private final VillagePro plugin;
     private final Map<UUID, PlayerTaskData> taskCache = new ConcurrentHashMap<>();
+    private final TaskProgressJournal journal;
 
     public TaskManager(VillagePro plugin) {
         this.plugin = plugin;
+        this.journal = new TaskProgressJournal(plugin, plugin.getTaskRepository());
+        this.journal.start();
         startPeriodicSaveTask();
     }
     
     /**
-     * 在插件禁用时关闭数据库连接
+     * 在插件禁用时取出所有未压缩的任务数据，由关闭流程统一写入
+     * 数据库连接由插件在所有管理器关闭后统一关闭
+     *
+     * @return 玩家UUID -> 编码后的任务快照
      */
-    public void shutdown() {
+    public Map<UUID, byte[]> shutdown() {
+        return journal.drain(taskCache::get);
+    }
+
+    /**
+     * 获取任务进度日志
+     * @return 任务进度日志
+     */
+    public TaskProgressJournal getJournal() {
+        return journal;
     }
     
     /**
@@ -349,8 +365,7 @@ public class TaskManager {
         
         // 清除当前任务
         taskData.setCurrentTask(null);
-        // 注释掉对不存在的数据库的引用
-        // database.saveWithId(taskData, taskData.getPlayerUuid().toString(), "player_tasks");
+        savePlayerTaskData(taskData);
         
         // 发送奖励消息
         Map<String, String> replacements = new HashMap<>();
@@ -380,7 +395,7 @@ public class TaskManager {
     }
     
     /**
-     * 启动定期保存任务数据的任务
+     * 启动定期压缩任务进度日志的任务
      */
     private void startPeriodicSaveTask() {
         plugin.getServer().getScheduler().runTaskTimer(plugin, () -> {
@@ -389,31 +404,33 @@ public class TaskManager {
     }
     
     /**
-     * 加载所有任务数据
+     * 接收启动时读取到的玩家任务数据
+     * @param taskData 玩家任务数据
      */
-    public void loadAll() {
-        // 从存储中加载所有任务数据
-        // 移除对不存在的数据库的引用
-        // database.findAll(PlayerTaskData.class).forEach(taskData -> 
-        //     taskCache.put(taskData.getPlayerUuid(), taskData));
+    public void loadPlayerTaskData(PlayerTaskData taskData) {
+        if (taskData != null && taskData.getPlayerUuid() != null) {
+            taskCache.put(taskData.getPlayerUuid(), taskData);
+        }
     }
 
     /**
      * 保存所有任务数据
+     * 只有进度日志中有记录的玩家需要写入快照，其他玩家的快照已是最新
      */
     public void saveAll() {
-        // 保存所有任务数据到存储
-        // 移除对不存在的数据库的引用
-        // taskCache.values().forEach(taskData -> 
-        //     database.saveWithId(taskData, taskData.getPlayerUuid().toString(), "player_tasks"));
+        journal.commit();
+        journal.compact(taskCache::get);
     }
 
     /**
      * 保存玩家任务数据
+     * 写入完整快照，用于任务分配、完成等结构变化
      */
     public void savePlayerTaskData(PlayerTaskData taskData) {
-        // 移除对不存在的数据库的引用
-        // database.saveWithId(taskData, playerId.toString(), "player_tasks");
+        if (taskData == null || taskData.getPlayerUuid() == null) {
+            return;
+        }
+        journal.snapshot(taskData);
     }
     
     /**
@@ -447,8 +464,8 @@ public class TaskManager {
         if (task == null) return;
         
         task.setProgress(task.getProgress() + amount);
-        // 注释掉对不存在的数据库的引用
-        // database.saveWithId(taskData, playerId.toString(), "player_tasks");
+        // 进度变化频繁，只追加到日志
+        journal.appendProgress(playerId, taskId, amount);
         
         // 如果启用了Quests系统，也更新Quests任务进度
         Player player = Bukkit.getPlayer(playerId);
@@ -470,7 +487,8 @@ public class TaskManager {
         if (task == null) return;
         
         // 从活跃任务列表中移除
-        taskData.getActiveTasks().removeIf(t -> t.getId().equals(taskId));
+        taskData.removeTask(taskId);
+        savePlayerTaskData(taskData);
         
         // 如果启用了Quests系统，也完成Quests任务
         Player player = Bukkit.getPlayer(playerId);
@@ -509,16 +527,13 @@ public class TaskManager {
      */
     public void addTaskPoints(UUID playerUUID, int points) {
         // 获取或创建玩家数据
-        PlayerTaskData data = getPlayerTaskData(playerUUID);
-        if (data == null) {
-            data = new PlayerTaskData(playerUUID);
-        }
+        PlayerTaskData data = getOrCreatePlayerTaskData(playerUUID);
 
         // 增加积分
         data.addTaskPoints(points);
 
-        // 保存数据
-        savePlayerTaskData(data);
+        // 积分变化只追加到日志
+        journal.appendPoints(playerUUID, points);
 
         // 如果玩家在线，可以发送消息
         Player player = Bukkit.getPlayer(playerUUID);
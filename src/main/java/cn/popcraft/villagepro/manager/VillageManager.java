@@ -3,8 +3,10 @@ package cn.popcraft.villagepro.manager;
 import cn.popcraft.villagepro.VillagePro;
 import cn.popcraft.villagepro.model.UpgradeType;
 import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
 import cn.popcraft.villagepro.model.VillagerEntity;
-import cn.popcraft.villagepro.storage.VillageStorage;
+import cn.popcraft.villagepro.storage.VillageSaveQueue;
+import cn.popcraft.villagepro.storage.VillageRepository;
 import cn.popcraft.villagepro.util.VillagerUtils;
 import org.bukkit.Bukkit;
 import org.bukkit.Material;
@@ -12,39 +14,87 @@ import org.bukkit.entity.Entity;
 import org.bukkit.entity.Player;
 import org.bukkit.entity.Villager;
 import org.bukkit.inventory.ItemStack;
-import org.bukkit.scheduler.BukkitScheduler;
+import org.bukkit.scheduler.BukkitTask;
 import org.jetbrains.annotations.Nullable;
 
-import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.EnumMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 
 public class VillageManager {
     private final VillagePro plugin;
+    // 常驻缓存：玩家在线、有已加载的村民或最近被访问过的村庄
     private final Map<UUID, Village> villageCache = new ConcurrentHashMap<>();
-    private final VillageStorage villageStorage;
+    private final Map<UUID, Long> lastAccess = new ConcurrentHashMap<>();
+    // 闲置缓存：按访问顺序保留离线玩家的村庄，超过上限时丢弃最久未访问的
+    private final Map<UUID, Village> idleCache;
+    // 正在从数据库读取的村庄，避免重复查询
+    private final Map<UUID, CompletableFuture<Village>> loading = new ConcurrentHashMap<>();
+    // 村民UUID到所有者UUID的反向索引，启动时由预加载的村庄建立，未命中时从数据库查找后补充，招募和移除时同步维护
+    private final Map<UUID, UUID> villagerOwners = new ConcurrentHashMap<>();
+    private final VillageRepository villageStorage;
+    private final VillageSaveQueue saveQueue;
     private final int maxVillagers; // 缓存配置值，避免每次查询
+    private final long idleMillis;
+    private final long loadTimeoutMillis;
+    private BukkitTask evictionTask;
 
     public VillageManager(VillagePro plugin) {
         this.plugin = plugin;
-        this.villageStorage = new VillageStorage(plugin, plugin.getGson());
+        this.villageStorage = plugin.getVillageRepository();
+        this.saveQueue = new VillageSaveQueue(plugin, villageStorage);
+        this.saveQueue.start();
         this.maxVillagers = plugin.getConfigManager().getMaxVillagers(); // 读取一次
+
+        this.idleMillis = Math.max(0L, plugin.getConfig().getLong("storage.cache.idle-seconds", 600L)) * 1000L;
+        this.loadTimeoutMillis = Math.max(1L, plugin.getConfig().getLong("storage.cache.load-timeout", 5000L));
+        int idleCacheSize = Math.max(0, plugin.getConfig().getInt("storage.cache.max-size", 1000));
+        this.idleCache = Collections.synchronizedMap(new LinkedHashMap<UUID, Village>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<UUID, Village> eldest) {
+                if (size() <= idleCacheSize) {
+                    return false;
+                }
+                // 还有未写入修改的村庄保留已知状态，写入时仍按版本号检查
+                if (!saveQueue.isPending(eldest.getKey())) {
+                    villageStorage.forget(eldest.getKey());
+                }
+                return true;
+            }
+        });
     }
 
     /**
-     * 关闭村庄管理器，保存所有数据并关闭数据库连接
+     * 关闭村庄管理器，取出所有村庄的快照，由关闭流程统一写入
+     * 数据库连接由插件在所有管理器关闭后统一关闭
+     *
+     * @param timeoutMillis 等待正在进行的刷新的最长时间（毫秒）
+     * @return 待写入的村庄快照
      */
-    public void close() {
-        saveAll();
-        if (villageStorage != null) {
-            villageStorage.close();
+    public List<VillageSnapshot> close(long timeoutMillis) {
+        if (evictionTask != null) {
+            evictionTask.cancel();
+            evictionTask = null;
+        }
+        saveQueue.stop();
+        for (Village village : getResidentVillages()) {
+            saveQueue.markDirty(village);
         }
+        return saveQueue.drain(timeoutMillis);
     }
 
     // ResourceCheckResult 内部类定义
@@ -58,74 +108,412 @@ public class VillageManager {
     }
     
     /**
-     * 加载所有村庄数据
+     * 接收启动时读取到的村庄
+     * 在线玩家的村庄放入常驻缓存，其他放入闲置缓存，超出上限的由LRU丢弃，之后按需加载
+     *
+     * @param village 村庄数据
      */
-    public void loadAll() {
-        villageCache.clear();
-        try {
-            villageStorage.findAll().forEach(village -> {
-                if (village != null && village.getOwnerUuid() != null) {
-                    villageCache.put(village.getOwnerUuid(), village);
-                }
-            });
-            plugin.getLogger().info("已加载 " + villageCache.size() + " 个村庄数据");
-        } catch (Exception e) {
-            plugin.getLogger().log(Level.SEVERE, "Failed to load villages", e);
+    public void loadVillage(Village village) {
+        if (village == null || village.getOwnerUuid() == null) {
+            return;
+        }
+        UUID ownerUuid = village.getOwnerUuid();
+        indexVillagers(village);
+        if (Bukkit.getPlayer(ownerUuid) != null) {
+            villageCache.put(ownerUuid, village);
+            lastAccess.put(ownerUuid, System.currentTimeMillis());
+        } else {
+            idleCache.put(ownerUuid, village);
         }
     }
 
     /**
-     * 保存所有村庄数据
+     * 将村庄的村民加入反向索引
      */
-    public void saveAll() {
-        // 检查插件是否启用
-        if (!plugin.isEnabled()) {
-            plugin.getLogger().warning("插件已禁用，跳过保存村庄数据");
+    private void indexVillagers(Village village) {
+        if (village.getVillagerIds() == null) {
             return;
         }
-        
-        BukkitScheduler scheduler = Bukkit.getScheduler();
-        scheduler.runTaskAsynchronously(plugin, () -> {
-            try {
-                for (Village village : villageCache.values()) {
-                    villageStorage.save(village);
-                }
-                plugin.getLogger().info("已保存 " + villageCache.size() + " 个村庄数据");
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "Failed to save villages", e);
+        for (UUID villagerId : village.getVillagerIds()) {
+            villagerOwners.put(villagerId, village.getOwnerUuid());
+        }
+    }
+
+    /**
+     * 获取村民所属村庄的所有者，只查询内存中的索引
+     *
+     * @param villagerId 村民UUID
+     * @return 所有者UUID，如果村民不属于任何村庄则返回null
+     */
+    @Nullable
+    public UUID getVillagerOwner(UUID villagerId) {
+        return villagerOwners.get(villagerId);
+    }
+
+    /**
+     * 查找村民所属村庄的所有者，索引中没有时查询数据库
+     *
+     * @param villagerId 村民UUID
+     * @return 所有者UUID，如果村民不属于任何村庄则结果为null
+     */
+    public CompletableFuture<UUID> findVillagerOwner(UUID villagerId) {
+        UUID ownerUuid = villagerOwners.get(villagerId);
+        if (ownerUuid != null) {
+            return CompletableFuture.completedFuture(ownerUuid);
+        }
+        return villageStorage.findVillagerOwner(villagerId).thenApply(found -> {
+            if (found != null) {
+                villagerOwners.putIfAbsent(villagerId, found);
+            }
+            return found;
+        });
+    }
+
+    /**
+     * 将村民从所属村庄中移除，实体未加载或村庄不在内存中时也能找到所有者
+     *
+     * @param villagerId 村民UUID
+     * @return 原所有者UUID，在主线程上完成，如果村民不属于任何村庄则结果为null
+     */
+    public CompletableFuture<UUID> detachVillager(UUID villagerId) {
+        CompletableFuture<UUID> owner = findVillagerOwner(villagerId).thenApply(ownerUuid -> {
+            if (ownerUuid != null) {
+                villagerOwners.remove(villagerId, ownerUuid);
+            }
+            return ownerUuid;
+        });
+        // 索引未命中时结果在读线程上返回，村庄数据只在主线程上修改
+        return plugin.getStorageService().onMainThread(owner).thenApply(ownerUuid -> {
+            if (ownerUuid != null) {
+                withVillage(ownerUuid, village -> {
+                    if (village.removeVillager(villagerId)) {
+                        saveVillage(village);
+                    }
+                });
             }
+            return ownerUuid;
         });
     }
 
+    /**
+     * @return 反向索引中的村民数量
+     */
+    public int getIndexedVillagerCount() {
+        return villagerOwners.size();
+    }
+
+    /**
+     * 启动闲置村庄回收任务
+     */
+    public void startEvictionTask() {
+        if (evictionTask == null) {
+            evictionTask = Bukkit.getScheduler().runTaskTimer(plugin, this::evictIdle, 1200L, 1200L);
+        }
+    }
+
+    /**
+     * @return 常驻缓存和闲置缓存中的村庄数量
+     */
+    public int getLoadedVillageCount() {
+        return villageCache.size() + idleCache.size();
+    }
+
+    /**
+     * 保存所有村庄数据
+     */
+    public void saveAll() {
+        // 全部标记为脏数据，由写回队列合并后统一写入
+        Collection<Village> villages = getResidentVillages();
+        for (Village village : villages) {
+            saveQueue.markDirty(village);
+        }
+        saveQueue.requestFlush();
+        plugin.getLogger().info("已提交 " + villages.size() + " 个村庄数据到保存队列");
+    }
+
+    /**
+     * @return 内存中所有村庄（常驻和闲置缓存）
+     */
+    private Collection<Village> getResidentVillages() {
+        Collection<Village> villages = new ArrayList<>(villageCache.values());
+        synchronized (idleCache) {
+            villages.addAll(idleCache.values());
+        }
+        return villages;
+    }
+
+    /**
+     * 预加载玩家的村庄，在异步登录事件中调用
+     * 会阻塞当前线程直到读取完成或超时，不能在主线程上调用；结果只用于预热缓存，不能据此判断村庄是否存在
+     *
+     * @param ownerUuid 玩家UUID
+     * @return 村庄数据，不存在、读取失败或超时时返回null
+     */
+    @Nullable
+    public Village prefetch(UUID ownerUuid) {
+        if (Bukkit.isPrimaryThread()) {
+            throw new IllegalStateException("不能在主线程上同步读取村庄数据");
+        }
+        try {
+            return getVillageAsync(ownerUuid).get(loadTimeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.WARNING, "预加载村庄数据失败: " + ownerUuid, e);
+        }
+        return null;
+    }
+
+    /**
+     * 记录村庄的最近访问时间，玩家退出时调用以开始计算闲置时间
+     *
+     * @param ownerUuid 玩家UUID
+     */
+    public void touch(UUID ownerUuid) {
+        if (villageCache.containsKey(ownerUuid)) {
+            lastAccess.put(ownerUuid, System.currentTimeMillis());
+        }
+    }
+
+    /**
+     * 记录玩家最近上线时间，玩家登录和退出时调用
+     *
+     * @param ownerUuid 玩家UUID
+     */
+    public void markSeen(UUID ownerUuid) {
+        villageStorage.markSeen(ownerUuid).exceptionally(throwable -> {
+            plugin.getLogger().log(Level.WARNING, "记录玩家最近上线时间失败: " + ownerUuid, throwable);
+            return null;
+        });
+    }
+
+    /**
+     * 将村庄从内存中移除，归档前调用，必须在主线程上调用
+     * 村民反向索引保留，之后与这些村民交互时会从归档中恢复村庄
+     *
+     * @param ownerUuid 玩家UUID
+     * @return 是否可以归档，还有未写入修改的村庄返回false
+     */
+    public boolean evict(UUID ownerUuid) {
+        if (saveQueue.isPending(ownerUuid)) {
+            return false;
+        }
+        villageCache.remove(ownerUuid);
+        lastAccess.remove(ownerUuid);
+        idleCache.remove(ownerUuid);
+        villageStorage.forget(ownerUuid);
+        return true;
+    }
+
+    /**
+     * 用导入的数据替换玩家的村庄，必须在主线程上调用
+     * 内存中已有的村庄直接替换，然后经写回队列写入数据库
+     *
+     * @param village 导入的村庄
+     */
+    public void importVillage(Village village) {
+        UUID ownerUuid = village.getOwnerUuid();
+        Village previous = villageCache.get(ownerUuid);
+        if (previous == null) {
+            previous = idleCache.get(ownerUuid);
+        }
+        if (previous == null) {
+            previous = saveQueue.getPending(ownerUuid);
+        }
+        if (previous != null && previous.getVillagerIds() != null) {
+            for (UUID villagerId : previous.getVillagerIds()) {
+                villagerOwners.remove(villagerId, ownerUuid);
+            }
+        }
+        indexVillagers(village);
+        if (villageCache.containsKey(ownerUuid)) {
+            villageCache.put(ownerUuid, village);
+        } else if (idleCache.containsKey(ownerUuid)) {
+            idleCache.put(ownerUuid, village);
+        }
+        saveQueue.markDirty(village);
+    }
+
+    /**
+     * 将闲置的村庄从常驻缓存移入闲置缓存
+     * 在线玩家、有已加载村民以及还有未写入修改的村庄不会被移出
+     */
+    private void evictIdle() {
+        Set<UUID> pinned = new HashSet<>();
+        for (Player player : Bukkit.getOnlinePlayers()) {
+            pinned.add(player.getUniqueId());
+        }
+        for (VillagerEntity villagerEntity : plugin.getVillagerEntities().values()) {
+            if (villagerEntity.getOwnerId() != null) {
+                pinned.add(villagerEntity.getOwnerId());
+            }
+        }
+
+        long cutoff = System.currentTimeMillis() - idleMillis;
+        Iterator<Map.Entry<UUID, Village>> iterator = villageCache.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<UUID, Village> entry = iterator.next();
+            UUID ownerUuid = entry.getKey();
+            if (pinned.contains(ownerUuid)
+                    || lastAccess.getOrDefault(ownerUuid, 0L) > cutoff
+                    || saveQueue.isPending(ownerUuid)) {
+                continue;
+            }
+            iterator.remove();
+            lastAccess.remove(ownerUuid);
+            idleCache.put(ownerUuid, entry.getValue());
+        }
+    }
+
+    /**
+     * 获取村庄写回队列
+     * @return 写回队列
+     */
+    public VillageSaveQueue getSaveQueue() {
+        return saveQueue;
+    }
+
     /**
      * 获取玩家的村庄数据
      */
     @Nullable
     public Village getVillage(UUID playerUuid) {
-        return villageCache.get(playerUuid);
+        Village village = villageCache.get(playerUuid);
+        if (village == null) {
+            village = idleCache.remove(playerUuid);
+            if (village == null) {
+                village = saveQueue.getPending(playerUuid);
+            }
+            if (village == null) {
+                // 不在内存中，后台读取，下次访问即可命中
+                getVillageAsync(playerUuid);
+                return null;
+            }
+            Village existing = villageCache.putIfAbsent(playerUuid, village);
+            if (existing != null) {
+                village = existing;
+            }
+        }
+        lastAccess.put(playerUuid, System.currentTimeMillis());
+        return village;
+    }
+
+    /**
+     * 异步获取玩家的村庄数据，不在内存中时从数据库读取
+     *
+     * @param playerUuid 玩家UUID
+     * @return 村庄数据，不存在时结果为null
+     */
+    public CompletableFuture<Village> getVillageAsync(UUID playerUuid) {
+        Village resident = villageCache.get(playerUuid);
+        if (resident != null) {
+            return CompletableFuture.completedFuture(resident);
+        }
+
+        CompletableFuture<Village> future = loading.get(playerUuid);
+        if (future != null) {
+            return future;
+        }
+        CompletableFuture<Village> created = new CompletableFuture<>();
+        future = loading.putIfAbsent(playerUuid, created);
+        if (future != null) {
+            return future;
+        }
+
+        villageStorage.loadVillage(playerUuid).whenComplete((loaded, throwable) -> {
+            if (throwable != null) {
+                // 读取失败不能当作村庄不存在，否则调用方可能创建空村庄覆盖数据库中的数据
+                loading.remove(playerUuid, created);
+                created.completeExceptionally(throwable);
+                return;
+            }
+            Village village = cacheLoaded(playerUuid, loaded);
+            loading.remove(playerUuid, created);
+            created.complete(village);
+        });
+        return created;
+    }
+
+    /**
+     * 在主线程上对玩家的村庄执行操作，村庄不在内存中时先异步读取
+     * 村庄不存在时不执行
+     *
+     * @param playerUuid 玩家UUID
+     * @param action 操作
+     */
+    public void withVillage(UUID playerUuid, Consumer<Village> action) {
+        Village village = getVillage(playerUuid);
+        if (village != null) {
+            action.accept(village);
+            return;
+        }
+        plugin.getStorageService().onMainThread(getVillageAsync(playerUuid)).thenAccept(loaded -> {
+            if (loaded != null) {
+                action.accept(loaded);
+            }
+        });
+    }
+
+    /**
+     * 将读取到的村庄放入常驻缓存
+     * 内存中已有的版本（包括闲置缓存和未写入的修改）优先于数据库中的数据
+     */
+    @Nullable
+    private Village cacheLoaded(UUID playerUuid, @Nullable Village loaded) {
+        Village village = idleCache.remove(playerUuid);
+        if (village == null) {
+            village = saveQueue.getPending(playerUuid);
+        }
+        if (village == null) {
+            village = loaded;
+        }
+        if (village == null) {
+            return villageCache.get(playerUuid);
+        }
+        Village existing = villageCache.putIfAbsent(playerUuid, village);
+        lastAccess.put(playerUuid, System.currentTimeMillis());
+        if (existing != null) {
+            return existing;
+        }
+        indexVillagers(village);
+        return village;
     }
 
     /**
      * 获取或创建玩家的村庄数据
+     * 不在内存中时先异步读取，只有数据库确认不存在时才创建新村庄；读取失败时异常完成，不会创建
+     *
+     * @param playerUuid 玩家UUID
+     * @return 在主线程上完成的村庄
      */
-    public Village getOrCreateVillage(Player player) {
-        UUID uuid = player.getUniqueId();
+    public CompletableFuture<Village> getOrCreateVillageAsync(UUID playerUuid) {
+        Village existing = getVillage(playerUuid);
+        if (existing != null) {
+            return CompletableFuture.completedFuture(existing);
+        }
+        return plugin.getStorageService().onMainThread(getVillageAsync(playerUuid))
+                .thenApply(loaded -> loaded != null ? loaded : createVillage(playerUuid));
+    }
+
+    /**
+     * 创建新村庄，必须在主线程上调用，且数据库中已确认没有该玩家的村庄
+     */
+    private Village createVillage(UUID uuid) {
+        Village pending = saveQueue.getPending(uuid);
+        if (pending != null) {
+            return cacheLoaded(uuid, pending);
+        }
+        lastAccess.put(uuid, System.currentTimeMillis());
         return villageCache.computeIfAbsent(uuid, id -> {
             Village v = new Village();
             v.setOwnerUuid(id);
             v.setUpgradeLevels(new EnumMap<>(UpgradeType.class));
             for (UpgradeType type : UpgradeType.values()) {
-                v.getUpgradeLevels().put(type, 0);
+                v.setUpgradeLevel(type, 0);
             }
             v.setVillagerIds(new ArrayList<>());
-            // 异步保存，防止阻塞主线程
-            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
-                try {
-                    villageStorage.save(v);
-                } catch (SQLException e) {
-                    plugin.getLogger().log(Level.SEVERE, "Failed to save village for player: " + v.getOwnerUuid(), e);
-                }
-            });
+            // 交给写回队列，防止阻塞主线程
+            saveQueue.markDirty(v);
             return v;
         });
     }
@@ -135,14 +523,7 @@ public class VillageManager {
      */
     public void saveVillage(Village village) {
         if (village != null) {
-            BukkitScheduler scheduler = Bukkit.getScheduler();
-            scheduler.runTaskAsynchronously(plugin, () -> {
-                try {
-                    villageStorage.save(village);
-                } catch (SQLException e) {
-                    plugin.getLogger().log(Level.SEVERE, "Failed to save village", e);
-                }
-            });
+            saveQueue.markDirty(village);
         }
     }
     
@@ -169,13 +550,28 @@ public class VillageManager {
     }
     
     /**
-     * 招募村民
+     * 招募村民，村庄不在内存中时先异步读取
      * @param player 玩家
      * @param villager 村民
-     * @return 是否成功招募
+     * @return 在主线程上完成，是否成功招募
      */
-    public boolean recruitVillager(Player player, Villager villager) {
+    public CompletableFuture<Boolean> recruitVillager(Player player, Villager villager) {
         // 1️⃣ 基础校验
+        if (!canRecruit(player, villager)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        // 2️⃣ 获取或创建村庄（读取完成后回到主线程）
+        return getOrCreateVillageAsync(player.getUniqueId()).handle((village, throwable) -> {
+            if (throwable != null) {
+                player.sendMessage(plugin.getMessageManager().getMessage("village.load-failed"));
+                return false;
+            }
+            // 读取期间玩家可能已离线，村民可能已被其他玩家招募
+            return player.isOnline() && canRecruit(player, villager) && recruitInto(player, villager, village);
+        });
+    }
+
+    private boolean canRecruit(Player player, Villager villager) {
         if (villager == null || !villager.isValid()) {
             player.sendMessage(plugin.getMessageManager().getMessage("villager.not-found"));
             return false;
@@ -184,8 +580,10 @@ public class VillageManager {
             player.sendMessage(plugin.getMessageManager().getMessage("villager.already-recruited"));
             return false;
         }
-        // 2️⃣ 获取或创建村庄（线程安全）
-        Village village = getOrCreateVillage(player);
+        return true;
+    }
+
+    private boolean recruitInto(Player player, Villager villager, Village village) {
         // 3️⃣ 最大数量检查（延迟获取配置值）
         if (village.getVillagerIds().size() >= getMaxVillagers()) {
             player.sendMessage(plugin.getMessageManager().getMessage("villager.max-villagers-reached"));
@@ -202,12 +600,11 @@ public class VillageManager {
             player.sendMessage(plugin.getMessageManager().getMessage("recruit.failed"));
             return false;
         }
-        // 6️⃣ 更新数据（同步块确保集合安全）
+        // 6️⃣ 更新数据（只在主线程修改，写回队列保存的是快照）
         UUID vid = villager.getUniqueId();
-        synchronized (village) {
-            village.getVillagerIds().add(vid);
-            saveVillage(village); // 异步持久化
-        }
+        village.addVillager(vid);
+        saveVillage(village); // 写回队列异步持久化
+        villagerOwners.put(vid, player.getUniqueId());
         // 7️⃣ 实体属性设置
         VillagerUtils.setOwner(villager, player.getUniqueId());
         villager.setCustomName(plugin.getMessageManager().getMessage(
@@ -342,7 +739,7 @@ public class VillageManager {
      * @return 升级等级
      */
     public int getUpgradeLevel(UUID playerUuid, UpgradeType type) {
-        Village village = villageCache.get(playerUuid);
+        Village village = getVillage(playerUuid);
         if (village != null) {
             return village.getUpgradeLevel(type);
         }
@@ -493,21 +890,38 @@ public class VillageManager {
     }
     
     /**
-     * 移除村民
+     * 移除村民，所有者和村庄不在内存中时先异步读取
      * @param player 玩家
      * @param villagerId 村民ID
-     * @return 是否成功移除
+     * @return 在主线程上完成，是否成功移除
      */
-    public boolean removeVillager(Player player, UUID villagerId) {
-        Village village = getVillage(player.getUniqueId());
+    public CompletableFuture<Boolean> removeVillager(Player player, UUID villagerId) {
+        // 通过反向索引确定所有者，索引未命中时查询数据库，管理员可以移除其他玩家的村民
+        return plugin.getStorageService().onMainThread(findVillagerOwner(villagerId)).thenCompose(ownerUuid -> {
+            if (ownerUuid == null
+                    || (!ownerUuid.equals(player.getUniqueId()) && !player.hasPermission("villagepro.admin"))) {
+                player.sendMessage(plugin.getMessageManager().getMessage("villager.not-found"));
+                return CompletableFuture.completedFuture(false);
+            }
+            return plugin.getStorageService().onMainThread(getVillageAsync(ownerUuid))
+                    .thenApply(village -> removeFrom(player, ownerUuid, village, villagerId));
+        }).exceptionally(throwable -> {
+            plugin.getLogger().log(Level.WARNING, "移除村民时读取村庄数据失败: " + villagerId, throwable);
+            player.sendMessage(plugin.getMessageManager().getMessage("village.load-failed"));
+            return false;
+        });
+    }
+
+    private boolean removeFrom(Player player, UUID ownerUuid, @Nullable Village village, UUID villagerId) {
         if (village == null) {
             player.sendMessage(plugin.getMessageManager().getMessage("village.not-found"));
             return false;
         }
-        if (!village.getVillagerIds().remove(villagerId)) {
+        if (!village.removeVillager(villagerId)) {
             player.sendMessage(plugin.getMessageManager().getMessage("villager.not-found"));
             return false;
         }
+        villagerOwners.remove(villagerId, ownerUuid);
         // 保存
         saveVillage(village);
         // 移除内存缓存
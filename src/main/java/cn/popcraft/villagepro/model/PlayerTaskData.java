@@ -42,6 +42,10 @@ public class PlayerTaskData {
         return new ArrayList<>(activeTasks.values());
     }
 
+    public void addTask(Task task) {
+        activeTasks.put(task.getTaskId(), task);
+    }
+
     public Task getTaskById(UUID taskId) {
         return activeTasks.get(taskId);
     }
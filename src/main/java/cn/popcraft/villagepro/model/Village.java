@@ -4,70 +4,123 @@ package cn.popcraft.villagepro.model;
 import cn.popcraft.villagepro.model.UpgradeType;
 import java.util.*;
 
+/**
+ * 村庄数据
+ * 只能在主线程上修改，所有修改都会增加版本号；异步保存时使用 {@link #snapshot()} 得到的不可变快照
+ */
 public class Village {
     private UUID ownerUuid;   // 玩家 UUID
 
     private List<UUID> villagerIds = new ArrayList<>(); // 已招募村民 UUID
 
     private Map<UpgradeType, Integer> upgradeLevels = new HashMap<>();
-    
+
     private Map<String, Integer> cropStorage = new HashMap<>(); // 作物存储
 
     private boolean followEnabled = false; // 是否启用跟随
 
+    // 版本号和各集合的修改计数，不参与序列化
+    private transient long version;
+    private transient long villagersVersion;
+    private transient long upgradesVersion;
+    private transient long cropsVersion;
+    private transient VillageSnapshot snapshot;
+
     public UUID getOwnerUuid() {
         return ownerUuid;
     }
 
     public void setOwnerUuid(UUID ownerUuid) {
         this.ownerUuid = ownerUuid;
+        version++;
     }
 
+    /**
+     * @return 不可修改的村民UUID列表，修改请使用 {@link #addVillager(UUID)} 和 {@link #removeVillager(UUID)}
+     */
     public List<UUID> getVillagerIds() {
-        return villagerIds;
+        return villagerIds != null ? Collections.unmodifiableList(villagerIds) : null;
     }
 
     public void setVillagerIds(List<UUID> villagerIds) {
         this.villagerIds = villagerIds;
+        villagersChanged();
+    }
+
+    /**
+     * 添加村民
+     *
+     * @param villagerId 村民UUID
+     */
+    public void addVillager(UUID villagerId) {
+        if (villagerIds == null) {
+            villagerIds = new ArrayList<>();
+        }
+        villagerIds.add(villagerId);
+        villagersChanged();
     }
 
+    /**
+     * 移除村民
+     *
+     * @param villagerId 村民UUID
+     * @return 村民是否属于该村庄
+     */
+    public boolean removeVillager(UUID villagerId) {
+        if (villagerIds == null || !villagerIds.remove(villagerId)) {
+            return false;
+        }
+        villagersChanged();
+        return true;
+    }
+
+    /**
+     * @return 不可修改的升级等级，修改请使用 {@link #setUpgradeLevel(UpgradeType, int)}
+     */
     public Map<UpgradeType, Integer> getUpgradeLevels() {
-        return upgradeLevels;
+        return upgradeLevels != null ? Collections.unmodifiableMap(upgradeLevels) : null;
     }
 
     public void setUpgradeLevels(Map<UpgradeType, Integer> upgradeLevels) {
         this.upgradeLevels = upgradeLevels;
+        upgradesChanged();
     }
-    
+
+    /**
+     * @return 不可修改的作物存储
+     */
     public Map<String, Integer> getCropStorage() {
-        return cropStorage;
+        return cropStorage != null ? Collections.unmodifiableMap(cropStorage) : null;
     }
-    
+
     public void setCropStorage(Map<String, Integer> cropStorage) {
         this.cropStorage = cropStorage != null ? cropStorage : new HashMap<>();
+        cropsChanged();
     }
-    
+
     public int getCropAmount(String cropType) {
         return cropStorage.getOrDefault(cropType.toLowerCase(), 0);
     }
-    
+
     public void addCrop(String cropType, int amount) {
         if (amount <= 0) return;
         String key = cropType.toLowerCase();
         cropStorage.put(key, cropStorage.getOrDefault(key, 0) + amount);
+        cropsChanged();
     }
-    
+
     public boolean removeCrop(String cropType, int amount) {
         if (amount <= 0) return false;
         String key = cropType.toLowerCase();
         int current = cropStorage.getOrDefault(key, 0);
         if (current < amount) return false;
-        
+
         if (current == amount) {
             cropStorage.remove(key);
         } else {
             cropStorage.put(key, current - amount);
         }
+        cropsChanged();
         return true;
     }
 
@@ -77,6 +130,7 @@ public class Village {
 
     public void setFollowEnabled(boolean followEnabled) {
         this.followEnabled = followEnabled;
+        version++;
     }
 
     public int getUpgradeLevel(UpgradeType type) {
@@ -84,6 +138,67 @@ public class Village {
     }
 
     public void setUpgradeLevel(UpgradeType type, int level) {
+        if (upgradeLevels == null) {
+            upgradeLevels = new EnumMap<>(UpgradeType.class);
+        }
         upgradeLevels.put(type, level);
+        upgradesChanged();
+    }
+
+    /**
+     * @return 当前版本号，每次修改都会增加
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * 获取当前版本的不可变快照，必须在修改村庄的线程（主线程）上调用
+     * 版本未变化时返回同一个快照，只复制上次快照之后修改过的集合
+     *
+     * @return 村庄快照
+     */
+    public VillageSnapshot snapshot() {
+        VillageSnapshot previous = snapshot;
+        if (previous != null && previous.getVersion() == version) {
+            return previous;
+        }
+
+        List<UUID> villagers = previous != null && previous.villagersVersion == villagersVersion
+                ? previous.getVillagerIds()
+                : villagerIds != null ? Collections.unmodifiableList(new ArrayList<>(villagerIds)) : Collections.emptyList();
+        Map<UpgradeType, Integer> upgrades;
+        if (previous != null && previous.upgradesVersion == upgradesVersion) {
+            upgrades = previous.getUpgradeLevels();
+        } else {
+            Map<UpgradeType, Integer> copy = new EnumMap<>(UpgradeType.class);
+            if (upgradeLevels != null) {
+                copy.putAll(upgradeLevels);
+            }
+            upgrades = Collections.unmodifiableMap(copy);
+        }
+        Map<String, Integer> crops = previous != null && previous.cropsVersion == cropsVersion
+                ? previous.getCropStorage()
+                : cropStorage != null ? Collections.unmodifiableMap(new HashMap<>(cropStorage)) : Collections.emptyMap();
+
+        VillageSnapshot created = new VillageSnapshot(ownerUuid, version, followEnabled,
+                villagers, villagersVersion, upgrades, upgradesVersion, crops, cropsVersion);
+        snapshot = created;
+        return created;
+    }
+
+    private void villagersChanged() {
+        villagersVersion++;
+        version++;
+    }
+
+    private void upgradesChanged() {
+        upgradesVersion++;
+        version++;
+    }
+
+    private void cropsChanged() {
+        cropsVersion++;
+        version++;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,95 @@
+package cn.popcraft.villagepro.model;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * 村庄在某个版本上的不可变快照
+ * 在主线程上通过 {@link Village#snapshot()} 获取，之后可以在任意线程上读取和序列化。
+ * 版本之间未修改的集合直接共享，不会重复复制
+ */
+public final class VillageSnapshot {
+    private final UUID ownerUuid;
+    private final long version;
+    private final boolean followEnabled;
+    private final List<UUID> villagerIds;
+    private final Map<UpgradeType, Integer> upgradeLevels;
+    private final Map<String, Integer> cropStorage;
+
+    // 生成快照时各集合的修改计数，用于判断下一次快照能否共享
+    final long villagersVersion;
+    final long upgradesVersion;
+    final long cropsVersion;
+
+    VillageSnapshot(UUID ownerUuid, long version, boolean followEnabled,
+                    List<UUID> villagerIds, long villagersVersion,
+                    Map<UpgradeType, Integer> upgradeLevels, long upgradesVersion,
+                    Map<String, Integer> cropStorage, long cropsVersion) {
+        this.ownerUuid = ownerUuid;
+        this.version = version;
+        this.followEnabled = followEnabled;
+        this.villagerIds = villagerIds;
+        this.villagersVersion = villagersVersion;
+        this.upgradeLevels = upgradeLevels;
+        this.upgradesVersion = upgradesVersion;
+        this.cropStorage = cropStorage;
+        this.cropsVersion = cropsVersion;
+    }
+
+    public UUID getOwnerUuid() {
+        return ownerUuid;
+    }
+
+    /**
+     * @return 生成快照时村庄的版本号
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isFollowEnabled() {
+        return followEnabled;
+    }
+
+    /**
+     * @return 不可修改的村民UUID列表
+     */
+    public List<UUID> getVillagerIds() {
+        return villagerIds;
+    }
+
+    /**
+     * @return 不可修改的升级等级
+     */
+    public Map<UpgradeType, Integer> getUpgradeLevels() {
+        return upgradeLevels;
+    }
+
+    /**
+     * @return 不可修改的作物存储
+     */
+    public Map<String, Integer> getCropStorage() {
+        return cropStorage;
+    }
+
+    /**
+     * 还原为可修改的村庄对象
+     *
+     * @return 新的村庄对象
+     */
+    public Village toVillage() {
+        Village village = new Village();
+        village.setOwnerUuid(ownerUuid);
+        village.setFollowEnabled(followEnabled);
+        village.setVillagerIds(new ArrayList<>(villagerIds));
+        Map<UpgradeType, Integer> levels = new EnumMap<>(UpgradeType.class);
+        levels.putAll(upgradeLevels);
+        village.setUpgradeLevels(levels);
+        village.setCropStorage(new HashMap<>(cropStorage));
+        return village;
+    }
+}
@@ -0,0 +1,177 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * 数据库在线备份
+ * 在独立线程上用 {@link StorageService#copyTo(File)} 生成一致的副本，先写入临时文件再改名，
+ * 备份目录中只会出现完整的快照，按时间戳命名并只保留最近的若干个。
+ * 分片存储时每个分片单独复制，文件名带分片编号，同一次备份的文件使用相同的时间戳
+ */
+public class BackupService {
+    private static final String PREFIX = "data-";
+    private static final String SUFFIX = ".db";
+
+    private final VillagePro plugin;
+    private final StorageShards shards;
+    private final StorageService storage;
+    private final File directory;
+    private final long intervalTicks;
+    private final int keep;
+
+    private final ExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private BukkitTask backupTask;
+
+    public BackupService(VillagePro plugin, StorageShards shards) {
+        this.plugin = plugin;
+        this.shards = shards;
+        this.storage = shards.primary();
+
+        FileConfiguration config = plugin.getConfig();
+        this.directory = new File(plugin.getDataFolder(), config.getString("storage.backup.directory", "backups"));
+        this.intervalTicks = Math.max(0L, config.getLong("storage.backup.interval", 360L)) * 60L * 20L;
+        this.keep = Math.max(1, config.getInt("storage.backup.keep", 7));
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "VillagePro-Backup");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * 启动定时备份，间隔为0或不使用 SQLite 时不启动
+     */
+    public void start() {
+        if (backupTask != null || intervalTicks == 0L || storage.getDialect() != SqlDialect.SQLITE) {
+            return;
+        }
+        if (!"WAL".equals(storage.getJournalMode())) {
+            plugin.getLogger().warning("SQLite日志模式为 " + storage.getJournalMode() + "，备份期间数据库写入会等待备份完成");
+        }
+        backupTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> backupNow().exceptionally(throwable -> {
+            plugin.getLogger().log(Level.SEVERE, "定时备份数据库失败", throwable);
+            return null;
+        }), intervalTicks, intervalTicks);
+    }
+
+    /**
+     * 立即在备份线程上备份一次
+     *
+     * @return 备份文件（分片存储时为第一个分片的文件）；已有备份在进行时结果为null
+     */
+    public CompletableFuture<File> backupNow() {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return backup();
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                running.set(false);
+            }
+        }, executor);
+    }
+
+    private File backup() throws IOException, SQLException {
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建备份目录: " + directory.getAbsolutePath());
+        }
+        String timestamp = new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date());
+        long start = System.nanoTime();
+        File first = null;
+        long totalBytes = 0;
+        for (StorageService shard : shards.all()) {
+            String name = PREFIX + timestamp + (shard.getShard() == 0 ? "" : "-s" + shard.getShard()) + SUFFIX;
+            File target = new File(directory, name);
+            File temp = new File(directory, name + ".tmp");
+            Files.deleteIfExists(temp.toPath());
+            try {
+                shard.copyTo(temp);
+                Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                Files.deleteIfExists(temp.toPath());
+            }
+            totalBytes += target.length();
+            if (first == null) {
+                first = target;
+            }
+        }
+        int removed = rotate();
+        plugin.getLogger().info(String.format("数据库已备份到 %s%s (%.1f KB)，耗时 %.1f ms，删除 %d 个旧备份文件",
+                first.getName(), shards.size() > 1 ? " 等 " + shards.size() + " 个分片文件" : "",
+                totalBytes / 1024.0, (System.nanoTime() - start) / 1_000_000.0, removed));
+        return first;
+    }
+
+    /**
+     * 删除超出保留数量的旧备份
+     *
+     * @return 删除的备份数量
+     */
+    private int rotate() {
+        File[] backups = directory.listFiles((dir, fileName) -> fileName.startsWith(PREFIX) && fileName.endsWith(SUFFIX));
+        // 每次备份产生的文件数等于分片数
+        int keepFiles = keep * shards.size();
+        if (backups == null || backups.length <= keepFiles) {
+            return 0;
+        }
+        // 文件名中的时间戳按字典序即为时间顺序
+        Arrays.sort(backups, Comparator.comparing(File::getName));
+        int removed = 0;
+        for (int i = 0; i < backups.length - keepFiles; i++) {
+            if (backups[i].delete()) {
+                removed++;
+            } else {
+                plugin.getLogger().warning("无法删除旧备份: " + backups[i].getName());
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * @return 是否有备份正在进行
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return 备份目录
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * 停止定时备份，正在进行的备份使用独立连接，不影响之后关闭数据库
+     */
+    public void close() {
+        if (backupTask != null) {
+            backupTask.cancel();
+            backupTask = null;
+        }
+        executor.shutdown();
+    }
+}
@@ -0,0 +1,496 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.Task;
+import cn.popcraft.villagepro.model.UpgradeType;
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * 村庄和任务数据的二进制编码
+ * <p>
+ * 格式：魔数(1字节) + 版本(1字节) + 类型(1字节) + 数据。
+ * UUID 写为两个 long，枚举写为序号并在数据前附带名称表，
+ * 解码时按名称映射回当前枚举，枚举顺序调整后旧数据仍能正确读取。
+ * 集合和字符串都以变长整数作为长度前缀。
+ * <p>
+ * 较大的数据可以用 {@link #compress(byte[], int)} 压缩：压缩标记(1字节) + 原始长度(4字节) + zlib 数据，
+ * 解码方法根据首字节自动识别，压缩和未压缩的数据可以混合存放。
+ * <p>
+ * {@link Task#getItemRewards()} 不参与编码，插件从未设置该字段。
+ */
+public final class BinaryCodec {
+    // JSON 文本总是以 '{' 或空白开头，不会与魔数冲突
+    private static final byte MAGIC = (byte) 0xB7;
+    private static final byte MAGIC_COMPRESSED = (byte) 0xB8;
+    private static final int COMPRESSED_HEADER_SIZE = 5;
+    // 防止损坏的长度字段导致申请过大的缓冲区
+    private static final int MAX_INFLATED_SIZE = 64 * 1024 * 1024;
+    private static final byte VERSION = 1;
+
+    // 每个线程复用压缩器和缓冲区，压缩和解码都在调用线程上同步完成，不会被同一线程重入
+    private static final ThreadLocal<Deflater> DEFLATER = ThreadLocal.withInitial(Deflater::new);
+    private static final ThreadLocal<Inflater> INFLATER = ThreadLocal.withInitial(Inflater::new);
+    private static final ThreadLocal<byte[][]> BUFFER = ThreadLocal.withInitial(() -> new byte[][]{new byte[4096]});
+
+    private static final byte KIND_VILLAGE = 1;
+    private static final byte KIND_PLAYER_TASKS = 2;
+
+    private static final byte CURRENT_NONE = 0;
+    private static final byte CURRENT_ACTIVE = 1;
+    private static final byte CURRENT_INLINE = 2;
+
+    private BinaryCodec() {
+    }
+
+    /**
+     * 判断数据是否为本编码格式
+     *
+     * @param data 原始数据
+     * @return 是否为二进制格式
+     */
+    public static boolean isBinary(byte[] data) {
+        return data != null && data.length >= 3 && (data[0] == MAGIC || data[0] == MAGIC_COMPRESSED);
+    }
+
+    /**
+     * @param data 原始数据
+     * @return 是否为 {@link #compress(byte[], int)} 压缩后的数据
+     */
+    public static boolean isCompressed(byte[] data) {
+        return data != null && data.length > COMPRESSED_HEADER_SIZE && data[0] == MAGIC_COMPRESSED;
+    }
+
+    /**
+     * 压缩编码后的数据，解码方法会自动识别压缩标记
+     *
+     * @param data 编码后的数据
+     * @param level 压缩级别 1-9
+     * @return 压缩后的数据；压缩后没有变小时返回原数组
+     */
+    public static byte[] compress(byte[] data, int level) {
+        Deflater deflater = DEFLATER.get();
+        deflater.reset();
+        deflater.setLevel(level);
+        deflater.setInput(data);
+        deflater.finish();
+
+        // 输出不超过原始长度，写满仍未结束说明压缩不划算
+        byte[] buffer = buffer(data.length);
+        int length = 0;
+        while (!deflater.finished() && length < data.length) {
+            length += deflater.deflate(buffer, length, data.length - length);
+        }
+        if (!deflater.finished() || length + COMPRESSED_HEADER_SIZE >= data.length) {
+            return data;
+        }
+
+        byte[] result = new byte[COMPRESSED_HEADER_SIZE + length];
+        result[0] = MAGIC_COMPRESSED;
+        result[1] = (byte) (data.length >>> 24);
+        result[2] = (byte) (data.length >>> 16);
+        result[3] = (byte) (data.length >>> 8);
+        result[4] = (byte) data.length;
+        System.arraycopy(buffer, 0, result, COMPRESSED_HEADER_SIZE, length);
+        return result;
+    }
+
+    /**
+     * 打开编码后的数据，压缩的数据解压到当前线程的缓冲区中，不为每行分配新数组
+     * 返回的流在当前线程下一次压缩或解码前有效
+     */
+    private static DataInputStream open(byte[] data) throws IOException {
+        if (!isCompressed(data)) {
+            return new DataInputStream(new ByteArrayInputStream(data));
+        }
+        int length = ((data[1] & 0xFF) << 24) | ((data[2] & 0xFF) << 16) | ((data[3] & 0xFF) << 8) | (data[4] & 0xFF);
+        if (length <= 0 || length > MAX_INFLATED_SIZE) {
+            throw new IOException("压缩数据的长度无效: " + length);
+        }
+
+        byte[] buffer = buffer(length);
+        Inflater inflater = INFLATER.get();
+        inflater.reset();
+        inflater.setInput(data, COMPRESSED_HEADER_SIZE, data.length - COMPRESSED_HEADER_SIZE);
+        int inflated = 0;
+        try {
+            while (inflated < length) {
+                int count = inflater.inflate(buffer, inflated, length - inflated);
+                if (count == 0 && (inflater.finished() || inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("压缩数据已损坏", e);
+        }
+        if (inflated != length) {
+            throw new IOException("压缩数据不完整: 期望 " + length + " 字节, 实际 " + inflated + " 字节");
+        }
+        return new DataInputStream(new ByteArrayInputStream(buffer, 0, length));
+    }
+
+    /**
+     * @return 当前线程至少为指定长度的缓冲区
+     */
+    private static byte[] buffer(int length) {
+        byte[][] holder = BUFFER.get();
+        if (holder[0].length < length) {
+            holder[0] = new byte[Math.max(length, holder[0].length * 2)];
+        }
+        return holder[0];
+    }
+
+    /**
+     * 以最高压缩级别压缩编码后的数据，用于很少读取的归档数据
+     *
+     * @param data 编码后的数据
+     * @return 压缩后的数据
+     */
+    public static byte[] deflate(byte[] data) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(32, data.length / 2));
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        try (DeflaterOutputStream out = new DeflaterOutputStream(bytes, deflater)) {
+            out.write(data);
+        } catch (IOException e) {
+            throw new IllegalStateException("压缩数据失败", e);
+        } finally {
+            deflater.end();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解压 {@link #deflate(byte[])} 的结果
+     *
+     * @param data 压缩后的数据
+     * @return 编码后的数据
+     * @throws IOException 数据损坏
+     */
+    public static byte[] inflate(byte[] data) throws IOException {
+        try (InflaterInputStream in = new InflaterInputStream(new ByteArrayInputStream(data))) {
+            return in.readAllBytes();
+        }
+    }
+
+    /**
+     * 编码村庄快照，可以在任意线程上调用
+     *
+     * @param village 村庄快照
+     * @return 二进制数据
+     */
+    public static byte[] encodeVillage(VillageSnapshot village) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, KIND_VILLAGE);
+            writeUuid(out, village.getOwnerUuid());
+            out.writeBoolean(village.isFollowEnabled());
+
+            List<UUID> villagerIds = village.getVillagerIds();
+            writeVarInt(out, villagerIds.size());
+            for (UUID villagerId : villagerIds) {
+                writeUuid(out, villagerId);
+            }
+
+            Map<UpgradeType, Integer> upgradeLevels = village.getUpgradeLevels();
+            writeEnumTable(out, UpgradeType.values());
+            writeVarInt(out, upgradeLevels.size());
+            for (Map.Entry<UpgradeType, Integer> entry : upgradeLevels.entrySet()) {
+                writeVarInt(out, entry.getKey().ordinal());
+                out.writeInt(entry.getValue());
+            }
+
+            Map<String, Integer> crops = village.getCropStorage();
+            writeVarInt(out, crops.size());
+            for (Map.Entry<String, Integer> entry : crops.entrySet()) {
+                writeString(out, entry.getKey());
+                out.writeInt(entry.getValue());
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("编码村庄数据失败", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码村庄
+     *
+     * @param data 二进制数据
+     * @return 村庄对象
+     * @throws IOException 数据损坏或版本不支持
+     */
+    public static Village decodeVillage(byte[] data) throws IOException {
+        DataInputStream in = open(data);
+        readHeader(in, KIND_VILLAGE);
+
+        Village village = new Village();
+        village.setOwnerUuid(readUuid(in));
+        village.setFollowEnabled(in.readBoolean());
+
+        int villagerCount = readLength(in);
+        List<UUID> villagerIds = new ArrayList<>(villagerCount);
+        for (int i = 0; i < villagerCount; i++) {
+            villagerIds.add(readUuid(in));
+        }
+        village.setVillagerIds(villagerIds);
+
+        UpgradeType[] upgradeTable = readEnumTable(in, UpgradeType.class);
+        int upgradeCount = readLength(in);
+        Map<UpgradeType, Integer> upgradeLevels = new EnumMap<>(UpgradeType.class);
+        for (int i = 0; i < upgradeCount; i++) {
+            UpgradeType type = lookup(upgradeTable, readVarInt(in));
+            int level = in.readInt();
+            if (type != null) {
+                upgradeLevels.put(type, level);
+            }
+        }
+        village.setUpgradeLevels(upgradeLevels);
+
+        int cropCount = readLength(in);
+        Map<String, Integer> crops = new HashMap<>();
+        for (int i = 0; i < cropCount; i++) {
+            crops.put(readString(in), in.readInt());
+        }
+        village.setCropStorage(crops);
+        return village;
+    }
+
+    /**
+     * 编码玩家任务数据
+     *
+     * @param taskData 玩家任务数据
+     * @return 二进制数据
+     */
+    public static byte[] encodePlayerTaskData(PlayerTaskData taskData) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writeHeader(out, KIND_PLAYER_TASKS);
+            writeUuid(out, taskData.getPlayerUuid());
+            out.writeInt(taskData.getTaskPoints());
+            writeEnumTable(out, Task.TaskType.values());
+
+            List<Task> activeTasks = taskData.getActiveTasks();
+            writeVarInt(out, activeTasks.size());
+            for (Task task : activeTasks) {
+                writeTask(out, task);
+            }
+
+            // 当前任务通常也在进行中的任务里，只写引用
+            Task currentTask = taskData.getCurrentTask();
+            if (currentTask == null) {
+                out.writeByte(CURRENT_NONE);
+            } else if (taskData.getTaskById(currentTask.getTaskId()) == currentTask) {
+                out.writeByte(CURRENT_ACTIVE);
+                writeUuid(out, currentTask.getTaskId());
+            } else {
+                out.writeByte(CURRENT_INLINE);
+                writeTask(out, currentTask);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("编码任务数据失败", e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * 解码玩家任务数据
+     *
+     * @param data 二进制数据
+     * @return 玩家任务数据
+     * @throws IOException 数据损坏或版本不支持
+     */
+    public static PlayerTaskData decodePlayerTaskData(byte[] data) throws IOException {
+        DataInputStream in = open(data);
+        readHeader(in, KIND_PLAYER_TASKS);
+
+        PlayerTaskData taskData = new PlayerTaskData(readUuid(in));
+        taskData.setTaskPoints(in.readInt());
+        Task.TaskType[] typeTable = readEnumTable(in, Task.TaskType.class);
+
+        int taskCount = readLength(in);
+        for (int i = 0; i < taskCount; i++) {
+            taskData.addTask(readTask(in, typeTable));
+        }
+
+        byte current = in.readByte();
+        if (current == CURRENT_ACTIVE) {
+            taskData.setCurrentTask(taskData.getTaskById(readUuid(in)));
+        } else if (current == CURRENT_INLINE) {
+            taskData.setCurrentTask(readTask(in, typeTable));
+        } else if (current != CURRENT_NONE) {
+            throw new IOException("未知的当前任务标记: " + current);
+        }
+        return taskData;
+    }
+
+    private static void writeTask(DataOutputStream out, Task task) throws IOException {
+        writeUuid(out, task.getTaskId());
+        writeUuid(out, task.getPlayerUuid());
+        writeVarInt(out, task.getType() != null ? task.getType().ordinal() + 1 : 0);
+        writeString(out, task.getTargetItem());
+        out.writeInt(task.getTargetAmount());
+        out.writeInt(task.getProgress());
+        out.writeInt(task.getRewardExp());
+        out.writeDouble(task.getRewardMoney());
+        writeString(out, task.getDescription());
+    }
+
+    private static Task readTask(DataInputStream in, Task.TaskType[] typeTable) throws IOException {
+        Task task = new Task();
+        task.setTaskId(readUuid(in));
+        task.setPlayerUuid(readUuid(in));
+        int type = readVarInt(in);
+        task.setType(type == 0 ? null : lookup(typeTable, type - 1));
+        task.setTargetItem(readString(in));
+        task.setTargetAmount(in.readInt());
+        task.setProgress(in.readInt());
+        task.setRewardExp(in.readInt());
+        task.setRewardMoney(in.readDouble());
+        task.setDescription(readString(in));
+        return task;
+    }
+
+    private static void writeHeader(DataOutputStream out, byte kind) throws IOException {
+        out.writeByte(MAGIC);
+        out.writeByte(VERSION);
+        out.writeByte(kind);
+    }
+
+    private static void readHeader(DataInputStream in, byte kind) throws IOException {
+        if (in.readByte() != MAGIC) {
+            throw new IOException("不是二进制编码的数据");
+        }
+        byte version = in.readByte();
+        if (version != VERSION) {
+            throw new IOException("不支持的编码版本: " + version);
+        }
+        byte actualKind = in.readByte();
+        if (actualKind != kind) {
+            throw new IOException("数据类型不匹配: 期望 " + kind + ", 实际 " + actualKind);
+        }
+    }
+
+    private static void writeEnumTable(DataOutputStream out, Enum<?>[] values) throws IOException {
+        writeVarInt(out, values.length);
+        for (Enum<?> value : values) {
+            writeString(out, value.name());
+        }
+    }
+
+    /**
+     * 读取枚举名称表，下标为写入时的序号，当前版本不存在的名称映射为null
+     */
+    private static <E extends Enum<E>> E[] readEnumTable(DataInputStream in, Class<E> type) throws IOException {
+        int count = readLength(in);
+        @SuppressWarnings("unchecked")
+        E[] table = (E[]) java.lang.reflect.Array.newInstance(type, count);
+        for (int i = 0; i < count; i++) {
+            String name = readString(in);
+            try {
+                table[i] = Enum.valueOf(type, name);
+            } catch (IllegalArgumentException | NullPointerException e) {
+                table[i] = null;
+            }
+        }
+        return table;
+    }
+
+    private static <E> E lookup(E[] table, int ordinal) throws IOException {
+        if (ordinal < 0 || ordinal >= table.length) {
+            throw new IOException("枚举序号越界: " + ordinal);
+        }
+        return table[ordinal];
+    }
+
+    private static void writeUuid(DataOutputStream out, UUID uuid) throws IOException {
+        out.writeBoolean(uuid != null);
+        if (uuid != null) {
+            out.writeLong(uuid.getMostSignificantBits());
+            out.writeLong(uuid.getLeastSignificantBits());
+        }
+    }
+
+    private static UUID readUuid(DataInputStream in) throws IOException {
+        if (!in.readBoolean()) {
+            return null;
+        }
+        return new UUID(in.readLong(), in.readLong());
+    }
+
+    /**
+     * 字符串写为 UTF-8，长度加一作为前缀，0 表示 null
+     */
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > in.available()) {
+            throw new EOFException("字符串长度超出数据范围: " + (length - 1));
+        }
+        byte[] bytes = new byte[length - 1];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(DataInputStream in) throws IOException {
+        int length = readVarInt(in);
+        // 每个元素至少占一个字节，长度不可能超过剩余数据
+        if (length > in.available()) {
+            throw new EOFException("集合长度超出数据范围: " + length);
+        }
+        return length;
+    }
+
+    private static void writeVarInt(DataOutputStream out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    private static int readVarInt(DataInputStream in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = in.readByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                if (value < 0) {
+                    throw new IOException("变长整数超出范围");
+                }
+                return value;
+            }
+        }
+        throw new IOException("变长整数格式错误");
+    }
+}
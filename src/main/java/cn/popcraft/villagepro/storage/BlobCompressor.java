@@ -0,0 +1,38 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import org.bukkit.configuration.file.FileConfiguration;
+
+/**
+ * 写入前压缩较大的编码数据
+ * 小于 storage.compression.min-size 的数据保持原样，压缩后没有变小的数据也保持原样。
+ * 读取时由 {@link BinaryCodec} 根据数据头自动识别，所以关闭压缩后已压缩的数据仍然可以读取
+ */
+public class BlobCompressor {
+    private final StorageMetrics metrics;
+    private final boolean enabled;
+    private final int minSize;
+    private final int level;
+
+    public BlobCompressor(VillagePro plugin, StorageMetrics metrics) {
+        this.metrics = metrics;
+        FileConfiguration config = plugin.getConfig();
+        this.enabled = config.getBoolean("storage.compression.enabled", true);
+        this.minSize = Math.max(0, config.getInt("storage.compression.min-size", 512));
+        this.level = Math.min(9, Math.max(1, config.getInt("storage.compression.level", 1)));
+    }
+
+    /**
+     * @param data 编码后的数据
+     * @return 需要写入的数据，可能是原数组
+     */
+    public byte[] compress(byte[] data) {
+        if (!enabled || data.length < minSize) {
+            return data;
+        }
+        long start = System.nanoTime();
+        byte[] result = BinaryCodec.compress(data, level);
+        metrics.recordCompression(data.length, result.length, System.nanoTime() - start);
+        return result;
+    }
+}
@@ -0,0 +1,139 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+/**
+ * 作物数量计数器
+ * 作物数量以 (所有者, 作物) 为行保存，由 {@link CropRepository} 负责写入。
+ * 内存中只累计增量，定时批量写入，
+ * 收获作物不会重写村庄的其他数据，崩溃时最多丢失一个刷新周期的增量。
+ */
+public class CropCounters {
+
+    private final VillagePro plugin;
+    private final CropRepository repository;
+    private final long flushIntervalTicks;
+
+    // 由 this 加锁保护，刷新在锁内提交到写线程，保证增量按顺序写入
+    private Map<UUID, Map<String, Integer>> deltas = new HashMap<>();
+
+    private final AtomicLong recordedCount = new AtomicLong();
+    private final AtomicLong writtenRows = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private BukkitTask flushTask;
+
+    public CropCounters(VillagePro plugin, CropRepository repository) {
+        this.plugin = plugin;
+        this.repository = repository;
+        this.flushIntervalTicks = Math.max(1L, plugin.getConfig().getLong("storage.crops.flush-interval", 20L));
+    }
+
+    /**
+     * 启动定时刷新任务
+     */
+    public void start() {
+        if (flushTask == null) {
+            flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::flush, flushIntervalTicks, flushIntervalTicks);
+        }
+    }
+
+    /**
+     * 记录作物数量的变化
+     *
+     * @param owner 所有者UUID
+     * @param crop 作物类型（小写）
+     * @param delta 增量，取出作物时为负数
+     */
+    public synchronized void add(UUID owner, String crop, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        deltas.computeIfAbsent(owner, id -> new HashMap<>()).merge(crop, delta, Integer::sum);
+        recordedCount.incrementAndGet();
+    }
+
+    /**
+     * 把累计的增量异步写入数据库
+     * 写入失败时这批增量合并回内存，在下次刷新时重试；写入语句是累加的，合并后不会重复计入
+     */
+    public synchronized void flush() {
+        if (deltas.isEmpty()) {
+            return;
+        }
+        Map<UUID, Map<String, Integer>> batch = deltas;
+        deltas = new HashMap<>();
+        repository.addDeltasAsync(batch).thenAccept(writtenRows::addAndGet).exceptionally(throwable -> {
+            failedCount.incrementAndGet();
+            restore(batch);
+            plugin.getLogger().log(Level.SEVERE, "写入作物数量失败，将在下次刷新时重试", throwable);
+            return null;
+        });
+    }
+
+    /**
+     * 把写入失败的增量合并回尚未写入的增量
+     */
+    private synchronized void restore(Map<UUID, Map<String, Integer>> batch) {
+        for (Map.Entry<UUID, Map<String, Integer>> entry : batch.entrySet()) {
+            Map<String, Integer> pending = deltas.computeIfAbsent(entry.getKey(), id -> new HashMap<>());
+            entry.getValue().forEach((crop, delta) -> pending.merge(crop, delta, Integer::sum));
+        }
+    }
+
+    /**
+     * 在当前线程上读取所有作物行
+     *
+     * @param consumer 行回调
+     * @return 读取的行数
+     * @throws SQLException 读取失败
+     */
+    public int streamAll(CropRepository.RowConsumer consumer) throws SQLException {
+        return repository.streamAll(consumer);
+    }
+
+    /**
+     * 停止定时任务，取出尚未写入的增量，由关闭流程统一写入
+     *
+     * @return 所有者 -> (作物, 增量)
+     */
+    public synchronized Map<UUID, Map<String, Integer>> drain() {
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+        Map<UUID, Map<String, Integer>> batch = deltas;
+        deltas = new HashMap<>();
+        return batch;
+    }
+
+    /**
+     * @return 累计记录的作物变化次数（合并前）
+     */
+    public long getRecordedCount() {
+        return recordedCount.get();
+    }
+
+    /**
+     * @return 累计写入数据库的行数（合并后）
+     */
+    public long getWrittenRows() {
+        return writtenRows.get();
+    }
+
+    /**
+     * @return 累计写入失败的刷新次数
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+}
@@ -0,0 +1,49 @@
+package cn.popcraft.villagepro.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 作物数量的持久化接口
+ * 数量只以增量方式写入，异步写入在调用时立即提交到写线程，按调用顺序执行
+ */
+public interface CropRepository {
+
+    /**
+     * 读取到的作物行
+     */
+    @FunctionalInterface
+    interface RowConsumer {
+        void accept(UUID owner, String crop, int amount);
+    }
+
+    /**
+     * 异步写入增量，数量减到0的行直接删除
+     *
+     * @param deltas 所有者 -> (作物, 增量)
+     * @return 写入的行数
+     */
+    CompletableFuture<Integer> addDeltasAsync(Map<UUID, Map<String, Integer>> deltas);
+
+    /**
+     * 在调用方的事务中写入增量，不提交，用于关闭插件时统一写入
+     *
+     * @param connection 写线程上已开启事务的连接
+     * @param deltas 所有者 -> (作物, 增量)
+     * @return 写入的行数
+     * @throws SQLException 写入失败
+     */
+    int addDeltas(Connection connection, Map<UUID, Map<String, Integer>> deltas) throws SQLException;
+
+    /**
+     * 在当前线程上读取所有作物行，不能在主线程上调用
+     *
+     * @param consumer 行回调
+     * @return 读取的行数
+     * @throws SQLException 读取失败
+     */
+    int streamAll(RowConsumer consumer) throws SQLException;
+}
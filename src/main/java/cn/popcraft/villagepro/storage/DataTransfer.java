@@ -0,0 +1,458 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.manager.CropManager;
+import cn.popcraft.villagepro.manager.TaskManager;
+import cn.popcraft.villagepro.manager.VillageManager;
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.Village;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * 村庄、作物和任务数据的导出与导入
+ * 文件为 gzip 压缩的 JSON Lines，第一行是文件头，之后每行一条以所有者UUID为键的记录。
+ * 导出和导入都在独立线程上逐行处理，不会把整张表读入内存。
+ * 导入按块进行：每块在主线程上交给各管理器，经由正常的写回路径写入，写线程完成后把已导入的行数记录到进度文件，
+ * 中断后再次导入同一文件时从该处继续。记录都是完整状态（作物为绝对数量），重复导入不会改变结果
+ */
+public class DataTransfer {
+    public static final String SUFFIX = ".jsonl.gz";
+    private static final String PROGRESS_SUFFIX = ".progress";
+    private static final int FORMAT = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * 导出或导入的结果
+     *
+     * @param file 数据文件
+     * @param records 本次处理的记录数量
+     * @param resumedFrom 导入时跳过的已完成记录数量，导出时为0
+     */
+    public record Result(File file, long records, long resumedFrom) {
+    }
+
+    private record CropRow(UUID owner, String crop, int amount) {
+    }
+
+    private final VillagePro plugin;
+    private final Gson gson;
+    private final File directory;
+    private final int chunkSize;
+    private final long progressInterval;
+
+    private final ExecutorService executor;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+
+    public DataTransfer(VillagePro plugin) {
+        this.plugin = plugin;
+        this.gson = plugin.getGson();
+
+        FileConfiguration config = plugin.getConfig();
+        this.directory = new File(plugin.getDataFolder(), config.getString("storage.transfer.directory", "exports"));
+        this.chunkSize = Math.max(1, config.getInt("storage.transfer.chunk-size", 500));
+        this.progressInterval = Math.max(1L, config.getLong("storage.transfer.progress-interval", 10000L));
+        this.executor = Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "VillagePro-Transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    /**
+     * @return 是否有导出或导入正在进行
+     */
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    /**
+     * @return 数据文件目录
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return 目录中的数据文件名
+     */
+    public List<String> listFiles() {
+        String[] names = directory.list((dir, fileName) -> fileName.endsWith(SUFFIX));
+        if (names == null) {
+            return List.of();
+        }
+        Arrays.sort(names);
+        return Arrays.asList(names);
+    }
+
+    /**
+     * 导出所有数据，必须在主线程上调用
+     * 先把内存中尚未写入的数据提交到写线程，导出的是这些数据写入后的数据库
+     *
+     * @param name 文件名，为null时按时间戳命名
+     * @param progress 进度回调，在导出线程上调用
+     * @return 导出结果；已有导出或导入在进行时结果为null
+     */
+    public CompletableFuture<Result> export(String name, Consumer<String> progress) {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        File target;
+        try {
+            target = resolve(name != null ? name : "villagepro-" + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date()));
+        } catch (IllegalArgumentException e) {
+            running.set(false);
+            return CompletableFuture.failedFuture(e);
+        }
+        plugin.getVillageManager().saveAll();
+        plugin.getCropManager().getCounters().flush();
+        plugin.getTaskManager().saveAll();
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return exportTo(target, progress);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                running.set(false);
+            }
+        }, executor);
+    }
+
+    /**
+     * 从数据文件导入，文件有未完成的进度时从中断处继续
+     *
+     * @param name 文件名
+     * @param progress 进度回调，在导入线程上调用
+     * @return 导入结果；已有导出或导入在进行时结果为null
+     */
+    public CompletableFuture<Result> importFile(String name, Consumer<String> progress) {
+        if (!running.compareAndSet(false, true)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        File source;
+        try {
+            source = resolve(name);
+            if (!source.isFile()) {
+                throw new FileNotFoundException("找不到数据文件: " + source.getName());
+            }
+        } catch (IllegalArgumentException | IOException e) {
+            running.set(false);
+            return CompletableFuture.failedFuture(e);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return importFrom(source, progress);
+            } catch (Exception e) {
+                throw new CompletionException(e);
+            } finally {
+                running.set(false);
+            }
+        }, executor);
+    }
+
+    /**
+     * 把文件名限定在数据文件目录中
+     */
+    private File resolve(String name) {
+        if (!name.matches("[A-Za-z0-9._-]+") || name.startsWith(".")) {
+            throw new IllegalArgumentException("无效的文件名: " + name);
+        }
+        return new File(directory, name.endsWith(SUFFIX) ? name : name + SUFFIX);
+    }
+
+    private Result exportTo(File target, Consumer<String> progress) throws IOException, SQLException {
+        awaitWrites();
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建导出目录: " + directory.getAbsolutePath());
+        }
+        long start = System.nanoTime();
+        File temp = new File(directory, target.getName() + ".tmp");
+        long[] counts = new long[3];
+        try {
+            try (Writer writer = new BufferedWriter(new OutputStreamWriter(
+                    new GZIPOutputStream(new FileOutputStream(temp), BUFFER_SIZE), StandardCharsets.UTF_8))) {
+                JsonObject header = new JsonObject();
+                header.addProperty("type", "header");
+                header.addProperty("format", FORMAT);
+                header.addProperty("created", System.currentTimeMillis());
+                writeLine(writer, header);
+
+                // 各存储在读连接上逐行读取，分片存储时回调已按顺序调用
+                plugin.getVillageRepository().streamVillages(village -> {
+                    JsonObject record = record("village", village.getOwnerUuid());
+                    record.add("data", gson.toJsonTree(village));
+                    writeRecord(writer, record, counts, 0, progress);
+                });
+                plugin.getCropRepository().streamAll((owner, crop, amount) -> {
+                    JsonObject record = record("crop", owner);
+                    record.addProperty("crop", crop);
+                    record.addProperty("amount", amount);
+                    writeRecord(writer, record, counts, 1, progress);
+                });
+                TaskRepository tasks = plugin.getTaskRepository();
+                tasks.streamPlayerTaskRows(data -> {
+                    PlayerTaskData taskData = tasks.decodePlayerTaskData(data);
+                    if (taskData == null || taskData.getPlayerUuid() == null) {
+                        return;
+                    }
+                    JsonObject record = record("tasks", taskData.getPlayerUuid());
+                    record.add("data", gson.toJsonTree(taskData));
+                    writeRecord(writer, record, counts, 2, progress);
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(temp.toPath());
+        }
+        long total = counts[0] + counts[1] + counts[2];
+        plugin.getLogger().info(String.format("已导出 %d 个村庄、%d 条作物、%d 个玩家任务数据到 %s (%.1f KB)，耗时 %.1f ms",
+                counts[0], counts[1], counts[2], target.getName(), target.length() / 1024.0, (System.nanoTime() - start) / 1_000_000.0));
+        return new Result(target, total, 0L);
+    }
+
+    private JsonObject record(String type, UUID owner) {
+        JsonObject record = new JsonObject();
+        record.addProperty("type", type);
+        record.addProperty("owner", owner.toString());
+        return record;
+    }
+
+    private void writeRecord(Writer writer, JsonObject record, long[] counts, int index, Consumer<String> progress) {
+        try {
+            writeLine(writer, record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        counts[index]++;
+        long total = counts[0] + counts[1] + counts[2];
+        if (total % progressInterval == 0) {
+            progress.accept("已导出 " + total + " 条记录");
+        }
+    }
+
+    private void writeLine(Writer writer, JsonObject record) throws IOException {
+        writer.write(gson.toJson(record));
+        writer.write('\n');
+    }
+
+    private Result importFrom(File source, Consumer<String> progress) throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        File progressFile = new File(directory, source.getName() + PROGRESS_SUFFIX);
+        long resumedFrom = readProgress(source, progressFile);
+        if (resumedFrom > 0) {
+            progress.accept("从第 " + (resumedFrom + 1) + " 条记录继续导入");
+        }
+
+        long line = 0;
+        long imported = 0;
+        List<JsonObject> chunk = new ArrayList<>(chunkSize);
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(new FileInputStream(source), BUFFER_SIZE), StandardCharsets.UTF_8))) {
+            readHeader(reader.readLine());
+            String text;
+            while ((text = reader.readLine()) != null) {
+                if (text.isBlank()) {
+                    continue;
+                }
+                line++;
+                if (line <= resumedFrom) {
+                    continue;
+                }
+                try {
+                    chunk.add(JsonParser.parseString(text).getAsJsonObject());
+                } catch (JsonParseException | IllegalStateException e) {
+                    throw new IOException("第 " + line + " 条记录不是有效的JSON对象", e);
+                }
+                if (chunk.size() >= chunkSize) {
+                    applyChunk(chunk, line);
+                    writeProgress(source, progressFile, line);
+                    long before = imported;
+                    imported += chunk.size();
+                    chunk.clear();
+                    if (imported / progressInterval != before / progressInterval) {
+                        progress.accept("已导入 " + (resumedFrom + imported) + " 条记录");
+                    }
+                }
+            }
+            if (!chunk.isEmpty()) {
+                applyChunk(chunk, line);
+                imported += chunk.size();
+            }
+        }
+        Files.deleteIfExists(progressFile.toPath());
+        plugin.getLogger().info(String.format("已从 %s 导入 %d 条记录%s，耗时 %.1f ms", source.getName(), imported,
+                resumedFrom > 0 ? " (跳过已完成的 " + resumedFrom + " 条)" : "", (System.nanoTime() - start) / 1_000_000.0));
+        return new Result(source, imported, resumedFrom);
+    }
+
+    private void readHeader(String text) throws IOException {
+        JsonObject header;
+        try {
+            header = text != null ? JsonParser.parseString(text).getAsJsonObject() : null;
+        } catch (JsonParseException | IllegalStateException e) {
+            header = null;
+        }
+        if (header == null || !header.has("type") || !"header".equals(header.get("type").getAsString())) {
+            throw new IOException("不是 VillagePro 导出的数据文件");
+        }
+        int format = header.has("format") ? header.get("format").getAsInt() : 0;
+        if (format < 1 || format > FORMAT) {
+            throw new IOException("不支持的数据文件格式版本: " + format);
+        }
+    }
+
+    /**
+     * 解码一块记录，在主线程上交给各管理器，然后等待写线程完成
+     *
+     * @param lastLine 这一块最后一条记录的序号，用于错误信息
+     */
+    private void applyChunk(List<JsonObject> chunk, long lastLine) throws IOException, InterruptedException {
+        List<Village> villages = new ArrayList<>();
+        List<CropRow> crops = new ArrayList<>();
+        List<PlayerTaskData> tasks = new ArrayList<>();
+        long line = lastLine - chunk.size();
+        for (JsonObject record : chunk) {
+            line++;
+            try {
+                String type = record.get("type").getAsString();
+                UUID owner = UUID.fromString(record.get("owner").getAsString());
+                switch (type) {
+                    case "village" -> {
+                        Village village = gson.fromJson(record.get("data"), Village.class);
+                        village.setOwnerUuid(owner);
+                        villages.add(village);
+                    }
+                    case "crop" -> crops.add(new CropRow(owner, record.get("crop").getAsString(), record.get("amount").getAsInt()));
+                    case "tasks" -> {
+                        PlayerTaskData taskData = gson.fromJson(record.get("data"), PlayerTaskData.class);
+                        taskData.setPlayerUuid(owner);
+                        tasks.add(taskData);
+                    }
+                    default -> plugin.getLogger().warning("跳过第 " + line + " 条记录: 未知的记录类型 " + type);
+                }
+            } catch (RuntimeException e) {
+                throw new IOException("第 " + line + " 条记录无法解析", e);
+            }
+        }
+
+        VillageManager villageManager = plugin.getVillageManager();
+        CropManager cropManager = plugin.getCropManager();
+        TaskManager taskManager = plugin.getTaskManager();
+        VillageSaveQueue saveQueue = villageManager.getSaveQueue();
+        CropCounters counters = cropManager.getCounters();
+        TaskProgressJournal journal = taskManager.getJournal();
+        // 作物增量和任务快照的写入失败只记录在各自的计数中，写线程执行完后比较计数判断这一块是否完整写入
+        long villagesFailed = saveQueue.getFailedCount();
+        long cropsFailed = counters.getFailedCount();
+        long tasksFailed = journal.getFailedCount();
+        try {
+            // 村庄、作物和任务只在主线程上修改
+            Bukkit.getScheduler().callSyncMethod(plugin, () -> {
+                for (Village village : villages) {
+                    villageManager.importVillage(village);
+                }
+                for (CropRow row : crops) {
+                    cropManager.setCrop(row.owner(), row.crop(), row.amount());
+                }
+                for (PlayerTaskData taskData : tasks) {
+                    taskManager.loadPlayerTaskData(taskData);
+                    taskManager.savePlayerTaskData(taskData);
+                }
+                counters.flush();
+                return null;
+            }).get();
+        } catch (ExecutionException e) {
+            throw new IOException("应用导入数据失败", e.getCause());
+        }
+        awaitWrites();
+        if (saveQueue.getFailedCount() != villagesFailed) {
+            throw new IOException("写入导入的村庄数据失败，已完成的部分已记录，可以稍后重新导入以继续");
+        }
+        if (counters.getFailedCount() != cropsFailed) {
+            throw new IOException("写入导入的作物数据失败，已完成的部分已记录，可以稍后重新导入以继续");
+        }
+        if (journal.getFailedCount() != tasksFailed) {
+            throw new IOException("写入导入的任务数据失败，已完成的部分已记录，可以稍后重新导入以继续");
+        }
+    }
+
+    /**
+     * 写入村庄写回队列中的数据，然后等待所有分片的写线程执行完之前提交的写入
+     */
+    private void awaitWrites() {
+        plugin.getVillageManager().getSaveQueue().flushAll();
+        StorageShards shards = plugin.getStorageShards();
+        shards.fanOutAsync(shard -> shards.get(shard).<Void>writeAsync(connection -> null)).join();
+    }
+
+    /**
+     * 读取数据文件的导入进度，文件在上次导入后被修改过时从头开始
+     *
+     * @return 已完成的记录数量
+     */
+    private long readProgress(File source, File progressFile) throws IOException {
+        if (!progressFile.isFile()) {
+            return 0L;
+        }
+        String[] parts = Files.readString(progressFile.toPath(), StandardCharsets.UTF_8).trim().split(" ");
+        try {
+            if (parts.length == 3 && Long.parseLong(parts[1]) == source.length() && Long.parseLong(parts[2]) == source.lastModified()) {
+                return Long.parseLong(parts[0]);
+            }
+        } catch (NumberFormatException ignored) {
+            // 按无效进度处理
+        }
+        plugin.getLogger().warning("数据文件 " + source.getName() + " 在上次导入后已改变，忽略之前的导入进度");
+        return 0L;
+    }
+
+    private void writeProgress(File source, File progressFile, long line) throws IOException {
+        File temp = new File(directory, progressFile.getName() + ".tmp");
+        Files.writeString(temp.toPath(), line + " " + source.length() + " " + source.lastModified(), StandardCharsets.UTF_8);
+        Files.move(temp.toPath(), progressFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * 停止导出或导入，中断的导入可以再次执行同一文件从最近的进度继续
+     */
+    public void close() {
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,292 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * SQLite 数据库维护
+ * 在配置的低峰时段依次维护每个分片：每天一次 PRAGMA optimize 更新查询统计，按间隔天数执行 PRAGMA quick_check，
+ * 然后按固定页数分步增量回收空闲页。每一步都是写线程上的独立任务，排队的写入在步骤之间照常执行，
+ * 离开低峰时段后剩余的回收留到下一次。上次执行时间记录在 storage_maintenance 表中，重启后仍然有效
+ */
+public class DatabaseMaintenance {
+    private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+    // 每5分钟检查一次是否进入低峰时段
+    private static final long CHECK_INTERVAL_TICKS = 5L * 60L * 20L;
+    // 首次 optimize 时每张表 ANALYZE 扫描的行数上限
+    private static final int ANALYSIS_LIMIT = 1000;
+    private static final int MAX_REPORTED_PROBLEMS = 10;
+
+    private final VillagePro plugin;
+    private final StorageShards shards;
+    private final boolean enabled;
+    private final int windowStart;
+    private final int windowEnd;
+    private final int vacuumPages;
+    private final long quickCheckMillis;
+    private final boolean convertAutoVacuum;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private BukkitTask checkTask;
+
+    public DatabaseMaintenance(VillagePro plugin, StorageShards shards) {
+        this.plugin = plugin;
+        this.shards = shards;
+
+        FileConfiguration config = plugin.getConfig();
+        this.enabled = config.getBoolean("storage.maintenance.enabled", true);
+        this.vacuumPages = Math.max(1, config.getInt("storage.maintenance.vacuum-pages", 256));
+        this.quickCheckMillis = Math.max(0L, config.getLong("storage.maintenance.quick-check-days", 7L)) * DAY_MILLIS;
+        this.convertAutoVacuum = config.getBoolean("storage.maintenance.convert-auto-vacuum", true);
+
+        String window = config.getString("storage.maintenance.window", "4-6");
+        int start = 4;
+        int end = 6;
+        try {
+            String[] parts = window.split("-");
+            start = Integer.parseInt(parts[0].trim());
+            end = Integer.parseInt(parts[1].trim());
+            if (start < 0 || start > 23 || end < 0 || end > 24 || start == end) {
+                throw new IllegalArgumentException(window);
+            }
+        } catch (RuntimeException e) {
+            plugin.getLogger().warning("无效的数据库维护时段: " + window + "，使用 4-6");
+            start = 4;
+            end = 6;
+        }
+        this.windowStart = start;
+        this.windowEnd = end;
+    }
+
+    /**
+     * 启动低峰时段检查，未开启或不使用 SQLite 时不启动
+     */
+    public void start() {
+        if (checkTask != null || !enabled || shards.primary().getDialect() != SqlDialect.SQLITE) {
+            return;
+        }
+        checkTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, () -> {
+            if (inWindow()) {
+                maintainAll();
+            }
+        }, CHECK_INTERVAL_TICKS, CHECK_INTERVAL_TICKS);
+    }
+
+    /**
+     * @return 当前是否处于低峰时段，时段可以跨午夜
+     */
+    private boolean inWindow() {
+        int hour = LocalTime.now().getHour();
+        return windowStart < windowEnd
+                ? hour >= windowStart && hour < windowEnd
+                : hour >= windowStart || hour < windowEnd;
+    }
+
+    /**
+     * 依次维护所有分片，上一轮还未结束时忽略
+     */
+    private void maintainAll() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+        for (StorageService shard : shards.all()) {
+            chain = chain.thenCompose(ignored -> maintain(shard));
+        }
+        chain.whenComplete((ignored, throwable) -> {
+            running.set(false);
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "数据库维护失败", throwable);
+            }
+        });
+    }
+
+    private CompletableFuture<Void> maintain(StorageService shard) {
+        long start = System.nanoTime();
+        List<String> done = new ArrayList<>();
+        return shard.readAsync(this::lastRuns).thenCompose(lastRuns -> {
+            long now = System.currentTimeMillis();
+            CompletableFuture<Void> chain = CompletableFuture.completedFuture(null);
+            if (now - lastRuns.getOrDefault("optimize", 0L) >= DAY_MILLIS) {
+                chain = chain.thenCompose(ignored -> optimize(shard)).thenRun(() -> done.add("optimize"));
+            }
+            if (quickCheckMillis > 0L && now - lastRuns.getOrDefault("quick_check", 0L) >= quickCheckMillis) {
+                chain = chain.thenCompose(ignored -> quickCheck(shard)).thenRun(() -> done.add("quick_check"));
+            }
+            return chain.thenCompose(ignored -> vacuum(shard));
+        }).thenAccept(reclaimed -> {
+            if (reclaimed > 0L || !done.isEmpty()) {
+                plugin.getLogger().info(String.format("数据库维护完成 (%s): %s回收 %.1f KB，耗时 %.1f ms",
+                        shard.getDatabaseFile().getName(), done.isEmpty() ? "" : String.join(", ", done) + ", ",
+                        reclaimed / 1024.0, (System.nanoTime() - start) / 1_000_000.0));
+            }
+        });
+    }
+
+    private Map<String, Long> lastRuns(Connection connection) throws SQLException {
+        Map<String, Long> lastRuns = new HashMap<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT task, last_run FROM storage_maintenance")) {
+            while (rs.next()) {
+                lastRuns.put(rs.getString("task"), rs.getLong("last_run"));
+            }
+        }
+        return lastRuns;
+    }
+
+    private void recordRun(Connection connection, String task) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("INSERT OR REPLACE INTO storage_maintenance(task, last_run) VALUES(?,?)")) {
+            stmt.setString(1, task);
+            stmt.setLong(2, System.currentTimeMillis());
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 在写线程上更新查询规划器的统计信息，只分析统计已过时的表
+     */
+    private CompletableFuture<Void> optimize(StorageService shard) {
+        StorageMetrics.Sample sample = shard.getMetrics().start("maintenance.optimize", "PRAGMA optimize");
+        return shard.<Void>writeAsync(connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA analysis_limit=" + ANALYSIS_LIMIT);
+                stmt.execute("PRAGMA optimize");
+            }
+            recordRun(connection, "optimize");
+            return null;
+        }).whenComplete((result, throwable) -> sample.end(throwable));
+    }
+
+    /**
+     * 在只读连接上检查数据库完整性，WAL 模式下不阻塞写入
+     */
+    private CompletableFuture<Void> quickCheck(StorageService shard) {
+        StorageMetrics.Sample sample = shard.getMetrics().start("maintenance.quick_check", "PRAGMA quick_check");
+        return shard.readAsync(connection -> {
+            List<String> problems = new ArrayList<>();
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("PRAGMA quick_check(" + MAX_REPORTED_PROBLEMS + ")")) {
+                while (rs.next()) {
+                    String line = rs.getString(1);
+                    if (!"ok".equalsIgnoreCase(line)) {
+                        problems.add(line);
+                    }
+                }
+            }
+            return problems;
+        }).whenComplete((result, throwable) -> sample.end(throwable)).thenCompose(problems -> {
+            if (!problems.isEmpty()) {
+                plugin.getLogger().severe("数据库完整性检查发现问题 (" + shard.getDatabaseFile().getName() + "): "
+                        + String.join("; ", problems) + "，请尽快从备份恢复");
+            }
+            return shard.<Void>writeAsync(connection -> {
+                recordRun(connection, "quick_check");
+                return null;
+            });
+        });
+    }
+
+    /**
+     * 回收空闲页
+     * 增量回收模式下分步执行；未启用增量回收的旧数据库先执行一次完整 VACUUM 完成转换
+     *
+     * @return 回收的字节数
+     */
+    private CompletableFuture<Long> vacuum(StorageService shard) {
+        StorageMetrics.Sample sample = shard.getMetrics().start("maintenance.vacuum", "PRAGMA incremental_vacuum");
+        return shard.writeAsync(connection -> pragmaLong(connection, "auto_vacuum")).thenCompose(mode -> {
+            if (mode == 2L) {
+                return vacuumSteps(shard, 0L);
+            }
+            if (mode == 0L && convertAutoVacuum) {
+                return shard.writeAsync(this::convertToIncremental);
+            }
+            // FULL 模式在每次提交时已经回收
+            return CompletableFuture.completedFuture(0L);
+        }).whenComplete((reclaimed, throwable) -> {
+            if (reclaimed != null) {
+                sample.bytes(reclaimed);
+            }
+            sample.end(throwable);
+        });
+    }
+
+    /**
+     * 每一步回收最多 vacuum-pages 页，步骤之间让出写线程，离开低峰时段或没有空闲页时结束
+     */
+    private CompletableFuture<Long> vacuumSteps(StorageService shard, long reclaimed) {
+        if (!inWindow()) {
+            return CompletableFuture.completedFuture(reclaimed);
+        }
+        return shard.writeAsync(connection -> {
+            long free = pragmaLong(connection, "freelist_count");
+            if (free == 0L) {
+                return 0L;
+            }
+            long pageSize = pragmaLong(connection, "page_size");
+            long before = pragmaLong(connection, "page_count");
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            // 驱动只执行一步，每次执行 incremental_vacuum(1) 回收一页
+            try (Statement stmt = connection.createStatement()) {
+                for (long i = Math.min(free, vacuumPages); i > 0; i--) {
+                    stmt.execute("PRAGMA incremental_vacuum(1)");
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return (before - pragmaLong(connection, "page_count")) * pageSize;
+        }).thenCompose(step -> step > 0L ? vacuumSteps(shard, reclaimed + step) : CompletableFuture.completedFuture(reclaimed));
+    }
+
+    /**
+     * 把旧数据库转换为增量回收模式，需要重写整个文件，期间其他写入等待
+     */
+    private long convertToIncremental(Connection connection) throws SQLException {
+        long pageSize = pragmaLong(connection, "page_size");
+        long before = pragmaLong(connection, "page_count");
+        plugin.getLogger().info("正在为已有的数据库启用增量回收，需要执行一次完整 VACUUM (" + before * pageSize / 1024 + " KB)");
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+            stmt.execute("VACUUM");
+        }
+        return Math.max(0L, (before - pragmaLong(connection, "page_count")) * pageSize);
+    }
+
+    private static long pragmaLong(Connection connection, String pragma) throws SQLException {
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA " + pragma)) {
+            return rs.next() ? rs.getLong(1) : 0L;
+        }
+    }
+
+    /**
+     * 停止低峰时段检查，正在进行的步骤在写线程上完成
+     */
+    public void close() {
+        if (checkTask != null) {
+            checkTask.cancel();
+            checkTask = null;
+        }
+    }
+}
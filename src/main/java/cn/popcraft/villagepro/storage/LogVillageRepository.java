@@ -0,0 +1,617 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射日志文件的村庄存储
+ * 每次保存把 {@link BinaryCodec} 编码的整个村庄追加到当前日志段末尾，内存中按所有者保存最新记录的位置。
+ * 村庄数据主要是随机的UUID，压缩只能减少约一成，记录不压缩写入；旧版本写入的压缩记录仍然可以读取。
+ * 日志段写满后切换到新的段，有效数据比例过低的旧段在写线程上压缩：有效记录复制到当前段后删除旧段。
+ * 启动时按顺序扫描所有段重建索引，遇到长度或校验和不正确的记录即视为崩溃时写了一半的尾部。
+ * <p>
+ * 记录格式：总长度(4) + CRC32(4) + 类型(1) + 所有者UUID(16) + 数据，校验和覆盖类型之后的所有字节。
+ * 总长度最后写入，写到一半的记录长度为0或校验和不匹配。
+ * <p>
+ * 只适合单服务器部署，任务和作物数据仍然保存在数据库中。
+ */
+public class LogVillageRepository implements VillageRepository {
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int HEADER_SIZE = 25;
+    private static final byte TYPE_PUT = 1;
+    private static final byte TYPE_DELETE = 2;
+    private static final int LOG_BATCH_THRESHOLD = 500;
+
+    /**
+     * 日志段文件
+     */
+    private static final class Segment {
+        final int id;
+        final File file;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        // 只在写线程上修改
+        int writePosition;
+        final AtomicLong liveBytes = new AtomicLong();
+
+        Segment(int id, File file, int capacity) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            long size = Math.max(channel.size(), capacity);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        int capacity() {
+            return buffer.capacity();
+        }
+    }
+
+    /**
+     * 记录在日志段中的位置
+     */
+    private record Location(Segment segment, int offset, int length) {
+    }
+
+    /**
+     * 已在调用线程上编码好的待写入村庄
+     */
+    private record Pending(UUID ownerUuid, byte[] data, List<UUID> villagerIds) {
+    }
+
+    private final VillagePro plugin;
+    private final StorageMetrics metrics;
+    private final File directory;
+    private final int segmentSize;
+    private final double compactThreshold;
+    private final long compactIntervalTicks;
+    private final boolean force;
+
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "VillagePro-VillageLog-Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final ConcurrentSkipListMap<Integer, Segment> segments = new ConcurrentSkipListMap<>();
+    private final Map<UUID, Location> index = new ConcurrentHashMap<>();
+    // 村民反向索引，只在写线程上修改
+    private final Map<UUID, List<UUID>> villagersByOwner = new ConcurrentHashMap<>();
+    private final Map<UUID, UUID> villagerOwners = new ConcurrentHashMap<>();
+    // 只在写线程上访问
+    private Segment active;
+
+    // 统计信息
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong appendedBytes = new AtomicLong();
+    private final AtomicLong compactedSegments = new AtomicLong();
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    private BukkitTask compactTask;
+
+    public LogVillageRepository(VillagePro plugin) throws IOException {
+        this.plugin = plugin;
+        this.metrics = plugin.getStorageService().getMetrics();
+        FileConfiguration config = plugin.getConfig();
+        this.directory = new File(plugin.getDataFolder(), "villages-log");
+        this.segmentSize = Math.max(HEADER_SIZE * 64, config.getInt("storage.log.segment-size", 16777216));
+        this.compactThreshold = Math.min(1.0, Math.max(0.0, config.getDouble("storage.log.compact-threshold", 0.5)));
+        this.compactIntervalTicks = Math.max(20L, config.getLong("storage.log.compact-interval", 6000L));
+        this.force = config.getBoolean("storage.log.force", true);
+
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("无法创建村庄日志目录: " + directory.getAbsolutePath());
+        }
+        recover();
+    }
+
+    /**
+     * 按段编号顺序扫描所有日志段，重建索引并确定写入位置
+     */
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        File[] files = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX));
+        if (files == null) {
+            files = new File[0];
+        }
+        Arrays.sort(files, (a, b) -> Integer.compare(segmentId(a), segmentId(b)));
+
+        long scannedRecords = 0;
+        for (int i = 0; i < files.length; i++) {
+            Segment segment = new Segment(segmentId(files[i]), files[i], 0);
+            segments.put(segment.id, segment);
+            scannedRecords += scan(segment, i == files.length - 1);
+        }
+
+        if (segments.isEmpty()) {
+            active = createSegment(1);
+        } else {
+            active = segments.lastEntry().getValue();
+        }
+
+        // 只为每个所有者的最新记录建立村民索引
+        for (Map.Entry<UUID, Location> entry : index.entrySet()) {
+            Village village = decode(entry.getKey(), entry.getValue());
+            if (village != null && village.getVillagerIds() != null) {
+                indexVillagers(entry.getKey(), new ArrayList<>(village.getVillagerIds()));
+            }
+        }
+
+        plugin.getLogger().info(String.format("村庄日志恢复完成: %d 个日志段, 扫描 %d 条记录, %d 个村庄, 耗时 %.1f ms",
+                segments.size(), scannedRecords, index.size(), (System.nanoTime() - start) / 1_000_000.0));
+    }
+
+    /**
+     * 扫描一个日志段
+     *
+     * @param segment 日志段
+     * @param last 是否为最后一个段，最后一段损坏的尾部会被清零以便继续追加
+     * @return 有效记录数
+     */
+    private long scan(Segment segment, boolean last) {
+        ByteBuffer buffer = segment.buffer;
+        int position = 0;
+        long records = 0;
+        while (position + HEADER_SIZE <= segment.capacity()) {
+            int length = buffer.getInt(position);
+            if (length < HEADER_SIZE || position + length > segment.capacity() || buffer.getInt(position + 4) != checksum(buffer, position, length)) {
+                if (length != 0) {
+                    plugin.getLogger().warning("村庄日志段 " + segment.file.getName() + " 在位置 " + position + " 处的记录不完整，已忽略之后的数据");
+                    if (last) {
+                        for (int i = position; i < segment.capacity(); i++) {
+                            buffer.put(i, (byte) 0);
+                        }
+                    }
+                }
+                break;
+            }
+            UUID owner = new UUID(buffer.getLong(position + 9), buffer.getLong(position + 17));
+            if (buffer.get(position + 8) == TYPE_PUT) {
+                put(owner, new Location(segment, position, length));
+            } else {
+                remove(owner);
+            }
+            position += length;
+            records++;
+        }
+        segment.writePosition = position;
+        return records;
+    }
+
+    private static int segmentId(File file) {
+        String name = file.getName();
+        try {
+            return Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private Segment createSegment(int id) throws IOException {
+        Segment segment = new Segment(id, new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX)), segmentSize);
+        segments.put(id, segment);
+        return segment;
+    }
+
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(buffer.slice(offset + 8, length - 8));
+        return (int) crc.getValue();
+    }
+
+    /**
+     * 更新索引，旧记录所在段的有效数据相应减少
+     */
+    private void put(UUID owner, Location location) {
+        Location previous = index.put(owner, location);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.length);
+        }
+        location.segment.liveBytes.addAndGet(location.length);
+    }
+
+    private void remove(UUID owner) {
+        Location previous = index.remove(owner);
+        if (previous != null) {
+            previous.segment.liveBytes.addAndGet(-previous.length);
+        }
+    }
+
+    private void indexVillagers(UUID owner, List<UUID> villagerIds) {
+        List<UUID> previous = villagerIds != null ? villagersByOwner.put(owner, villagerIds) : villagersByOwner.remove(owner);
+        if (previous != null) {
+            for (UUID villagerId : previous) {
+                villagerOwners.remove(villagerId, owner);
+            }
+        }
+        if (villagerIds != null) {
+            for (UUID villagerId : villagerIds) {
+                villagerOwners.put(villagerId, owner);
+            }
+        }
+    }
+
+    /**
+     * 启动定时压缩任务
+     */
+    public void start() {
+        if (compactTask == null) {
+            compactTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin,
+                    () -> writer.execute(this::compact), compactIntervalTicks, compactIntervalTicks);
+        }
+    }
+
+    /**
+     * 在写线程上追加一条记录，当前段放不下时切换到新段
+     */
+    private Location append(byte type, UUID owner, byte[] data) throws IOException {
+        int length = HEADER_SIZE + data.length;
+        if (length > segmentSize) {
+            throw new IOException("村庄记录过大: " + length + " 字节，超过日志段大小 " + segmentSize);
+        }
+        if (active.writePosition + length > active.capacity()) {
+            active.buffer.force();
+            active = createSegment(active.id + 1);
+        }
+
+        int offset = active.writePosition;
+        ByteBuffer buffer = active.buffer;
+        buffer.put(offset + 8, type);
+        buffer.putLong(offset + 9, owner.getMostSignificantBits());
+        buffer.putLong(offset + 17, owner.getLeastSignificantBits());
+        buffer.put(offset + HEADER_SIZE, data);
+        buffer.putInt(offset + 4, checksum(buffer, offset, length));
+        buffer.putInt(offset, length);
+        active.writePosition += length;
+
+        appendedRecords.incrementAndGet();
+        appendedBytes.addAndGet(length);
+        return new Location(active, offset, length);
+    }
+
+    /**
+     * 在写线程上写入一批村庄，全部追加后统一刷盘
+     */
+    private int writeBatch(List<Pending> batch) throws IOException {
+        int start = active.writePosition;
+        Segment first = active;
+        for (Pending pending : batch) {
+            put(pending.ownerUuid(), append(TYPE_PUT, pending.ownerUuid(), pending.data()));
+            indexVillagers(pending.ownerUuid(), pending.villagerIds());
+        }
+        if (force) {
+            // 切换过段时旧段已在切换时刷盘
+            if (first == active) {
+                active.buffer.force(start, active.writePosition - start);
+            } else {
+                active.buffer.force(0, active.writePosition);
+            }
+        }
+        return batch.size();
+    }
+
+    private static Pending encode(VillageSnapshot village) {
+        return new Pending(village.getOwnerUuid(), BinaryCodec.encodeVillage(village), new ArrayList<>(village.getVillagerIds()));
+    }
+
+    /**
+     * 压缩有效数据比例低于阈值的旧段，必须在写线程上执行
+     */
+    private void compact() {
+        for (Segment segment : new ArrayList<>(segments.values())) {
+            if (segment == active || segment.writePosition == 0) {
+                continue;
+            }
+            double liveRatio = (double) segment.liveBytes.get() / segment.writePosition;
+            if (liveRatio >= compactThreshold) {
+                continue;
+            }
+            try {
+                compactSegment(segment);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "压缩村庄日志段失败: " + segment.file.getName(), e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 把段中仍然有效的记录复制到当前段，然后删除该段
+     * 删除记录在还有更早的段时也要复制，否则更早段中的旧数据会在恢复时重新出现
+     */
+    private void compactSegment(Segment segment) throws IOException {
+        boolean oldest = segments.firstKey() == segment.id;
+        ByteBuffer buffer = segment.buffer;
+        int copied = 0;
+        int position = 0;
+        while (position < segment.writePosition) {
+            int length = buffer.getInt(position);
+            byte type = buffer.get(position + 8);
+            UUID owner = new UUID(buffer.getLong(position + 9), buffer.getLong(position + 17));
+            Location current = index.get(owner);
+            if (type == TYPE_PUT && current != null && current.segment == segment && current.offset == position) {
+                byte[] data = new byte[length - HEADER_SIZE];
+                buffer.get(position + HEADER_SIZE, data);
+                put(owner, append(TYPE_PUT, owner, data));
+                copied++;
+            } else if (type == TYPE_DELETE && current == null && !oldest) {
+                append(TYPE_DELETE, owner, new byte[0]);
+                copied++;
+            }
+            position += length;
+        }
+        if (force) {
+            active.buffer.force();
+        }
+
+        segments.remove(segment.id);
+        segment.channel.close();
+        // 仍在读取旧位置的线程持有映射，不受删除文件影响
+        if (!segment.file.delete()) {
+            segment.file.deleteOnExit();
+        }
+        compactedSegments.incrementAndGet();
+        reclaimedBytes.addAndGet(segment.capacity());
+        plugin.getLogger().info("已压缩村庄日志段 " + segment.file.getName() + "，复制 " + copied + " 条有效记录");
+    }
+
+    @Override
+    public CompletableFuture<Boolean> saveVillage(Village village) {
+        Pending pending = encode(village.snapshot());
+        StorageMetrics.Sample sample = metrics.start("save", "追加村庄日志 " + pending.ownerUuid()).bytes(pending.data().length);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                writeBatch(List.of(pending));
+                sample.end();
+                return true;
+            } catch (IOException e) {
+                sample.end(e);
+                plugin.getLogger().log(Level.SEVERE, "保存村庄数据时发生异常: " + pending.ownerUuid(), e);
+                return false;
+            }
+        }, writer);
+    }
+
+    @Override
+    public int saveAll(Collection<VillageSnapshot> villages) throws SQLException {
+        if (villages.isEmpty()) {
+            return 0;
+        }
+        // 快照编码在调用线程完成，写线程只负责追加
+        List<Pending> batch = new ArrayList<>(villages.size());
+        StorageMetrics.Sample sample = metrics.start("saveAll", "批量追加 " + villages.size() + " 个村庄到日志");
+        for (VillageSnapshot village : villages) {
+            Pending pending = encode(village);
+            sample.bytes(pending.data().length);
+            batch.add(pending);
+        }
+
+        long start = System.nanoTime();
+        int written;
+        try {
+            written = await(() -> writeBatch(batch));
+            sample.end();
+        } catch (SQLException e) {
+            sample.end(e);
+            throw e;
+        }
+        long elapsedNanos = Math.max(1L, System.nanoTime() - start);
+        if (written >= LOG_BATCH_THRESHOLD) {
+            plugin.getLogger().info(String.format("批量保存 %d 个村庄数据到日志，耗时 %.1f ms (%.0f 个/秒)",
+                    written, elapsedNanos / 1_000_000.0, written * 1_000_000_000.0 / elapsedNanos));
+        }
+        return written;
+    }
+
+    @FunctionalInterface
+    private interface WriterTask<T> {
+        T run() throws IOException;
+    }
+
+    /**
+     * 在写线程上执行并等待结果，IO异常按接口约定包装为 SQLException
+     */
+    private <T> T await(WriterTask<T> task) throws SQLException {
+        plugin.getStorageService().checkNotPrimaryThread();
+        try {
+            return writer.submit(task::run).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待村庄日志写入时被中断", e);
+        } catch (ExecutionException e) {
+            throw new SQLException("写入村庄日志失败", e.getCause());
+        }
+    }
+
+    @Override
+    public CompletableFuture<Village> loadVillage(UUID ownerUuid) {
+        StorageMetrics.Sample sample = metrics.start("load", "读取村庄日志 " + ownerUuid);
+        Location location = index.get(ownerUuid);
+        Village village = null;
+        if (location != null) {
+            sample.bytes(location.length - HEADER_SIZE);
+            village = decode(ownerUuid, location);
+            if (village == null) {
+                // 记录存在但无法解码，不能当作村庄不存在
+                IOException failure = new IOException("无法解码村庄日志记录: " + ownerUuid);
+                sample.end(failure);
+                return CompletableFuture.failedFuture(failure);
+            }
+        }
+        sample.end();
+        return CompletableFuture.completedFuture(village);
+    }
+
+    private Village decode(UUID ownerUuid, Location location) {
+        byte[] data = new byte[location.length - HEADER_SIZE];
+        location.segment.buffer.get(location.offset + HEADER_SIZE, data);
+        try {
+            Village village = BinaryCodec.decodeVillage(data);
+            village.setOwnerUuid(ownerUuid);
+            return village;
+        } catch (IOException e) {
+            plugin.getLogger().log(Level.WARNING, "解码村庄日志记录失败: " + ownerUuid, e);
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteVillage(UUID ownerUuid) {
+        StorageMetrics.Sample sample = metrics.start("delete", "追加村庄删除记录 " + ownerUuid);
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                Location location = append(TYPE_DELETE, ownerUuid, new byte[0]);
+                if (force) {
+                    location.segment.buffer.force(location.offset, location.length);
+                }
+                remove(ownerUuid);
+                indexVillagers(ownerUuid, null);
+                sample.end();
+                return true;
+            } catch (IOException e) {
+                sample.end(e);
+                plugin.getLogger().log(Level.SEVERE, "删除村庄数据时发生异常: " + ownerUuid, e);
+                return false;
+            }
+        }, writer);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(UUID ownerUuid) {
+        return CompletableFuture.completedFuture(index.containsKey(ownerUuid));
+    }
+
+    @Override
+    public CompletableFuture<UUID[]> getAllVillageOwners() {
+        return CompletableFuture.completedFuture(index.keySet().toArray(new UUID[0]));
+    }
+
+    @Override
+    public CompletableFuture<UUID> findVillagerOwner(UUID villagerId) {
+        return CompletableFuture.completedFuture(villagerOwners.get(villagerId));
+    }
+
+    @Override
+    public int streamVillages(Consumer<Village> consumer) {
+        StorageMetrics.Sample sample = metrics.start("findAll", "遍历村庄日志索引");
+        int count = 0;
+        for (Map.Entry<UUID, Location> entry : index.entrySet()) {
+            sample.bytes(entry.getValue().length - HEADER_SIZE);
+            Village village = decode(entry.getKey(), entry.getValue());
+            if (village != null) {
+                consumer.accept(village);
+                count++;
+            }
+        }
+        sample.end();
+        return count;
+    }
+
+    /**
+     * 日志为空时从其他存储导入所有村庄，用于从数据库切换到日志存储
+     *
+     * @param source 原存储
+     * @return 导入的村庄数量
+     * @throws SQLException 读取或写入失败
+     */
+    public int importFrom(VillageRepository source) throws SQLException {
+        if (!index.isEmpty()) {
+            return 0;
+        }
+        List<VillageSnapshot> villages = new ArrayList<>();
+        source.streamVillages(village -> villages.add(village.snapshot()));
+        return saveAll(villages);
+    }
+
+    /**
+     * 停止压缩任务，等待写入完成后刷盘并关闭所有日志段
+     */
+    @Override
+    public void close() {
+        if (compactTask != null) {
+            compactTask.cancel();
+            compactTask = null;
+        }
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("等待村庄日志写线程结束超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        for (Segment segment : segments.values()) {
+            try {
+                segment.buffer.force();
+                segment.channel.close();
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.SEVERE, "关闭村庄日志段失败: " + segment.file.getName(), e);
+            }
+        }
+        plugin.getLogger().info("村庄日志已关闭: " + segments.size() + " 个日志段, " + index.size() + " 个村庄");
+    }
+
+    /**
+     * @return 日志段数量
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * @return 累计追加的记录数
+     */
+    public long getAppendedRecords() {
+        return appendedRecords.get();
+    }
+
+    /**
+     * @return 累计追加的字节数
+     */
+    public long getAppendedBytes() {
+        return appendedBytes.get();
+    }
+
+    /**
+     * @return 累计压缩的日志段数量
+     */
+    public long getCompactedSegments() {
+        return compactedSegments.get();
+    }
+
+    /**
+     * @return 压缩累计回收的字节数
+     */
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+}
@@ -0,0 +1,142 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+
+/**
+ * 按版本顺序执行数据库结构迁移
+ * 已执行的版本记录在 schema_version 表中，每个版本只执行一次。
+ * 迁移可以分块执行：每块一个事务，最后一块与版本记录在同一个事务中提交，
+ * 中途停止时下次启动从头重新执行该版本，所以分块迁移必须可以重复执行
+ */
+public class SchemaMigrator {
+
+    /**
+     * 一个版本的迁移
+     */
+    public interface Migration {
+        /**
+         * @return 版本号，必须递增
+         */
+        int version();
+
+        /**
+         * @return 迁移说明，记录在 schema_version 表和日志中
+         */
+        String description();
+
+        /**
+         * 在事务中执行一块迁移
+         *
+         * @param connection 写线程上已开启事务的连接
+         * @return 本块处理的行数，返回负数表示迁移完成
+         * @throws SQLException 迁移失败，本块已回滚
+         */
+        int migrate(Connection connection) throws SQLException;
+    }
+
+    /**
+     * 一次完成的迁移
+     *
+     * @param version 版本号
+     * @param description 迁移说明
+     * @param action 迁移操作
+     * @return 迁移
+     */
+    public static Migration of(int version, String description, StorageService.SqlCallable<?> action) {
+        return new Migration() {
+            @Override
+            public int version() {
+                return version;
+            }
+
+            @Override
+            public String description() {
+                return description;
+            }
+
+            @Override
+            public int migrate(Connection connection) throws SQLException {
+                action.call(connection);
+                return -1;
+            }
+        };
+    }
+
+    private final VillagePro plugin;
+    private final StorageService storage;
+
+    public SchemaMigrator(VillagePro plugin, StorageService storage) {
+        this.plugin = plugin;
+        this.storage = storage;
+    }
+
+    /**
+     * 执行所有尚未执行的迁移
+     *
+     * @param migrations 按版本号排列的迁移
+     * @return 迁移后的版本号
+     * @throws SQLException 迁移失败，之后的版本不会执行
+     */
+    public int migrate(List<Migration> migrations) throws SQLException {
+        int current = storage.write(connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS schema_version ("
+                        + "version INTEGER PRIMARY KEY, "
+                        + "description TEXT NOT NULL, "
+                        + "applied_at BIGINT NOT NULL, "
+                        + "duration_ms BIGINT NOT NULL)");
+                try (ResultSet rs = stmt.executeQuery("SELECT MAX(version) FROM schema_version")) {
+                    return rs.next() ? rs.getInt(1) : 0;
+                }
+            }
+        });
+
+        for (Migration migration : migrations) {
+            if (migration.version() <= current) {
+                continue;
+            }
+            long start = System.nanoTime();
+            long rows = 0;
+            int chunks = 0;
+            while (true) {
+                int processed = storage.transaction(connection -> {
+                    int result = migration.migrate(connection);
+                    if (result < 0) {
+                        record(connection, migration, (System.nanoTime() - start) / 1_000_000L);
+                    }
+                    return result;
+                });
+                if (processed < 0) {
+                    break;
+                }
+                rows += processed;
+                chunks++;
+                if (chunks % 10 == 0) {
+                    plugin.getLogger().info("数据库迁移 v" + migration.version() + " 进行中，已处理 " + rows + " 行");
+                }
+            }
+            current = migration.version();
+            plugin.getLogger().info(String.format("数据库迁移 v%d (%s) 完成，处理 %d 行，耗时 %.1f ms",
+                    current, migration.description(), rows, (System.nanoTime() - start) / 1_000_000.0));
+        }
+        return current;
+    }
+
+    private void record(Connection connection, Migration migration, long durationMillis) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement(
+                "INSERT INTO schema_version(version, description, applied_at, duration_ms) VALUES(?,?,?,?)")) {
+            stmt.setInt(1, migration.version());
+            stmt.setString(2, migration.description());
+            stmt.setLong(3, System.currentTimeMillis());
+            stmt.setLong(4, durationMillis);
+            stmt.executeUpdate();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package cn.popcraft.villagepro.storage;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 按所有者分片的作物数量存储
+ * 一批增量按分片拆分后同时提交到各分片的写线程
+ */
+public class ShardedCropRepository implements CropRepository {
+    private final StorageShards shards;
+    private final List<? extends CropRepository> repositories;
+
+    /**
+     * @param shards 分片
+     * @param repositories 每个分片的作物存储，按分片编号排列
+     */
+    public ShardedCropRepository(StorageShards shards, List<? extends CropRepository> repositories) {
+        this.shards = shards;
+        this.repositories = repositories;
+    }
+
+    @Override
+    public CompletableFuture<Integer> addDeltasAsync(Map<UUID, Map<String, Integer>> deltas) {
+        List<Map<UUID, Map<String, Integer>>> parts = shards.partition(deltas);
+        return shards.fanOutAsync(shard -> parts.get(shard).isEmpty()
+                ? CompletableFuture.completedFuture(0)
+                : repositories.get(shard).addDeltasAsync(parts.get(shard))).thenApply(results -> {
+            int total = 0;
+            for (int rows : results) {
+                total += rows;
+            }
+            return total;
+        });
+    }
+
+    /**
+     * 连接只属于一个分片，所以这些所有者必须都在该分片中
+     */
+    @Override
+    public int addDeltas(Connection connection, Map<UUID, Map<String, Integer>> deltas) throws SQLException {
+        if (deltas.isEmpty()) {
+            return 0;
+        }
+        int shard = -1;
+        for (UUID owner : deltas.keySet()) {
+            int index = shards.indexOf(owner);
+            if (shard >= 0 && index != shard) {
+                throw new IllegalArgumentException("在一个分片的事务中写入了其他分片的作物数量");
+            }
+            shard = index;
+        }
+        return repositories.get(shard).addDeltas(connection, deltas);
+    }
+
+    /**
+     * 各分片并行读取，回调按顺序逐个调用
+     */
+    @Override
+    public int streamAll(RowConsumer consumer) throws SQLException {
+        Object lock = new Object();
+        int total = 0;
+        for (int count : shards.fanOut(shard -> repositories.get(shard).streamAll((owner, crop, amount) -> {
+            synchronized (lock) {
+                consumer.accept(owner, crop, amount);
+            }
+        }))) {
+            total += count;
+        }
+        return total;
+    }
+}
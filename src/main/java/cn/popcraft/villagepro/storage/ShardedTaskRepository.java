@@ -0,0 +1,110 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.PlayerTaskData;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * 按玩家分片的任务数据存储
+ * 同一玩家的快照和进度日志在同一个分片中，日志在分片内保持写入顺序
+ */
+public class ShardedTaskRepository implements TaskRepository {
+    private final StorageShards shards;
+    private final List<? extends TaskRepository> repositories;
+
+    /**
+     * @param shards 分片
+     * @param repositories 每个分片的任务存储，按分片编号排列
+     */
+    public ShardedTaskRepository(StorageShards shards, List<? extends TaskRepository> repositories) {
+        this.shards = shards;
+        this.repositories = repositories;
+    }
+
+    /**
+     * 各分片并行读取，回调按顺序逐个调用
+     */
+    @Override
+    public int streamPlayerTaskRows(Consumer<byte[]> consumer) throws SQLException {
+        Object lock = new Object();
+        int total = 0;
+        for (int count : shards.fanOut(shard -> repositories.get(shard).streamPlayerTaskRows(data -> {
+            synchronized (lock) {
+                consumer.accept(data);
+            }
+        }))) {
+            total += count;
+        }
+        return total;
+    }
+
+    @Override
+    public PlayerTaskData decodePlayerTaskData(byte[] data) {
+        return repositories.get(0).decodePlayerTaskData(data);
+    }
+
+    @Override
+    public CompletableFuture<Integer> appendJournal(Map<UUID, Map<UUID, Integer>> batch) {
+        List<Map<UUID, Map<UUID, Integer>>> parts = shards.partition(batch);
+        return shards.fanOutAsync(shard -> parts.get(shard).isEmpty()
+                ? CompletableFuture.completedFuture(0)
+                : repositories.get(shard).appendJournal(parts.get(shard))).thenApply(results -> {
+            int total = 0;
+            for (int rows : results) {
+                total += rows;
+            }
+            return total;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveSnapshot(UUID playerId, byte[] data) {
+        return repositories.get(shards.indexOf(playerId)).saveSnapshot(playerId, data);
+    }
+
+    /**
+     * 连接只属于一个分片，所以这些玩家必须都在该分片中
+     */
+    @Override
+    public int saveSnapshots(Connection connection, Map<UUID, byte[]> snapshots) throws SQLException {
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        return repositories.get(singleShard(snapshots.keySet())).saveSnapshots(connection, snapshots);
+    }
+
+    private int singleShard(Iterable<UUID> players) {
+        int shard = -1;
+        for (UUID player : players) {
+            int index = shards.indexOf(player);
+            if (shard >= 0 && index != shard) {
+                throw new IllegalArgumentException("在一个分片的事务中写入了其他分片的任务数据");
+            }
+            shard = index;
+        }
+        return shard;
+    }
+
+    /**
+     * 各分片并行读取，同一玩家的日志按写入顺序交给回调
+     */
+    @Override
+    public int streamJournal(JournalConsumer consumer) throws SQLException {
+        Object lock = new Object();
+        int total = 0;
+        for (int count : shards.fanOut(shard -> repositories.get(shard).streamJournal((playerId, taskId, delta) -> {
+            synchronized (lock) {
+                consumer.accept(playerId, taskId, delta);
+            }
+        }))) {
+            total += count;
+        }
+        return total;
+    }
+}
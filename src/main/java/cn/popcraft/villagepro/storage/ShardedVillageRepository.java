@@ -0,0 +1,196 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * 按所有者分片的村庄存储
+ * 单个村庄的操作交给所属分片，批量保存按分片拆分后并行写入，遍历和查询所有者在所有分片上并行执行后合并
+ */
+public class ShardedVillageRepository implements VillageRepository {
+    private final StorageShards shards;
+    private final List<? extends VillageRepository> repositories;
+
+    /**
+     * @param shards 分片
+     * @param repositories 每个分片的村庄存储，按分片编号排列
+     */
+    public ShardedVillageRepository(StorageShards shards, List<? extends VillageRepository> repositories) {
+        this.shards = shards;
+        this.repositories = repositories;
+    }
+
+    private VillageRepository forOwner(UUID ownerUuid) {
+        return repositories.get(shards.indexOf(ownerUuid));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> saveVillage(Village village) {
+        return forOwner(village.getOwnerUuid()).saveVillage(village);
+    }
+
+    @Override
+    public int saveAll(Collection<VillageSnapshot> villages) throws SQLException {
+        if (villages.isEmpty()) {
+            return 0;
+        }
+        List<List<VillageSnapshot>> parts = shards.partition(villages, VillageSnapshot::getOwnerUuid);
+        int total = 0;
+        for (int written : shards.fanOut(shard -> parts.get(shard).isEmpty() ? 0 : repositories.get(shard).saveAll(parts.get(shard)))) {
+            total += written;
+        }
+        return total;
+    }
+
+    /**
+     * 连接只属于一个分片，所以这些村庄必须都在该分片中
+     */
+    @Override
+    public int saveAll(Connection connection, Collection<VillageSnapshot> villages) throws SQLException {
+        if (villages.isEmpty()) {
+            return 0;
+        }
+        return forOwner(singleShardOwner(villages)).saveAll(connection, villages);
+    }
+
+    private UUID singleShardOwner(Collection<VillageSnapshot> villages) {
+        UUID first = villages.iterator().next().getOwnerUuid();
+        int shard = shards.indexOf(first);
+        for (VillageSnapshot village : villages) {
+            if (shards.indexOf(village.getOwnerUuid()) != shard) {
+                throw new IllegalArgumentException("在一个分片的事务中写入了其他分片的村庄");
+            }
+        }
+        return first;
+    }
+
+    @Override
+    public CompletableFuture<Village> loadVillage(UUID ownerUuid) {
+        return forOwner(ownerUuid).loadVillage(ownerUuid);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> deleteVillage(UUID ownerUuid) {
+        return forOwner(ownerUuid).deleteVillage(ownerUuid);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> exists(UUID ownerUuid) {
+        return forOwner(ownerUuid).exists(ownerUuid);
+    }
+
+    @Override
+    public CompletableFuture<UUID[]> getAllVillageOwners() {
+        return shards.fanOutAsync(shard -> repositories.get(shard).getAllVillageOwners()).thenApply(results -> {
+            List<UUID> owners = new ArrayList<>();
+            for (UUID[] part : results) {
+                owners.addAll(List.of(part));
+            }
+            return owners.toArray(new UUID[0]);
+        });
+    }
+
+    /**
+     * 村民按所有者分片，不知道所有者时在所有分片上查找
+     */
+    @Override
+    public CompletableFuture<UUID> findVillagerOwner(UUID villagerId) {
+        return shards.fanOutAsync(shard -> repositories.get(shard).findVillagerOwner(villagerId)).thenApply(results -> {
+            for (UUID owner : results) {
+                if (owner != null) {
+                    return owner;
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 各分片并行读取，回调按顺序逐个调用，不需要自己处理并发
+     */
+    @Override
+    public int streamVillages(Consumer<Village> consumer) throws SQLException {
+        Object lock = new Object();
+        int total = 0;
+        for (int count : shards.fanOut(shard -> repositories.get(shard).streamVillages(village -> {
+            synchronized (lock) {
+                consumer.accept(village);
+            }
+        }))) {
+            total += count;
+        }
+        return total;
+    }
+
+    /**
+     * 各分片并行读取，合并后不超过 limit 个，不保证全局按时间排列
+     */
+    @Override
+    public int streamRecentVillages(long seenSince, int limit, Consumer<Village> consumer) throws SQLException {
+        Object lock = new Object();
+        int[] total = new int[1];
+        shards.fanOut(shard -> repositories.get(shard).streamRecentVillages(seenSince, limit, village -> {
+            synchronized (lock) {
+                if (total[0] < limit) {
+                    consumer.accept(village);
+                    total[0]++;
+                }
+            }
+        }));
+        return total[0];
+    }
+
+    @Override
+    public CompletableFuture<Void> markSeen(UUID ownerUuid) {
+        return forOwner(ownerUuid).markSeen(ownerUuid);
+    }
+
+    @Override
+    public void forget(UUID ownerUuid) {
+        forOwner(ownerUuid).forget(ownerUuid);
+    }
+
+    /**
+     * 各分片分别取出最久未上线的所有者，合并后按分片顺序截取，不保证全局按时间排列
+     */
+    @Override
+    public CompletableFuture<List<UUID>> findInactive(long seenBefore, int limit) {
+        return shards.fanOutAsync(shard -> repositories.get(shard).findInactive(seenBefore, limit)).thenApply(results -> {
+            List<UUID> owners = new ArrayList<>();
+            for (List<UUID> part : results) {
+                owners.addAll(part);
+            }
+            return owners.size() > limit ? owners.subList(0, limit) : owners;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> archive(Collection<UUID> owners, long seenBefore) {
+        List<List<UUID>> parts = shards.partition(owners, owner -> owner);
+        return shards.fanOutAsync(shard -> parts.get(shard).isEmpty()
+                ? CompletableFuture.completedFuture(0)
+                : repositories.get(shard).archive(parts.get(shard), seenBefore)).thenApply(results -> {
+            int total = 0;
+            for (int archived : results) {
+                total += archived;
+            }
+            return total;
+        });
+    }
+
+    @Override
+    public void close() {
+        for (VillageRepository repository : repositories) {
+            repository.close();
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+/**
+ * 关闭插件时的数据写入流程
+ * 各个管理器停止后台任务并交出尚未写入的数据，在写线程上用一个事务全部写入；
+ * 分片存储时按玩家拆分，每个分片一个事务并行写入。
+ * 整个流程限定在 storage.shutdown.deadline 毫秒内完成，超时的事务回滚，并记录写入或丢弃的数量。
+ * 数据库连接由调用方在此之后关闭
+ */
+public class ShutdownFlush {
+    private final VillagePro plugin;
+    private final StorageShards shards;
+    private final long deadlineMillis;
+    private final long deadlineNanos;
+
+    public ShutdownFlush(VillagePro plugin, StorageShards shards) {
+        this.plugin = plugin;
+        this.shards = shards;
+        this.deadlineMillis = Math.max(1000L, plugin.getConfig().getLong("storage.shutdown.deadline", 10000L));
+        this.deadlineNanos = System.nanoTime() + deadlineMillis * 1_000_000L;
+    }
+
+    /**
+     * @return 距离截止时间剩余的毫秒数
+     */
+    private long remainingMillis() {
+        return Math.max(0L, (deadlineNanos - System.nanoTime()) / 1_000_000L);
+    }
+
+    /**
+     * 取出所有管理器的待写入数据并在截止时间前写入，必须在主线程上调用
+     */
+    public void run() {
+        long start = System.nanoTime();
+
+        List<VillageSnapshot> villages = plugin.getVillageManager() != null
+                ? plugin.getVillageManager().close(remainingMillis()) : List.of();
+        Map<UUID, Map<String, Integer>> crops = plugin.getCropManager() != null
+                ? plugin.getCropManager().close() : Map.of();
+        Map<UUID, byte[]> tasks = plugin.getTaskManager() != null
+                ? plugin.getTaskManager().shutdown() : Map.of();
+
+        if (villages.isEmpty() && countRows(crops) == 0 && tasks.isEmpty()) {
+            plugin.getLogger().info("关闭时没有待写入的数据");
+            return;
+        }
+
+        VillageRepository villageRepository = plugin.getVillageRepository();
+        // 村庄使用独立的日志存储时不在数据库事务中，先单独写入
+        boolean sharedVillages = villageRepository == plugin.getDatabase();
+        if (!sharedVillages && !villages.isEmpty()) {
+            try {
+                villageRepository.saveAll(villages);
+                plugin.getLogger().info("关闭时写入 " + villages.size() + " 个村庄到日志存储");
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.SEVERE, "关闭时写入村庄日志失败，丢弃 " + villages.size() + " 个村庄", e);
+            }
+        }
+
+        List<List<VillageSnapshot>> villageParts = shards.partition(sharedVillages ? villages : List.of(), VillageSnapshot::getOwnerUuid);
+        List<Map<UUID, Map<String, Integer>>> cropParts = shards.partition(crops);
+        List<Map<UUID, byte[]>> taskParts = shards.partition(tasks);
+        long timeoutMillis = remainingMillis();
+        try {
+            // 每个分片一个事务，某个分片失败不影响其他分片提交
+            shards.fanOut(shard -> {
+                String counts = String.format("%d 个村庄, %d 条作物数量变化, %d 个玩家任务快照",
+                        villageParts.get(shard).size(), countRows(cropParts.get(shard)), taskParts.get(shard).size());
+                String target = shards.size() > 1 ? "分片 " + shard + " " : "";
+                try {
+                    shards.get(shard).transaction(connection -> {
+                        villageRepository.saveAll(connection, villageParts.get(shard));
+                        plugin.getCropRepository().addDeltas(connection, cropParts.get(shard));
+                        plugin.getTaskRepository().saveSnapshots(connection, taskParts.get(shard));
+                        return null;
+                    }, timeoutMillis);
+                    plugin.getLogger().info(String.format("关闭时在%s一个事务中写入 %s，耗时 %.1f ms",
+                            target, counts, (System.nanoTime() - start) / 1_000_000.0));
+                } catch (SQLTimeoutException e) {
+                    plugin.getLogger().severe("关闭时" + target + "写入超过时限 (" + deadlineMillis + " ms)，事务已回滚，丢弃 " + counts);
+                } catch (SQLException e) {
+                    plugin.getLogger().log(Level.SEVERE, "关闭时" + target + "写入失败，事务已回滚，丢弃 " + counts, e);
+                }
+                return null;
+            });
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "关闭时写入失败", e);
+        }
+    }
+
+    private static int countRows(Map<UUID, Map<String, Integer>> crops) {
+        int rows = 0;
+        for (Map<String, Integer> owner : crops.values()) {
+            rows += owner.size();
+        }
+        return rows;
+    }
+}
@@ -0,0 +1,115 @@
+package cn.popcraft.villagepro.storage;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 基于 village_crops 表的作物数量存储
+ * 增量以 amount = amount + ? 的批量 UPSERT 写入，SQL 差异由 {@link SqlDialect} 处理
+ */
+public class SqlCropRepository implements CropRepository {
+    private final StorageService storage;
+    private final String upsertSql;
+
+    public SqlCropRepository(StorageService storage) {
+        this.storage = storage;
+        SqlDialect dialect = storage.getDialect();
+        this.upsertSql = dialect.upsert("INSERT INTO village_crops(owner, crop, amount) VALUES(?,?,?)",
+                "owner, crop", "amount = amount + " + dialect.excluded("amount"));
+    }
+
+    @Override
+    public CompletableFuture<Integer> addDeltasAsync(Map<UUID, Map<String, Integer>> deltas) {
+        StorageMetrics.Sample sample = storage.getMetrics().start("crop", "UPSERT village_crops (" + deltas.size() + " 个村庄)");
+        for (Map<String, Integer> owner : deltas.values()) {
+            for (String crop : owner.keySet()) {
+                sample.bytes(40L + crop.length());
+            }
+        }
+        return storage.writeAsync(connection -> writeDeltas(connection, deltas))
+                .whenComplete((rows, throwable) -> sample.end(throwable));
+    }
+
+    @Override
+    public int addDeltas(Connection connection, Map<UUID, Map<String, Integer>> deltas) throws SQLException {
+        return executeDeltas(connection, deltas);
+    }
+
+    /**
+     * 在一个事务中写入增量
+     *
+     * @return 写入的行数
+     */
+    private int writeDeltas(Connection connection, Map<UUID, Map<String, Integer>> batch) throws SQLException {
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            int rows = executeDeltas(connection, batch);
+            connection.commit();
+            return rows;
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * 执行增量语句，数量减到0的行直接删除，事务由调用方管理
+     *
+     * @return 写入的行数
+     */
+    private int executeDeltas(Connection connection, Map<UUID, Map<String, Integer>> batch) throws SQLException {
+        int rows = 0;
+        try (PreparedStatement upsert = connection.prepareStatement(upsertSql);
+             PreparedStatement cleanup = connection.prepareStatement("DELETE FROM village_crops WHERE owner = ? AND crop = ? AND amount <= 0")) {
+            boolean hasNegative = false;
+            for (Map.Entry<UUID, Map<String, Integer>> owner : batch.entrySet()) {
+                for (Map.Entry<String, Integer> entry : owner.getValue().entrySet()) {
+                    int delta = entry.getValue();
+                    if (delta == 0) {
+                        continue;
+                    }
+                    upsert.setString(1, owner.getKey().toString());
+                    upsert.setString(2, entry.getKey());
+                    upsert.setInt(3, delta);
+                    upsert.addBatch();
+                    rows++;
+                    if (delta < 0) {
+                        cleanup.setString(1, owner.getKey().toString());
+                        cleanup.setString(2, entry.getKey());
+                        cleanup.addBatch();
+                        hasNegative = true;
+                    }
+                }
+            }
+            upsert.executeBatch();
+            if (hasNegative) {
+                cleanup.executeBatch();
+            }
+        }
+        return rows;
+    }
+
+    @Override
+    public int streamAll(RowConsumer consumer) throws SQLException {
+        return storage.read(connection -> {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT owner, crop, amount FROM village_crops")) {
+                int count = 0;
+                while (rs.next()) {
+                    consumer.accept(UUID.fromString(rs.getString("owner")), rs.getString("crop"), rs.getInt("amount"));
+                    count++;
+                }
+                return count;
+            }
+        });
+    }
+}
@@ -0,0 +1,180 @@
+package cn.popcraft.villagepro.storage;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 不同数据库之间有差异的SQL语法
+ * 各个存储实现只通过这里拼接有差异的部分，其余SQL在 SQLite 和 MySQL/MariaDB 上通用
+ */
+public enum SqlDialect {
+    SQLITE {
+        @Override
+        public String keyType(int length) {
+            return "TEXT";
+        }
+
+        @Override
+        public String blobType() {
+            return "BLOB";
+        }
+
+        @Override
+        public String autoIncrementKey() {
+            return "INTEGER PRIMARY KEY AUTOINCREMENT";
+        }
+
+        @Override
+        public String withoutRowid() {
+            return " WITHOUT ROWID";
+        }
+
+        @Override
+        public String upsert(String insert, String keyColumns, String assignments) {
+            return insert + " ON CONFLICT(" + keyColumns + ") DO UPDATE SET " + assignments;
+        }
+
+        @Override
+        public String excluded(String column) {
+            return "excluded." + column;
+        }
+
+        @Override
+        public String replaceInto() {
+            return "INSERT OR REPLACE INTO";
+        }
+
+        @Override
+        public void createIndex(Connection connection, String name, String table, String columns) throws SQLException {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE INDEX IF NOT EXISTS " + name + " ON " + table + "(" + columns + ")");
+            }
+        }
+    },
+
+    /**
+     * MySQL 和 MariaDB 共用
+     */
+    MYSQL {
+        @Override
+        public String keyType(int length) {
+            // MySQL 的 TEXT 列不能直接作为主键或索引
+            return "VARCHAR(" + length + ")";
+        }
+
+        @Override
+        public String blobType() {
+            return "LONGBLOB";
+        }
+
+        @Override
+        public String autoIncrementKey() {
+            return "BIGINT PRIMARY KEY AUTO_INCREMENT";
+        }
+
+        @Override
+        public String withoutRowid() {
+            return "";
+        }
+
+        @Override
+        public String upsert(String insert, String keyColumns, String assignments) {
+            return insert + " ON DUPLICATE KEY UPDATE " + assignments;
+        }
+
+        @Override
+        public String excluded(String column) {
+            // MariaDB 不支持行别名，统一使用 VALUES()
+            return "VALUES(" + column + ")";
+        }
+
+        @Override
+        public String replaceInto() {
+            return "REPLACE INTO";
+        }
+
+        @Override
+        public void createIndex(Connection connection, String name, String table, String columns) throws SQLException {
+            // MySQL 不支持 CREATE INDEX IF NOT EXISTS，通过 JDBC 元数据查询已有的索引
+            try (ResultSet rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, table, false, true)) {
+                while (rs.next()) {
+                    if (name.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                        return;
+                    }
+                }
+            }
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE INDEX " + name + " ON " + table + "(" + columns + ")");
+            }
+        }
+    };
+
+    /**
+     * @param length 最大长度
+     * @return 可以作为主键或索引的字符串列类型
+     */
+    public abstract String keyType(int length);
+
+    /**
+     * @return 二进制数据列类型
+     */
+    public abstract String blobType();
+
+    /**
+     * @return 自增主键列定义
+     */
+    public abstract String autoIncrementKey();
+
+    /**
+     * @return 建表语句末尾的 WITHOUT ROWID 选项，不支持时为空字符串
+     */
+    public abstract String withoutRowid();
+
+    /**
+     * 拼接插入或更新语句
+     *
+     * @param insert INSERT INTO ... VALUES(...) 部分
+     * @param keyColumns 冲突判断的主键列，逗号分隔
+     * @param assignments 冲突时执行的赋值，新值使用 {@link #excluded(String)} 引用
+     * @return 完整的SQL
+     */
+    public abstract String upsert(String insert, String keyColumns, String assignments);
+
+    /**
+     * @param column 列名
+     * @return 插入或更新语句中引用待插入新值的表达式
+     */
+    public abstract String excluded(String column);
+
+    /**
+     * @return 按主键整行替换的插入语句开头
+     */
+    public abstract String replaceInto();
+
+    /**
+     * 创建索引，已存在时不做任何操作
+     *
+     * @param connection 数据库连接
+     * @param name 索引名称
+     * @param table 表名
+     * @param columns 索引列，逗号分隔
+     * @throws SQLException 创建失败
+     */
+    public abstract void createIndex(Connection connection, String name, String table, String columns) throws SQLException;
+
+    /**
+     * 根据配置中的 storage.type 选择方言
+     *
+     * @param type 存储类型
+     * @return 对应的方言，未知类型返回null
+     */
+    public static SqlDialect fromType(String type) {
+        return switch (type.toLowerCase()) {
+            case "sqlite" -> SQLITE;
+            case "mysql", "mariadb" -> MYSQL;
+            default -> null;
+        };
+    }
+}
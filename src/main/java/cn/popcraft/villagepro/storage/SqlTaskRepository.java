@@ -0,0 +1,181 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+
+/**
+ * 基于 player_tasks 和 task_progress_journal 表的任务数据存储
+ * 快照使用 {@link BinaryCodec} 编码，较大的快照在写线程上压缩，旧版JSON快照读取时通过Gson回退
+ */
+public class SqlTaskRepository implements TaskRepository {
+    private final VillagePro plugin;
+    private final Gson gson;
+    private final StorageService storage;
+    private final BlobCompressor compressor;
+    private final String saveSnapshotSql;
+
+    public SqlTaskRepository(VillagePro plugin, Gson gson, StorageService storage) {
+        this.plugin = plugin;
+        this.gson = gson;
+        this.storage = storage;
+        this.compressor = new BlobCompressor(plugin, storage.getMetrics());
+        this.saveSnapshotSql = storage.getDialect().replaceInto() + " player_tasks(id, data) VALUES(?,?)";
+    }
+
+    @Override
+    public int streamPlayerTaskRows(Consumer<byte[]> consumer) throws SQLException {
+        StorageMetrics.Sample sample = storage.getMetrics().start("task.load", "SELECT data FROM player_tasks");
+        try {
+            int rows = storage.read(connection -> {
+                try (Statement stmt = connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT data FROM player_tasks")) {
+                    int count = 0;
+                    while (rs.next()) {
+                        byte[] data = rs.getBytes("data");
+                        if (data != null) {
+                            sample.bytes(data.length);
+                            consumer.accept(data);
+                            count++;
+                        }
+                    }
+                    return count;
+                }
+            });
+            sample.end();
+            return rows;
+        } catch (SQLException | RuntimeException e) {
+            sample.end(e);
+            throw e;
+        }
+    }
+
+    @Override
+    public PlayerTaskData decodePlayerTaskData(byte[] data) {
+        if (data == null) {
+            return null;
+        }
+        if (BinaryCodec.isBinary(data)) {
+            try {
+                return BinaryCodec.decodePlayerTaskData(data);
+            } catch (IOException e) {
+                plugin.getLogger().log(Level.WARNING, "解码任务数据失败", e);
+                return null;
+            }
+        }
+        try {
+            return gson.fromJson(new String(data, StandardCharsets.UTF_8), PlayerTaskData.class);
+        } catch (RuntimeException e) {
+            plugin.getLogger().log(Level.WARNING, "解析任务数据失败", e);
+            return null;
+        }
+    }
+
+    @Override
+    public CompletableFuture<Integer> appendJournal(Map<UUID, Map<UUID, Integer>> batch) {
+        StorageMetrics.Sample sample = storage.getMetrics().start("task.journal",
+                "INSERT INTO task_progress_journal (" + batch.size() + " 个玩家)");
+        return storage.writeAsync(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            int rows = 0;
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "INSERT INTO task_progress_journal(player, task, delta) VALUES(?,?,?)")) {
+                for (Map.Entry<UUID, Map<UUID, Integer>> player : batch.entrySet()) {
+                    for (Map.Entry<UUID, Integer> entry : player.getValue().entrySet()) {
+                        if (entry.getValue() == 0) {
+                            continue;
+                        }
+                        stmt.setString(1, player.getKey().toString());
+                        stmt.setString(2, entry.getKey() != null ? entry.getKey().toString() : null);
+                        stmt.setInt(3, entry.getValue());
+                        stmt.addBatch();
+                        rows++;
+                    }
+                }
+                stmt.executeBatch();
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return rows;
+        }).whenComplete((rows, throwable) -> {
+            // 每行为两个UUID和一个整数
+            sample.bytes(rows != null ? rows * 76L : 0L);
+            sample.end(throwable);
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> saveSnapshot(UUID playerId, byte[] data) {
+        StorageMetrics.Sample sample = storage.getMetrics().start("task.snapshot", "UPSERT player_tasks " + playerId)
+                .bytes(data.length);
+        return storage.<Void>writeAsync(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                saveSnapshots(connection, Map.of(playerId, data));
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            return null;
+        }).whenComplete((result, throwable) -> sample.end(throwable));
+    }
+
+    @Override
+    public int saveSnapshots(Connection connection, Map<UUID, byte[]> snapshots) throws SQLException {
+        if (snapshots.isEmpty()) {
+            return 0;
+        }
+        try (PreparedStatement save = connection.prepareStatement(saveSnapshotSql);
+             PreparedStatement clear = connection.prepareStatement("DELETE FROM task_progress_journal WHERE player = ?")) {
+            for (Map.Entry<UUID, byte[]> entry : snapshots.entrySet()) {
+                save.setString(1, entry.getKey().toString());
+                save.setBytes(2, compressor.compress(entry.getValue()));
+                save.addBatch();
+                clear.setString(1, entry.getKey().toString());
+                clear.addBatch();
+            }
+            save.executeBatch();
+            clear.executeBatch();
+        }
+        return snapshots.size();
+    }
+
+    @Override
+    public int streamJournal(JournalConsumer consumer) throws SQLException {
+        return storage.read(connection -> {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery("SELECT player, task, delta FROM task_progress_journal ORDER BY seq")) {
+                int count = 0;
+                while (rs.next()) {
+                    String task = rs.getString("task");
+                    consumer.accept(UUID.fromString(rs.getString("player")),
+                            task != null ? UUID.fromString(task) : null, rs.getInt("delta"));
+                    count++;
+                }
+                return count;
+            }
+        });
+    }
+}
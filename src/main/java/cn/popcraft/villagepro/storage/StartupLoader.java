@@ -0,0 +1,208 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.manager.CropManager;
+import cn.popcraft.villagepro.manager.TaskManager;
+import cn.popcraft.villagepro.manager.VillageManager;
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.Village;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.stream.Collectors;
+
+/**
+ * 启动加载器
+ * 每张表只读取一次，读取到的数据分发给各个管理器。
+ * 村庄只预加载最近上线过的玩家的，数量不超过闲置缓存上限，其他村庄在首次访问时按需加载；
+ * 村庄和任务数据都在 ForkJoin 线程池上读取，任务数据按块并行解码，
+ * 主线程只负责分发，管理器不需要处理并发。
+ */
+public class StartupLoader {
+    private static final int TASK_CHUNK_SIZE = 512;
+    private static final long DAY_MILLIS = 24L * 60L * 60L * 1000L;
+
+    private final VillagePro plugin;
+    private final VillageRepository villages;
+    private final TaskRepository tasks;
+
+    public StartupLoader(VillagePro plugin, VillageRepository villages, TaskRepository tasks) {
+        this.plugin = plugin;
+        this.villages = villages;
+        this.tasks = tasks;
+    }
+
+    /**
+     * 加载所有数据，必须在主线程上调用
+     *
+     * @param villageManager 村庄管理器
+     * @param cropManager 作物管理器
+     * @param taskManager 任务管理器
+     */
+    public void load(VillageManager villageManager, CropManager cropManager, TaskManager taskManager) {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Runtime.getRuntime().availableProcessors()));
+        try {
+            // 村庄和任务数据先在后台开始读取和解码
+            long seenSince = System.currentTimeMillis() - Math.max(0L, plugin.getConfig().getLong("storage.cache.preload-days", 3L)) * DAY_MILLIS;
+            int preloadLimit = Math.max(0, plugin.getConfig().getInt("storage.cache.max-size", 1000));
+            long[] villageTimings = new long[1];
+            CompletableFuture<List<Village>> villagesFuture = CompletableFuture.supplyAsync(() -> {
+                long readStart = System.nanoTime();
+                List<Village> recent = new ArrayList<>();
+                try {
+                    villages.streamRecentVillages(seenSince, preloadLimit, recent::add);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+                villageTimings[0] = System.nanoTime() - readStart;
+                return recent;
+            }, pool);
+
+            long[] taskTimings = new long[1];
+            CompletableFuture<List<PlayerTaskData>> tasksFuture = CompletableFuture.supplyAsync(() -> {
+                long readStart = System.nanoTime();
+                TaskChunks chunks = new TaskChunks(pool);
+                try {
+                    tasks.streamPlayerTaskRows(chunks);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+                List<PlayerTaskData> decoded = chunks.finish();
+                taskTimings[0] = System.nanoTime() - readStart;
+                return decoded;
+            }, pool);
+
+            long cropStart = System.nanoTime();
+            try {
+                cropManager.getCounters().streamAll(cropManager::loadCrop);
+            } catch (SQLException e) {
+                plugin.getLogger().log(Level.SEVERE, "加载作物数据失败", e);
+            }
+            long cropNanos = System.nanoTime() - cropStart;
+
+            // 村庄在主线程上分发给村庄管理器
+            long waitStart = System.nanoTime();
+            List<Village> recent;
+            try {
+                recent = villagesFuture.join();
+            } catch (CompletionException e) {
+                plugin.getLogger().log(Level.SEVERE, "加载村庄数据失败", e.getCause());
+                recent = new ArrayList<>();
+            }
+            List<PlayerTaskData> tasks;
+            try {
+                tasks = tasksFuture.join();
+            } catch (CompletionException e) {
+                plugin.getLogger().log(Level.SEVERE, "加载任务数据失败", e.getCause());
+                tasks = new ArrayList<>();
+            }
+            long waitNanos = System.nanoTime() - waitStart;
+
+            long villageStart = System.nanoTime();
+            for (Village village : recent) {
+                villageManager.loadVillage(village);
+            }
+            villageManager.startEvictionTask();
+            long villageNanos = System.nanoTime() - villageStart;
+
+            // 在快照上重放尚未压缩的进度日志
+            long replayStart = System.nanoTime();
+            Map<UUID, PlayerTaskData> taskData = new HashMap<>();
+            for (PlayerTaskData data : tasks) {
+                if (data.getPlayerUuid() != null) {
+                    taskData.put(data.getPlayerUuid(), data);
+                }
+            }
+            int replayed = taskManager.getJournal().replay(taskData);
+            long replayNanos = System.nanoTime() - replayStart;
+
+            long dispatchStart = System.nanoTime();
+            for (PlayerTaskData data : taskData.values()) {
+                taskManager.loadPlayerTaskData(data);
+            }
+            long dispatchNanos = System.nanoTime() - dispatchStart;
+            if (replayed > 0) {
+                int compacted = taskManager.getJournal().compact(taskData::get);
+                plugin.getLogger().info("已重放 " + replayed + " 条任务进度日志，并压缩为 " + compacted + " 个玩家任务快照");
+            }
+
+            plugin.getLogger().info("已预加载 " + recent.size() + " 个最近上线玩家的村庄数据 (内存中保留 " + villageManager.getLoadedVillageCount()
+                    + " 个, 索引 " + villageManager.getIndexedVillagerCount() + " 个村民), " + cropManager.getLoadedStorageCount() + " 个作物存储, " + taskData.size() + " 个玩家任务数据");
+            plugin.getLogger().info(String.format("启动加载耗时: 村庄读取 %.1f ms, 作物读取 %.1f ms, 任务读取与解码 %.1f ms (并行 %d), "
+                            + "等待读取 %.1f ms, 村庄分发 %.1f ms, 日志重放 %.1f ms, 任务分发 %.1f ms, 总计 %.1f ms",
+                    millis(villageTimings[0]), millis(cropNanos), millis(taskTimings[0]), pool.getParallelism(),
+                    millis(waitNanos), millis(villageNanos), millis(replayNanos), millis(dispatchNanos), millis(System.nanoTime() - start)));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * 按块解码任务数据
+     * 读取线程每攒够一块就交给线程池解码，同时解码的块数不超过并行度，
+     * 超过时等待最早的一块完成，内存中只保留这些块的原始数据
+     */
+    private final class TaskChunks implements Consumer<byte[]> {
+        private final ForkJoinPool pool;
+        private final Deque<ForkJoinTask<List<PlayerTaskData>>> inFlight = new ArrayDeque<>();
+        private final List<PlayerTaskData> decoded = new ArrayList<>();
+        private List<byte[]> chunk = new ArrayList<>(TASK_CHUNK_SIZE);
+
+        TaskChunks(ForkJoinPool pool) {
+            this.pool = pool;
+        }
+
+        @Override
+        public void accept(byte[] data) {
+            chunk.add(data);
+            if (chunk.size() == TASK_CHUNK_SIZE) {
+                submit();
+            }
+        }
+
+        private void submit() {
+            List<byte[]> rows = chunk;
+            chunk = new ArrayList<>(TASK_CHUNK_SIZE);
+            inFlight.add(pool.submit(() -> rows.stream()
+                    .map(tasks::decodePlayerTaskData)
+                    .filter(Objects::nonNull)
+                    .collect(Collectors.toList())));
+            while (inFlight.size() > pool.getParallelism()) {
+                decoded.addAll(inFlight.poll().join());
+            }
+        }
+
+        /**
+         * 解码剩余的数据并等待所有块完成
+         *
+         * @return 按读取顺序排列的任务数据
+         */
+        List<PlayerTaskData> finish() {
+            if (!chunk.isEmpty()) {
+                submit();
+            }
+            while (!inFlight.isEmpty()) {
+                decoded.addAll(inFlight.poll().join());
+            }
+            return decoded;
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1_000_000.0;
+    }
+}
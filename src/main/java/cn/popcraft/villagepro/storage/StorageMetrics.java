@@ -0,0 +1,280 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 存储操作统计
+ * 按操作名称记录次数、失败次数、序列化字节数和耗时分布，耗时包括在写线程或读线程上排队的时间。
+ * 耗时超过 storage.metrics.slow-query-ms 的操作记录到日志，包括语句和发起调用的位置
+ */
+public class StorageMetrics {
+    // 耗时分布按 2 的幂划分，第 i 个桶的上限为 2^i 微秒，最后一个桶不设上限
+    private static final int BUCKETS = 26;
+
+    // 统计调用位置时跳过的存储实现类，包括它们的内部类和 lambda
+    private static final List<String> SKIPPED_CLASSES = List.of(
+            StorageMetrics.class.getName(), StorageService.class.getName(), VillageStorage.class.getName(),
+            LogVillageRepository.class.getName(), SqlTaskRepository.class.getName(), SqlCropRepository.class.getName(),
+            StorageShards.class.getName(), ShardedVillageRepository.class.getName(), ShardedTaskRepository.class.getName(),
+            ShardedCropRepository.class.getName());
+    private static final StackWalker WALKER = StackWalker.getInstance();
+
+    private final VillagePro plugin;
+    private final long slowNanos;
+    private final Map<String, Operation> operations = new ConcurrentHashMap<>();
+    private final LongAdder slowCount = new LongAdder();
+    private final LongAdder conflictCount = new LongAdder();
+    // 压缩统计：尝试压缩的行数、其中实际变小的行数、压缩前后的字节数和耗时
+    private final LongAdder compressionAttempts = new LongAdder();
+    private final LongAdder compressedRows = new LongAdder();
+    private final LongAdder compressionInputBytes = new LongAdder();
+    private final LongAdder compressionOutputBytes = new LongAdder();
+    private final LongAdder compressionNanos = new LongAdder();
+
+    public StorageMetrics(VillagePro plugin) {
+        this.plugin = plugin;
+        this.slowNanos = Math.max(1L, plugin.getConfig().getLong("storage.metrics.slow-query-ms", 250L)) * 1_000_000L;
+    }
+
+    /**
+     * 开始记录一次操作，必须在发起操作的线程上调用
+     *
+     * @param operation 操作名称
+     * @param statement 语句或操作说明，只在慢操作日志中使用
+     * @return 记录对象，操作结束时调用 {@link Sample#end()}
+     */
+    public Sample start(String operation, String statement) {
+        return new Sample(operations.computeIfAbsent(operation, Operation::new), statement, caller());
+    }
+
+    /**
+     * @return 调用栈中第一个存储实现以外的位置
+     */
+    private static String caller() {
+        return WALKER.walk(frames -> frames
+                .filter(frame -> SKIPPED_CLASSES.stream().noneMatch(frame.getClassName()::startsWith))
+                .findFirst()
+                .map(frame -> frame.getClassName().substring(frame.getClassName().lastIndexOf('.') + 1)
+                        + "." + frame.getMethodName() + ":" + frame.getLineNumber())
+                .orElse(Thread.currentThread().getName()));
+    }
+
+    /**
+     * @return 按名称排列的所有操作统计
+     */
+    public List<Operation> getOperations() {
+        List<Operation> list = new ArrayList<>(operations.values());
+        list.sort((a, b) -> a.name.compareTo(b.name));
+        return Collections.unmodifiableList(list);
+    }
+
+    /**
+     * @return 累计慢操作次数
+     */
+    public long getSlowCount() {
+        return slowCount.sum();
+    }
+
+    /**
+     * 记录一次版本冲突：写入时数据库中的行已被其他写入方修改，需要合并后再写入
+     */
+    public void recordConflict() {
+        conflictCount.increment();
+    }
+
+    /**
+     * @return 累计版本冲突次数
+     */
+    public long getConflictCount() {
+        return conflictCount.sum();
+    }
+
+    /**
+     * 记录一次压缩
+     *
+     * @param inputBytes 压缩前的字节数
+     * @param outputBytes 写入的字节数，没有压缩时与压缩前相同
+     * @param nanos 耗时
+     */
+    public void recordCompression(long inputBytes, long outputBytes, long nanos) {
+        compressionAttempts.increment();
+        if (outputBytes < inputBytes) {
+            compressedRows.increment();
+        }
+        compressionInputBytes.add(inputBytes);
+        compressionOutputBytes.add(outputBytes);
+        compressionNanos.add(nanos);
+    }
+
+    public long getCompressionAttempts() {
+        return compressionAttempts.sum();
+    }
+
+    public long getCompressedRows() {
+        return compressedRows.sum();
+    }
+
+    public long getCompressionInputBytes() {
+        return compressionInputBytes.sum();
+    }
+
+    public long getCompressionOutputBytes() {
+        return compressionOutputBytes.sum();
+    }
+
+    /**
+     * @return 每 KB 输入的平均压缩耗时（微秒）
+     */
+    public double getCompressionMicrosPerKb() {
+        long input = compressionInputBytes.sum();
+        return input == 0 ? 0.0 : compressionNanos.sum() / 1000.0 / (input / 1024.0);
+    }
+
+    /**
+     * @return 慢操作阈值（毫秒）
+     */
+    public long getSlowThresholdMillis() {
+        return slowNanos / 1_000_000L;
+    }
+
+    /**
+     * 一次进行中的操作
+     */
+    public final class Sample {
+        private final Operation operation;
+        private final String statement;
+        private final String caller;
+        private final long startNanos = System.nanoTime();
+        private long bytes;
+
+        private Sample(Operation operation, String statement, String caller) {
+            this.operation = operation;
+            this.statement = statement;
+            this.caller = caller;
+        }
+
+        /**
+         * 记录序列化或读取的字节数，可以多次调用
+         *
+         * @param count 字节数
+         * @return 当前记录对象
+         */
+        public Sample bytes(long count) {
+            bytes += count;
+            return this;
+        }
+
+        /**
+         * 操作成功结束
+         */
+        public void end() {
+            end(null);
+        }
+
+        /**
+         * 操作结束
+         *
+         * @param failure 失败原因，成功时为null
+         */
+        public void end(Throwable failure) {
+            long elapsed = System.nanoTime() - startNanos;
+            operation.record(elapsed, bytes, failure != null);
+            if (elapsed >= slowNanos) {
+                slowCount.increment();
+                plugin.getLogger().warning(String.format("慢存储操作 %s 耗时 %.1f ms: %s (调用位置 %s)",
+                        operation.name, elapsed / 1_000_000.0, statement, caller));
+            }
+        }
+    }
+
+    /**
+     * 单个操作的累计统计
+     */
+    public static final class Operation {
+        private final String name;
+        private final LongAdder count = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        private final LongAdder bytes = new LongAdder();
+        private final LongAdder totalNanos = new LongAdder();
+        private final AtomicLong maxNanos = new AtomicLong();
+        private final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+        private Operation(String name) {
+            this.name = name;
+        }
+
+        private void record(long nanos, long byteCount, boolean failed) {
+            count.increment();
+            if (failed) {
+                failures.increment();
+            }
+            bytes.add(byteCount);
+            totalNanos.add(nanos);
+            maxNanos.accumulateAndGet(nanos, Math::max);
+            long micros = Math.max(1L, nanos / 1000L);
+            int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros - 1));
+            histogram.incrementAndGet(bucket);
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public long getCount() {
+            return count.sum();
+        }
+
+        public long getFailures() {
+            return failures.sum();
+        }
+
+        public long getBytes() {
+            return bytes.sum();
+        }
+
+        public double getAverageMillis() {
+            long total = count.sum();
+            return total == 0 ? 0.0 : totalNanos.sum() / 1_000_000.0 / total;
+        }
+
+        public double getMaxMillis() {
+            return maxNanos.get() / 1_000_000.0;
+        }
+
+        /**
+         * 估算耗时分位数，结果为所在区间的上限
+         *
+         * @param quantile 分位，例如 0.99
+         * @return 耗时（毫秒）
+         */
+        public double getPercentileMillis(double quantile) {
+            long[] counts = new long[BUCKETS];
+            long total = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                counts[i] = histogram.get(i);
+                total += counts[i];
+            }
+            if (total == 0) {
+                return 0.0;
+            }
+            long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS - 1; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min((1L << i) / 1000.0, getMaxMillis());
+                }
+            }
+            return getMaxMillis();
+        }
+    }
+}
@@ -0,0 +1,683 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.ConfigurationSection;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+/**
+ * 插件共享的数据库服务
+ * 所有写操作都在唯一的写线程上执行，同一数据库的写入（包括对同一玩家的写入）按提交顺序串行；
+ * 异步读取在虚拟线程上执行，每个数据库用信号量把同时进行的读取限制为只读连接数量，
+ * 各个管理器都通过这里访问数据库，不再各自打开连接。
+ * <p>
+ * 默认使用 data.db（SQLite）；storage.type 为 mysql/mariadb 时改用 HikariCP 连接池，
+ * 写线程每次操作从池中借用连接，仍然保证写入按提交顺序执行。
+ * <p>
+ * 主线程只应使用异步方法，结果通过 {@link #onMainThread(CompletableFuture)} 回到主线程；
+ * 开启 storage.debug.primary-thread-guard 后，运行期间在主线程上调用同步方法会直接抛出异常。
+ */
+public class StorageService {
+
+    /**
+     * 在数据库连接上执行的操作
+     */
+    @FunctionalInterface
+    public interface SqlCallable<T> {
+        T call(Connection connection) throws SQLException;
+    }
+
+    private final VillagePro plugin;
+    private final int shard;
+    private final String type;
+    private final SqlDialect dialect;
+    private final File databaseFile;
+    private final String url;
+    private final int readPoolSize;
+    private final int busyTimeout;
+    private final String journalMode;
+    private final String synchronous;
+    private final int cacheSize;
+    private final long mmapSize;
+    private final boolean primaryThreadGuard;
+
+    private final ExecutorService writeExecutor;
+    private final ExecutorService readExecutor;
+    // 同时进行的读取数量上限，JDBC 调用在本地代码中会占住虚拟线程的载体线程，不能无限并发
+    private final Semaphore readPermits;
+    private final long readWaitMillis;
+    private final BlockingQueue<Connection> readConnections;
+    private final List<Connection> openedReadConnections = new ArrayList<>();
+    private final StorageMetrics metrics;
+
+    // 连接池，只在使用 MySQL/MariaDB 时存在
+    private HikariDataSource dataSource;
+
+    // 只在写线程上访问
+    private Connection writeConnection;
+    // 连接池模式下当前写操作借用的连接，写线程上的嵌套调用复用同一个连接
+    private Connection activeWriteConnection;
+    private volatile Thread writerThread;
+    private volatile boolean closed;
+    // 启动和关闭阶段允许在主线程上同步访问数据库
+    private volatile boolean guardActive;
+
+    // 在主线程上执行回调，插件已停用时丢弃
+    private final Executor mainThreadExecutor;
+
+    /**
+     * 打开一个分片，SQLite 的每个分片是独立的数据库文件，有各自的写线程
+     *
+     * @param plugin 插件实例
+     * @param shard 分片编号，0 为 data.db
+     * @param metrics 各分片共用的操作统计
+     */
+    public StorageService(VillagePro plugin, int shard, StorageMetrics metrics) {
+        this(plugin, shard, metrics, null);
+    }
+
+    /**
+     * 打开一个分片，MySQL/MariaDB 使用给定的连接池配置，测试时用于连接 MySQL 兼容模式的内存数据库
+     *
+     * @param pool 连接池配置，为null时按 storage.mysql 配置创建；SQLite 忽略此参数
+     */
+    StorageService(VillagePro plugin, int shard, StorageMetrics metrics, HikariConfig pool) {
+        this.plugin = plugin;
+        this.shard = shard;
+        this.mainThreadExecutor = runnable -> {
+            if (Bukkit.isPrimaryThread()) {
+                runnable.run();
+            } else if (plugin.isEnabled()) {
+                Bukkit.getScheduler().runTask(plugin, runnable);
+            }
+        };
+
+        FileConfiguration config = plugin.getConfig();
+        String configuredType = config.getString("storage.type", "sqlite").toLowerCase();
+        SqlDialect configuredDialect = SqlDialect.fromType(configuredType);
+        if (configuredDialect == null) {
+            plugin.getLogger().warning("未知的存储类型: " + configuredType + "，使用 sqlite");
+            configuredType = "sqlite";
+            configuredDialect = SqlDialect.SQLITE;
+        }
+        this.type = configuredType;
+        this.dialect = configuredDialect;
+
+        this.readPoolSize = dialect == SqlDialect.SQLITE
+                ? Math.max(1, config.getInt("storage.sqlite.read-pool-size", 4))
+                : Math.max(1, config.getInt("storage.mysql.pool-size", 10) - 1);
+        this.busyTimeout = Math.max(0, config.getInt("storage.sqlite.busy-timeout", 5000));
+        this.journalMode = config.getString("storage.sqlite.journal-mode", "WAL").toUpperCase();
+        this.synchronous = config.getString("storage.sqlite.synchronous", "NORMAL").toUpperCase();
+        this.cacheSize = config.getInt("storage.sqlite.cache-size", -16000);
+        this.mmapSize = Math.max(0L, config.getLong("storage.sqlite.mmap-size", 268435456L));
+        this.primaryThreadGuard = config.getBoolean("storage.debug.primary-thread-guard", false);
+
+        this.databaseFile = shardFile(plugin.getDataFolder(), shard);
+        this.url = dialect == SqlDialect.SQLITE
+                ? "jdbc:sqlite:" + databaseFile.getAbsolutePath()
+                : "jdbc:" + type + "://" + config.getString("storage.mysql.host", "localhost") + ":"
+                        + config.getInt("storage.mysql.port", 3306) + "/" + config.getString("storage.mysql.database", "villagepro");
+
+        String suffix = shard == 0 ? "" : "-" + shard;
+        this.writeExecutor = Executors.newSingleThreadExecutor(namedThreadFactory("VillagePro-Storage-Writer" + suffix));
+        // 写线程使用固定的平台线程，SQLite 的写连接不能在线程间切换；异步读取每个任务一个虚拟线程
+        this.readExecutor = Executors.newThreadPerTaskExecutor(
+                Thread.ofVirtual().name("VillagePro-Storage-Reader" + suffix + "-", 1).factory());
+        this.readPermits = new Semaphore(readPoolSize, true);
+        this.readWaitMillis = dialect == SqlDialect.SQLITE
+                ? busyTimeout
+                : Math.max(250L, config.getLong("storage.mysql.connection-timeout", 5000L));
+        this.readConnections = new ArrayBlockingQueue<>(readPoolSize);
+        this.metrics = metrics;
+
+        if (dialect == SqlDialect.SQLITE) {
+            open();
+        } else {
+            openPool(pool != null ? pool : poolConfig(config));
+        }
+    }
+
+    /**
+     * MySQL/MariaDB 连接池配置
+     * 开启驱动的预编译语句缓存和批处理重写，批量写入在服务器端合并为多值语句执行
+     */
+    private HikariConfig poolConfig(FileConfiguration config) {
+        HikariConfig hikari = new HikariConfig();
+        hikari.setPoolName("VillagePro-" + type);
+        hikari.setJdbcUrl(url);
+        hikari.setDriverClassName("mariadb".equals(type) ? "org.mariadb.jdbc.Driver" : "com.mysql.cj.jdbc.Driver");
+        hikari.setUsername(config.getString("storage.mysql.username", "root"));
+        hikari.setPassword(config.getString("storage.mysql.password", ""));
+        hikari.setMaximumPoolSize(readPoolSize + 1);
+        hikari.setConnectionTimeout(Math.max(250L, config.getLong("storage.mysql.connection-timeout", 5000L)));
+        hikari.setMaxLifetime(Math.max(30000L, config.getLong("storage.mysql.max-lifetime", 1800000L)));
+
+        if ("mariadb".equals(type)) {
+            hikari.addDataSourceProperty("cachePrepStmts", "true");
+            hikari.addDataSourceProperty("prepStmtCacheSize", "250");
+            hikari.addDataSourceProperty("useServerPrepStmts", "true");
+            hikari.addDataSourceProperty("useBulkStmts", "true");
+        } else {
+            hikari.addDataSourceProperty("cachePrepStmts", "true");
+            hikari.addDataSourceProperty("prepStmtCacheSize", "250");
+            hikari.addDataSourceProperty("prepStmtCacheSqlLimit", "2048");
+            hikari.addDataSourceProperty("useServerPrepStmts", "true");
+            hikari.addDataSourceProperty("rewriteBatchedStatements", "true");
+        }
+        // 配置文件中的连接参数覆盖上面的默认值
+        ConfigurationSection properties = config.getConfigurationSection("storage.mysql.properties");
+        if (properties != null) {
+            for (String key : properties.getKeys(false)) {
+                hikari.addDataSourceProperty(key, String.valueOf(properties.get(key)));
+            }
+        }
+        return hikari;
+    }
+
+    /**
+     * 打开 MySQL/MariaDB 连接池
+     */
+    private void openPool(HikariConfig hikari) {
+        try {
+            dataSource = new HikariDataSource(hikari);
+            writeExecutor.submit(() -> writerThread = Thread.currentThread()).get();
+            plugin.getLogger().info("成功连接到" + type + "数据库: " + hikari.getJdbcUrl() + " (连接池上限 " + hikari.getMaximumPoolSize() + ")");
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "连接" + type + "数据库失败", e);
+        }
+    }
+
+    /**
+     * 打开写连接和只读连接池
+     * 写连接必须先打开，以便数据库文件不存在时先创建
+     */
+    private void open() {
+        if (!databaseFile.getParentFile().exists()) {
+            databaseFile.getParentFile().mkdirs();
+        }
+
+        try {
+            writeExecutor.submit(() -> {
+                writerThread = Thread.currentThread();
+                SQLiteConfig writeConfig = new SQLiteConfig();
+                writeConfig.setBusyTimeout(busyTimeout);
+                writeConnection = DriverManager.getConnection(url, writeConfig.toProperties());
+                applyWriterPragmas(writeConnection);
+                return null;
+            }).get();
+
+            for (int i = 0; i < readPoolSize; i++) {
+                SQLiteConfig readConfig = new SQLiteConfig();
+                readConfig.setReadOnly(true);
+                readConfig.setBusyTimeout(busyTimeout);
+                Connection connection = DriverManager.getConnection(url, readConfig.toProperties());
+                applyConnectionPragmas(connection);
+                openedReadConnections.add(connection);
+                readConnections.add(connection);
+            }
+
+            plugin.getLogger().info("成功连接到SQLite数据库: " + databaseFile.getAbsolutePath()
+                    + " (1 个写连接, " + readPoolSize + " 个只读连接, journal_mode=" + journalMode
+                    + ", synchronous=" + synchronous + ")");
+        } catch (Exception e) {
+            plugin.getLogger().log(Level.SEVERE, "连接SQLite数据库失败", e);
+        }
+    }
+
+    /**
+     * 设置写连接的日志模式和同步级别
+     * journal_mode 是持久化在数据库文件中的设置，只需要写连接设置一次。
+     * 新建的数据库文件启用增量回收，已有的数据库由 {@link DatabaseMaintenance} 在低峰时段转换
+     */
+    private void applyWriterPragmas(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            // auto_vacuum 只能在创建任何表之前设置，并且要早于切换日志模式
+            try (ResultSet rs = stmt.executeQuery("PRAGMA page_count")) {
+                if (rs.next() && rs.getLong(1) == 0) {
+                    stmt.execute("PRAGMA auto_vacuum=INCREMENTAL");
+                }
+            }
+            try (ResultSet rs = stmt.executeQuery("PRAGMA journal_mode=" + journalMode)) {
+                if (rs.next() && !journalMode.equalsIgnoreCase(rs.getString(1))) {
+                    plugin.getLogger().warning("无法切换SQLite日志模式为 " + journalMode + "，当前为 " + rs.getString(1));
+                }
+            }
+            stmt.execute("PRAGMA synchronous=" + synchronous);
+        }
+        applyConnectionPragmas(connection);
+    }
+
+    /**
+     * 设置每个连接独立的缓存和内存映射大小
+     */
+    private void applyConnectionPragmas(Connection connection) throws SQLException {
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA cache_size=" + cacheSize);
+            stmt.execute("PRAGMA mmap_size=" + mmapSize);
+        }
+    }
+
+    /**
+     * 在写线程上同步执行写操作
+     * 如果当前已经在写线程上，则直接执行
+     *
+     * @param action 写操作
+     * @return 操作结果
+     * @throws SQLException 执行失败
+     */
+    public <T> T write(SqlCallable<T> action) throws SQLException {
+        if (Thread.currentThread() == writerThread) {
+            return callOnWriter(action);
+        }
+        checkNotPrimaryThread();
+        ensureOpen();
+        Future<T> future = writeExecutor.submit(() -> callOnWriter(action));
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库写入时被中断", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * 在写线程上以单个事务执行写操作，失败时整体回滚
+     *
+     * @param action 写操作
+     * @return 操作结果
+     * @throws SQLException 执行失败
+     */
+    public <T> T transaction(SqlCallable<T> action) throws SQLException {
+        return write(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = action.call(connection);
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
+    }
+
+    /**
+     * 在写线程上以单个事务执行写操作，限定等待时间
+     * 超时后事务不会再提交：尚未开始时直接取消，正在执行时在结束后回滚；
+     * 如果超时时已经开始提交，则等待提交完成并正常返回
+     *
+     * @param action 写操作
+     * @param timeoutMillis 最长等待时间（毫秒）
+     * @return 操作结果
+     * @throws SQLTimeoutException 超时，事务未提交
+     * @throws SQLException 执行失败，事务已回滚
+     */
+    public <T> T transaction(SqlCallable<T> action, long timeoutMillis) throws SQLException {
+        if (Thread.currentThread() == writerThread) {
+            return transaction(action);
+        }
+        checkNotPrimaryThread();
+        ensureOpen();
+        // 0: 执行中, 1: 提交中, 2: 已放弃
+        AtomicInteger state = new AtomicInteger();
+        Future<T> future = writeExecutor.submit(() -> callOnWriter(connection -> {
+            if (state.get() == 2) {
+                throw new SQLTimeoutException("事务已超时放弃");
+            }
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try {
+                T result = action.call(connection);
+                if (!state.compareAndSet(0, 1)) {
+                    throw new SQLTimeoutException("事务超过等待时间，已回滚");
+                }
+                connection.commit();
+                return result;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        }));
+        try {
+            try {
+                return future.get(Math.max(0L, timeoutMillis), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                if (state.compareAndSet(0, 2)) {
+                    future.cancel(false);
+                    throw new SQLTimeoutException("数据库事务在 " + timeoutMillis + " ms 内未完成");
+                }
+                // 已经开始提交，提交本身很快，等待其完成
+                return future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待数据库写入时被中断", e);
+        } catch (ExecutionException e) {
+            throw unwrap(e.getCause());
+        }
+    }
+
+    /**
+     * 在写线程上异步执行写操作
+     *
+     * @param action 写操作
+     * @return 操作结果
+     */
+    public <T> CompletableFuture<T> writeAsync(SqlCallable<T> action) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return callOnWriter(action);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, writeExecutor);
+    }
+
+    /**
+     * 在写线程上执行操作
+     * SQLite 使用固定的写连接；连接池模式下每次操作借用一个连接，嵌套调用复用同一个
+     */
+    private <T> T callOnWriter(SqlCallable<T> action) throws SQLException {
+        if (dataSource == null) {
+            return action.call(writeConnection);
+        }
+        if (activeWriteConnection != null) {
+            return action.call(activeWriteConnection);
+        }
+        try (Connection connection = dataSource.getConnection()) {
+            activeWriteConnection = connection;
+            return action.call(connection);
+        } finally {
+            activeWriteConnection = null;
+        }
+    }
+
+    /**
+     * 在当前线程上借用一个只读连接执行查询
+     *
+     * @param action 查询操作
+     * @return 查询结果
+     * @throws SQLException 执行失败
+     */
+    public <T> T read(SqlCallable<T> action) throws SQLException {
+        checkNotPrimaryThread();
+        ensureOpen();
+        try {
+            if (!readPermits.tryAcquire(readWaitMillis, TimeUnit.MILLISECONDS)) {
+                throw new SQLException("等待只读连接超时");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待只读连接时被中断", e);
+        }
+        try {
+            return readWithPermit(action);
+        } finally {
+            readPermits.release();
+        }
+    }
+
+    private <T> T readWithPermit(SqlCallable<T> action) throws SQLException {
+        if (dataSource != null) {
+            try (Connection connection = dataSource.getConnection()) {
+                return action.call(connection);
+            }
+        }
+        // 持有许可时总有空闲的只读连接，超时只会在关闭期间出现
+        Connection connection;
+        try {
+            connection = readConnections.poll(busyTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("等待只读连接时被中断", e);
+        }
+        if (connection == null) {
+            throw new SQLException("等待只读连接超时");
+        }
+        try {
+            return action.call(connection);
+        } finally {
+            readConnections.offer(connection);
+        }
+    }
+
+    /**
+     * 在新的虚拟线程上异步执行查询，等待只读连接时不占用平台线程
+     *
+     * @param action 查询操作
+     * @return 查询结果
+     */
+    public <T> CompletableFuture<T> readAsync(SqlCallable<T> action) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return read(action);
+            } catch (SQLException e) {
+                throw new CompletionException(e);
+            }
+        }, readExecutor);
+    }
+
+    /**
+     * 把异步结果交回主线程
+     * 返回的 future 在主线程上完成，之后链接的非 Async 回调都在主线程上执行；
+     * 在主线程上调用且结果已就绪时立即完成。插件停用后结果不再交付
+     *
+     * @param future 存储操作的结果
+     * @return 在主线程上完成的 future
+     */
+    public <T> CompletableFuture<T> onMainThread(CompletableFuture<T> future) {
+        CompletableFuture<T> result = new CompletableFuture<>();
+        future.whenComplete((value, throwable) -> mainThreadExecutor.execute(() -> {
+            if (throwable != null) {
+                result.completeExceptionally(throwable);
+            } else {
+                result.complete(value);
+            }
+        }));
+        return result;
+    }
+
+    /**
+     * @return 在主线程上执行任务的执行器，可用于 thenAcceptAsync 等方法
+     */
+    public Executor mainThread() {
+        return mainThreadExecutor;
+    }
+
+    /**
+     * 启用或停用主线程检查，插件启动完成后启用，开始关闭时停用
+     * 只有配置了 storage.debug.primary-thread-guard 时才生效
+     *
+     * @param active 是否启用
+     */
+    public void setPrimaryThreadGuardActive(boolean active) {
+        this.guardActive = active;
+    }
+
+    /**
+     * 调试检查：运行期间不允许在主线程上同步访问存储
+     *
+     * @throws IllegalStateException 在主线程上调用且已启用检查
+     */
+    public void checkNotPrimaryThread() {
+        if (primaryThreadGuard && guardActive && Bukkit.isPrimaryThread()) {
+            throw new IllegalStateException("在服务器主线程上同步访问数据库，请改用异步方法");
+        }
+    }
+
+    /**
+     * 在独立的只读连接上把数据库复制到目标文件，只支持 SQLite
+     * 使用 VACUUM INTO 在一个读事务中生成一致的副本，不占用写线程和只读连接池；
+     * WAL 模式下读事务不会阻塞写入，复制期间写线程照常提交
+     *
+     * @param target 目标文件，必须不存在
+     * @throws SQLException 复制失败
+     */
+    public void copyTo(File target) throws SQLException {
+        checkNotPrimaryThread();
+        ensureOpen();
+        if (dialect != SqlDialect.SQLITE) {
+            throw new SQLException("只有 SQLite 支持在线备份");
+        }
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setBusyTimeout(busyTimeout);
+        try (Connection connection = DriverManager.getConnection(url, config.toProperties());
+             PreparedStatement stmt = connection.prepareStatement("VACUUM INTO ?")) {
+            stmt.setString(1, target.getAbsolutePath());
+            stmt.execute();
+        }
+    }
+
+    /**
+     * @return 配置的日志模式，非 WAL 模式下读事务会阻塞写入
+     */
+    public String getJournalMode() {
+        return journalMode;
+    }
+
+    /**
+     * @param dataFolder 插件数据目录
+     * @param shard 分片编号
+     * @return 分片对应的 SQLite 数据库文件
+     */
+    static File shardFile(File dataFolder, int shard) {
+        return new File(dataFolder, shard == 0 ? "data.db" : "data-" + shard + ".db");
+    }
+
+    /**
+     * @return 分片编号，未分片时为0
+     */
+    public int getShard() {
+        return shard;
+    }
+
+    /**
+     * @return 数据库文件，只对 SQLite 有意义
+     */
+    public File getDatabaseFile() {
+        return databaseFile;
+    }
+
+    /**
+     * @return 当前使用的SQL方言
+     */
+    public SqlDialect getDialect() {
+        return dialect;
+    }
+
+    /**
+     * @return 配置的存储类型（sqlite、mysql 或 mariadb）
+     */
+    public String getType() {
+        return type;
+    }
+
+    /**
+     * @return 存储操作统计，所有仓库共用
+     */
+    public StorageMetrics getMetrics() {
+        return metrics;
+    }
+
+    private void ensureOpen() throws SQLException {
+        if (closed) {
+            throw new SQLException("数据库服务已关闭");
+        }
+    }
+
+    private static SQLException unwrap(Throwable cause) {
+        if (cause instanceof SQLException sqlException) {
+            return sqlException;
+        }
+        return new SQLException(cause);
+    }
+
+    private static ThreadFactory namedThreadFactory(String name) {
+        AtomicInteger counter = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + counter.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * 关闭所有连接，先等待已提交的写操作完成
+     */
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+
+        readExecutor.shutdown();
+        writeExecutor.shutdown();
+        try {
+            if (!writeExecutor.awaitTermination(10, TimeUnit.SECONDS)) {
+                plugin.getLogger().warning("等待数据库写线程结束超时");
+            }
+            readExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+
+        if (dataSource != null) {
+            dataSource.close();
+            plugin.getLogger().info(type + "数据库连接池已关闭");
+            return;
+        }
+        for (Connection connection : openedReadConnections) {
+            closeQuietly(connection);
+        }
+        closeQuietly(writeConnection);
+        plugin.getLogger().info("SQLite数据库连接已关闭: " + databaseFile.getName());
+    }
+
+    private void closeQuietly(Connection connection) {
+        try {
+            if (connection != null && !connection.isClosed()) {
+                connection.close();
+            }
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "关闭SQLite数据库连接失败", e);
+        }
+    }
+}
@@ -0,0 +1,437 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 按玩家UUID分片的数据库
+ * SQLite 同一个文件只能有一个写入者，storage.sqlite.shards 大于1时按玩家UUID的哈希把玩家数据分到多个文件
+ * （data.db、data-1.db ...），每个分片有独立的写线程和只读连接池。
+ * 同一个玩家的村庄、作物和任务总在同一个分片中，需要遍历所有玩家的查询在各分片上并行执行后合并。
+ * MySQL/MariaDB 本身支持并发写入，始终只有一个分片
+ */
+public class StorageShards {
+    // 手动修改分片数量的上限
+    private static final int MAX_SHARDS = 16;
+    private static final Pattern SHARD_FILE = Pattern.compile("data-(\\d+)\\.db");
+    // 一次搬移的玩家数量，受 SQLite 参数数量限制
+    private static final int MOVE_CHUNK_SIZE = 500;
+
+    /**
+     * 在一个分片上执行的阻塞操作
+     */
+    @FunctionalInterface
+    public interface ShardCall<T> {
+        T call(int shard) throws SQLException;
+    }
+
+    /**
+     * 以玩家为键的表，rebalance 时按所有者列搬移
+     */
+    private static final String[][] PLAYER_TABLES = {
+            // 表名, 所有者列, 搬移的列（源文件中缺少的列不搬移）
+            {"villages", "ownerUuid", "id, ownerUuid, follow_enabled, data, last_seen, version"},
+            {"village_archive", "owner", "owner, last_seen, archived_at, data"},
+            {"village_upgrades", "owner", "owner, type, level"},
+            {"village_villagers", "owner", "villager, owner"},
+            {"village_crops", "owner", "owner, crop, amount"},
+            {"player_tasks", "id", "id, data"},
+            {"task_progress_journal", "player", "player, task, delta"}
+    };
+
+    private final VillagePro plugin;
+    private final List<StorageService> shards;
+    private final ExecutorService fanOutExecutor;
+
+    public StorageShards(VillagePro plugin) {
+        this.plugin = plugin;
+        StorageMetrics metrics = new StorageMetrics(plugin);
+        StorageService primary = new StorageService(plugin, 0, metrics);
+
+        int count = Math.min(MAX_SHARDS, Math.max(1, plugin.getConfig().getInt("storage.sqlite.shards", 1)));
+        if (count > 1 && primary.getDialect() != SqlDialect.SQLITE) {
+            plugin.getLogger().warning(primary.getType() + " 支持并发写入，忽略 storage.sqlite.shards 配置");
+            count = 1;
+        }
+
+        List<StorageService> list = new ArrayList<>(count);
+        list.add(primary);
+        for (int i = 1; i < count; i++) {
+            list.add(new StorageService(plugin, i, metrics));
+        }
+        this.shards = Collections.unmodifiableList(list);
+        // 分片调用只是等待各分片的读写完成，每个调用一个虚拟线程
+        this.fanOutExecutor = count > 1
+                ? Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("VillagePro-Storage-Shards-", 1).factory())
+                : null;
+        if (count > 1) {
+            plugin.getLogger().info("玩家数据分为 " + count + " 个SQLite分片");
+        }
+    }
+
+    /**
+     * @return 分片数量
+     */
+    public int size() {
+        return shards.size();
+    }
+
+    /**
+     * @return 第一个分片（data.db），插件级别的服务和统计都使用这个分片
+     */
+    public StorageService primary() {
+        return shards.get(0);
+    }
+
+    /**
+     * @param shard 分片编号
+     * @return 分片的数据库服务
+     */
+    public StorageService get(int shard) {
+        return shards.get(shard);
+    }
+
+    /**
+     * @return 所有分片，按编号排列
+     */
+    public List<StorageService> all() {
+        return shards;
+    }
+
+    /**
+     * @param key 玩家UUID
+     * @return 玩家数据所在的分片编号
+     */
+    public int indexOf(UUID key) {
+        return Math.floorMod(key.hashCode(), shards.size());
+    }
+
+    /**
+     * @param key 玩家UUID
+     * @return 玩家数据所在的分片
+     */
+    public StorageService forKey(UUID key) {
+        return shards.get(indexOf(key));
+    }
+
+    /**
+     * 按分片拆分集合
+     *
+     * @param values 元素
+     * @param key 元素对应的玩家UUID
+     * @return 每个分片的元素，按分片编号排列
+     */
+    public <V> List<List<V>> partition(Collection<V> values, Function<V, UUID> key) {
+        List<List<V>> result = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            result.add(new ArrayList<>());
+        }
+        for (V value : values) {
+            result.get(indexOf(key.apply(value))).add(value);
+        }
+        return result;
+    }
+
+    /**
+     * 按分片拆分以玩家UUID为键的映射
+     *
+     * @param values 玩家UUID -> 值
+     * @return 每个分片的映射，按分片编号排列
+     */
+    public <V> List<Map<UUID, V>> partition(Map<UUID, V> values) {
+        List<Map<UUID, V>> result = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            result.add(new HashMap<>());
+        }
+        for (Map.Entry<UUID, V> entry : values.entrySet()) {
+            result.get(indexOf(entry.getKey())).put(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * 在所有分片上并行执行阻塞操作并等待全部完成
+     * 只有一个分片时直接在当前线程上执行
+     *
+     * @param call 操作，参数为分片编号
+     * @return 每个分片的结果，按分片编号排列
+     * @throws SQLException 任意分片失败，其他分片的结果被丢弃
+     */
+    public <T> List<T> fanOut(ShardCall<T> call) throws SQLException {
+        if (shards.size() == 1) {
+            return Collections.singletonList(call.call(0));
+        }
+        primary().checkNotPrimaryThread();
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            int shard = i;
+            futures.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return call.call(shard);
+                } catch (SQLException e) {
+                    throw new CompletionException(e);
+                }
+            }, fanOutExecutor));
+        }
+        List<T> results = new ArrayList<>(futures.size());
+        try {
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof SQLException) {
+                throw (SQLException) cause;
+            }
+            throw new SQLException("分片操作失败", cause);
+        }
+        return results;
+    }
+
+    /**
+     * 合并所有分片的异步结果
+     *
+     * @param call 每个分片的异步操作，参数为分片编号
+     * @return 每个分片的结果，按分片编号排列
+     */
+    public <T> CompletableFuture<List<T>> fanOutAsync(Function<Integer, CompletableFuture<T>> call) {
+        List<CompletableFuture<T>> futures = new ArrayList<>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            futures.add(call.apply(i));
+        }
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+            List<T> results = new ArrayList<>(futures.size());
+            for (CompletableFuture<T> future : futures) {
+                results.add(future.join());
+            }
+            return results;
+        });
+    }
+
+    /**
+     * 把不属于所在分片的玩家数据搬到正确的分片，在表结构初始化之后、读取数据之前调用
+     * 修改分片数量后，原有文件中的玩家（包括编号超出新数量的分片文件）会在启动时搬到新的分片。
+     * 每批玩家在目标分片的写连接上 ATTACH 源文件后复制再删除；WAL 模式下两个文件分别提交，
+     * 中途停止时重复的行在下次启动时被覆盖，只有未压缩的任务进度日志可能重复计入一次
+     */
+    public void rebalance() {
+        if (primary().getDialect() != SqlDialect.SQLITE) {
+            return;
+        }
+        List<File> sources = new ArrayList<>();
+        for (StorageService shard : shards) {
+            sources.add(shard.getDatabaseFile());
+        }
+        File[] files = plugin.getDataFolder().listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = SHARD_FILE.matcher(file.getName());
+                if (matcher.matches() && Integer.parseInt(matcher.group(1)) >= shards.size()) {
+                    sources.add(file);
+                }
+            }
+        }
+        if (sources.size() == 1) {
+            return;
+        }
+
+        long start = System.nanoTime();
+        int moved = 0;
+        for (File source : sources) {
+            for (StorageService target : shards) {
+                if (target.getDatabaseFile().equals(source)) {
+                    continue;
+                }
+                try {
+                    moved += pull(target, source);
+                } catch (SQLException e) {
+                    plugin.getLogger().log(Level.SEVERE, "从 " + source.getName() + " 搬移玩家数据到 "
+                            + target.getDatabaseFile().getName() + " 失败", e);
+                }
+            }
+        }
+        if (moved > 0) {
+            plugin.getLogger().info(String.format("已将 %d 个玩家的数据搬到所属分片，耗时 %.1f ms",
+                    moved, (System.nanoTime() - start) / 1_000_000.0));
+        }
+    }
+
+    /**
+     * 在目标分片上把源文件中属于该分片的玩家数据搬过来
+     *
+     * @return 搬移的玩家数量
+     */
+    private int pull(StorageService target, File source) throws SQLException {
+        int targetIndex = target.getShard();
+        return target.write(connection -> {
+            try (PreparedStatement attach = connection.prepareStatement("ATTACH DATABASE ? AS src")) {
+                attach.setString(1, source.getAbsolutePath());
+                attach.execute();
+            }
+            try {
+                Set<String> tables = new HashSet<>();
+                try (Statement stmt = connection.createStatement();
+                     ResultSet rs = stmt.executeQuery("SELECT name FROM src.sqlite_master WHERE type = 'table'")) {
+                    while (rs.next()) {
+                        tables.add(rs.getString(1));
+                    }
+                }
+
+                // 源文件可能是旧版本的表结构，只搬移两边都有的列
+                Map<String, String> columns = new HashMap<>();
+                for (String[] table : PLAYER_TABLES) {
+                    if (tables.contains(table[0])) {
+                        String copied = sourceColumns(connection, table);
+                        if (copied != null) {
+                            columns.put(table[0], copied);
+                        }
+                    }
+                }
+
+                Set<String> owners = new HashSet<>();
+                for (String[] table : PLAYER_TABLES) {
+                    if (!columns.containsKey(table[0])) {
+                        continue;
+                    }
+                    try (Statement stmt = connection.createStatement();
+                         ResultSet rs = stmt.executeQuery("SELECT DISTINCT " + table[1] + " FROM src." + table[0])) {
+                        while (rs.next()) {
+                            String owner = rs.getString(1);
+                            if (owner != null && belongsTo(owner, targetIndex)) {
+                                owners.add(owner);
+                            }
+                        }
+                    }
+                }
+                if (owners.isEmpty()) {
+                    return 0;
+                }
+
+                List<String> ownerList = new ArrayList<>(owners);
+                for (int offset = 0; offset < ownerList.size(); offset += MOVE_CHUNK_SIZE) {
+                    moveChunk(connection, columns, ownerList.subList(offset, Math.min(ownerList.size(), offset + MOVE_CHUNK_SIZE)));
+                }
+                plugin.getLogger().info("从 " + source.getName() + " 搬移 " + owners.size() + " 个玩家的数据到 "
+                        + target.getDatabaseFile().getName());
+                return owners.size();
+            } finally {
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("DETACH DATABASE src");
+                }
+            }
+        });
+    }
+
+    /**
+     * 源文件中该表实际存在的搬移列，旧版本的分片文件可能缺少较新的列，缺少的列使用目标表的默认值
+     *
+     * @return 逗号分隔的列名，源表缺少所有者列时返回null
+     */
+    private static String sourceColumns(Connection connection, String[] table) throws SQLException {
+        Set<String> existing = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA src.table_info(" + table[0] + ")")) {
+            while (rs.next()) {
+                existing.add(rs.getString("name").toLowerCase(Locale.ROOT));
+            }
+        }
+        if (!existing.contains(table[1].toLowerCase(Locale.ROOT))) {
+            return null;
+        }
+        List<String> columns = new ArrayList<>();
+        for (String column : table[2].split(", ")) {
+            if (existing.contains(column.toLowerCase(Locale.ROOT))) {
+                columns.add(column);
+            }
+        }
+        return String.join(", ", columns);
+    }
+
+    private boolean belongsTo(String owner, int shard) {
+        try {
+            return indexOf(UUID.fromString(owner)) == shard;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    private void moveChunk(Connection connection, Map<String, String> columns, List<String> owners) throws SQLException {
+        String placeholders = String.join(",", Collections.nCopies(owners.size(), "?"));
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (String[] table : PLAYER_TABLES) {
+                String copied = columns.get(table[0]);
+                if (copied == null) {
+                    continue;
+                }
+                String where = " WHERE " + table[1] + " IN (" + placeholders + ")";
+                // 进度日志没有自然主键，按原顺序追加；其他表按主键覆盖
+                String insert = table[0].equals("task_progress_journal")
+                        ? "INSERT INTO main." + table[0] + "(" + copied + ") SELECT " + copied + " FROM src." + table[0] + where + " ORDER BY seq"
+                        : "INSERT OR REPLACE INTO main." + table[0] + "(" + copied + ") SELECT " + copied + " FROM src." + table[0] + where;
+                for (String sql : new String[]{insert, "DELETE FROM src." + table[0] + where}) {
+                    try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                        for (int i = 0; i < owners.size(); i++) {
+                            stmt.setString(i + 1, owners.get(i));
+                        }
+                        stmt.executeUpdate();
+                    }
+                }
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+    }
+
+    /**
+     * 启用或停用所有分片的主线程检查
+     *
+     * @param active 是否启用
+     */
+    public void setPrimaryThreadGuardActive(boolean active) {
+        for (StorageService shard : shards) {
+            shard.setPrimaryThreadGuardActive(active);
+        }
+    }
+
+    /**
+     * 关闭所有分片，等待各自的写线程完成
+     */
+    public void close() {
+        if (fanOutExecutor != null) {
+            fanOutExecutor.shutdown();
+        }
+        for (StorageService shard : shards) {
+            shard.close();
+        }
+    }
+}
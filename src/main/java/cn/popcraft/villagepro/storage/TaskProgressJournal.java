@@ -0,0 +1,265 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.Task;
+import org.bukkit.Bukkit;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.logging.Level;
+
+/**
+ * 任务进度日志
+ * 任务进度和积分的变化以 (玩家, 任务, 增量) 的形式通过 {@link TaskRepository} 追加到进度日志，
+ * 同一提交周期内的增量先在内存中合并，再由写线程一次性提交。
+ * 定期把有日志的玩家写成 player_tasks 快照并删除对应日志，启动时在快照上重放剩余日志。
+ * <p>
+ * 任务字段为 NULL 的记录表示任务积分的变化。
+ * <p>
+ * 快照直接编码内存中的 {@link PlayerTaskData}，这些对象只在主线程上修改，所以写入快照的方法都必须在主线程上调用，
+ * 写线程只接收编码后的数据。
+ */
+public class TaskProgressJournal {
+    private final VillagePro plugin;
+    private final TaskRepository repository;
+    private final long commitIntervalTicks;
+
+    // 以下字段都由 this 加锁保护，提交和快照在锁内提交到写线程，保证写入顺序与内存中的修改顺序一致
+    private Map<UUID, Map<UUID, Integer>> pending = new HashMap<>();
+    // 数据库中有日志记录、需要压缩的玩家
+    private final Set<UUID> journaled = new HashSet<>();
+
+    private final AtomicLong appendedCount = new AtomicLong();
+    private final AtomicLong committedCount = new AtomicLong();
+    private final AtomicLong snapshotCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+
+    private BukkitTask commitTask;
+
+    public TaskProgressJournal(VillagePro plugin, TaskRepository repository) {
+        this.plugin = plugin;
+        this.repository = repository;
+        this.commitIntervalTicks = Math.max(1L, plugin.getConfig().getLong("storage.task-journal.commit-interval", 5L));
+    }
+
+    /**
+     * 启动定时提交任务
+     */
+    public void start() {
+        if (commitTask == null) {
+            commitTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::commit, commitIntervalTicks, commitIntervalTicks);
+        }
+    }
+
+    /**
+     * 记录任务进度的变化
+     *
+     * @param playerId 玩家UUID
+     * @param taskId 任务UUID
+     * @param delta 进度增量
+     */
+    public void appendProgress(UUID playerId, UUID taskId, int delta) {
+        append(playerId, taskId, delta);
+    }
+
+    /**
+     * 记录任务积分的变化
+     *
+     * @param playerId 玩家UUID
+     * @param delta 积分增量
+     */
+    public void appendPoints(UUID playerId, int delta) {
+        append(playerId, null, delta);
+    }
+
+    private synchronized void append(UUID playerId, UUID taskId, int delta) {
+        if (delta == 0) {
+            return;
+        }
+        pending.computeIfAbsent(playerId, id -> new HashMap<>()).merge(taskId, delta, Integer::sum);
+        appendedCount.incrementAndGet();
+    }
+
+    /**
+     * 把当前周期内合并后的增量提交到数据库
+     */
+    public synchronized void commit() {
+        if (pending.isEmpty()) {
+            return;
+        }
+        Map<UUID, Map<UUID, Integer>> batch = pending;
+        pending = new HashMap<>();
+        journaled.addAll(batch.keySet());
+
+        repository.appendJournal(batch).thenAccept(committedCount::addAndGet).exceptionally(throwable -> {
+            failedCount.incrementAndGet();
+            plugin.getLogger().log(Level.SEVERE, "提交任务进度日志失败", throwable);
+            return null;
+        });
+    }
+
+    /**
+     * 写入玩家任务快照并删除该玩家的所有日志
+     * 快照取自内存，已包含尚未提交的增量，所以这些增量直接丢弃。必须在主线程上调用
+     *
+     * @param taskData 玩家任务数据
+     */
+    public synchronized void snapshot(PlayerTaskData taskData) {
+        checkPrimaryThread();
+        UUID playerId = taskData.getPlayerUuid();
+        pending.remove(playerId);
+        journaled.remove(playerId);
+        byte[] data = BinaryCodec.encodePlayerTaskData(taskData);
+        snapshotCount.incrementAndGet();
+
+        repository.saveSnapshot(playerId, data).exceptionally(throwable -> {
+            failedCount.incrementAndGet();
+            plugin.getLogger().log(Level.SEVERE, "保存玩家任务快照失败: " + playerId, throwable);
+            return null;
+        });
+    }
+
+    /**
+     * 压缩日志：为所有有日志的玩家写入快照，必须在主线程上调用
+     *
+     * @param lookup 根据玩家UUID获取内存中的任务数据
+     * @return 写入快照的玩家数量
+     */
+    public synchronized int compact(Function<UUID, PlayerTaskData> lookup) {
+        checkPrimaryThread();
+        Set<UUID> players = new HashSet<>(journaled);
+        players.addAll(pending.keySet());
+        int count = 0;
+        for (UUID playerId : players) {
+            PlayerTaskData taskData = lookup.apply(playerId);
+            if (taskData != null) {
+                snapshot(taskData);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * 在快照上重放数据库中的日志，启动时调用
+     *
+     * @param taskData 已加载的玩家任务数据
+     * @return 重放的日志条数
+     */
+    public int replay(Map<UUID, PlayerTaskData> taskData) {
+        List<Object[]> records = new ArrayList<>();
+        try {
+            repository.streamJournal((playerId, taskId, delta) -> records.add(new Object[]{playerId, taskId, delta}));
+        } catch (SQLException e) {
+            plugin.getLogger().log(Level.SEVERE, "读取任务进度日志失败", e);
+            return 0;
+        }
+
+        int applied = 0;
+        synchronized (this) {
+            for (Object[] record : records) {
+                UUID playerId = (UUID) record[0];
+                journaled.add(playerId);
+                PlayerTaskData data = taskData.get(playerId);
+                if (data == null) {
+                    // 没有快照的玩家只可能有积分记录
+                    data = new PlayerTaskData(playerId);
+                    taskData.put(playerId, data);
+                }
+                int delta = (Integer) record[2];
+                if (record[1] == null) {
+                    data.addTaskPoints(delta);
+                    applied++;
+                } else {
+                    Task task = data.getTaskById((UUID) record[1]);
+                    if (task != null) {
+                        task.setProgress(task.getProgress() + delta);
+                        applied++;
+                    }
+                }
+            }
+        }
+        return applied;
+    }
+
+    /**
+     * 停止定时提交，为所有有日志或未提交增量的玩家编码快照，由关闭流程统一写入，必须在主线程上调用
+     *
+     * @param lookup 根据玩家UUID获取内存中的任务数据
+     * @return 玩家UUID -> 编码后的快照
+     */
+    public synchronized Map<UUID, byte[]> drain(Function<UUID, PlayerTaskData> lookup) {
+        checkPrimaryThread();
+        if (commitTask != null) {
+            commitTask.cancel();
+            commitTask = null;
+        }
+        Set<UUID> players = new HashSet<>(journaled);
+        players.addAll(pending.keySet());
+        Map<UUID, byte[]> snapshots = new HashMap<>();
+        for (UUID playerId : players) {
+            PlayerTaskData taskData = lookup.apply(playerId);
+            if (taskData != null) {
+                snapshots.put(playerId, BinaryCodec.encodePlayerTaskData(taskData));
+                pending.remove(playerId);
+                journaled.remove(playerId);
+            }
+        }
+        snapshotCount.addAndGet(snapshots.size());
+        return snapshots;
+    }
+
+    /**
+     * 编码时主线程可能正在修改任务数据，在其他线程上编码会得到不一致的快照
+     */
+    private static void checkPrimaryThread() {
+        if (!Bukkit.isPrimaryThread()) {
+            throw new IllegalStateException("任务快照必须在主线程上编码");
+        }
+    }
+
+    /**
+     * @return 累计记录的进度变化次数（合并前）
+     */
+    public long getAppendedCount() {
+        return appendedCount.get();
+    }
+
+    /**
+     * @return 累计写入数据库的日志条数（合并后）
+     */
+    public long getCommittedCount() {
+        return committedCount.get();
+    }
+
+    /**
+     * @return 累计写入的快照数量
+     */
+    public long getSnapshotCount() {
+        return snapshotCount.get();
+    }
+
+    /**
+     * @return 累计写入失败的日志提交和快照次数
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return 数据库中有日志、等待压缩的玩家数量
+     */
+    public synchronized int getJournaledPlayerCount() {
+        return journaled.size();
+    }
+}
@@ -0,0 +1,84 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.PlayerTaskData;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * 玩家任务数据的持久化接口
+ * 包括 player_tasks 快照和 task_progress_journal 进度日志。
+ * 异步写入方法在调用时立即提交到写线程，按调用顺序执行
+ */
+public interface TaskRepository {
+
+    /**
+     * 读取到的进度日志记录
+     */
+    @FunctionalInterface
+    interface JournalConsumer {
+        /**
+         * @param playerId 玩家UUID
+         * @param taskId 任务UUID，积分记录为null
+         * @param delta 增量
+         */
+        void accept(UUID playerId, UUID taskId, int delta);
+    }
+
+    /**
+     * 在当前线程上读取所有玩家任务快照的原始内容，不做解码，不能在主线程上调用
+     *
+     * @param consumer 原始数据回调
+     * @return 读取的行数
+     * @throws SQLException 读取失败
+     */
+    int streamPlayerTaskRows(Consumer<byte[]> consumer) throws SQLException;
+
+    /**
+     * 解码任务快照
+     *
+     * @param data 原始数据
+     * @return 玩家任务数据，无法解码时返回null
+     */
+    PlayerTaskData decodePlayerTaskData(byte[] data);
+
+    /**
+     * 在一个事务中追加进度日志
+     *
+     * @param batch 玩家 -> (任务, 增量)，任务为null表示积分
+     * @return 写入的日志条数
+     */
+    CompletableFuture<Integer> appendJournal(Map<UUID, Map<UUID, Integer>> batch);
+
+    /**
+     * 在一个事务中写入玩家任务快照并删除该玩家的所有日志
+     *
+     * @param playerId 玩家UUID
+     * @param data 编码后的快照
+     * @return 写入完成
+     */
+    CompletableFuture<Void> saveSnapshot(UUID playerId, byte[] data);
+
+    /**
+     * 在调用方的事务中写入多个玩家的任务快照并删除对应日志，不提交，用于关闭插件时统一写入
+     *
+     * @param connection 写线程上已开启事务的连接
+     * @param snapshots 玩家UUID -> 编码后的快照
+     * @return 写入的快照数量
+     * @throws SQLException 写入失败
+     */
+    int saveSnapshots(Connection connection, Map<UUID, byte[]> snapshots) throws SQLException;
+
+    /**
+     * 在当前线程上按写入顺序读取所有进度日志，不能在主线程上调用
+     *
+     * @param consumer 日志回调
+     * @return 读取的日志条数
+     * @throws SQLException 读取失败
+     */
+    int streamJournal(JournalConsumer consumer) throws SQLException;
+}
@@ -0,0 +1,132 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.manager.VillageManager;
+import cn.popcraft.villagepro.model.VillagerEntity;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+
+/**
+ * 不活跃玩家的村庄归档
+ * 定时查找长时间未上线的玩家，把他们的村庄压缩后移入归档表，减少启动加载的数据量和内存占用。
+ * 在线玩家、有已加载村民以及还有未写入修改的村庄不会被归档，归档的村庄在下次加载时自动恢复
+ */
+public class VillageArchiver {
+    private final VillagePro plugin;
+    private final VillageRepository repository;
+    private final VillageManager villageManager;
+    private final long inactiveMillis;
+    private final long intervalTicks;
+    private final int batchSize;
+
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile BukkitTask archiveTask;
+
+    public VillageArchiver(VillagePro plugin, VillageRepository repository, VillageManager villageManager) {
+        this.plugin = plugin;
+        this.repository = repository;
+        this.villageManager = villageManager;
+
+        FileConfiguration config = plugin.getConfig();
+        this.inactiveMillis = Math.max(0L, config.getLong("storage.archive.inactive-days", 90L)) * 24L * 60L * 60L * 1000L;
+        this.intervalTicks = Math.max(1L, config.getLong("storage.archive.interval", 60L)) * 60L * 20L;
+        this.batchSize = Math.max(1, config.getInt("storage.archive.batch-size", 200));
+    }
+
+    /**
+     * 启动定时归档，不活跃天数为0时不启动
+     */
+    public void start() {
+        if (archiveTask != null || inactiveMillis == 0L) {
+            return;
+        }
+        archiveTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::archiveNow, intervalTicks, intervalTicks);
+    }
+
+    /**
+     * 归档一轮，上一轮还未结束时忽略
+     */
+    public void archiveNow() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        long start = System.nanoTime();
+        long cutoff = System.currentTimeMillis() - inactiveMillis;
+        archiveBatch(cutoff, 0).whenComplete((archived, throwable) -> {
+            running.set(false);
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "归档不活跃玩家的村庄失败", throwable);
+            } else if (archived > 0) {
+                plugin.getLogger().info(String.format("已归档 %d 个不活跃玩家的村庄，耗时 %.1f ms",
+                        archived, (System.nanoTime() - start) / 1_000_000.0));
+            }
+        });
+    }
+
+    /**
+     * 归档一批，批次已满且有进展时继续下一批
+     *
+     * @return 累计归档的村庄数量
+     */
+    private CompletableFuture<Integer> archiveBatch(long cutoff, int total) {
+        if (archiveTask == null) {
+            return CompletableFuture.completedFuture(total);
+        }
+        return repository.findInactive(cutoff, batchSize).thenCompose(owners -> {
+            if (owners.isEmpty()) {
+                return CompletableFuture.completedFuture(total);
+            }
+            // 内存中的村庄只在主线程上修改，移出内存后再归档
+            StorageService storage = plugin.getStorageService();
+            return storage.onMainThread(CompletableFuture.completedFuture(owners))
+                    .thenApply(this::evict)
+                    .thenCompose(evicted -> evicted.isEmpty()
+                            ? CompletableFuture.completedFuture(0)
+                            : repository.archive(evicted, cutoff))
+                    .thenCompose(archived -> owners.size() < batchSize || archived == 0
+                            ? CompletableFuture.completedFuture(total + archived)
+                            : archiveBatch(cutoff, total + archived));
+        });
+    }
+
+    /**
+     * 在主线程上把可以归档的村庄移出内存
+     *
+     * @return 已移出内存的所有者
+     */
+    private List<UUID> evict(List<UUID> owners) {
+        Set<UUID> pinned = new HashSet<>();
+        for (VillagerEntity villagerEntity : plugin.getVillagerEntities().values()) {
+            if (villagerEntity.getOwnerId() != null) {
+                pinned.add(villagerEntity.getOwnerId());
+            }
+        }
+        List<UUID> evicted = new ArrayList<>();
+        for (UUID owner : owners) {
+            if (Bukkit.getPlayer(owner) == null && !pinned.contains(owner) && villageManager.evict(owner)) {
+                evicted.add(owner);
+            }
+        }
+        return evicted;
+    }
+
+    /**
+     * 停止定时归档，正在进行的一批在写线程上完成
+     */
+    public void close() {
+        if (archiveTask != null) {
+            archiveTask.cancel();
+            archiveTask = null;
+        }
+    }
+}
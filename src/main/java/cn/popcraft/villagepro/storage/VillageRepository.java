@@ -0,0 +1,157 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * 村庄数据的持久化接口
+ * 默认由 {@link VillageStorage} 在插件共享的 {@link StorageService} 上实现，
+ * 具体使用 SQLite 还是 MySQL/MariaDB 由 storage.type 决定
+ */
+public interface VillageRepository {
+
+    /**
+     * 异步保存村庄数据，村庄的快照在调用线程上获取
+     *
+     * @param village 村庄对象
+     * @return 是否保存成功
+     */
+    CompletableFuture<Boolean> saveVillage(Village village);
+
+    /**
+     * 批量保存村庄快照，阻塞到写入完成，不能在主线程上调用
+     *
+     * @param villages 村庄快照集合
+     * @return 写入的村庄数量
+     * @throws SQLException 写入失败
+     */
+    int saveAll(Collection<VillageSnapshot> villages) throws SQLException;
+
+    /**
+     * 在调用方的数据库事务中写入村庄快照，不提交，用于关闭插件时统一写入
+     * 不使用共享数据库的实现忽略连接，直接写入自己的存储
+     *
+     * @param connection 写线程上已开启事务的连接
+     * @param villages 村庄快照集合
+     * @return 写入的村庄数量
+     * @throws SQLException 写入失败
+     */
+    default int saveAll(Connection connection, Collection<VillageSnapshot> villages) throws SQLException {
+        return saveAll(villages);
+    }
+
+    /**
+     * 异步加载村庄数据
+     *
+     * @param ownerUuid 玩家UUID
+     * @return 村庄对象，不存在时结果为null，读取失败时异常完成
+     */
+    CompletableFuture<Village> loadVillage(UUID ownerUuid);
+
+    /**
+     * 异步删除村庄数据
+     *
+     * @param ownerUuid 玩家UUID
+     * @return 是否删除成功
+     */
+    CompletableFuture<Boolean> deleteVillage(UUID ownerUuid);
+
+    /**
+     * 检查村庄是否存在
+     *
+     * @param ownerUuid 玩家UUID
+     * @return 是否存在
+     */
+    CompletableFuture<Boolean> exists(UUID ownerUuid);
+
+    /**
+     * @return 所有村庄的所有者UUID
+     */
+    CompletableFuture<UUID[]> getAllVillageOwners();
+
+    /**
+     * 按村民UUID查找所属村庄的所有者
+     *
+     * @param villagerId 村民UUID
+     * @return 所有者UUID，不属于任何村庄时结果为null
+     */
+    CompletableFuture<UUID> findVillagerOwner(UUID villagerId);
+
+    /**
+     * 在当前线程上逐个读取所有村庄，不能在主线程上调用
+     *
+     * @param consumer 村庄回调
+     * @return 读取的村庄数量
+     * @throws SQLException 读取失败
+     */
+    int streamVillages(Consumer<Village> consumer) throws SQLException;
+
+    /**
+     * 在当前线程上逐个读取最近上线过的玩家的村庄，最近上线的在前，不能在主线程上调用
+     * 不记录最近上线时间的存储不读取任何村庄，村庄在首次访问时按需加载
+     *
+     * @param seenSince 时间戳（毫秒），只读取此后上线过的玩家
+     * @param limit 最多读取的数量
+     * @param consumer 村庄回调
+     * @return 读取的村庄数量
+     * @throws SQLException 读取失败
+     */
+    default int streamRecentVillages(long seenSince, int limit, Consumer<Village> consumer) throws SQLException {
+        return 0;
+    }
+
+    /**
+     * 记录玩家最近上线时间，不支持归档的存储忽略此调用
+     *
+     * @param ownerUuid 玩家UUID
+     */
+    default CompletableFuture<Void> markSeen(UUID ownerUuid) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /**
+     * 查找最近上线时间早于指定时间的村庄所有者，不支持归档的存储返回空列表
+     *
+     * @param seenBefore 时间戳（毫秒）
+     * @param limit 最多返回的数量
+     * @return 所有者列表，最久未上线的在前
+     */
+    default CompletableFuture<List<UUID>> findInactive(long seenBefore, int limit) {
+        return CompletableFuture.completedFuture(List.of());
+    }
+
+    /**
+     * 把不活跃的村庄移入归档，下次加载时自动恢复
+     * 调用方必须先把这些村庄从内存中移除，写入前会重新检查最近上线时间
+     *
+     * @param owners 所有者
+     * @param seenBefore 时间戳（毫秒）
+     * @return 归档的村庄数量
+     */
+    default CompletableFuture<Integer> archive(Collection<UUID> owners, long seenBefore) {
+        return CompletableFuture.completedFuture(0);
+    }
+
+    /**
+     * 丢弃为村庄保留的已知状态，村庄移出内存且没有未写入的修改时调用
+     * 之后再次保存时先重新读取或完整重写，不保留已知状态的存储忽略此调用
+     *
+     * @param ownerUuid 所有者UUID
+     */
+    default void forget(UUID ownerUuid) {
+    }
+
+    /**
+     * 关闭存储自身持有的资源，共享的数据库连接由 {@link StorageService} 关闭
+     */
+    default void close() {
+    }
+}
@@ -0,0 +1,354 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+import org.bukkit.Bukkit;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+
+/**
+ * 村庄写回队列
+ * 将村庄标记为脏数据，同一玩家的多次保存合并为一次写入，
+ * 按配置的间隔或批量大小统一刷新到数据库。
+ * 队列中保存的是标记时在主线程获取的不可变快照，刷新线程不会读取正在被修改的村庄
+ */
+public class VillageSaveQueue {
+    private final VillagePro plugin;
+    private final VillageRepository storage;
+
+    // 脏数据集合，同一所有者只保留一条记录
+    private final Map<UUID, VillageSnapshot> dirty = new ConcurrentHashMap<>();
+    // 已取出但尚未提交的批次，写入期间仍视为待写入
+    private final Map<UUID, VillageSnapshot> writing = new ConcurrentHashMap<>();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+
+    private final long flushIntervalTicks;
+    private final int batchSize;
+    private final int maxPending;
+
+    // 统计信息
+    private final AtomicLong coalescedCount = new AtomicLong();
+    private final AtomicLong flushedCount = new AtomicLong();
+    private final AtomicLong failedCount = new AtomicLong();
+    private final AtomicLong overloadCount = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong totalFlushNanos = new AtomicLong();
+    private volatile long lastFlushNanos;
+    private volatile long maxFlushNanos;
+    private volatile long lastOverloadWarning;
+    // 关闭流程开始后只记录快照，不再触发刷新
+    private volatile boolean stopped;
+
+    private BukkitTask flushTask;
+
+    public VillageSaveQueue(VillagePro plugin, VillageRepository storage) {
+        this.plugin = plugin;
+        this.storage = storage;
+
+        FileConfiguration config = plugin.getConfig();
+        this.flushIntervalTicks = Math.max(1L, config.getLong("storage.write-behind.flush-interval", 100L));
+        this.batchSize = Math.max(1, config.getInt("storage.write-behind.batch-size", 200));
+        this.maxPending = Math.max(batchSize, config.getInt("storage.write-behind.max-pending", 5000));
+    }
+
+    /**
+     * 启动定时刷新任务
+     */
+    public void start() {
+        if (flushTask == null) {
+            flushTask = Bukkit.getScheduler().runTaskTimerAsynchronously(plugin, this::flush, flushIntervalTicks, flushIntervalTicks);
+        }
+    }
+
+    /**
+     * 标记村庄需要保存，必须在修改村庄的线程（主线程）上调用
+     * 同一所有者在刷新前的多次调用只会产生一次写入
+     *
+     * @param village 村庄对象
+     */
+    public void markDirty(Village village) {
+        if (village == null || village.getOwnerUuid() == null) {
+            return;
+        }
+
+        if (dirty.put(village.getOwnerUuid(), village.snapshot()) != null) {
+            coalescedCount.incrementAndGet();
+        }
+        if (stopped) {
+            return;
+        }
+
+        int depth = dirty.size();
+        if (depth >= maxPending) {
+            onOverload(depth);
+        } else if (depth >= batchSize) {
+            requestFlush();
+        }
+    }
+
+    /**
+     * 请求尽快异步刷新一次队列
+     */
+    public void requestFlush() {
+        if (!plugin.isEnabled()) {
+            flushAll();
+            return;
+        }
+        if (flushScheduled.compareAndSet(false, true)) {
+            Bukkit.getScheduler().runTaskAsynchronously(plugin, () -> {
+                flushScheduled.set(false);
+                flush();
+            });
+        }
+    }
+
+    /**
+     * 队列积压时立即刷新并记录警告
+     * 这里不是背压：主线程不能等待数据库写入，所以不会阻塞标记。
+     * 队列按所有者合并，每个村庄最多一条快照，积压的上限是有修改的村庄数量
+     */
+    private void onOverload(int depth) {
+        overloadCount.incrementAndGet();
+
+        long now = System.currentTimeMillis();
+        if (now - lastOverloadWarning > 60000L) {
+            lastOverloadWarning = now;
+            plugin.getLogger().warning("村庄保存队列积压: " + depth + " 条待写入 (警告阈值 " + maxPending + ")");
+        }
+        requestFlush();
+    }
+
+    /**
+     * 定时刷新，如果已有刷新在进行则直接跳过
+     */
+    public void flush() {
+        if (!flushLock.tryLock()) {
+            return;
+        }
+        try {
+            while (!dirty.isEmpty()) {
+                if (flushBatch() < batchSize) {
+                    break;
+                }
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 同步刷新全部待写入数据，等待正在进行的刷新完成
+     *
+     * @return 本次写入的村庄数量
+     */
+    public int flushAll() {
+        flushLock.lock();
+        try {
+            int total = 0;
+            while (!dirty.isEmpty()) {
+                int written = flushBatch();
+                if (written == 0) {
+                    break;
+                }
+                total += written;
+            }
+            return total;
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * 写入一个批次，调用方必须持有 flushLock
+     *
+     * @return 成功写入的村庄数量
+     */
+    private int flushBatch() {
+        List<VillageSnapshot> batch = new ArrayList<>(Math.min(batchSize, dirty.size()));
+        for (Map.Entry<UUID, VillageSnapshot> entry : dirty.entrySet()) {
+            if (batch.size() >= batchSize) {
+                break;
+            }
+            UUID ownerUuid = entry.getKey();
+            VillageSnapshot snapshot = entry.getValue();
+            // 先放入 writing 再取出，期间 isPending 始终为真；
+            // 只取出迭代时看到的快照，主线程在此期间放入的更新快照留在队列中等待下一批
+            writing.put(ownerUuid, snapshot);
+            if (dirty.remove(ownerUuid, snapshot)) {
+                batch.add(snapshot);
+            } else {
+                writing.remove(ownerUuid, snapshot);
+            }
+        }
+        if (batch.isEmpty()) {
+            return 0;
+        }
+
+        long start = System.nanoTime();
+        int written = 0;
+        try {
+            // 整个批次在一个事务中写入
+            written = storage.saveAll(batch);
+        } catch (Exception e) {
+            failedCount.addAndGet(batch.size());
+            // 写入失败的村庄重新放回队列，除非期间已有更新的版本入队
+            for (VillageSnapshot village : batch) {
+                dirty.putIfAbsent(village.getOwnerUuid(), village);
+            }
+            plugin.getLogger().log(Level.SEVERE, "写回 " + batch.size() + " 个村庄数据失败，将在下次刷新时重试", e);
+        } finally {
+            for (VillageSnapshot village : batch) {
+                writing.remove(village.getOwnerUuid(), village);
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+
+        lastFlushNanos = elapsed;
+        if (elapsed > maxFlushNanos) {
+            maxFlushNanos = elapsed;
+        }
+        totalFlushNanos.addAndGet(elapsed);
+        flushCount.incrementAndGet();
+        flushedCount.addAndGet(written);
+        return written;
+    }
+
+    /**
+     * 停止定时任务，之后标记的村庄只进入队列，等待 {@link #drain(long)} 取出
+     */
+    public void stop() {
+        stopped = true;
+        if (flushTask != null) {
+            flushTask.cancel();
+            flushTask = null;
+        }
+    }
+
+    /**
+     * 停止队列并取出所有待写入的快照，由关闭流程统一写入
+     * 先等待正在进行的刷新完成，超时后不再等待，正在写入的批次由刷新线程自己完成
+     *
+     * @param timeoutMillis 等待正在进行的刷新的最长时间（毫秒）
+     * @return 待写入的村庄快照
+     */
+    public List<VillageSnapshot> drain(long timeoutMillis) {
+        stop();
+        boolean locked = false;
+        try {
+            locked = flushLock.tryLock(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (!locked) {
+            plugin.getLogger().warning("等待村庄保存队列的刷新超时，" + writing.size() + " 个正在写入的村庄由刷新线程继续写入");
+        }
+        try {
+            List<VillageSnapshot> remaining = new ArrayList<>(dirty.size());
+            // 按键取出当前的快照，取出和放入之间不会丢失更新的版本
+            for (UUID ownerUuid : dirty.keySet()) {
+                VillageSnapshot snapshot = dirty.remove(ownerUuid);
+                if (snapshot != null) {
+                    remaining.add(snapshot);
+                }
+            }
+            return remaining;
+        } finally {
+            if (locked) {
+                flushLock.unlock();
+            }
+        }
+    }
+
+    /**
+     * 获取尚未写入数据库的村庄
+     * 从数据库读取前应先检查这里，否则可能读到旧数据
+     *
+     * @param ownerUuid 所有者UUID
+     * @return 由待写入快照还原的村庄，没有则返回null
+     */
+    public Village getPending(UUID ownerUuid) {
+        VillageSnapshot snapshot = dirty.get(ownerUuid);
+        if (snapshot == null) {
+            snapshot = writing.get(ownerUuid);
+        }
+        return snapshot != null ? snapshot.toVillage() : null;
+    }
+
+    /**
+     * @param ownerUuid 所有者UUID
+     * @return 村庄是否有尚未写入的修改
+     */
+    public boolean isPending(UUID ownerUuid) {
+        return dirty.containsKey(ownerUuid) || writing.containsKey(ownerUuid);
+    }
+
+    /**
+     * @return 当前待写入的村庄数量
+     */
+    public int getQueueDepth() {
+        return dirty.size();
+    }
+
+    /**
+     * @return 被合并掉的重复保存次数
+     */
+    public long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    /**
+     * @return 累计写入的村庄数量
+     */
+    public long getFlushedCount() {
+        return flushedCount.get();
+    }
+
+    /**
+     * @return 累计写入失败的次数
+     */
+    public long getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * @return 队列超过警告阈值的次数
+     */
+    public long getOverloadCount() {
+        return overloadCount.get();
+    }
+
+    /**
+     * @return 最近一个批次的刷新耗时（毫秒）
+     */
+    public double getLastFlushMillis() {
+        return lastFlushNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return 单个批次的最大刷新耗时（毫秒）
+     */
+    public double getMaxFlushMillis() {
+        return maxFlushNanos / 1_000_000.0;
+    }
+
+    /**
+     * @return 批次平均刷新耗时（毫秒）
+     */
+    public double getAverageFlushMillis() {
+        long count = flushCount.get();
+        return count == 0 ? 0.0 : totalFlushNanos.get() / 1_000_000.0 / count;
+    }
+}
@@ -0,0 +1,146 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.UpgradeType;
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * 村庄在数据库中的行状态
+ * 保存时与上一次写入的状态比较，只写入发生变化的行。
+ * 作物数量由 {@link CropCounters} 单独维护，不属于村庄状态
+ */
+final class VillageState {
+    final boolean followEnabled;
+    final Set<UUID> villagerIds;
+    final Map<UpgradeType, Integer> upgradeLevels;
+    // villages.version 的值，从快照生成的状态还没有写入，版本号为0
+    final long version;
+
+    VillageState(boolean followEnabled, Set<UUID> villagerIds, Map<UpgradeType, Integer> upgradeLevels) {
+        this(followEnabled, villagerIds, upgradeLevels, 0L);
+    }
+
+    VillageState(boolean followEnabled, Set<UUID> villagerIds, Map<UpgradeType, Integer> upgradeLevels, long version) {
+        this.followEnabled = followEnabled;
+        this.villagerIds = Collections.unmodifiableSet(villagerIds);
+        this.upgradeLevels = Collections.unmodifiableMap(upgradeLevels);
+        this.version = version;
+    }
+
+    /**
+     * @param version 版本号
+     * @return 内容相同、版本号不同的状态
+     */
+    VillageState withVersion(long version) {
+        return new VillageState(followEnabled, villagerIds, upgradeLevels, version);
+    }
+
+    /**
+     * @return 两个状态的内容是否相同，不比较版本号
+     */
+    boolean sameContent(VillageState other) {
+        return followEnabled == other.followEnabled
+                && villagerIds.equals(other.villagerIds)
+                && upgradeLevels.equals(other.upgradeLevels);
+    }
+
+    /**
+     * 三方合并：以数据库中的状态为基础，只应用本进程相对于上次写入的修改
+     * 双方都修改了同一升级项时取较高的等级
+     *
+     * @param base 本进程上次写入的状态
+     * @param current 本进程当前的状态
+     * @param stored 数据库中的状态
+     * @return 合并后的状态，版本号与数据库中的相同
+     */
+    static VillageState merge(VillageState base, VillageState current, VillageState stored) {
+        boolean followEnabled = current.followEnabled != base.followEnabled ? current.followEnabled : stored.followEnabled;
+
+        Set<UUID> villagerIds = new LinkedHashSet<>(stored.villagerIds);
+        for (UUID villagerId : base.villagerIds) {
+            if (!current.villagerIds.contains(villagerId)) {
+                villagerIds.remove(villagerId);
+            }
+        }
+        for (UUID villagerId : current.villagerIds) {
+            if (!base.villagerIds.contains(villagerId)) {
+                villagerIds.add(villagerId);
+            }
+        }
+
+        Map<UpgradeType, Integer> upgradeLevels = new EnumMap<>(UpgradeType.class);
+        upgradeLevels.putAll(stored.upgradeLevels);
+        for (UpgradeType type : UpgradeType.values()) {
+            Integer ours = current.upgradeLevels.get(type);
+            Integer before = base.upgradeLevels.get(type);
+            if (Objects.equals(ours, before)) {
+                continue;
+            }
+            Integer theirs = stored.upgradeLevels.get(type);
+            if (ours == null) {
+                upgradeLevels.remove(type);
+            } else if (theirs != null && !theirs.equals(before)) {
+                upgradeLevels.put(type, Math.max(ours, theirs));
+            } else {
+                upgradeLevels.put(type, ours);
+            }
+        }
+        return new VillageState(followEnabled, villagerIds, upgradeLevels, stored.version);
+    }
+
+    /**
+     * 从村庄快照生成行状态，快照不可变，可以在任意线程上调用
+     *
+     * @param village 村庄快照
+     * @return 行状态
+     */
+    static VillageState of(VillageSnapshot village) {
+        Map<UpgradeType, Integer> upgradeLevels = new EnumMap<>(UpgradeType.class);
+        upgradeLevels.putAll(village.getUpgradeLevels());
+        return new VillageState(village.isFollowEnabled(), new LinkedHashSet<>(village.getVillagerIds()), upgradeLevels);
+    }
+
+    /**
+     * 还原为村庄对象
+     *
+     * @param ownerUuid 所有者UUID
+     * @return 村庄对象
+     */
+    Village toVillage(UUID ownerUuid) {
+        Village village = new Village();
+        village.setOwnerUuid(ownerUuid);
+        village.setFollowEnabled(followEnabled);
+        village.setVillagerIds(new ArrayList<>(villagerIds));
+        Map<UpgradeType, Integer> levels = new EnumMap<>(UpgradeType.class);
+        levels.putAll(upgradeLevels);
+        village.setUpgradeLevels(levels);
+        return village;
+    }
+
+    /**
+     * 估算写入数据库的字节数，每个UUID按36个字符计算
+     *
+     * @param villagers 村民数量
+     * @param upgrades 升级项数量
+     * @return 字节数
+     */
+    static long estimateBytes(int villagers, int upgrades) {
+        return 37L + villagers * 72L + upgrades * 52L;
+    }
+
+    /**
+     * @return 本状态写入数据库的估算字节数
+     */
+    long estimatedBytes() {
+        return estimateBytes(villagerIds.size(), upgradeLevels.size());
+    }
+}
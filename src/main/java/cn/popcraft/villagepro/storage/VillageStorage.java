@@ -1,209 +1,422 @@
 package cn.popcraft.villagepro.storage;
 
 import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.UpgradeType;
 import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
 import cn.popcraft.villagepro.model.PlayerTaskData;
-import cn.popcraft.villagepro.model.Task;
 import com.google.gson.Gson;
 
-import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.sql.*;
 import java.util.*;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.logging.Level;
 
 /**
  * 村庄存储管理器
- * 负责村庄数据的持久化存储和检索
- * 使用SQLite数据库进行数据存储
+ * 负责村庄数据的持久化存储和检索，并负责所有数据表的创建
+ * 所有数据库访问都通过插件共享的 {@link StorageService} 完成，SQL 差异由 {@link SqlDialect} 处理
  */
-public class VillageStorage {
+public class VillageStorage implements VillageRepository {
     private final VillagePro plugin;
     private final Gson gson;
-    private Connection sqliteConnection;
+    private final StorageService storage;
+    private final SqlDialect dialect;
 
-    public VillageStorage(VillagePro plugin, Gson gson) {
+    private final int batchChunkSize;
+
+    // 内存中的村庄最近一次写入或读取到的行状态，保存时只写入与之不同的行；村庄移出内存时由 forget 丢弃
+    private final Map<UUID, VillageState> persisted = new ConcurrentHashMap<>();
+    // 正在归档的村庄，读线程在此期间读到的数据不作为已知状态，之后的保存会完整重写
+    private final Set<UUID> archiving = ConcurrentHashMap.newKeySet();
+
+    public VillageStorage(VillagePro plugin, Gson gson, StorageService storage) {
         this.plugin = plugin;
         this.gson = gson;
-        initializeSQLite();
+        this.storage = storage;
+        this.dialect = storage.getDialect();
+        this.batchChunkSize = Math.max(1, plugin.getConfig().getInt("storage.sqlite.batch-chunk-size", 500));
+        initializeTables();
     }
 
     /**
-     * 初始化SQLite数据库连接
+     * 初始化数据库表，按版本执行尚未执行的结构迁移
      */
-    private void initializeSQLite() {
+    private void initializeTables() {
         try {
-            // 连接到SQLite数据库
-            String databasePath = plugin.getDataFolder().getAbsolutePath() + File.separator + "data.db";
-            File dbFile = new File(databasePath);
-            
-            // 如果数据库文件不存在，创建数据文件夹
-            if (!dbFile.getParentFile().exists()) {
-                dbFile.getParentFile().mkdirs();
-            }
-            
-            sqliteConnection = DriverManager.getConnection("jdbc:sqlite:" + databasePath);
-            initializeTables();
-            plugin.getLogger().info("成功连接到SQLite数据库: " + databasePath);
+            int version = new SchemaMigrator(plugin, storage).migrate(schemaMigrations());
+            plugin.getLogger().info("所有数据表初始化完成，数据库结构版本 v" + version);
         } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "连接SQLite数据库失败", e);
+            plugin.getLogger().log(Level.SEVERE, "初始化数据库表失败", e);
         }
     }
 
     /**
-     * 初始化数据库表
+     * 数据库结构迁移，只能在末尾追加新的版本
+     * 没有 schema_version 表的旧数据库从第一个版本开始执行，所以早期版本都可以在已有的表上重复执行
      */
-    private void initializeTables() {
-        String villagesSql = "CREATE TABLE IF NOT EXISTS villages ("
-                + "id TEXT PRIMARY KEY, "
-                + "ownerUuid TEXT, "
-                + "data TEXT)";
-        
-        String cropsSql = "CREATE TABLE IF NOT EXISTS crops ("
-                + "id TEXT PRIMARY KEY, "
-                + "data TEXT)";
-        
-        String tasksSql = "CREATE TABLE IF NOT EXISTS player_tasks ("
-                + "id TEXT PRIMARY KEY, "
-                + "data TEXT)";
-        
-        try (Statement stmt = sqliteConnection.createStatement()) {
-            stmt.execute(villagesSql);
-            stmt.execute(cropsSql);
-            stmt.execute(tasksSql);
-            
-            // 检查并升级表结构（兼容旧版本）
-            upgradeTableStructure(stmt);
-            
-            plugin.getLogger().info("所有数据表初始化完成");
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "创建数据库表失败", e);
+    private List<SchemaMigrator.Migration> schemaMigrations() {
+        String uuid = dialect.keyType(36);
+        List<SchemaMigrator.Migration> migrations = new ArrayList<>();
+
+        migrations.add(SchemaMigrator.of(1, "创建基础数据表", connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS villages ("
+                        + "id " + uuid + " PRIMARY KEY, "
+                        + "ownerUuid " + uuid + ", "
+                        + "follow_enabled INTEGER NOT NULL DEFAULT 0, "
+                        + "data TEXT)");
+                stmt.execute("CREATE TABLE IF NOT EXISTS crops ("
+                        + "id " + uuid + " PRIMARY KEY, "
+                        + "data TEXT)");
+                stmt.execute("CREATE TABLE IF NOT EXISTS player_tasks ("
+                        + "id " + uuid + " PRIMARY KEY, "
+                        + "data " + dialect.blobType() + ")");
+            }
+            return null;
+        }));
+
+        // 旧版本的数据只可能存在于SQLite中
+        migrations.add(SchemaMigrator.of(2, "升级旧版村庄表结构", connection -> {
+            if (dialect == SqlDialect.SQLITE) {
+                upgradeLegacyVillages(connection);
+            }
+            return null;
+        }));
+
+        migrations.add(SchemaMigrator.of(3, "创建规范化的村庄、作物和任务日志表", connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS village_upgrades ("
+                        + "owner " + uuid + " NOT NULL, "
+                        + "type " + dialect.keyType(32) + " NOT NULL, "
+                        + "level INTEGER NOT NULL, "
+                        + "PRIMARY KEY (owner, type))" + dialect.withoutRowid());
+                stmt.execute("CREATE TABLE IF NOT EXISTS village_villagers ("
+                        + "villager " + uuid + " PRIMARY KEY, "
+                        + "owner " + uuid + " NOT NULL)");
+                stmt.execute("CREATE TABLE IF NOT EXISTS village_crops ("
+                        + "owner " + uuid + " NOT NULL, "
+                        + "crop " + dialect.keyType(64) + " NOT NULL, "
+                        + "amount INTEGER NOT NULL, "
+                        + "PRIMARY KEY (owner, crop))" + dialect.withoutRowid());
+                stmt.execute("CREATE TABLE IF NOT EXISTS task_progress_journal ("
+                        + "seq " + dialect.autoIncrementKey() + ", "
+                        + "player " + uuid + " NOT NULL, "
+                        + "task " + uuid + ", "
+                        + "delta INTEGER NOT NULL)");
+            }
+            // 旧版本数据库的 id 不一定等于 ownerUuid，按所有者查询需要单独的索引
+            dialect.createIndex(connection, "idx_villages_owner", "villages", "ownerUuid");
+            dialect.createIndex(connection, "idx_village_villagers_owner", "village_villagers", "owner");
+            dialect.createIndex(connection, "idx_task_progress_journal_player", "task_progress_journal", "player");
+            return null;
+        }));
+
+        migrations.add(new JsonVillageMigration(4));
+        migrations.add(new JsonTaskMigration(5));
+
+        // 已有的村庄从迁移时开始计算闲置时间
+        migrations.add(SchemaMigrator.of(6, "记录玩家最近上线时间并创建村庄归档表", connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE villages ADD COLUMN last_seen BIGINT NOT NULL DEFAULT 0");
+                stmt.execute("CREATE TABLE IF NOT EXISTS village_archive ("
+                        + "owner " + uuid + " PRIMARY KEY, "
+                        + "last_seen BIGINT NOT NULL, "
+                        + "archived_at BIGINT NOT NULL, "
+                        + "data " + dialect.blobType() + " NOT NULL)");
+            }
+            try (PreparedStatement stmt = connection.prepareStatement("UPDATE villages SET last_seen = ?")) {
+                stmt.setLong(1, System.currentTimeMillis());
+                stmt.executeUpdate();
+            }
+            dialect.createIndex(connection, "idx_villages_last_seen", "villages", "last_seen");
+            return null;
+        }));
+
+        migrations.add(SchemaMigrator.of(7, "为村庄增加版本号", connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("ALTER TABLE villages ADD COLUMN version BIGINT NOT NULL DEFAULT 0");
+            }
+            return null;
+        }));
+
+        migrations.add(SchemaMigrator.of(8, "创建数据库维护记录表", connection -> {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE IF NOT EXISTS storage_maintenance ("
+                        + "task " + dialect.keyType(32) + " PRIMARY KEY, "
+                        + "last_run BIGINT NOT NULL)");
+            }
+            return null;
+        }));
+        return migrations;
+    }
+
+    /**
+     * 升级旧版 villages 表：缺少 id 列时重建表并保留数据，否则补齐缺少的列
+     */
+    private void upgradeLegacyVillages(Connection connection) throws SQLException {
+        Set<String> columns = new HashSet<>();
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("PRAGMA table_info(villages)")) {
+            while (rs.next()) {
+                columns.add(rs.getString("name"));
+            }
+        }
+
+        try (Statement stmt = connection.createStatement()) {
+            if (!columns.contains("id")) {
+                stmt.execute("CREATE TABLE villages_new ("
+                        + "id TEXT PRIMARY KEY, "
+                        + "ownerUuid TEXT, "
+                        + "follow_enabled INTEGER NOT NULL DEFAULT 0, "
+                        + "data TEXT)");
+                if (columns.contains("ownerUuid") && columns.contains("data")) {
+                    int copied = stmt.executeUpdate("INSERT OR IGNORE INTO villages_new(id, ownerUuid, data) "
+                            + "SELECT ownerUuid, ownerUuid, data FROM villages WHERE ownerUuid IS NOT NULL");
+                    plugin.getLogger().info("重建旧版村庄数据表，保留 " + copied + " 个村庄");
+                } else {
+                    plugin.getLogger().warning("旧版村庄数据表缺少 ownerUuid 或 data 列，无法保留其中的数据");
+                }
+                stmt.execute("DROP TABLE villages");
+                stmt.execute("ALTER TABLE villages_new RENAME TO villages");
+                return;
+            }
+            if (!columns.contains("ownerUuid")) {
+                stmt.execute("ALTER TABLE villages ADD COLUMN ownerUuid TEXT");
+                plugin.getLogger().info("村庄数据表结构已更新，添加了ownerUuid列");
+            }
+            if (!columns.contains("follow_enabled")) {
+                stmt.execute("ALTER TABLE villages ADD COLUMN follow_enabled INTEGER NOT NULL DEFAULT 0");
+                plugin.getLogger().info("村庄数据表结构已更新，添加了follow_enabled列");
+            }
         }
     }
-    
+
     /**
-     * 升级表结构以兼容旧版本
-     * @param stmt 数据库语句对象
-     * @throws SQLException SQL异常
+     * 将旧版以JSON保存的村庄拆分写入规范化的表中，按主键顺序分块执行
+     * 迁移完成的行 data 列置为 NULL，无法解析的行保持原样并跳过
      */
-    private void upgradeTableStructure(Statement stmt) throws SQLException {
-        // 检查villages表结构是否需要升级
-        try {
-            // 尝试查询新的表结构
-            stmt.executeQuery("SELECT id, ownerUuid, data FROM villages LIMIT 0");
-        } catch (SQLException e) {
-            // 如果查询失败，说明表结构不匹配，需要升级
-            plugin.getLogger().info("检测到旧版数据库结构，正在进行升级...");
-            
-            try {
-                // 检查是否存在旧表结构
-                ResultSet rs = stmt.executeQuery("PRAGMA table_info(villages)");
-                boolean hasIdColumn = false;
-                boolean hasOwnerUuidColumn = false;
-                boolean hasDataColumn = false;
-                
-                while (rs.next()) {
-                    String columnName = rs.getString("name");
-                    if ("id".equals(columnName)) {
-                        hasIdColumn = true;
-                    } else if ("ownerUuid".equals(columnName)) {
-                        hasOwnerUuidColumn = true;
-                    } else if ("data".equals(columnName)) {
-                        hasDataColumn = true;
+    private final class JsonVillageMigration implements SchemaMigrator.Migration {
+        private final int version;
+        private String cursor = "";
+
+        JsonVillageMigration(int version) {
+            this.version = version;
+        }
+
+        @Override
+        public int version() {
+            return version;
+        }
+
+        @Override
+        public String description() {
+            return "将JSON村庄数据拆分到规范化的表";
+        }
+
+        @Override
+        public int migrate(Connection connection) throws SQLException {
+            if (dialect != SqlDialect.SQLITE) {
+                return -1;
+            }
+            List<Village> villages = new ArrayList<>();
+            int read = 0;
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT id, ownerUuid, data FROM villages WHERE data IS NOT NULL AND id > ? ORDER BY id LIMIT ?")) {
+                stmt.setString(1, cursor);
+                stmt.setInt(2, batchChunkSize);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        read++;
+                        cursor = rs.getString("id");
+                        Village village = null;
+                        try {
+                            village = gson.fromJson(rs.getString("data"), Village.class);
+                        } catch (RuntimeException e) {
+                            plugin.getLogger().log(Level.WARNING, "无法解析村庄数据，跳过迁移: " + rs.getString("ownerUuid"), e);
+                        }
+                        if (village == null) {
+                            continue;
+                        }
+                        if (village.getOwnerUuid() == null && rs.getString("ownerUuid") != null) {
+                            village.setOwnerUuid(UUID.fromString(rs.getString("ownerUuid")));
+                        }
+                        if (village.getOwnerUuid() != null) {
+                            villages.add(village);
+                        }
                     }
                 }
-                
-                // 如果缺少id列，则需要升级表结构
-                if (!hasIdColumn) {
-                    // 检查旧表结构
-                    try {
-                        stmt.executeQuery("SELECT ownerUuid, data FROM villages_old LIMIT 0");
-                        // 如果存在villages_old表，则从该表迁移数据
-                        stmt.execute("DROP TABLE villages");
-                        stmt.execute("ALTER TABLE villages_old RENAME TO villages");
-                        plugin.getLogger().info("从备份表恢复村庄数据表结构");
-                    } catch (SQLException ex) {
-                        // 旧表不存在，创建新表
-                        stmt.execute("DROP TABLE villages");
-                        
-                        String newVillagesSql = "CREATE TABLE villages (" +
-                                "id TEXT PRIMARY KEY, " +
-                                "ownerUuid TEXT, " +
-                                "data TEXT)";
-                        stmt.execute(newVillagesSql);
-                        
-                        plugin.getLogger().info("重新创建村庄数据表");
+            }
+
+            if (!villages.isEmpty()) {
+                // 只使用本版本时的表结构，不能依赖之后版本才增加的列和表
+                try (PreparedStatement villageStmt = connection.prepareStatement("INSERT INTO villages(id, ownerUuid, follow_enabled, data) VALUES(?,?,?,NULL) "
+                             + "ON CONFLICT(id) DO UPDATE SET follow_enabled = excluded.follow_enabled, data = NULL");
+                     PreparedStatement clearUpgrades = connection.prepareStatement("DELETE FROM village_upgrades WHERE owner = ?");
+                     PreparedStatement clearVillagers = connection.prepareStatement("DELETE FROM village_villagers WHERE owner = ?");
+                     PreparedStatement upgradeStmt = connection.prepareStatement("INSERT OR REPLACE INTO village_upgrades(owner, type, level) VALUES(?,?,?)");
+                     PreparedStatement villagerStmt = connection.prepareStatement("INSERT OR REPLACE INTO village_villagers(villager, owner) VALUES(?,?)");
+                     PreparedStatement cropStmt = connection.prepareStatement("INSERT INTO village_crops(owner, crop, amount) VALUES(?,?,?) "
+                             + "ON CONFLICT(owner, crop) DO UPDATE SET amount = excluded.amount")) {
+                    for (Village village : villages) {
+                        // 先清空该村庄的子表再完整写入
+                        String owner = village.getOwnerUuid().toString();
+                        VillageState state = VillageState.of(village.snapshot());
+                        villageStmt.setString(1, owner);
+                        villageStmt.setString(2, owner);
+                        villageStmt.setInt(3, state.followEnabled ? 1 : 0);
+                        villageStmt.addBatch();
+                        clearUpgrades.setString(1, owner);
+                        clearUpgrades.addBatch();
+                        clearVillagers.setString(1, owner);
+                        clearVillagers.addBatch();
+                        for (Map.Entry<UpgradeType, Integer> upgrade : state.upgradeLevels.entrySet()) {
+                            upgradeStmt.setString(1, owner);
+                            upgradeStmt.setString(2, upgrade.getKey().name());
+                            upgradeStmt.setInt(3, upgrade.getValue());
+                            upgradeStmt.addBatch();
+                        }
+                        for (UUID villagerId : state.villagerIds) {
+                            villagerStmt.setString(1, villagerId.toString());
+                            villagerStmt.setString(2, owner);
+                            villagerStmt.addBatch();
+                        }
+                        Map<String, Integer> crops = village.getCropStorage() != null ? village.getCropStorage() : Collections.emptyMap();
+                        for (Map.Entry<String, Integer> crop : crops.entrySet()) {
+                            cropStmt.setString(1, village.getOwnerUuid().toString());
+                            cropStmt.setString(2, crop.getKey().toLowerCase());
+                            cropStmt.setInt(3, crop.getValue());
+                            cropStmt.addBatch();
+                        }
                     }
-                } else if (!hasOwnerUuidColumn) {
-                    // 如果有id列但没有ownerUuid列
-                    stmt.execute("ALTER TABLE villages ADD COLUMN ownerUuid TEXT");
-                    plugin.getLogger().info("村庄数据表结构已更新，添加了ownerUuid列");
+                    villageStmt.executeBatch();
+                    clearUpgrades.executeBatch();
+                    clearVillagers.executeBatch();
+                    upgradeStmt.executeBatch();
+                    villagerStmt.executeBatch();
+                    cropStmt.executeBatch();
                 }
-                
-                plugin.getLogger().info("村庄数据表结构升级完成");
-            } catch (SQLException upgradeException) {
-                plugin.getLogger().log(Level.WARNING, "升级村庄数据表结构时发生错误，建议备份数据后删除数据库文件重新生成", upgradeException);
             }
+            return read < batchChunkSize ? -1 : read;
         }
-        
-        // 类似地处理其他表的结构检查
-        checkAndUpgradeOtherTables(stmt);
     }
 
     /**
-     * 检查并升级其他表结构
-     * @param stmt 数据库语句对象
-     * @throws SQLException SQL异常
+     * 将旧版以JSON保存的任务数据转换为二进制编码，按主键顺序分块执行
+     * 无法解析的行保持原样，读取时仍可通过Gson回退
      */
-    private void checkAndUpgradeOtherTables(Statement stmt) throws SQLException {
-        // 检查crops表
-        try {
-            stmt.executeQuery("SELECT id, data FROM crops LIMIT 0");
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.WARNING, "作物数据表结构检查失败，可能需要手动修复");
+    private final class JsonTaskMigration implements SchemaMigrator.Migration {
+        private final int version;
+        private String cursor = "";
+
+        JsonTaskMigration(int version) {
+            this.version = version;
         }
 
-        // 检查player_tasks表
-        try {
-            stmt.executeQuery("SELECT id, data FROM player_tasks LIMIT 0");
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.WARNING, "任务数据表结构检查失败，可能需要手动修复");
+        @Override
+        public int version() {
+            return version;
+        }
+
+        @Override
+        public String description() {
+            return "将JSON任务数据转换为二进制格式";
+        }
+
+        @Override
+        public int migrate(Connection connection) throws SQLException {
+            if (dialect != SqlDialect.SQLITE) {
+                return -1;
+            }
+            Map<String, byte[]> converted = new LinkedHashMap<>();
+            int read = 0;
+            long jsonBytes = 0;
+            long binaryBytes = 0;
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT id, data FROM player_tasks WHERE typeof(data) = 'text' AND id > ? ORDER BY id LIMIT ?")) {
+                stmt.setString(1, cursor);
+                stmt.setInt(2, batchChunkSize);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        read++;
+                        cursor = rs.getString("id");
+                        String json = rs.getString("data");
+                        try {
+                            PlayerTaskData taskData = gson.fromJson(json, PlayerTaskData.class);
+                            if (taskData == null) {
+                                continue;
+                            }
+                            byte[] encoded = BinaryCodec.encodePlayerTaskData(taskData);
+                            // 确认编码结果可以读回后再替换
+                            BinaryCodec.decodePlayerTaskData(encoded);
+                            converted.put(cursor, encoded);
+                            jsonBytes += json.getBytes(StandardCharsets.UTF_8).length;
+                            binaryBytes += encoded.length;
+                        } catch (RuntimeException | IOException e) {
+                            plugin.getLogger().log(Level.WARNING, "无法解析任务数据，保留JSON格式: " + cursor, e);
+                        }
+                    }
+                }
+            }
+
+            if (!converted.isEmpty()) {
+                try (PreparedStatement stmt = connection.prepareStatement("UPDATE player_tasks SET data = ? WHERE id = ?")) {
+                    for (Map.Entry<String, byte[]> entry : converted.entrySet()) {
+                        stmt.setBytes(1, entry.getValue());
+                        stmt.setString(2, entry.getKey());
+                        stmt.addBatch();
+                    }
+                    stmt.executeBatch();
+                }
+                plugin.getLogger().info(String.format("已将 %d 个玩家任务数据转换为二进制格式: %d 字节 -> %d 字节",
+                        converted.size(), jsonBytes, binaryBytes));
+            }
+            return read < batchChunkSize ? -1 : read;
         }
     }
-    
+
     /**
      * 保存村庄数据
      *
      * @param village 村庄对象
      * @return 是否保存成功
      */
+    @Override
     public CompletableFuture<Boolean> saveVillage(Village village) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                String json = gson.toJson(village);
-                saveToSQLite(village, json);
-                return true;
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "保存村庄数据失败: " + village.getOwnerUuid(), e);
-                return false;
-            }
-        }).exceptionally(throwable -> {
+        VillageState state = VillageState.of(village.snapshot());
+        StorageMetrics.Sample sample = storage.getMetrics().start("save", "保存村庄 " + village.getOwnerUuid())
+                .bytes(state.estimatedBytes());
+        return storage.writeAsync(connection -> {
+            saveToSQLite(connection, village.getOwnerUuid(), state);
+            return true;
+        }).whenComplete((result, throwable) -> sample.end(throwable)).exceptionally(throwable -> {
             plugin.getLogger().log(Level.SEVERE, "保存村庄数据时发生异常: " + village.getOwnerUuid(), throwable);
             return false;
         });
     }
 
     /**
-     * 保存到SQLite数据库
+     * 保存到SQLite数据库，只写入与上次保存不同的行，数据库中的行已被其他写入方修改时合并后写入
      */
-    private void saveToSQLite(Village village, String json) throws SQLException {
-        String sql = "INSERT OR REPLACE INTO villages(id, ownerUuid, data) VALUES(?,?,?)";
-        try (PreparedStatement stmt = sqliteConnection.prepareStatement(sql)) {
-            stmt.setString(1, village.getOwnerUuid().toString()); // id列
-            stmt.setString(2, village.getOwnerUuid().toString()); // ownerUuid列
-            stmt.setString(3, json); // data列
-            stmt.executeUpdate();
+    private void saveToSQLite(Connection connection, UUID ownerUuid, VillageState state) throws SQLException {
+        VillageState written;
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try (VillageRowWriter writer = new VillageRowWriter(connection)) {
+            written = writer.writeVersioned(List.of(Map.entry(ownerUuid, state)), persisted::get).get(0);
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
         }
+        persisted.put(ownerUuid, written);
     }
 
     /**
@@ -212,35 +425,278 @@ public class VillageStorage {
      * @param ownerUuid 玩家UUID
      * @return 村庄对象，如果不存在则返回null
      */
+    @Override
     public CompletableFuture<Village> loadVillage(UUID ownerUuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return loadFromSQLite(ownerUuid);
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "加载村庄数据失败: " + ownerUuid, e);
-                return null;
+        StorageMetrics.Sample sample = storage.getMetrics().start("load", "加载村庄 " + ownerUuid);
+        return storage.readAsync(connection -> {
+            Village village = loadFromSQLite(connection, ownerUuid);
+            return new Loaded(village, village == null && isArchived(connection, ownerUuid));
+        }).thenCompose(loaded -> loaded.archived()
+                ? storage.writeAsync(connection -> restoreArchived(connection, ownerUuid))
+                : CompletableFuture.completedFuture(loaded.village())).whenComplete((village, throwable) -> {
+            if (village != null) {
+                sample.bytes(VillageState.estimateBytes(village.getVillagerIds().size(), village.getUpgradeLevels().size()));
+            }
+            sample.end(throwable);
+            if (throwable != null) {
+                plugin.getLogger().log(Level.SEVERE, "加载村庄数据时发生异常: " + ownerUuid, throwable);
+            }
+        });
+    }
+
+    /**
+     * 读线程上的加载结果，村庄不存在时记录是否已被归档
+     */
+    private record Loaded(Village village, boolean archived) {
+    }
+
+    private boolean isArchived(Connection connection, UUID ownerUuid) throws SQLException {
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT 1 FROM village_archive WHERE owner = ?")) {
+            stmt.setString(1, ownerUuid.toString());
+            try (ResultSet rs = stmt.executeQuery()) {
+                return rs.next();
+            }
+        }
+    }
+
+    /**
+     * 在写线程上把归档的村庄恢复为普通数据行，恢复后删除归档
+     * 读取和写入之间归档可能已被其他写入清除，这时重新按普通方式加载
+     */
+    private Village restoreArchived(Connection connection, UUID ownerUuid) throws SQLException {
+        String owner = ownerUuid.toString();
+        byte[] data;
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT data FROM village_archive WHERE owner = ?")) {
+            stmt.setString(1, owner);
+            try (ResultSet rs = stmt.executeQuery()) {
+                if (!rs.next()) {
+                    return loadFromSQLite(connection, ownerUuid);
+                }
+                data = rs.getBytes("data");
+            }
+        }
+
+        Village village;
+        try {
+            village = BinaryCodec.decodeVillage(BinaryCodec.inflate(data));
+        } catch (IOException e) {
+            throw new SQLException("无法解析归档的村庄数据: " + owner, e);
+        }
+        VillageState state;
+
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            try (VillageRowWriter writer = new VillageRowWriter(connection)) {
+                state = writer.writeVersioned(List.of(Map.entry(ownerUuid, VillageState.of(village.snapshot()))), unknown -> null).get(0);
+            }
+            try (PreparedStatement stmt = connection.prepareStatement("UPDATE villages SET last_seen = ? WHERE ownerUuid = ?")) {
+                stmt.setLong(1, System.currentTimeMillis());
+                stmt.setString(2, owner);
+                stmt.executeUpdate();
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
+        }
+        persisted.put(ownerUuid, state);
+        plugin.getLogger().info("已从归档中恢复玩家 " + owner + " 的村庄");
+        return state.toVillage(ownerUuid);
+    }
+
+    /**
+     * 记录玩家最近上线时间，用于判断村庄是否可以归档
+     *
+     * @param ownerUuid 玩家UUID
+     */
+    @Override
+    public CompletableFuture<Void> markSeen(UUID ownerUuid) {
+        return storage.writeAsync(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement("UPDATE villages SET last_seen = ? WHERE ownerUuid = ?")) {
+                stmt.setLong(1, System.currentTimeMillis());
+                stmt.setString(2, ownerUuid.toString());
+                stmt.executeUpdate();
             }
-        }).exceptionally(throwable -> {
-            plugin.getLogger().log(Level.SEVERE, "加载村庄数据时发生异常: " + ownerUuid, throwable);
             return null;
         });
     }
 
+    /**
+     * 查找最近上线时间早于指定时间的村庄所有者，最久未上线的在前
+     *
+     * @param seenBefore 时间戳（毫秒）
+     * @param limit 最多返回的数量
+     * @return 所有者列表
+     */
+    @Override
+    public CompletableFuture<List<UUID>> findInactive(long seenBefore, int limit) {
+        return storage.readAsync(connection -> {
+            List<UUID> owners = new ArrayList<>();
+            try (PreparedStatement stmt = connection.prepareStatement(
+                    "SELECT ownerUuid FROM villages WHERE last_seen < ? ORDER BY last_seen LIMIT ?")) {
+                stmt.setLong(1, seenBefore);
+                stmt.setInt(2, limit);
+                try (ResultSet rs = stmt.executeQuery()) {
+                    while (rs.next()) {
+                        owners.add(UUID.fromString(rs.getString("ownerUuid")));
+                    }
+                }
+            }
+            return owners;
+        });
+    }
+
+    /**
+     * 把村庄压缩后移入归档表，并删除原来的村庄、升级和村民行
+     * 写入前重新检查最近上线时间，期间上线过的玩家不会被归档。整批在一个事务中完成
+     *
+     * @param owners 所有者，调用方必须保证这些村庄已不在内存中
+     * @param seenBefore 时间戳（毫秒），与查找时使用的相同
+     * @return 归档的村庄数量
+     */
+    @Override
+    public CompletableFuture<Integer> archive(Collection<UUID> owners, long seenBefore) {
+        StorageMetrics.Sample sample = storage.getMetrics().start("archive", "归档 " + owners.size() + " 个村庄");
+        archiving.addAll(owners);
+        return storage.writeAsync(connection -> {
+            long now = System.currentTimeMillis();
+            List<UUID> archived = new ArrayList<>();
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (PreparedStatement seen = connection.prepareStatement("SELECT last_seen FROM villages WHERE ownerUuid = ?");
+                 PreparedStatement insert = connection.prepareStatement(dialect.replaceInto()
+                         + " village_archive(owner, last_seen, archived_at, data) VALUES(?,?,?,?)");
+                 PreparedStatement deleteUpgrades = connection.prepareStatement("DELETE FROM village_upgrades WHERE owner = ?");
+                 PreparedStatement deleteVillagers = connection.prepareStatement("DELETE FROM village_villagers WHERE owner = ?");
+                 PreparedStatement deleteVillage = connection.prepareStatement("DELETE FROM villages WHERE ownerUuid = ?")) {
+                for (UUID ownerUuid : owners) {
+                    String owner = ownerUuid.toString();
+                    long lastSeen;
+                    seen.setString(1, owner);
+                    try (ResultSet rs = seen.executeQuery()) {
+                        if (!rs.next() || (lastSeen = rs.getLong("last_seen")) >= seenBefore) {
+                            continue;
+                        }
+                    }
+                    Village village = loadFromSQLite(connection, ownerUuid);
+                    byte[] data = BinaryCodec.deflate(BinaryCodec.encodeVillage(village.snapshot()));
+                    sample.bytes(data.length);
+
+                    insert.setString(1, owner);
+                    insert.setLong(2, lastSeen);
+                    insert.setLong(3, now);
+                    insert.setBytes(4, data);
+                    insert.executeUpdate();
+                    for (PreparedStatement delete : List.of(deleteUpgrades, deleteVillagers, deleteVillage)) {
+                        delete.setString(1, owner);
+                        delete.executeUpdate();
+                    }
+                    archived.add(ownerUuid);
+                }
+                connection.commit();
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+            archived.forEach(persisted::remove);
+            return archived.size();
+        }).whenComplete((result, throwable) -> {
+            archiving.removeAll(owners);
+            sample.end(throwable);
+        });
+    }
+
     /**
      * 从SQLite数据库加载
      */
-    private Village loadFromSQLite(UUID ownerUuid) throws SQLException {
-        String sql = "SELECT data FROM villages WHERE ownerUuid = ?";
-        try (PreparedStatement stmt = sqliteConnection.prepareStatement(sql)) {
-            stmt.setString(1, ownerUuid.toString());
+    private Village loadFromSQLite(Connection connection, UUID ownerUuid) throws SQLException {
+        VillageState state = readState(connection, ownerUuid);
+        if (state == null) {
+            return null;
+        }
+        if (!archiving.contains(ownerUuid)) {
+            // 重新加载时以数据库中较新的行为准，保留旧状态会在下次保存时造成不必要的版本冲突
+            persisted.merge(ownerUuid, state, (known, loaded) -> loaded.version >= known.version ? loaded : known);
+        }
+        return state.toVillage(ownerUuid);
+    }
+
+    /**
+     * 读取村庄在数据库中的行状态和版本号
+     *
+     * @return 行状态，村庄不存在时返回null
+     */
+    private VillageState readState(Connection connection, UUID ownerUuid) throws SQLException {
+        String owner = ownerUuid.toString();
+        boolean followEnabled;
+        long version;
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT follow_enabled, version FROM villages WHERE ownerUuid = ?")) {
+            stmt.setString(1, owner);
             try (ResultSet rs = stmt.executeQuery()) {
-                if (rs.next()) {
-                    String json = rs.getString("data");
-                    return gson.fromJson(json, Village.class);
+                if (!rs.next()) {
+                    return null;
+                }
+                followEnabled = rs.getInt("follow_enabled") != 0;
+                version = rs.getLong("version");
+            }
+        }
+
+        Set<UUID> villagerIds = new LinkedHashSet<>();
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT villager FROM village_villagers WHERE owner = ?")) {
+            stmt.setString(1, owner);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    villagerIds.add(UUID.fromString(rs.getString("villager")));
                 }
             }
         }
-        return null;
+
+        Map<UpgradeType, Integer> upgradeLevels = new EnumMap<>(UpgradeType.class);
+        try (PreparedStatement stmt = connection.prepareStatement("SELECT type, level FROM village_upgrades WHERE owner = ?")) {
+            stmt.setString(1, owner);
+            try (ResultSet rs = stmt.executeQuery()) {
+                while (rs.next()) {
+                    putUpgrade(upgradeLevels, owner, rs.getString("type"), rs.getInt("level"));
+                }
+            }
+        }
+
+        return new VillageState(followEnabled, villagerIds, upgradeLevels, version);
+    }
+
+    private void putUpgrade(Map<UpgradeType, Integer> upgradeLevels, String owner, String type, int level) {
+        try {
+            upgradeLevels.put(UpgradeType.valueOf(type), level);
+        } catch (IllegalArgumentException e) {
+            plugin.getLogger().warning("忽略未知的升级类型: 玩家=" + owner + ", 类型=" + type);
+        }
+    }
+
+    /**
+     * 按村民UUID查找所属村庄的所有者
+     * village_villagers 以村民UUID为主键，一次主键查询即可得到结果
+     *
+     * @param villagerId 村民UUID
+     * @return 所有者UUID，如果村民不属于任何村庄则返回null
+     */
+    @Override
+    public CompletableFuture<UUID> findVillagerOwner(UUID villagerId) {
+        return storage.readAsync(connection -> {
+            try (PreparedStatement stmt = connection.prepareStatement("SELECT owner FROM village_villagers WHERE villager = ?")) {
+                stmt.setString(1, villagerId.toString());
+                try (ResultSet rs = stmt.executeQuery()) {
+                    return rs.next() ? UUID.fromString(rs.getString("owner")) : null;
+                }
+            }
+        }).exceptionally(throwable -> {
+            plugin.getLogger().log(Level.SEVERE, "查找村民所属村庄时发生异常: " + villagerId, throwable);
+            return null;
+        });
     }
 
     /**
@@ -249,16 +705,13 @@ public class VillageStorage {
      * @param ownerUuid 玩家UUID
      * @return 是否删除成功
      */
+    @Override
     public CompletableFuture<Boolean> deleteVillage(UUID ownerUuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                deleteFromSQLite(ownerUuid);
-                return true;
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "删除村庄数据失败: " + ownerUuid, e);
-                return false;
-            }
-        }).exceptionally(throwable -> {
+        StorageMetrics.Sample sample = storage.getMetrics().start("delete", "删除村庄 " + ownerUuid);
+        return storage.writeAsync(connection -> {
+            deleteFromSQLite(connection, ownerUuid);
+            return true;
+        }).whenComplete((result, throwable) -> sample.end(throwable)).exceptionally(throwable -> {
             plugin.getLogger().log(Level.SEVERE, "删除村庄数据时发生异常: " + ownerUuid, throwable);
             return false;
         });
@@ -267,12 +720,41 @@ public class VillageStorage {
     /**
      * 从SQLite数据库删除
      */
-    private void deleteFromSQLite(UUID ownerUuid) throws SQLException {
-        String sql = "DELETE FROM villages WHERE ownerUuid = ?";
-        try (PreparedStatement stmt = sqliteConnection.prepareStatement(sql)) {
-            stmt.setString(1, ownerUuid.toString());
-            stmt.executeUpdate();
+    private void deleteFromSQLite(Connection connection, UUID ownerUuid) throws SQLException {
+        String[] sqls = {
+                "DELETE FROM village_upgrades WHERE owner = ?",
+                "DELETE FROM village_villagers WHERE owner = ?",
+                "DELETE FROM village_crops WHERE owner = ?",
+                "DELETE FROM village_archive WHERE owner = ?",
+                "DELETE FROM villages WHERE ownerUuid = ?"
+        };
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit(false);
+        try {
+            for (String sql : sqls) {
+                try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+                    stmt.setString(1, ownerUuid.toString());
+                    stmt.executeUpdate();
+                }
+            }
+            connection.commit();
+        } catch (SQLException | RuntimeException e) {
+            connection.rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(autoCommit);
         }
+        persisted.remove(ownerUuid);
+    }
+
+    /**
+     * 丢弃村庄的已知状态，之后的保存在重新加载前完整重写
+     *
+     * @param ownerUuid 所有者UUID
+     */
+    @Override
+    public void forget(UUID ownerUuid) {
+        persisted.remove(ownerUuid);
     }
 
     /**
@@ -281,15 +763,9 @@ public class VillageStorage {
      * @param ownerUuid 玩家UUID
      * @return 是否存在
      */
+    @Override
     public CompletableFuture<Boolean> exists(UUID ownerUuid) {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return existsInSQLite(ownerUuid);
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "检查村庄数据存在性时发生异常: " + ownerUuid, e);
-                return false;
-            }
-        }).exceptionally(throwable -> {
+        return storage.readAsync(connection -> existsInSQLite(connection, ownerUuid)).exceptionally(throwable -> {
             plugin.getLogger().log(Level.SEVERE, "检查村庄数据存在性时发生异常: " + ownerUuid, throwable);
             return false;
         });
@@ -298,14 +774,18 @@ public class VillageStorage {
     /**
      * 检查村庄在SQLite数据库中是否存在
      */
-    private boolean existsInSQLite(UUID ownerUuid) throws SQLException {
+    private boolean existsInSQLite(Connection connection, UUID ownerUuid) throws SQLException {
         String sql = "SELECT 1 FROM villages WHERE ownerUuid = ? LIMIT 1";
-        try (PreparedStatement stmt = sqliteConnection.prepareStatement(sql)) {
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
             stmt.setString(1, ownerUuid.toString());
             try (ResultSet rs = stmt.executeQuery()) {
-                return rs.next();
+                if (rs.next()) {
+                    return true;
+                }
             }
         }
+        // 归档的村庄在下次加载时恢复，仍然算作存在
+        return isArchived(connection, ownerUuid);
     }
 
     /**
@@ -313,15 +793,9 @@ public class VillageStorage {
      *
      * @return 所有村庄的所有者UUID列表
      */
+    @Override
     public CompletableFuture<UUID[]> getAllVillageOwners() {
-        return CompletableFuture.supplyAsync(() -> {
-            try {
-                return getAllVillageOwnersFromSQLite();
-            } catch (Exception e) {
-                plugin.getLogger().log(Level.SEVERE, "获取所有村庄所有者时发生异常", e);
-                return new UUID[0];
-            }
-        }).exceptionally(throwable -> {
+        return storage.readAsync(this::getAllVillageOwnersFromSQLite).exceptionally(throwable -> {
             plugin.getLogger().log(Level.SEVERE, "获取所有村庄所有者时发生异常", throwable);
             return new UUID[0];
         });
@@ -330,9 +804,9 @@ public class VillageStorage {
     /**
      * 从SQLite数据库获取所有村庄所有者
      */
-    private UUID[] getAllVillageOwnersFromSQLite() throws SQLException {
+    private UUID[] getAllVillageOwnersFromSQLite(Connection connection) throws SQLException {
         String sql = "SELECT DISTINCT ownerUuid FROM villages";
-        try (Statement stmt = sqliteConnection.createStatement();
+        try (Statement stmt = connection.createStatement();
              ResultSet rs = stmt.executeQuery(sql)) {
             
             List<UUID> uuidList = new ArrayList<>();
@@ -345,201 +819,434 @@ public class VillageStorage {
     }
 
     /**
-     * 查找所有村庄数据（兼容旧版SQLiteStorage接口）
+     * 在当前线程上逐个读取所有村庄
+     * 三张表都按所有者排序后同时遍历，每组装好一个村庄就交给回调，不需要把整张表放进内存
      *
-     * @return 所有村庄数据集合
+     * @param consumer 村庄回调
+     * @return 读取的村庄数量
+     * @throws SQLException 读取失败
      */
-    public Collection<Village> findAll() {
-        String sql = "SELECT data FROM villages";
-        try (Statement stmt = sqliteConnection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            Collection<Village> villages = new ArrayList<>();
-            while (rs.next()) {
-                String jsonData = rs.getString("data");
-                Village village = gson.fromJson(jsonData, Village.class);
-                if (village != null) {
-                    villages.add(village);
-                }
-            }
-            return villages;
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "查找所有村庄数据失败", e);
-            return new ArrayList<>();
+    @Override
+    public int streamVillages(Consumer<Village> consumer) throws SQLException {
+        StorageMetrics.Sample sample = storage.getMetrics().start("findAll", "遍历所有村庄");
+        try {
+            int count = readAllVillages(consumer, sample);
+            sample.end();
+            return count;
+        } catch (SQLException | RuntimeException e) {
+            sample.end(e);
+            throw e;
         }
     }
 
     /**
-     * 保存村庄数据（兼容旧版SQLiteStorage接口）
+     * 在当前线程上读取最近上线过的玩家的村庄，最近上线的在前
+     * 按 last_seen 索引取出所有者后逐个加载，已归档的村庄不会读取
      *
-     * @param village 村庄对象
-     */
-    public void save(Village village) throws SQLException {
-        String json = gson.toJson(village);
-        saveToSQLite(village, json);
-    }
-    
-    /**
-     * 更新任务进度
-     * @param playerId 玩家ID
-     * @param taskId 任务ID
-     * @param progress 进度
+     * @param seenSince 时间戳（毫秒）
+     * @param limit 最多读取的数量
+     * @param consumer 村庄回调
+     * @return 读取的村庄数量
+     * @throws SQLException 读取失败
      */
-    public void updateTaskProgress(UUID playerId, UUID taskId, int progress) {
+    @Override
+    public int streamRecentVillages(long seenSince, int limit, Consumer<Village> consumer) throws SQLException {
+        StorageMetrics.Sample sample = storage.getMetrics().start("findRecent", "读取最近上线的村庄");
         try {
-            // 首先加载玩家的任务数据
-            String sql = "SELECT data FROM player_tasks WHERE id = ?";
-            try (PreparedStatement selectStmt = sqliteConnection.prepareStatement(sql)) {
-                selectStmt.setString(1, playerId.toString());
-                try (ResultSet rs = selectStmt.executeQuery()) {
-                    if (rs.next()) {
-                        String jsonData = rs.getString("data");
-                        PlayerTaskData taskData = gson.fromJson(jsonData, PlayerTaskData.class);
-                        if (taskData != null) {
-                            // 更新任务进度
-                            Task task = taskData.getTaskById(taskId);
-                            if (task != null) {
-                                task.setProgress(progress);
-                                
-                                // 保存更新后的数据
-                                String updatedJson = gson.toJson(taskData);
-                                String updateSql = "INSERT OR REPLACE INTO player_tasks(id, data) VALUES(?,?)";
-                                try (PreparedStatement updateStmt = sqliteConnection.prepareStatement(updateSql)) {
-                                    updateStmt.setString(1, playerId.toString());
-                                    updateStmt.setString(2, updatedJson);
-                                    updateStmt.executeUpdate();
-                                }
-                            }
+            int count = storage.read(connection -> {
+                List<UUID> owners = new ArrayList<>();
+                try (PreparedStatement stmt = connection.prepareStatement(
+                        "SELECT ownerUuid FROM villages WHERE last_seen >= ? ORDER BY last_seen DESC LIMIT ?")) {
+                    stmt.setLong(1, seenSince);
+                    stmt.setInt(2, limit);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            owners.add(UUID.fromString(rs.getString("ownerUuid")));
                         }
                     }
                 }
-            }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "更新任务进度失败: 玩家=" + playerId + ", 任务=" + taskId + ", 进度=" + progress, e);
+                int loaded = 0;
+                for (UUID ownerUuid : owners) {
+                    Village village = loadFromSQLite(connection, ownerUuid);
+                    if (village != null) {
+                        sample.bytes(VillageState.estimateBytes(village.getVillagerIds().size(), village.getUpgradeLevels().size()));
+                        consumer.accept(village);
+                        loaded++;
+                    }
+                }
+                return loaded;
+            });
+            sample.end();
+            return count;
+        } catch (SQLException | RuntimeException e) {
+            sample.end(e);
+            throw e;
         }
     }
-    
-    /**
-     * 完成任务
-     * @param playerId 玩家ID
-     * @param taskId 任务ID
-     */
-    public void completeTask(UUID playerId, UUID taskId) {
-        try {
-            // 首先加载玩家的任务数据
-            String sql = "SELECT data FROM player_tasks WHERE id = ?";
-            try (PreparedStatement selectStmt = sqliteConnection.prepareStatement(sql)) {
-                selectStmt.setString(1, playerId.toString());
-                try (ResultSet rs = selectStmt.executeQuery()) {
-                    if (rs.next()) {
-                        String jsonData = rs.getString("data");
-                        PlayerTaskData taskData = gson.fromJson(jsonData, PlayerTaskData.class);
-                        if (taskData != null) {
-                            // 移除已完成的任务
-                            taskData.removeTask(taskId);
-                            
-                            // 保存更新后的数据
-                            String updatedJson = gson.toJson(taskData);
-                            String updateSql = "INSERT OR REPLACE INTO player_tasks(id, data) VALUES(?,?)";
-                            try (PreparedStatement updateStmt = sqliteConnection.prepareStatement(updateSql)) {
-                                updateStmt.setString(1, playerId.toString());
-                                updateStmt.setString(2, updatedJson);
-                                updateStmt.executeUpdate();
-                            }
+
+    private int readAllVillages(Consumer<Village> consumer, StorageMetrics.Sample sample) throws SQLException {
+        return storage.read(connection -> {
+            try (Statement villageStmt = connection.createStatement();
+                 Statement villagerStmt = connection.createStatement();
+                 Statement upgradeStmt = connection.createStatement();
+                 ResultSet villages = villageStmt.executeQuery("SELECT ownerUuid, follow_enabled, version FROM villages WHERE ownerUuid IS NOT NULL ORDER BY ownerUuid");
+                 ResultSet villagers = villagerStmt.executeQuery("SELECT owner, villager FROM village_villagers ORDER BY owner");
+                 ResultSet upgrades = upgradeStmt.executeQuery("SELECT owner, type, level FROM village_upgrades ORDER BY owner")) {
+
+                boolean hasVillager = villagers.next();
+                boolean hasUpgrade = upgrades.next();
+                int count = 0;
+                while (villages.next()) {
+                    String owner = villages.getString("ownerUuid");
+
+                    // 子表中所有者小于当前村庄的行没有对应的村庄，直接跳过
+                    Set<UUID> villagerIds = new LinkedHashSet<>();
+                    while (hasVillager && villagers.getString("owner").compareTo(owner) <= 0) {
+                        if (owner.equals(villagers.getString("owner"))) {
+                            villagerIds.add(UUID.fromString(villagers.getString("villager")));
                         }
+                        hasVillager = villagers.next();
                     }
+
+                    Map<UpgradeType, Integer> upgradeLevels = new EnumMap<>(UpgradeType.class);
+                    while (hasUpgrade && upgrades.getString("owner").compareTo(owner) <= 0) {
+                        if (owner.equals(upgrades.getString("owner"))) {
+                            putUpgrade(upgradeLevels, owner, upgrades.getString("type"), upgrades.getInt("level"));
+                        }
+                        hasUpgrade = upgrades.next();
+                    }
+
+                    UUID ownerUuid = UUID.fromString(owner);
+                    VillageState state = new VillageState(villages.getInt("follow_enabled") != 0, villagerIds, upgradeLevels,
+                            villages.getLong("version"));
+                    sample.bytes(state.estimatedBytes());
+                    consumer.accept(state.toVillage(ownerUuid));
+                    count++;
                 }
+                return count;
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "完成任务失败: 玩家=" + playerId + ", 任务=" + taskId, e);
-        }
+        });
     }
-    
+
     /**
-     * 注册数据表
-     * @param clazz 数据模型类
+     * 批量保存村庄数据
+     * 与上次保存的状态比较后只写入变化的行，按块使用 JDBC 批处理，每块一个事务
+     *
+     * @param villages 村庄快照集合
+     * @return 写入的村庄数量
+     * @throws SQLException 写入失败，当前块已回滚
      */
-    public <T> void registerTable(Class<T> clazz) {
-        String tableName = getTableName(clazz);
-        String sql = "CREATE TABLE IF NOT EXISTS " + tableName + " ("
-                + "id TEXT PRIMARY KEY, "
-                + "data TEXT)";
-        
-        try (Statement stmt = sqliteConnection.createStatement()) {
-            stmt.execute(sql);
-            plugin.getLogger().info("数据表 " + tableName + " 初始化完成");
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "创建数据表失败: " + tableName, e);
+    @Override
+    public int saveAll(Collection<VillageSnapshot> villages) throws SQLException {
+        if (villages.isEmpty()) {
+            return 0;
+        }
+
+        // 快照转换在调用线程完成，写线程只负责比较和执行SQL
+        List<Map.Entry<UUID, VillageState>> states = new ArrayList<>(villages.size());
+        StorageMetrics.Sample sample = storage.getMetrics().start("saveAll", "批量保存 " + villages.size() + " 个村庄");
+        for (VillageSnapshot village : villages) {
+            VillageState state = VillageState.of(village);
+            sample.bytes(state.estimatedBytes());
+            states.add(new AbstractMap.SimpleImmutableEntry<>(village.getOwnerUuid(), state));
+        }
+
+        long start = System.nanoTime();
+        int[] statementCount = new int[1];
+        int written;
+        try {
+            written = writeStates(states, statementCount);
+            sample.end();
+        } catch (SQLException | RuntimeException e) {
+            sample.end(e);
+            throw e;
         }
+
+        long elapsedNanos = Math.max(1L, System.nanoTime() - start);
+        if (written >= batchChunkSize) {
+            plugin.getLogger().info(String.format("批量保存 %d 个村庄数据 (%d 条语句)，耗时 %.1f ms (%.0f 个/秒)",
+                    written, statementCount[0], elapsedNanos / 1_000_000.0, written * 1_000_000_000.0 / elapsedNanos));
+        }
+        return written;
+    }
+
+    private int writeStates(List<Map.Entry<UUID, VillageState>> states, int[] statementCount) throws SQLException {
+        return storage.write(connection -> {
+            boolean autoCommit = connection.getAutoCommit();
+            connection.setAutoCommit(false);
+            try (VillageRowWriter writer = new VillageRowWriter(connection)) {
+                int total = 0;
+                for (int offset = 0; offset < states.size(); offset += batchChunkSize) {
+                    List<Map.Entry<UUID, VillageState>> chunk = states.subList(offset, Math.min(states.size(), offset + batchChunkSize));
+                    List<VillageState> written = writer.writeVersioned(chunk, persisted::get);
+                    statementCount[0] += writer.executedCount();
+                    connection.commit();
+
+                    // 提交成功后才更新已知状态
+                    for (int i = 0; i < chunk.size(); i++) {
+                        persisted.put(chunk.get(i).getKey(), written.get(i));
+                    }
+                    total += chunk.size();
+                }
+                return total;
+            } catch (SQLException | RuntimeException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(autoCommit);
+            }
+        });
     }
-    
+
     /**
-     * 根据类名获取表名
-     * @param clazz 类
-     * @return 表名
+     * 在调用方的事务中写入村庄快照，不提交
+     * 提交结果由调用方决定，所以这里不更新已知状态，而是清除这些村庄的已知状态，下次保存时完整重写
+     *
+     * @param connection 写线程上已开启事务的连接
+     * @param villages 村庄快照集合
+     * @return 写入的村庄数量
+     * @throws SQLException 写入失败
      */
-    private <T> String getTableName(Class<T> clazz) {
-        // 使用类名的小写形式作为表名
-        return clazz.getSimpleName().toLowerCase();
+    @Override
+    public int saveAll(Connection connection, Collection<VillageSnapshot> villages) throws SQLException {
+        List<Map.Entry<UUID, VillageState>> states = new ArrayList<>(villages.size());
+        for (VillageSnapshot village : villages) {
+            states.add(Map.entry(village.getOwnerUuid(), VillageState.of(village)));
+        }
+        try (VillageRowWriter writer = new VillageRowWriter(connection)) {
+            for (int offset = 0; offset < states.size(); offset += batchChunkSize) {
+                writer.writeVersioned(states.subList(offset, Math.min(states.size(), offset + batchChunkSize)), persisted::remove);
+            }
+        }
+        return states.size();
     }
-    
+
     /**
-     * 查找所有指定类型的数据
-     * @param clazz 数据类型
-     * @param tableName 表名
-     * @return 数据集合
+     * 村庄行写入器
+     * 比较新旧状态，把需要执行的语句加入批处理，由 {@link #execute()} 按顺序统一执行。
+     * {@link #writeVersioned} 先按版本号检查数据库中的行是否仍是上次写入的状态，
+     * 被其他写入方修改过时不覆盖，而是在数据库中的状态上只应用本进程的修改
      */
-    public <T> Collection<T> findAll(Class<T> clazz, String tableName) {
-        String sql = "SELECT data FROM " + tableName;
-        try (Statement stmt = sqliteConnection.createStatement();
-             ResultSet rs = stmt.executeQuery(sql)) {
-            
-            Collection<T> results = new ArrayList<>();
-            while (rs.next()) {
-                String jsonData = rs.getString("data");
-                T obj = gson.fromJson(jsonData, clazz);
-                if (obj != null) {
-                    results.add(obj);
+    private final class VillageRowWriter implements AutoCloseable {
+        private final Connection connection;
+        private final PreparedStatement casVersion;
+        private final PreparedStatement upsertVillage;
+        private final PreparedStatement updateFollow;
+        private final PreparedStatement clearArchive;
+        private final PreparedStatement clearUpgrades;
+        private final PreparedStatement clearVillagers;
+        private final PreparedStatement deleteUpgrade;
+        private final PreparedStatement deleteVillager;
+        private final PreparedStatement upsertUpgrade;
+        private final PreparedStatement insertVillager;
+        private final List<PreparedStatement> ordered;
+        private final int[] pending;
+        private int executed;
+
+        VillageRowWriter(Connection connection) throws SQLException {
+            this.connection = connection;
+            casVersion = connection.prepareStatement("UPDATE villages SET version = version + 1 WHERE ownerUuid = ? AND version = ?");
+            upsertVillage = connection.prepareStatement(dialect.upsert("INSERT INTO villages(id, ownerUuid, follow_enabled, data, last_seen) VALUES(?,?,?,NULL,?)",
+                    "id", "follow_enabled = " + dialect.excluded("follow_enabled") + ", data = NULL, version = version + 1"));
+            updateFollow = connection.prepareStatement("UPDATE villages SET follow_enabled = ? WHERE ownerUuid = ?");
+            clearArchive = connection.prepareStatement("DELETE FROM village_archive WHERE owner = ?");
+            clearUpgrades = connection.prepareStatement("DELETE FROM village_upgrades WHERE owner = ?");
+            clearVillagers = connection.prepareStatement("DELETE FROM village_villagers WHERE owner = ?");
+            deleteUpgrade = connection.prepareStatement("DELETE FROM village_upgrades WHERE owner = ? AND type = ?");
+            deleteVillager = connection.prepareStatement("DELETE FROM village_villagers WHERE villager = ? AND owner = ?");
+            upsertUpgrade = connection.prepareStatement(dialect.upsert("INSERT INTO village_upgrades(owner, type, level) VALUES(?,?,?)",
+                    "owner, type", "level = " + dialect.excluded("level")));
+            insertVillager = connection.prepareStatement(dialect.replaceInto() + " village_villagers(villager, owner) VALUES(?,?)");
+            // 删除必须在插入之前执行，村民转移到其他玩家时才不会被误删
+            ordered = List.of(upsertVillage, updateFollow, clearArchive, clearUpgrades, clearVillagers,
+                    deleteUpgrade, deleteVillager, upsertUpgrade, insertVillager);
+            pending = new int[ordered.size()];
+        }
+
+        /**
+         * 按版本号写入一批村庄并执行，不提交
+         * 有已知状态的村庄先用一个批处理把版本号加一，版本号不符说明数据库中的行已被其他写入方修改，
+         * 这时读取数据库中的状态，合并后再写入，并记录一次冲突。没有已知状态的村庄完整重写
+         *
+         * @param states 所有者和当前状态
+         * @param known 取得所有者上次写入的状态，未知时返回null
+         * @return 与 states 对应的新已知状态，即本进程写入的内容和写入后的版本号
+         */
+        List<VillageState> writeVersioned(List<Map.Entry<UUID, VillageState>> states, Function<UUID, VillageState> known) throws SQLException {
+            VillageState[] bases = new VillageState[states.size()];
+            boolean[] checked = new boolean[states.size()];
+            int checks = 0;
+            for (int i = 0; i < states.size(); i++) {
+                Map.Entry<UUID, VillageState> entry = states.get(i);
+                bases[i] = known.apply(entry.getKey());
+                if (bases[i] != null && !bases[i].sameContent(entry.getValue())) {
+                    casVersion.setString(1, entry.getKey().toString());
+                    casVersion.setLong(2, bases[i].version);
+                    casVersion.addBatch();
+                    checked[i] = true;
+                    checks++;
+                }
+            }
+            int[] counts = checks > 0 ? casVersion.executeBatch() : new int[0];
+
+            List<VillageState> results = new ArrayList<>(states.size());
+            List<Integer> rewritten = new ArrayList<>();
+            int check = 0;
+            for (int i = 0; i < states.size(); i++) {
+                UUID ownerUuid = states.get(i).getKey();
+                VillageState current = states.get(i).getValue();
+                VillageState base = bases[i];
+                if (base == null) {
+                    write(ownerUuid, null, current);
+                    rewritten.add(i);
+                    results.add(current);
+                } else if (!checked[i]) {
+                    results.add(base);
+                } else if (counts[check++] != 0) {
+                    write(ownerUuid, base, current);
+                    results.add(current.withVersion(base.version + 1));
+                } else {
+                    results.add(resolveConflict(ownerUuid, base, current, rewritten, i));
+                }
+            }
+            execute();
+
+            // 完整重写的村庄可能是新插入的行，也可能覆盖了已有的行，写入后读取版本号
+            if (!rewritten.isEmpty()) {
+                try (PreparedStatement stmt = connection.prepareStatement("SELECT version FROM villages WHERE ownerUuid = ?")) {
+                    for (int i : rewritten) {
+                        stmt.setString(1, states.get(i).getKey().toString());
+                        try (ResultSet rs = stmt.executeQuery()) {
+                            results.set(i, results.get(i).withVersion(rs.next() ? rs.getLong("version") : 0L));
+                        }
+                    }
                 }
             }
             return results;
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "查找所有数据失败: 类型=" + clazz.getSimpleName() + ", 表名=" + tableName, e);
-            return new ArrayList<>();
         }
-    }
-    
-    /**
-     * 保存数据（带ID和表名）
-     * @param data 数据对象
-     * @param id 数据ID
-     * @param tableName 表名
-     */
-    public <T> void saveWithId(T data, String id, String tableName) {
-        try {
-            String json = gson.toJson(data);
-            String sql = "INSERT OR REPLACE INTO " + tableName + "(id, data) VALUES(?,?)";
-            try (PreparedStatement stmt = sqliteConnection.prepareStatement(sql)) {
-                stmt.setString(1, id);
-                stmt.setString(2, json);
+
+        /**
+         * 处理版本冲突：在数据库中的状态上应用本进程相对于上次写入的修改
+         * 返回的已知状态仍是本进程写入的内容，之后的保存只写入本进程的新修改，不会撤销其他写入方的修改
+         */
+        private VillageState resolveConflict(UUID ownerUuid, VillageState base, VillageState current,
+                                             List<Integer> rewritten, int index) throws SQLException {
+            storage.getMetrics().recordConflict();
+            VillageState stored = readState(connection, ownerUuid);
+            if (stored == null) {
+                // 行已被删除或归档，以内存中的数据为准重新写入
+                plugin.getLogger().warning("村庄 " + ownerUuid + " 在写入前已被其他写入方删除，按当前数据重新写入");
+                write(ownerUuid, null, current);
+                rewritten.add(index);
+                return current;
+            }
+            // 已开启事务，同一数据库的其他写入方在提交前不能再修改这一行
+            try (PreparedStatement stmt = connection.prepareStatement("UPDATE villages SET version = version + 1 WHERE ownerUuid = ?")) {
+                stmt.setString(1, ownerUuid.toString());
                 stmt.executeUpdate();
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "保存数据失败: 类型=" + data.getClass().getSimpleName() + ", ID=" + id + ", 表名=" + tableName, e);
+            write(ownerUuid, stored, VillageState.merge(base, current, stored));
+            plugin.getLogger().fine("村庄 " + ownerUuid + " 版本冲突 (已知 v" + base.version + ", 数据库 v" + stored.version + ")，已合并后写入");
+            return current.withVersion(stored.version + 1);
         }
-    }
-    
-    /**
-     * 关闭数据库连接
-     */
-    public void close() {
-        try {
-            if (sqliteConnection != null && !sqliteConnection.isClosed()) {
-                sqliteConnection.close();
-                plugin.getLogger().info("SQLite数据库连接已关闭");
+
+        /**
+         * 比较新旧状态并加入需要的语句
+         *
+         * @param ownerUuid 所有者UUID
+         * @param previous 上次保存的状态，未知时为null，此时先清空再完整写入
+         * @param current 当前状态
+         */
+        void write(UUID ownerUuid, VillageState previous, VillageState current) throws SQLException {
+            String owner = ownerUuid.toString();
+            if (previous == null) {
+                // 完整写入的村庄以内存中的数据为准，旧的归档不再需要
+                add(clearArchive, owner);
+                add(clearUpgrades, owner);
+                add(clearVillagers, owner);
+            }
+            if (previous == null) {
+                upsertVillage.setString(1, owner);
+                upsertVillage.setString(2, owner);
+                upsertVillage.setInt(3, current.followEnabled ? 1 : 0);
+                // 只在新建村庄时生效，已有村庄的上线时间由 markSeen 更新
+                upsertVillage.setLong(4, System.currentTimeMillis());
+                add(upsertVillage);
+            } else if (previous.followEnabled != current.followEnabled) {
+                updateFollow.setInt(1, current.followEnabled ? 1 : 0);
+                updateFollow.setString(2, owner);
+                add(updateFollow);
+            }
+
+            Map<UpgradeType, Integer> oldUpgrades = previous != null ? previous.upgradeLevels : Collections.emptyMap();
+            for (Map.Entry<UpgradeType, Integer> entry : current.upgradeLevels.entrySet()) {
+                if (!entry.getValue().equals(oldUpgrades.get(entry.getKey()))) {
+                    upsertUpgrade.setString(1, owner);
+                    upsertUpgrade.setString(2, entry.getKey().name());
+                    upsertUpgrade.setInt(3, entry.getValue());
+                    add(upsertUpgrade);
+                }
+            }
+            for (UpgradeType type : oldUpgrades.keySet()) {
+                if (!current.upgradeLevels.containsKey(type)) {
+                    add(deleteUpgrade, owner, type.name());
+                }
+            }
+
+            Set<UUID> oldVillagers = previous != null ? previous.villagerIds : Collections.emptySet();
+            for (UUID villagerId : current.villagerIds) {
+                if (!oldVillagers.contains(villagerId)) {
+                    add(insertVillager, villagerId.toString(), owner);
+                }
+            }
+            for (UUID villagerId : oldVillagers) {
+                if (!current.villagerIds.contains(villagerId)) {
+                    add(deleteVillager, villagerId.toString(), owner);
+                }
+            }
+        }
+
+        private void add(PreparedStatement stmt, String... values) throws SQLException {
+            for (int i = 0; i < values.length; i++) {
+                stmt.setString(i + 1, values[i]);
+            }
+            stmt.addBatch();
+            pending[ordered.indexOf(stmt)]++;
+        }
+
+        /**
+         * 按顺序执行所有已加入的批处理
+         *
+         * @return 执行的语句数量
+         */
+        int execute() throws SQLException {
+            int total = 0;
+            for (int i = 0; i < ordered.size(); i++) {
+                if (pending[i] > 0) {
+                    ordered.get(i).executeBatch();
+                    total += pending[i];
+                    pending[i] = 0;
+                }
+            }
+            executed += total;
+            return total;
+        }
+
+        /**
+         * @return 上次调用以来执行的语句数量
+         */
+        int executedCount() {
+            int count = executed;
+            executed = 0;
+            return count;
+        }
+
+        @Override
+        public void close() throws SQLException {
+            casVersion.close();
+            for (PreparedStatement stmt : ordered) {
+                stmt.close();
             }
-        } catch (SQLException e) {
-            plugin.getLogger().log(Level.SEVERE, "关闭SQLite数据库连接失败", e);
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,199 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.UpgradeType;
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * 基准测试使用的 SQLite 数据库
+ * 连接参数与 {@link StorageService} 相同，表结构与 {@link VillageStorage} 的迁移相同，
+ * 村庄按 VillageStorage 完整重写时的语句写入，基准测试不需要启动插件
+ */
+final class BenchmarkDatabase {
+    static final int CACHE_SIZE = -16000;
+    static final long MMAP_SIZE = 268435456L;
+    private static final int BUSY_TIMEOUT = 5000;
+
+    private BenchmarkDatabase() {
+    }
+
+    /**
+     * 打开写连接，与 StorageService 的写连接使用相同的 PRAGMA
+     */
+    static Connection openWriter(File file, String journalMode, String synchronous) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setBusyTimeout(BUSY_TIMEOUT);
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath(), config.toProperties());
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA journal_mode=" + journalMode);
+            stmt.execute("PRAGMA synchronous=" + synchronous);
+            stmt.execute("PRAGMA cache_size=" + CACHE_SIZE);
+            stmt.execute("PRAGMA mmap_size=" + MMAP_SIZE);
+        }
+        return connection;
+    }
+
+    /**
+     * 打开只读连接，与 StorageService 的读连接池使用相同的 PRAGMA
+     */
+    static Connection openReader(File file) throws SQLException {
+        SQLiteConfig config = new SQLiteConfig();
+        config.setReadOnly(true);
+        config.setBusyTimeout(BUSY_TIMEOUT);
+        Connection connection = DriverManager.getConnection("jdbc:sqlite:" + file.getAbsolutePath(), config.toProperties());
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("PRAGMA cache_size=" + CACHE_SIZE);
+            stmt.execute("PRAGMA mmap_size=" + MMAP_SIZE);
+        }
+        return connection;
+    }
+
+    static void createSchema(Connection connection) throws SQLException {
+        SqlDialect dialect = SqlDialect.SQLITE;
+        String uuid = dialect.keyType(36);
+        try (Statement stmt = connection.createStatement()) {
+            stmt.execute("CREATE TABLE IF NOT EXISTS villages ("
+                    + "id " + uuid + " PRIMARY KEY, "
+                    + "ownerUuid " + uuid + ", "
+                    + "follow_enabled INTEGER NOT NULL DEFAULT 0, "
+                    + "data TEXT, "
+                    + "last_seen BIGINT NOT NULL DEFAULT 0, "
+                    + "version BIGINT NOT NULL DEFAULT 0)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS player_tasks ("
+                    + "id " + uuid + " PRIMARY KEY, "
+                    + "data " + dialect.blobType() + ")");
+            stmt.execute("CREATE TABLE IF NOT EXISTS village_upgrades ("
+                    + "owner " + uuid + " NOT NULL, "
+                    + "type " + dialect.keyType(32) + " NOT NULL, "
+                    + "level INTEGER NOT NULL, "
+                    + "PRIMARY KEY (owner, type))" + dialect.withoutRowid());
+            stmt.execute("CREATE TABLE IF NOT EXISTS village_villagers ("
+                    + "villager " + uuid + " PRIMARY KEY, "
+                    + "owner " + uuid + " NOT NULL)");
+            stmt.execute("CREATE TABLE IF NOT EXISTS village_archive ("
+                    + "owner " + uuid + " PRIMARY KEY, "
+                    + "last_seen BIGINT NOT NULL, "
+                    + "archived_at BIGINT NOT NULL, "
+                    + "data " + dialect.blobType() + " NOT NULL)");
+        }
+        dialect.createIndex(connection, "idx_villages_owner", "villages", "ownerUuid");
+        dialect.createIndex(connection, "idx_village_villagers_owner", "village_villagers", "owner");
+    }
+
+    /**
+     * 按 VillageStorage 完整重写村庄的语句写入，每 chunkSize 个村庄提交一次事务
+     *
+     * @param chunkSize 每个事务的村庄数量，0 表示自动提交，每条语句一次事务
+     */
+    static void writeVillages(Connection connection, List<VillageSnapshot> villages, int chunkSize) throws SQLException {
+        SqlDialect dialect = SqlDialect.SQLITE;
+        boolean batched = chunkSize > 0;
+        connection.setAutoCommit(!batched);
+        try (PreparedStatement upsertVillage = connection.prepareStatement(dialect.upsert(
+                     "INSERT INTO villages(id, ownerUuid, follow_enabled, data, last_seen) VALUES(?,?,?,NULL,?)",
+                     "id", "follow_enabled = " + dialect.excluded("follow_enabled") + ", data = NULL, version = version + 1"));
+             PreparedStatement clearArchive = connection.prepareStatement("DELETE FROM village_archive WHERE owner = ?");
+             PreparedStatement clearUpgrades = connection.prepareStatement("DELETE FROM village_upgrades WHERE owner = ?");
+             PreparedStatement clearVillagers = connection.prepareStatement("DELETE FROM village_villagers WHERE owner = ?");
+             PreparedStatement upsertUpgrade = connection.prepareStatement(dialect.upsert(
+                     "INSERT INTO village_upgrades(owner, type, level) VALUES(?,?,?)",
+                     "owner, type", "level = " + dialect.excluded("level")));
+             PreparedStatement insertVillager = connection.prepareStatement(
+                     dialect.replaceInto() + " village_villagers(villager, owner) VALUES(?,?)")) {
+            List<PreparedStatement> ordered = List.of(upsertVillage, clearArchive, clearUpgrades, clearVillagers,
+                    upsertUpgrade, insertVillager);
+            int inChunk = 0;
+            for (VillageSnapshot village : villages) {
+                String owner = village.getOwnerUuid().toString();
+                upsertVillage.setString(1, owner);
+                upsertVillage.setString(2, owner);
+                upsertVillage.setInt(3, village.isFollowEnabled() ? 1 : 0);
+                upsertVillage.setLong(4, System.currentTimeMillis());
+                add(upsertVillage, batched);
+                for (PreparedStatement clear : List.of(clearArchive, clearUpgrades, clearVillagers)) {
+                    clear.setString(1, owner);
+                    add(clear, batched);
+                }
+                for (Map.Entry<UpgradeType, Integer> entry : village.getUpgradeLevels().entrySet()) {
+                    upsertUpgrade.setString(1, owner);
+                    upsertUpgrade.setString(2, entry.getKey().name());
+                    upsertUpgrade.setInt(3, entry.getValue());
+                    add(upsertUpgrade, batched);
+                }
+                for (UUID villager : village.getVillagerIds()) {
+                    insertVillager.setString(1, villager.toString());
+                    insertVillager.setString(2, owner);
+                    add(insertVillager, batched);
+                }
+                if (batched && ++inChunk == chunkSize) {
+                    for (PreparedStatement stmt : ordered) {
+                        stmt.executeBatch();
+                    }
+                    connection.commit();
+                    inChunk = 0;
+                }
+            }
+            if (batched && inChunk > 0) {
+                for (PreparedStatement stmt : ordered) {
+                    stmt.executeBatch();
+                }
+                connection.commit();
+            }
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static void add(PreparedStatement stmt, boolean batched) throws SQLException {
+        if (batched) {
+            stmt.addBatch();
+        } else {
+            stmt.executeUpdate();
+        }
+    }
+
+    /**
+     * 中等规模的村庄：十几个村民，一半升级，几种作物
+     */
+    static Village typicalVillage(Random random) {
+        Village village = new Village();
+        village.setOwnerUuid(new UUID(random.nextLong(), random.nextLong()));
+        village.setFollowEnabled(random.nextBoolean());
+        for (int i = 0, count = 8 + random.nextInt(16); i < count; i++) {
+            village.addVillager(new UUID(random.nextLong(), random.nextLong()));
+        }
+        for (UpgradeType type : UpgradeType.values()) {
+            if (random.nextBoolean()) {
+                village.setUpgradeLevel(type, 1 + random.nextInt(5));
+            }
+        }
+        for (String crop : new String[]{"WHEAT", "CARROTS", "POTATOES", "BEETROOTS", "NETHER_WART"}) {
+            if (random.nextBoolean()) {
+                village.addCrop(crop, random.nextInt(5000));
+            }
+        }
+        return village;
+    }
+
+    static List<VillageSnapshot> typicalSnapshots(int count, long seed) {
+        Random random = new Random(seed);
+        List<VillageSnapshot> snapshots = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            snapshots.add(typicalVillage(random).snapshot());
+        }
+        return snapshots;
+    }
+}
@@ -0,0 +1,155 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.Task;
+import cn.popcraft.villagepro.model.Village;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BinaryCodec} 与插件原先使用的 Gson 在数据大小和编解码耗时上的对比
+ * 通过 gradle benchmark 运行，结果输出到标准输出
+ */
+@Tag("benchmark")
+class BinaryCodecBenchmark {
+    private static final int SAMPLES = 1000;
+    private static final int WARMUP_ROUNDS = 20;
+    private static final int ROUNDS = 50;
+
+    private final Gson gson = new Gson();
+
+    @Test
+    void villages() throws IOException {
+        List<Village> villages = new ArrayList<>(SAMPLES);
+        Random random = new Random(1L);
+        for (int i = 0; i < SAMPLES; i++) {
+            villages.add(BenchmarkDatabase.typicalVillage(random));
+        }
+        List<VillageSnapshot> snapshots = villages.stream().map(Village::snapshot).toList();
+
+        List<byte[]> binary = new ArrayList<>(SAMPLES);
+        List<String> json = new ArrayList<>(SAMPLES);
+        long binaryBytes = 0L;
+        long jsonBytes = 0L;
+        long compressedBytes = 0L;
+        for (int i = 0; i < SAMPLES; i++) {
+            byte[] encoded = BinaryCodec.encodeVillage(snapshots.get(i));
+            String text = gson.toJson(villages.get(i));
+            binary.add(encoded);
+            json.add(text);
+            binaryBytes += encoded.length;
+            jsonBytes += text.getBytes(StandardCharsets.UTF_8).length;
+            compressedBytes += BinaryCodec.compress(encoded, 1).length;
+        }
+
+        double binaryEncode = measure(() -> snapshots.forEach(BinaryCodec::encodeVillage));
+        double jsonEncode = measure(() -> villages.forEach(gson::toJson));
+        double binaryDecode = measure(() -> {
+            for (byte[] data : binary) {
+                BinaryCodec.decodeVillage(data);
+            }
+        });
+        double jsonDecode = measure(() -> json.forEach(text -> gson.fromJson(text, Village.class)));
+
+        report("村庄", binaryBytes, compressedBytes, jsonBytes, binaryEncode, jsonEncode, binaryDecode, jsonDecode);
+        assertTrue(binaryBytes < jsonBytes);
+    }
+
+    @Test
+    void playerTasks() throws IOException {
+        List<PlayerTaskData> tasks = new ArrayList<>(SAMPLES);
+        Random random = new Random(2L);
+        for (int i = 0; i < SAMPLES; i++) {
+            tasks.add(typicalTaskData(random));
+        }
+
+        List<byte[]> binary = new ArrayList<>(SAMPLES);
+        List<String> json = new ArrayList<>(SAMPLES);
+        long binaryBytes = 0L;
+        long jsonBytes = 0L;
+        long compressedBytes = 0L;
+        for (PlayerTaskData taskData : tasks) {
+            byte[] encoded = BinaryCodec.encodePlayerTaskData(taskData);
+            String text = gson.toJson(taskData);
+            binary.add(encoded);
+            json.add(text);
+            binaryBytes += encoded.length;
+            jsonBytes += text.getBytes(StandardCharsets.UTF_8).length;
+            compressedBytes += BinaryCodec.compress(encoded, 1).length;
+        }
+
+        double binaryEncode = measure(() -> tasks.forEach(BinaryCodec::encodePlayerTaskData));
+        double jsonEncode = measure(() -> tasks.forEach(gson::toJson));
+        double binaryDecode = measure(() -> {
+            for (byte[] data : binary) {
+                BinaryCodec.decodePlayerTaskData(data);
+            }
+        });
+        double jsonDecode = measure(() -> json.forEach(text -> gson.fromJson(text, PlayerTaskData.class)));
+
+        report("任务", binaryBytes, compressedBytes, jsonBytes, binaryEncode, jsonEncode, binaryDecode, jsonDecode);
+        assertTrue(binaryBytes < jsonBytes);
+    }
+
+    /**
+     * 预热后多轮执行，取每轮耗时的中位数
+     *
+     * @return 每条数据的耗时，单位微秒
+     */
+    private static double measure(Round round) throws IOException {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            round.run();
+        }
+        long[] times = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            round.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[ROUNDS / 2] / 1000.0 / SAMPLES;
+    }
+
+    private static void report(String name, long binaryBytes, long compressedBytes, long jsonBytes,
+                               double binaryEncode, double jsonEncode, double binaryDecode, double jsonDecode) {
+        System.out.printf("[%s] 平均大小: 二进制 %d B, 二进制+压缩 %d B, JSON %d B (%.0f%%)%n",
+                name, binaryBytes / SAMPLES, compressedBytes / SAMPLES, jsonBytes / SAMPLES, binaryBytes * 100.0 / jsonBytes);
+        System.out.printf("[%s] 编码: 二进制 %.2f us, JSON %.2f us; 解码: 二进制 %.2f us, JSON %.2f us%n",
+                name, binaryEncode, jsonEncode, binaryDecode, jsonDecode);
+    }
+
+    private static PlayerTaskData typicalTaskData(Random random) {
+        PlayerTaskData taskData = new PlayerTaskData(UUID.randomUUID());
+        taskData.setTaskPoints(random.nextInt(1000));
+        Task.TaskType[] types = Task.TaskType.values();
+        Task last = null;
+        for (int i = 0, count = 1 + random.nextInt(5); i < count; i++) {
+            Task task = new Task(types[random.nextInt(types.length)], 10 + random.nextInt(100),
+                    random.nextInt(500), random.nextInt(200));
+            task.setPlayerUuid(taskData.getPlayerUuid());
+            task.setProgress(random.nextInt(task.getTargetAmount()));
+            task.setDescription("完成" + task.getTargetAmount() + "次" + task.getType().name());
+            taskData.addTask(task);
+            last = task;
+        }
+        taskData.setCurrentTask(last);
+        return taskData;
+    }
+
+    @FunctionalInterface
+    private interface Round {
+        void run() throws IOException;
+    }
+}
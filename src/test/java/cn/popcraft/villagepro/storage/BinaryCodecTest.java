@@ -0,0 +1,321 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.Task;
+import cn.popcraft.villagepro.model.UpgradeType;
+import cn.popcraft.villagepro.model.Village;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * {@link BinaryCodec} 的往返测试
+ * 随机数据使用固定种子，失败时可以按迭代序号复现
+ */
+class BinaryCodecTest {
+    private static final int ITERATIONS = 500;
+    private static final String CROP_CHARS = "abcdefghijklmnopqrstuvwxyz_:小麦胡萝卜马铃薯甜菜🌾";
+
+    @Test
+    void randomVillagesRoundTrip() throws IOException {
+        Random random = new Random(20240501L);
+        for (int i = 0; i < ITERATIONS; i++) {
+            Village village = randomVillage(random);
+            byte[] encoded = BinaryCodec.encodeVillage(village.snapshot());
+
+            assertTrue(BinaryCodec.isBinary(encoded), "迭代 " + i);
+            assertFalse(BinaryCodec.isCompressed(encoded), "迭代 " + i);
+            assertVillageEquals(village, BinaryCodec.decodeVillage(encoded), "迭代 " + i);
+        }
+    }
+
+    @Test
+    void randomTaskDataRoundTrip() throws IOException {
+        Random random = new Random(20240502L);
+        for (int i = 0; i < ITERATIONS; i++) {
+            PlayerTaskData taskData = randomTaskData(random);
+            byte[] encoded = BinaryCodec.encodePlayerTaskData(taskData);
+
+            assertTrue(BinaryCodec.isBinary(encoded), "迭代 " + i);
+            assertTaskDataEquals(taskData, BinaryCodec.decodePlayerTaskData(encoded), "迭代 " + i);
+        }
+    }
+
+    @Test
+    void currentTaskIsRestoredAsActiveReference() throws IOException {
+        PlayerTaskData taskData = new PlayerTaskData(UUID.randomUUID());
+        Task current = new Task(Task.TaskType.MINE_IRON, 16, 25.0, 10);
+        taskData.addTask(new Task(Task.TaskType.KILL_ZOMBIE, 5, 10.0, 3));
+        taskData.setCurrentTask(current);
+
+        PlayerTaskData decoded = BinaryCodec.decodePlayerTaskData(BinaryCodec.encodePlayerTaskData(taskData));
+        assertNotNull(decoded.getCurrentTask());
+        assertSame(decoded.getTaskById(current.getTaskId()), decoded.getCurrentTask());
+    }
+
+    @Test
+    void compressedVillagesRoundTrip() throws IOException {
+        Random random = new Random(20240503L);
+        int compressed = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            Village village = randomVillage(random);
+            byte[] encoded = BinaryCodec.encodeVillage(village.snapshot());
+            byte[] copy = encoded.clone();
+            byte[] result = BinaryCodec.compress(encoded, 1 + random.nextInt(9));
+
+            assertArrayEquals(copy, encoded, "压缩不能修改输入, 迭代 " + i);
+            if (result == encoded) {
+                assertFalse(BinaryCodec.isCompressed(result), "迭代 " + i);
+            } else {
+                compressed++;
+                assertTrue(BinaryCodec.isCompressed(result), "迭代 " + i);
+                assertTrue(BinaryCodec.isBinary(result), "迭代 " + i);
+                assertEquals((byte) 0xB8, result[0], "迭代 " + i);
+                assertTrue(result.length < encoded.length, "迭代 " + i);
+            }
+            assertVillageEquals(village, BinaryCodec.decodeVillage(result), "迭代 " + i);
+        }
+        assertTrue(compressed > 0, "随机数据中应当有可以压缩的村庄");
+    }
+
+    @Test
+    void compressedTaskDataRoundTrip() throws IOException {
+        Random random = new Random(20240504L);
+        for (int i = 0; i < ITERATIONS; i++) {
+            PlayerTaskData taskData = randomTaskData(random);
+            byte[] result = BinaryCodec.compress(BinaryCodec.encodePlayerTaskData(taskData), 1);
+            assertTaskDataEquals(taskData, BinaryCodec.decodePlayerTaskData(result), "迭代 " + i);
+        }
+    }
+
+    @Test
+    void incompressibleDataIsReturnedUnchanged() {
+        byte[] data = new byte[256];
+        new Random(20240505L).nextBytes(data);
+        assertSame(data, BinaryCodec.compress(data, 9));
+
+        byte[] tiny = {(byte) 0xB7, 1, 1, 0};
+        assertSame(tiny, BinaryCodec.compress(tiny, 9));
+    }
+
+    @Test
+    void compressedMarkerRequiresPayload() {
+        assertFalse(BinaryCodec.isCompressed(null));
+        assertFalse(BinaryCodec.isCompressed(new byte[]{(byte) 0xB8, 0, 0, 0, 1}));
+        assertTrue(BinaryCodec.isCompressed(new byte[]{(byte) 0xB8, 0, 0, 0, 1, 0}));
+    }
+
+    @Test
+    void corruptCompressedDataFailsWithIOException() {
+        Village village = randomVillage(new Random(20240506L));
+        for (int crop = 0; crop < 64; crop++) {
+            village.addCrop("minecraft:wheat_" + crop, crop);
+        }
+        byte[] compressed = BinaryCodec.compress(BinaryCodec.encodeVillage(village.snapshot()), 6);
+        assertTrue(BinaryCodec.isCompressed(compressed));
+
+        byte[] truncated = Arrays.copyOf(compressed, compressed.length / 2);
+        assertThrows(IOException.class, () -> BinaryCodec.decodeVillage(truncated));
+
+        byte[] badLength = compressed.clone();
+        badLength[1] = (byte) 0x7F;
+        assertThrows(IOException.class, () -> BinaryCodec.decodeVillage(badLength));
+
+        byte[] badPayload = compressed.clone();
+        for (int i = 5; i < badPayload.length; i++) {
+            badPayload[i] = (byte) ~badPayload[i];
+        }
+        assertThrows(IOException.class, () -> BinaryCodec.decodeVillage(badPayload));
+    }
+
+    @Test
+    void truncatedDataFailsWithIOException() {
+        Random random = new Random(20240507L);
+        for (int i = 0; i < 50; i++) {
+            byte[] village = BinaryCodec.encodeVillage(randomVillage(random).snapshot());
+            byte[] tasks = BinaryCodec.encodePlayerTaskData(randomTaskData(random));
+            // 解码恰好读完编码写入的内容，任何前缀都不完整
+            for (int length = 0; length < village.length; length++) {
+                byte[] prefix = Arrays.copyOf(village, length);
+                assertThrows(IOException.class, () -> BinaryCodec.decodeVillage(prefix), "长度 " + length);
+            }
+            for (int length = 0; length < tasks.length; length++) {
+                byte[] prefix = Arrays.copyOf(tasks, length);
+                assertThrows(IOException.class, () -> BinaryCodec.decodePlayerTaskData(prefix), "长度 " + length);
+            }
+        }
+    }
+
+    @Test
+    void kindMismatchIsRejected() {
+        byte[] village = BinaryCodec.encodeVillage(new Village().snapshot());
+        assertThrows(IOException.class, () -> BinaryCodec.decodePlayerTaskData(village));
+    }
+
+    @Test
+    void legacyJsonIsNotMistakenForBinary() throws IOException {
+        Gson gson = new Gson();
+        Random random = new Random(20240508L);
+        for (int i = 0; i < 100; i++) {
+            PlayerTaskData taskData = randomTaskData(random);
+            String json = gson.toJson(taskData);
+            for (String stored : List.of(json, " " + json, "\n" + json, "\t" + json)) {
+                byte[] data = stored.getBytes(StandardCharsets.UTF_8);
+                assertFalse(BinaryCodec.isBinary(data), "迭代 " + i);
+                assertFalse(BinaryCodec.isCompressed(data), "迭代 " + i);
+                assertThrows(IOException.class, () -> BinaryCodec.decodePlayerTaskData(data));
+            }
+
+            // 与启动时的格式转换相同：Gson 读取旧数据后重新编码
+            PlayerTaskData legacy = gson.fromJson(json, PlayerTaskData.class);
+            assertTaskDataEquals(taskData, legacy, "迭代 " + i);
+            byte[] encoded = BinaryCodec.encodePlayerTaskData(legacy);
+            assertTaskDataEquals(taskData, BinaryCodec.decodePlayerTaskData(encoded), "迭代 " + i);
+        }
+
+        Village village = randomVillage(random);
+        byte[] json = gson.toJson(village).getBytes(StandardCharsets.UTF_8);
+        assertFalse(BinaryCodec.isBinary(json));
+        assertVillageEquals(village, gson.fromJson(new String(json, StandardCharsets.UTF_8), Village.class), "村庄JSON");
+    }
+
+    @Test
+    void emptyAndNullFieldsRoundTrip() throws IOException {
+        Village village = new Village();
+        Village decodedVillage = BinaryCodec.decodeVillage(BinaryCodec.encodeVillage(village.snapshot()));
+        assertNull(decodedVillage.getOwnerUuid());
+        assertTrue(decodedVillage.getVillagerIds().isEmpty());
+        assertTrue(decodedVillage.getUpgradeLevels().isEmpty());
+        assertTrue(decodedVillage.getCropStorage().isEmpty());
+
+        PlayerTaskData taskData = new PlayerTaskData(null);
+        Task task = new Task();
+        task.setTaskId(UUID.randomUUID());
+        taskData.addTask(task);
+        PlayerTaskData decodedTasks = BinaryCodec.decodePlayerTaskData(BinaryCodec.encodePlayerTaskData(taskData));
+        assertNull(decodedTasks.getPlayerUuid());
+        assertNull(decodedTasks.getCurrentTask());
+        assertTaskEquals(task, decodedTasks.getTaskById(task.getTaskId()), "空任务");
+    }
+
+    static Village randomVillage(Random random) {
+        Village village = new Village();
+        village.setOwnerUuid(randomUuid(random));
+        village.setFollowEnabled(random.nextBoolean());
+
+        int villagers = random.nextInt(4) == 0 ? 0 : random.nextInt(40);
+        for (int i = 0; i < villagers; i++) {
+            village.addVillager(randomUuid(random));
+        }
+        for (UpgradeType type : UpgradeType.values()) {
+            if (random.nextBoolean()) {
+                village.setUpgradeLevel(type, random.nextInt(6));
+            }
+        }
+        int crops = random.nextInt(12);
+        for (int i = 0; i < crops; i++) {
+            village.addCrop(randomString(random, 1 + random.nextInt(20)), 1 + random.nextInt(100_000));
+        }
+        return village;
+    }
+
+    static PlayerTaskData randomTaskData(Random random) {
+        PlayerTaskData taskData = new PlayerTaskData(randomUuid(random));
+        taskData.setTaskPoints(random.nextInt());
+        int tasks = random.nextInt(8);
+        List<Task> created = new ArrayList<>();
+        for (int i = 0; i < tasks; i++) {
+            Task.TaskType[] types = Task.TaskType.values();
+            Task task = new Task(random.nextInt(10) == 0 ? null : types[random.nextInt(types.length)],
+                    random.nextInt(1000), random.nextDouble() * 1000.0, random.nextInt(500));
+            task.setTaskId(randomUuid(random));
+            task.setPlayerUuid(random.nextInt(5) == 0 ? null : taskData.getPlayerUuid());
+            task.setProgress(random.nextInt(1000));
+            task.setTargetItem(random.nextBoolean() ? null : randomString(random, 1 + random.nextInt(16)));
+            task.setDescription(random.nextBoolean() ? null : randomString(random, random.nextInt(40)));
+            taskData.addTask(task);
+            created.add(task);
+        }
+        if (!created.isEmpty() && random.nextBoolean()) {
+            taskData.setCurrentTask(created.get(random.nextInt(created.size())));
+        }
+        return taskData;
+    }
+
+    private static UUID randomUuid(Random random) {
+        return new UUID(random.nextLong(), random.nextLong());
+    }
+
+    private static String randomString(Random random, int length) {
+        StringBuilder builder = new StringBuilder(length);
+        int[] codePoints = CROP_CHARS.codePoints().toArray();
+        for (int i = 0; i < length; i++) {
+            builder.appendCodePoint(codePoints[random.nextInt(codePoints.length)]);
+        }
+        return builder.toString();
+    }
+
+    private static void assertVillageEquals(Village expected, Village actual, String message) {
+        assertEquals(expected.getOwnerUuid(), actual.getOwnerUuid(), message);
+        assertEquals(expected.isFollowEnabled(), actual.isFollowEnabled(), message);
+        assertEquals(expected.getVillagerIds(), actual.getVillagerIds(), message);
+        assertEquals(new HashMap<>(expected.getUpgradeLevels()), new HashMap<>(actual.getUpgradeLevels()), message);
+        assertEquals(expected.getCropStorage(), actual.getCropStorage(), message);
+    }
+
+    private static void assertTaskDataEquals(PlayerTaskData expected, PlayerTaskData actual, String message) {
+        assertNotNull(actual, message);
+        assertEquals(expected.getPlayerUuid(), actual.getPlayerUuid(), message);
+        assertEquals(expected.getTaskPoints(), actual.getTaskPoints(), message);
+
+        List<Task> expectedTasks = sorted(expected.getActiveTasks());
+        List<Task> actualTasks = sorted(actual.getActiveTasks());
+        assertEquals(expectedTasks.size(), actualTasks.size(), message);
+        for (int i = 0; i < expectedTasks.size(); i++) {
+            assertTaskEquals(expectedTasks.get(i), actualTasks.get(i), message);
+        }
+
+        if (expected.getCurrentTask() == null) {
+            assertNull(actual.getCurrentTask(), message);
+        } else {
+            assertTaskEquals(expected.getCurrentTask(), actual.getCurrentTask(), message);
+        }
+    }
+
+    private static void assertTaskEquals(Task expected, Task actual, String message) {
+        assertNotNull(actual, message);
+        assertEquals(expected.getTaskId(), actual.getTaskId(), message);
+        assertEquals(expected.getPlayerUuid(), actual.getPlayerUuid(), message);
+        assertEquals(expected.getType(), actual.getType(), message);
+        assertEquals(expected.getTargetItem(), actual.getTargetItem(), message);
+        assertEquals(expected.getTargetAmount(), actual.getTargetAmount(), message);
+        assertEquals(expected.getProgress(), actual.getProgress(), message);
+        assertEquals(expected.getRewardExp(), actual.getRewardExp(), message);
+        assertEquals(expected.getRewardMoney(), actual.getRewardMoney(), message);
+        assertEquals(expected.getDescription(), actual.getDescription(), message);
+    }
+
+    private static List<Task> sorted(List<Task> tasks) {
+        List<Task> result = new ArrayList<>(tasks);
+        result.sort(Comparator.comparing(Task::getTaskId));
+        return result;
+    }
+}
@@ -0,0 +1,227 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.Task;
+import cn.popcraft.villagepro.model.UpgradeType;
+import cn.popcraft.villagepro.model.Village;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * 压缩阈值的 CPU 与 I/O 取舍
+ * 数据大小按大多数玩家数据很小、少数老玩家数据很大的分布生成，
+ * 先按编码后的大小分组统计压缩率和压缩、解码耗时，再在 SQLite 中按不同阈值写入和读取全部任务快照，
+ * 比较耗时和数据库大小。压缩级别与 storage.compression.level 的默认值相同。
+ * 通过 gradle benchmark 运行，结果输出到标准输出
+ */
+@Tag("benchmark")
+class CompressionBenchmark {
+    private static final int LEVEL = 1;
+    private static final int RECORDS = 20000;
+    private static final int[] BUCKETS = {256, 512, 1024, 2048, 4096, Integer.MAX_VALUE};
+    private static final int[] THRESHOLDS = {0, 256, 512, 1024, 4096, Integer.MAX_VALUE};
+    private static final int ROUNDS = 5;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void sizeBuckets() throws SQLException, IOException {
+        Random random = new Random(5L);
+        List<byte[]> villages = new ArrayList<>(RECORDS);
+        List<byte[]> tasks = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            villages.add(BinaryCodec.encodeVillage(village(random).snapshot()));
+            tasks.add(BinaryCodec.encodePlayerTaskData(taskData(random)));
+        }
+        report("村庄", villages, true);
+        report("任务", tasks, false);
+    }
+
+    @Test
+    void thresholds() throws SQLException, IOException {
+        Random random = new Random(6L);
+        List<PlayerTaskData> tasks = new ArrayList<>(RECORDS);
+        for (int i = 0; i < RECORDS; i++) {
+            tasks.add(taskData(random));
+        }
+        List<byte[]> encoded = tasks.stream().map(BinaryCodec::encodePlayerTaskData).toList();
+
+        for (int threshold : THRESHOLDS) {
+            File file = new File(directory, "tasks-" + threshold + ".db");
+            long writeNanos;
+            long readNanos;
+            try (Connection connection = BenchmarkDatabase.openWriter(file, "WAL", "NORMAL")) {
+                BenchmarkDatabase.createSchema(connection);
+                writeNanos = median(() -> writeTasks(connection, tasks, encoded, threshold));
+                try (Statement stmt = connection.createStatement()) {
+                    stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+                }
+            }
+            try (Connection connection = BenchmarkDatabase.openReader(file)) {
+                readNanos = median(() -> assertEquals(RECORDS, readTasks(connection)));
+            }
+            System.out.printf("[压缩阈值] %s: 写入 %.1f ms, 读取并解码 %.1f ms, 数据库 %.0f KB%n",
+                    threshold == Integer.MAX_VALUE ? "不压缩" : threshold + " B",
+                    writeNanos / 1_000_000.0, readNanos / 1_000_000.0, file.length() / 1024.0);
+        }
+    }
+
+    /**
+     * 与保存任务快照时相同：编码后达到阈值的数据压缩，每 500 条提交一次
+     */
+    private static void writeTasks(Connection connection, List<PlayerTaskData> tasks, List<byte[]> encoded, int threshold) throws SQLException {
+        connection.setAutoCommit(false);
+        try (PreparedStatement stmt = connection.prepareStatement("INSERT OR REPLACE INTO player_tasks(id, data) VALUES(?,?)")) {
+            for (int i = 0; i < tasks.size(); i++) {
+                byte[] data = encoded.get(i);
+                stmt.setString(1, tasks.get(i).getPlayerUuid().toString());
+                stmt.setBytes(2, data.length >= threshold ? BinaryCodec.compress(data, LEVEL) : data);
+                stmt.addBatch();
+                if ((i + 1) % 500 == 0) {
+                    stmt.executeBatch();
+                    connection.commit();
+                }
+            }
+            stmt.executeBatch();
+            connection.commit();
+        } finally {
+            connection.setAutoCommit(true);
+        }
+    }
+
+    private static int readTasks(Connection connection) throws SQLException, IOException {
+        int count = 0;
+        try (Statement stmt = connection.createStatement();
+             ResultSet rs = stmt.executeQuery("SELECT data FROM player_tasks")) {
+            while (rs.next()) {
+                BinaryCodec.decodePlayerTaskData(rs.getBytes(1));
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void report(String name, List<byte[]> records, boolean village) throws SQLException, IOException {
+        int lower = 0;
+        for (int upper : BUCKETS) {
+            List<byte[]> bucket = new ArrayList<>();
+            for (byte[] record : records) {
+                if (record.length >= lower && record.length < upper) {
+                    bucket.add(record);
+                }
+            }
+            if (!bucket.isEmpty()) {
+                long plain = 0L;
+                long packed = 0L;
+                List<byte[]> compressed = new ArrayList<>(bucket.size());
+                for (byte[] record : bucket) {
+                    byte[] result = BinaryCodec.compress(record, LEVEL);
+                    compressed.add(result);
+                    plain += record.length;
+                    packed += result.length;
+                }
+                double compressNanos = median(() -> bucket.forEach(record -> BinaryCodec.compress(record, LEVEL)));
+                double plainDecodeNanos = median(() -> decodeAll(bucket, village));
+                double packedDecodeNanos = median(() -> decodeAll(compressed, village));
+                System.out.printf("[%s压缩] %s: %d 条 (%.1f%%), 平均 %d B -> %d B (%.0f%%), 压缩 %.2f us/条, 解码 %.2f -> %.2f us/条%n",
+                        name, upper == Integer.MAX_VALUE ? ">= " + lower + " B" : lower + "-" + upper + " B",
+                        bucket.size(), bucket.size() * 100.0 / records.size(), plain / bucket.size(), packed / bucket.size(),
+                        packed * 100.0 / plain, compressNanos / 1000.0 / bucket.size(),
+                        plainDecodeNanos / 1000.0 / bucket.size(), packedDecodeNanos / 1000.0 / bucket.size());
+            }
+            lower = upper;
+        }
+    }
+
+    private static void decodeAll(List<byte[]> records, boolean village) throws IOException {
+        for (byte[] record : records) {
+            if (village) {
+                BinaryCodec.decodeVillage(record);
+            } else {
+                BinaryCodec.decodePlayerTaskData(record);
+            }
+        }
+    }
+
+    /**
+     * 预热一轮后取 ROUNDS 轮耗时的中位数
+     *
+     * @return 纳秒
+     */
+    private static long median(Round round) throws SQLException, IOException {
+        round.run();
+        long[] times = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            round.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[ROUNDS / 2];
+    }
+
+    /**
+     * 大多数村庄只有几个村民，少数老玩家有上百个村民和大量作物
+     */
+    private static Village village(Random random) {
+        int size = random.nextInt(100);
+        int villagers = size < 70 ? 1 + random.nextInt(10) : size < 95 ? 20 + random.nextInt(40) : 100 + random.nextInt(300);
+        int crops = size < 70 ? random.nextInt(4) : size < 95 ? 4 + random.nextInt(8) : 10 + random.nextInt(30);
+        Village village = new Village();
+        village.setOwnerUuid(UUID.randomUUID());
+        for (int i = 0; i < villagers; i++) {
+            village.addVillager(UUID.randomUUID());
+        }
+        for (UpgradeType type : UpgradeType.values()) {
+            if (random.nextInt(3) != 0) {
+                village.setUpgradeLevel(type, 1 + random.nextInt(5));
+            }
+        }
+        for (int i = 0; i < crops; i++) {
+            village.addCrop("minecraft:crop_" + i, random.nextInt(100_000));
+        }
+        return village;
+    }
+
+    /**
+     * 大多数玩家只有几个进行中的任务，少数老玩家积累了几十个
+     */
+    private static PlayerTaskData taskData(Random random) {
+        int size = random.nextInt(100);
+        int count = size < 70 ? 1 + random.nextInt(3) : size < 95 ? 5 + random.nextInt(10) : 30 + random.nextInt(50);
+        PlayerTaskData taskData = new PlayerTaskData(UUID.randomUUID());
+        taskData.setTaskPoints(random.nextInt(10_000));
+        Task.TaskType[] types = Task.TaskType.values();
+        for (int i = 0; i < count; i++) {
+            Task task = new Task(types[random.nextInt(types.length)], 10 + random.nextInt(100),
+                    random.nextInt(500), random.nextInt(200));
+            task.setPlayerUuid(taskData.getPlayerUuid());
+            task.setProgress(random.nextInt(task.getTargetAmount()));
+            task.setDescription("完成" + task.getTargetAmount() + "次" + task.getType().name());
+            taskData.addTask(task);
+        }
+        return taskData;
+    }
+
+    @FunctionalInterface
+    private interface Round {
+        void run() throws SQLException, IOException;
+    }
+}
@@ -0,0 +1,80 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * 作物增量的刷新：写入失败的一批增量合并回内存，下次刷新时与新的增量一起写入
+ */
+class CropCountersTest {
+    private static final UUID OWNER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+
+    private CropRepository repository;
+    private CropCounters counters;
+
+    @BeforeEach
+    void setUp() {
+        FileConfiguration config = mock(FileConfiguration.class,
+                invocation -> invocation.getArguments().length == 2 ? invocation.getArgument(1) : null);
+        VillagePro plugin = mock(VillagePro.class);
+        when(plugin.getConfig()).thenReturn(config);
+        Logger logger = Logger.getLogger("VillagePro");
+        logger.setLevel(Level.OFF);
+        when(plugin.getLogger()).thenReturn(logger);
+        repository = mock(CropRepository.class);
+        counters = new CropCounters(plugin, repository);
+    }
+
+    @Test
+    void failedFlushIsRetriedWithNewDeltas() {
+        when(repository.addDeltasAsync(any()))
+                .thenReturn(CompletableFuture.failedFuture(new SQLException("database is locked")))
+                .thenReturn(CompletableFuture.completedFuture(2));
+
+        counters.add(OWNER, "wheat", 5);
+        counters.add(OWNER, "carrots", -2);
+        counters.flush();
+        assertEquals(1L, counters.getFailedCount());
+
+        counters.add(OWNER, "wheat", 3);
+        counters.flush();
+
+        @SuppressWarnings("unchecked")
+        ArgumentCaptor<Map<UUID, Map<String, Integer>>> batches = ArgumentCaptor.forClass(Map.class);
+        verify(repository, times(2)).addDeltasAsync(batches.capture());
+        assertEquals(Map.of(OWNER, Map.of("wheat", 8, "carrots", -2)), batches.getAllValues().get(1));
+        assertEquals(2L, counters.getWrittenRows());
+        assertTrue(counters.drain().isEmpty());
+    }
+
+    @Test
+    void successfulFlushClearsDeltas() {
+        when(repository.addDeltasAsync(any())).thenReturn(CompletableFuture.completedFuture(1));
+
+        counters.add(OWNER, "wheat", 5);
+        counters.flush();
+        counters.flush();
+
+        verify(repository, times(1)).addDeltasAsync(any());
+        assertEquals(0L, counters.getFailedCount());
+        assertTrue(counters.drain().isEmpty());
+    }
+}
@@ -0,0 +1,257 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.config.ConfigManager;
+import cn.popcraft.villagepro.manager.CropManager;
+import cn.popcraft.villagepro.manager.TaskManager;
+import cn.popcraft.villagepro.manager.VillageManager;
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.UpgradeType;
+import cn.popcraft.villagepro.model.Village;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import org.bukkit.Bukkit;
+import org.bukkit.Server;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.bukkit.scheduler.BukkitScheduler;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.when;
+
+/**
+ * 数据导入的断点续传和重复导入
+ * 管理器和存储都是真实的，数据库是临时目录中的 SQLite 文件；主线程调用在导入线程上直接执行。
+ * 每块 2 条记录，数据文件依次是 2 个村庄、2 条作物和 2 个玩家任务数据，正好分为 3 块
+ */
+class DataTransferTest {
+    private static final UUID FIRST = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID SECOND = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    private static final String FILE = "players" + DataTransfer.SUFFIX;
+
+    @TempDir
+    File directory;
+
+    private final Gson gson = new Gson();
+    private StorageShards shards;
+    private VillageRepository villageRepository;
+    private CropRepository cropRepository;
+    private TaskRepository taskRepository;
+    private DataTransfer transfer;
+
+    /**
+     * Bukkit 的服务器只能设置一次，所有测试共用
+     */
+    @BeforeAll
+    static void setUpServer() {
+        if (Bukkit.getServer() != null) {
+            return;
+        }
+        BukkitScheduler scheduler = mock(BukkitScheduler.class);
+        when(scheduler.callSyncMethod(any(), any())).thenAnswer(invocation -> {
+            Callable<?> task = invocation.getArgument(1);
+            return CompletableFuture.completedFuture(task.call());
+        });
+        Server server = mock(Server.class);
+        when(server.getScheduler()).thenReturn(scheduler);
+        when(server.isPrimaryThread()).thenReturn(true);
+        when(server.getOnlinePlayers()).thenReturn(List.of());
+        when(server.getLogger()).thenReturn(quietLogger());
+        Bukkit.setServer(server);
+    }
+
+    @BeforeEach
+    void setUp() throws Exception {
+        Map<String, Object> settings = Map.of("storage.transfer.chunk-size", 2);
+        FileConfiguration config = mock(FileConfiguration.class, invocation -> invocation.getArguments().length == 2
+                ? settings.getOrDefault(invocation.<String>getArgument(0), invocation.getArgument(1)) : null);
+        VillagePro plugin = mock(VillagePro.class);
+        when(plugin.getConfig()).thenReturn(config);
+        when(plugin.getDataFolder()).thenReturn(directory);
+        when(plugin.getLogger()).thenReturn(quietLogger());
+        when(plugin.getServer()).thenReturn(Bukkit.getServer());
+        when(plugin.getGson()).thenReturn(gson);
+        when(plugin.getConfigManager()).thenReturn(mock(ConfigManager.class));
+
+        shards = new StorageShards(plugin);
+        StorageService storage = shards.primary();
+        villageRepository = new VillageStorage(plugin, gson, storage);
+        cropRepository = spy(new SqlCropRepository(storage));
+        taskRepository = spy(new SqlTaskRepository(plugin, gson, storage));
+        when(plugin.getStorageService()).thenReturn(storage);
+        when(plugin.getStorageShards()).thenReturn(shards);
+        when(plugin.getVillageRepository()).thenReturn(villageRepository);
+        when(plugin.getCropRepository()).thenReturn(cropRepository);
+        when(plugin.getTaskRepository()).thenReturn(taskRepository);
+
+        VillageManager villageManager = new VillageManager(plugin);
+        CropManager cropManager = new CropManager(plugin);
+        TaskManager taskManager = new TaskManager(plugin);
+        when(plugin.getVillageManager()).thenReturn(villageManager);
+        when(plugin.getCropManager()).thenReturn(cropManager);
+        when(plugin.getTaskManager()).thenReturn(taskManager);
+
+        transfer = new DataTransfer(plugin);
+        writeDataFile();
+    }
+
+    @AfterEach
+    void tearDown() {
+        transfer.close();
+        shards.close();
+    }
+
+    @Test
+    void failedCropWriteKeepsProgressAndResumes() throws Exception {
+        doReturn(CompletableFuture.failedFuture(new SQLException("database is locked")))
+                .doCallRealMethod()
+                .when(cropRepository).addDeltasAsync(any());
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> transfer.importFile(FILE, message -> { }).get());
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertEquals("2", progress().split(" ")[0]);
+
+        DataTransfer.Result result = transfer.importFile(FILE, message -> { }).get();
+        assertEquals(2L, result.resumedFrom());
+        assertEquals(4L, result.records());
+        assertFalse(progressFile().exists());
+        assertImported();
+    }
+
+    @Test
+    void failedTaskSnapshotKeepsProgressAndResumes() throws Exception {
+        doReturn(CompletableFuture.failedFuture(new SQLException("database is locked")))
+                .doCallRealMethod()
+                .when(taskRepository).saveSnapshot(any(), any());
+
+        ExecutionException failure = assertThrows(ExecutionException.class, () -> transfer.importFile(FILE, message -> { }).get());
+        assertInstanceOf(IOException.class, failure.getCause());
+        assertEquals("4", progress().split(" ")[0]);
+
+        DataTransfer.Result result = transfer.importFile(FILE, message -> { }).get();
+        assertEquals(4L, result.resumedFrom());
+        assertEquals(2L, result.records());
+        assertFalse(progressFile().exists());
+        assertImported();
+    }
+
+    @Test
+    void reimportGivesSameResult() throws Exception {
+        DataTransfer.Result first = transfer.importFile(FILE, message -> { }).get();
+        assertEquals(6L, first.records());
+        assertEquals(0L, first.resumedFrom());
+        assertImported();
+
+        DataTransfer.Result second = transfer.importFile(FILE, message -> { }).get();
+        assertEquals(6L, second.records());
+        assertEquals(0L, second.resumedFrom());
+        assertImported();
+    }
+
+    private void assertImported() throws Exception {
+        Village first = villageRepository.loadVillage(FIRST).get();
+        Village second = villageRepository.loadVillage(SECOND).get();
+        assertEquals(3, first.getUpgradeLevel(UpgradeType.TRADE));
+        assertEquals(1, second.getUpgradeLevel(UpgradeType.TRADE));
+        assertEquals(2, villageRepository.getAllVillageOwners().get().length);
+
+        Map<String, Integer> crops = new HashMap<>();
+        cropRepository.streamAll((owner, crop, amount) -> crops.put(owner + ":" + crop, amount));
+        assertEquals(Map.of(FIRST + ":wheat", 5, SECOND + ":carrots", 3), crops);
+
+        Map<UUID, Integer> points = new HashMap<>();
+        taskRepository.streamPlayerTaskRows(data -> {
+            PlayerTaskData taskData = taskRepository.decodePlayerTaskData(data);
+            points.put(taskData.getPlayerUuid(), taskData.getTaskPoints());
+        });
+        assertEquals(Map.of(FIRST, 10, SECOND, 20), points);
+    }
+
+    private File progressFile() {
+        return new File(transfer.getDirectory(), FILE + ".progress");
+    }
+
+    private String progress() throws Exception {
+        assertTrue(progressFile().isFile());
+        return Files.readString(progressFile().toPath(), StandardCharsets.UTF_8);
+    }
+
+    private void writeDataFile() throws Exception {
+        File file = new File(transfer.getDirectory(), FILE);
+        assertTrue(file.getParentFile().mkdirs());
+        try (Writer writer = new OutputStreamWriter(new GZIPOutputStream(new FileOutputStream(file)), StandardCharsets.UTF_8)) {
+            JsonObject header = new JsonObject();
+            header.addProperty("type", "header");
+            header.addProperty("format", 1);
+            writer.write(gson.toJson(header) + "\n");
+
+            for (UUID owner : List.of(FIRST, SECOND)) {
+                Village village = new Village();
+                village.setOwnerUuid(owner);
+                village.setUpgradeLevel(UpgradeType.TRADE, owner.equals(FIRST) ? 3 : 1);
+                JsonObject record = record("village", owner);
+                record.add("data", gson.toJsonTree(village));
+                writer.write(gson.toJson(record) + "\n");
+            }
+            JsonObject wheat = record("crop", FIRST);
+            wheat.addProperty("crop", "wheat");
+            wheat.addProperty("amount", 5);
+            writer.write(gson.toJson(wheat) + "\n");
+            JsonObject carrots = record("crop", SECOND);
+            carrots.addProperty("crop", "carrots");
+            carrots.addProperty("amount", 3);
+            writer.write(gson.toJson(carrots) + "\n");
+            for (UUID owner : List.of(FIRST, SECOND)) {
+                PlayerTaskData taskData = new PlayerTaskData(owner);
+                taskData.setTaskPoints(owner.equals(FIRST) ? 10 : 20);
+                JsonObject record = record("tasks", owner);
+                record.add("data", gson.toJsonTree(taskData));
+                writer.write(gson.toJson(record) + "\n");
+            }
+        }
+    }
+
+    private static JsonObject record(String type, UUID owner) {
+        JsonObject record = new JsonObject();
+        record.addProperty("type", type);
+        record.addProperty("owner", owner.toString());
+        return record;
+    }
+
+    private static Logger quietLogger() {
+        Logger logger = Logger.getLogger("VillagePro");
+        logger.setLevel(Level.OFF);
+        return logger;
+    }
+}
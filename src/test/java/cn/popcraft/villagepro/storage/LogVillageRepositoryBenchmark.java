@@ -0,0 +1,172 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.VillageSnapshot;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 日志存储与 SQLite 存储的对比
+ * 同一批村庄分别用 {@link LogVillageRepository#saveAll} 和 VillageStorage 完整重写时的语句（每 500 个村庄一个事务）保存，
+ * 再随机按所有者加载，最后比较重启时日志扫描重建索引的耗时和占用的磁盘空间。
+ * 配置使用 config.yml 中的默认值，不启动定时压缩。通过 gradle benchmark 运行，结果输出到标准输出
+ */
+@Tag("benchmark")
+class LogVillageRepositoryBenchmark {
+    private static final int VILLAGES = 20000;
+    private static final int LOADS = 50000;
+    private static final int WRITE_CHUNK = 500;
+    private static final int ROUNDS = 5;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void logAgainstSqlite() throws Exception {
+        List<VillageSnapshot> villages = BenchmarkDatabase.typicalSnapshots(VILLAGES, 7L);
+        VillagePro plugin = plugin();
+        System.out.printf("[日志存储] %d 个村庄, 重写 %d 轮取中位数, 随机加载 %d 次%n", VILLAGES, ROUNDS, LOADS);
+
+        File database = new File(directory, "data.db");
+        try (Connection connection = BenchmarkDatabase.openWriter(database, "WAL", "NORMAL")) {
+            BenchmarkDatabase.createSchema(connection);
+            long save = median(() -> BenchmarkDatabase.writeVillages(connection, villages, WRITE_CHUNK));
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("PRAGMA wal_checkpoint(TRUNCATE)");
+            }
+            System.out.printf("[日志存储] SQLite 保存: %.0f 个/秒%n", VILLAGES / (save / 1_000_000_000.0));
+        }
+        try (Connection connection = BenchmarkDatabase.openReader(database)) {
+            long load = loadSqlite(connection, villages);
+            System.out.printf("[日志存储] SQLite 加载: %.0f 个/秒, 数据库 %.0f KB%n",
+                    LOADS / (load / 1_000_000_000.0), database.length() / 1024.0);
+        }
+
+        LogVillageRepository repository = new LogVillageRepository(plugin);
+        try {
+            long save = median(() -> assertEquals(VILLAGES, repository.saveAll(villages)));
+            System.out.printf("[日志存储] 日志保存: %.0f 个/秒, %d 个日志段%n",
+                    VILLAGES / (save / 1_000_000_000.0), repository.getSegmentCount());
+            long load = loadLog(repository, villages);
+            System.out.printf("[日志存储] 日志加载: %.0f 个/秒, 日志 %.0f KB%n",
+                    LOADS / (load / 1_000_000_000.0), size(new File(directory, "villages-log")) / 1024.0);
+        } finally {
+            repository.close();
+        }
+
+        long start = System.nanoTime();
+        LogVillageRepository reopened = new LogVillageRepository(plugin);
+        long recover = System.nanoTime() - start;
+        try {
+            assertEquals(VILLAGES, reopened.getAllVillageOwners().get().length);
+            System.out.printf("[日志存储] 重启扫描 %d 个日志段重建索引: %.1f ms%n",
+                    reopened.getSegmentCount(), recover / 1_000_000.0);
+        } finally {
+            reopened.close();
+        }
+    }
+
+    /**
+     * 与 VillageStorage 加载村庄时相同的三条查询
+     *
+     * @return 纳秒
+     */
+    private static long loadSqlite(Connection connection, List<VillageSnapshot> villages) throws SQLException {
+        Random random = new Random(8L);
+        try (PreparedStatement village = connection.prepareStatement("SELECT follow_enabled, version FROM villages WHERE ownerUuid = ?");
+             PreparedStatement villagers = connection.prepareStatement("SELECT villager FROM village_villagers WHERE owner = ?");
+             PreparedStatement upgrades = connection.prepareStatement("SELECT type, level FROM village_upgrades WHERE owner = ?")) {
+            long start = System.nanoTime();
+            for (int i = 0; i < LOADS; i++) {
+                String owner = villages.get(random.nextInt(villages.size())).getOwnerUuid().toString();
+                for (PreparedStatement stmt : List.of(village, villagers, upgrades)) {
+                    stmt.setString(1, owner);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rs.getObject(1);
+                        }
+                    }
+                }
+            }
+            return System.nanoTime() - start;
+        }
+    }
+
+    /**
+     * @return 纳秒
+     */
+    private static long loadLog(LogVillageRepository repository, List<VillageSnapshot> villages) throws Exception {
+        Random random = new Random(8L);
+        long start = System.nanoTime();
+        for (int i = 0; i < LOADS; i++) {
+            assertNotNull(repository.loadVillage(villages.get(random.nextInt(villages.size())).getOwnerUuid()).get());
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * 只提供日志存储需要的部分：数据目录、日志、存储统计，配置全部返回默认值
+     */
+    private VillagePro plugin() {
+        FileConfiguration config = mock(FileConfiguration.class,
+                invocation -> invocation.getArguments().length == 2 ? invocation.getArgument(1) : null);
+        VillagePro plugin = mock(VillagePro.class);
+        when(plugin.getConfig()).thenReturn(config);
+        when(plugin.getDataFolder()).thenReturn(directory);
+        // 只输出错误，慢操作和批量保存日志会打乱结果
+        Logger logger = Logger.getLogger("VillagePro");
+        logger.setLevel(Level.SEVERE);
+        when(plugin.getLogger()).thenReturn(logger);
+        StorageMetrics metrics = new StorageMetrics(plugin);
+        StorageService storage = mock(StorageService.class);
+        when(storage.getMetrics()).thenReturn(metrics);
+        when(plugin.getStorageService()).thenReturn(storage);
+        return plugin;
+    }
+
+    private static long size(File directory) {
+        File[] files = directory.listFiles();
+        return files == null ? 0L : Arrays.stream(files).mapToLong(File::length).sum();
+    }
+
+    /**
+     * 预热一轮后取 ROUNDS 轮耗时的中位数
+     *
+     * @return 纳秒
+     */
+    private static long median(Round round) throws Exception {
+        round.run();
+        long[] times = new long[ROUNDS];
+        for (int i = 0; i < ROUNDS; i++) {
+            long start = System.nanoTime();
+            round.run();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[ROUNDS / 2];
+    }
+
+    @FunctionalInterface
+    private interface Round {
+        void run() throws Exception;
+    }
+}
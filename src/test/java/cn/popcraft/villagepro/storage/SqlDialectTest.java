@@ -0,0 +1,288 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.VillagePro;
+import cn.popcraft.villagepro.model.PlayerTaskData;
+import cn.popcraft.villagepro.model.UpgradeType;
+import cn.popcraft.villagepro.model.Village;
+import com.google.gson.Gson;
+import com.zaxxer.hikari.HikariConfig;
+import org.bukkit.configuration.file.FileConfiguration;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * 各存储在两种数据库上执行的实际语句
+ * SQLite 使用临时目录中的数据库文件，MySQL 使用 H2 的 MySQL 兼容模式。
+ * 表结构由 {@link VillageStorage} 的迁移经 {@link SchemaMigrator} 创建，读写都通过存储实现完成，测试中不重复任何SQL
+ */
+class SqlDialectTest {
+    private static final UUID OWNER = UUID.fromString("00000000-0000-0000-0000-000000000001");
+    private static final UUID OTHER = UUID.fromString("00000000-0000-0000-0000-000000000002");
+    private static final int SCHEMA_VERSION = 8;
+
+    @TempDir
+    File directory;
+
+    private final Gson gson = new Gson();
+    private final List<StorageService> opened = new ArrayList<>();
+    private VillagePro plugin;
+    private StorageService storage;
+
+    /**
+     * 打开方言对应的空数据库
+     */
+    private void open(SqlDialect dialect) {
+        FileConfiguration config = mock(FileConfiguration.class, invocation -> invocation.getArguments().length == 2
+                ? ("storage.type".equals(invocation.getArgument(0)) ? dialect.name().toLowerCase() : invocation.getArgument(1))
+                : null);
+        plugin = mock(VillagePro.class);
+        when(plugin.getConfig()).thenReturn(config);
+        when(plugin.getDataFolder()).thenReturn(directory);
+        Logger logger = Logger.getLogger("VillagePro");
+        logger.setLevel(Level.OFF);
+        when(plugin.getLogger()).thenReturn(logger);
+
+        StorageMetrics metrics = new StorageMetrics(plugin);
+        if (dialect == SqlDialect.SQLITE) {
+            storage = new StorageService(plugin, 0, metrics);
+        } else {
+            HikariConfig pool = new HikariConfig();
+            pool.setPoolName("VillagePro-h2");
+            pool.setJdbcUrl("jdbc:h2:mem:" + UUID.randomUUID() + ";MODE=MySQL;DATABASE_TO_LOWER=TRUE;DB_CLOSE_DELAY=-1");
+            pool.setMaximumPoolSize(2);
+            storage = new StorageService(plugin, 0, metrics, pool);
+        }
+        assertSame(dialect, storage.getDialect());
+        when(plugin.getStorageService()).thenReturn(storage);
+        opened.add(storage);
+    }
+
+    @AfterEach
+    void tearDown() {
+        opened.forEach(StorageService::close);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SqlDialect.class)
+    void migrationsCreateSchemaOnce(SqlDialect dialect) throws SQLException {
+        open(dialect);
+        new VillageStorage(plugin, gson, storage);
+        // 第二次启动时所有版本都已执行
+        new VillageStorage(plugin, gson, storage);
+
+        assertEquals(SCHEMA_VERSION, queryInt("SELECT MAX(version) FROM schema_version"));
+        assertEquals(SCHEMA_VERSION, queryInt("SELECT COUNT(*) FROM schema_version"));
+        storage.read(connection -> {
+            for (String table : new String[]{"villages", "crops", "player_tasks", "village_upgrades", "village_villagers",
+                    "village_crops", "task_progress_journal", "village_archive", "storage_maintenance"}) {
+                try (ResultSet rs = connection.getMetaData().getTables(connection.getCatalog(), null, table, null)) {
+                    assertTrue(rs.next(), table);
+                }
+            }
+            assertTrue(hasIndex(connection, "villages", "idx_villages_owner"));
+            assertTrue(hasIndex(connection, "villages", "idx_villages_last_seen"));
+            assertTrue(hasIndex(connection, "village_villagers", "idx_village_villagers_owner"));
+            assertTrue(hasIndex(connection, "task_progress_journal", "idx_task_progress_journal_player"));
+            return null;
+        });
+
+        // 索引已存在时再次创建不做任何操作
+        storage.write(connection -> {
+            dialect.createIndex(connection, "idx_villages_owner", "villages", "ownerUuid");
+            return null;
+        });
+    }
+
+    @ParameterizedTest
+    @EnumSource(SqlDialect.class)
+    void villageRowsFollowChanges(SqlDialect dialect) throws Exception {
+        open(dialect);
+        VillageStorage villages = new VillageStorage(plugin, gson, storage);
+        UUID kept = UUID.randomUUID();
+        UUID removed = UUID.randomUUID();
+
+        Village village = new Village();
+        village.setOwnerUuid(OWNER);
+        village.addVillager(kept);
+        village.addVillager(removed);
+        village.setUpgradeLevel(UpgradeType.TRADE, 1);
+        village.setUpgradeLevel(UpgradeType.HEALTH, 2);
+        village.setFollowEnabled(true);
+        assertTrue(villages.saveVillage(village).get());
+        long lastSeen = queryLong("SELECT last_seen FROM villages");
+        long version = queryLong("SELECT version FROM villages");
+
+        village.removeVillager(removed);
+        village.setUpgradeLevel(UpgradeType.TRADE, 3);
+        village.setFollowEnabled(false);
+        assertEquals(1, villages.saveAll(List.of(village.snapshot())));
+
+        Village loaded = villages.loadVillage(OWNER).get();
+        assertEquals(List.of(kept), loaded.getVillagerIds());
+        assertEquals(Map.of(UpgradeType.TRADE, 3, UpgradeType.HEALTH, 2), loaded.getUpgradeLevels());
+        assertFalse(loaded.isFollowEnabled());
+        assertEquals(OWNER, villages.findVillagerOwner(kept).get());
+        assertNull(villages.findVillagerOwner(removed).get());
+        // last_seen 只在插入时写入，之后的保存只增加版本号
+        assertEquals(lastSeen, queryLong("SELECT last_seen FROM villages"));
+        assertTrue(queryLong("SELECT version FROM villages") > version);
+
+        // 村民换了所有者时整行替换
+        Village other = new Village();
+        other.setOwnerUuid(OTHER);
+        other.addVillager(kept);
+        assertTrue(villages.saveVillage(other).get());
+        assertEquals(OTHER, villages.findVillagerOwner(kept).get());
+        assertEquals(1, queryInt("SELECT COUNT(*) FROM village_villagers"));
+    }
+
+    @ParameterizedTest
+    @EnumSource(SqlDialect.class)
+    void concurrentWritersAreMerged(SqlDialect dialect) throws Exception {
+        open(dialect);
+        VillageStorage first = new VillageStorage(plugin, gson, storage);
+        VillageStorage second = new VillageStorage(plugin, gson, storage);
+        UUID original = UUID.randomUUID();
+        UUID fromFirst = UUID.randomUUID();
+        UUID fromSecond = UUID.randomUUID();
+
+        Village village = new Village();
+        village.setOwnerUuid(OWNER);
+        village.addVillager(original);
+        assertTrue(first.saveVillage(village).get());
+
+        Village copy = second.loadVillage(OWNER).get();
+        copy.addVillager(fromSecond);
+        assertTrue(second.saveVillage(copy).get());
+
+        // 第一个写入方的已知版本已过期，按版本号检查后与数据库中的行合并
+        village.addVillager(fromFirst);
+        assertTrue(first.saveVillage(village).get());
+
+        assertEquals(Set.of(original, fromFirst, fromSecond), Set.copyOf(second.loadVillage(OWNER).get().getVillagerIds()));
+        assertEquals(1L, storage.getMetrics().getConflictCount());
+    }
+
+    @ParameterizedTest
+    @EnumSource(SqlDialect.class)
+    void cropDeltasAccumulate(SqlDialect dialect) throws Exception {
+        open(dialect);
+        new VillageStorage(plugin, gson, storage);
+        SqlCropRepository crops = new SqlCropRepository(storage);
+
+        assertEquals(2, crops.addDeltasAsync(Map.of(OWNER, Map.of("wheat", 5, "carrots", 2))).get());
+        crops.addDeltasAsync(Map.of(OWNER, Map.of("wheat", 7), OTHER, Map.of("wheat", 1))).get();
+        // 减到0的行被删除
+        crops.addDeltasAsync(Map.of(OWNER, Map.of("wheat", -3, "carrots", -2))).get();
+
+        Map<String, Integer> rows = new HashMap<>();
+        assertEquals(2, crops.streamAll((owner, crop, amount) -> rows.put(owner + ":" + crop, amount)));
+        assertEquals(Map.of(OWNER + ":wheat", 9, OTHER + ":wheat", 1), rows);
+    }
+
+    @ParameterizedTest
+    @EnumSource(SqlDialect.class)
+    void taskJournalAndSnapshots(SqlDialect dialect) throws Exception {
+        open(dialect);
+        new VillageStorage(plugin, gson, storage);
+        SqlTaskRepository tasks = new SqlTaskRepository(plugin, gson, storage);
+        UUID task = UUID.randomUUID();
+
+        Map<UUID, Integer> deltas = new LinkedHashMap<>();
+        deltas.put(task, 2);
+        deltas.put(null, 5);
+        assertEquals(2, tasks.appendJournal(Map.of(OWNER, deltas)).get());
+        assertEquals(1, tasks.appendJournal(Map.of(OWNER, Map.of(task, 1))).get());
+
+        List<String> journal = new ArrayList<>();
+        tasks.streamJournal((player, taskId, delta) -> journal.add(player + ":" + taskId + ":" + delta));
+        assertEquals(List.of(OWNER + ":" + task + ":2", OWNER + ":null:5", OWNER + ":" + task + ":1"), journal);
+
+        // 超过 MySQL BLOB 的 64KB 上限，随机数据不会被压缩
+        byte[] data = new byte[256 * 1024];
+        new Random(1L).nextBytes(data);
+        tasks.saveSnapshot(OWNER, data).get();
+        assertEquals(0, tasks.streamJournal((player, taskId, delta) -> { }));
+        List<byte[]> rows = new ArrayList<>();
+        tasks.streamPlayerTaskRows(rows::add);
+        assertEquals(1, rows.size());
+        assertArrayEquals(data, rows.get(0));
+
+        // 同一玩家的快照整行替换
+        PlayerTaskData taskData = new PlayerTaskData(OWNER);
+        taskData.setTaskPoints(42);
+        tasks.saveSnapshot(OWNER, BinaryCodec.encodePlayerTaskData(taskData)).get();
+        rows.clear();
+        tasks.streamPlayerTaskRows(rows::add);
+        assertEquals(1, rows.size());
+        assertEquals(42, tasks.decodePlayerTaskData(rows.get(0)).getTaskPoints());
+    }
+
+    @Test
+    void mysqlKeysAreIndexableVarchar() {
+        assertEquals("VARCHAR(36)", SqlDialect.MYSQL.keyType(36));
+        assertEquals("TEXT", SqlDialect.SQLITE.keyType(36));
+        assertEquals("", SqlDialect.MYSQL.withoutRowid());
+    }
+
+    @Test
+    void fromTypeIgnoresCase() {
+        assertSame(SqlDialect.SQLITE, SqlDialect.fromType("SQLite"));
+        assertSame(SqlDialect.MYSQL, SqlDialect.fromType("mysql"));
+        assertSame(SqlDialect.MYSQL, SqlDialect.fromType("MariaDB"));
+        assertNull(SqlDialect.fromType("postgres"));
+    }
+
+    private int queryInt(String sql) throws SQLException {
+        return (int) queryLong(sql);
+    }
+
+    private long queryLong(String sql) throws SQLException {
+        return storage.read(connection -> {
+            try (Statement stmt = connection.createStatement();
+                 ResultSet rs = stmt.executeQuery(sql)) {
+                assertTrue(rs.next(), sql);
+                return rs.getLong(1);
+            }
+        });
+    }
+
+    private static boolean hasIndex(Connection connection, String table, String name) throws SQLException {
+        try (ResultSet rs = connection.getMetaData().getIndexInfo(connection.getCatalog(), null, table, false, true)) {
+            while (rs.next()) {
+                if (name.equalsIgnoreCase(rs.getString("INDEX_NAME"))) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+}
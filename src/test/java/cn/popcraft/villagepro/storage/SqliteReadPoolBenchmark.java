@@ -0,0 +1,144 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.VillageSnapshot;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 只读连接数量对村庄加载吞吐量和延迟的影响
+ * 每个读连接由一个线程持续按所有者加载村庄（与 VillageStorage 加载时相同的三条查询），
+ * 同时写连接按块重写村庄，与在线时加载村庄和定时保存同时发生的情况相同。
+ * 结果与CPU核数有关，输出中附带可用核数。通过 gradle benchmark 运行，结果输出到标准输出
+ */
+@Tag("benchmark")
+class SqliteReadPoolBenchmark {
+    private static final int VILLAGES = 20000;
+    private static final int[] POOL_SIZES = {1, 2, 4, 8};
+    private static final long DURATION_MILLIS = 3000L;
+    private static final int WRITE_CHUNK = 500;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void concurrentLoads() throws Exception {
+        File file = new File(directory, "data.db");
+        List<VillageSnapshot> villages = BenchmarkDatabase.typicalSnapshots(VILLAGES, 4L);
+        try (Connection writer = BenchmarkDatabase.openWriter(file, "WAL", "NORMAL")) {
+            BenchmarkDatabase.createSchema(writer);
+            BenchmarkDatabase.writeVillages(writer, villages, WRITE_CHUNK);
+
+            System.out.printf("[读连接] 可用CPU核数 %d, %d 个村庄%n", Runtime.getRuntime().availableProcessors(), VILLAGES);
+            double single = 0.0;
+            for (int poolSize : POOL_SIZES) {
+                double rate = measure(file, writer, villages, poolSize);
+                if (poolSize == 1) {
+                    single = rate;
+                }
+            }
+            assertTrue(single > 0.0);
+        }
+    }
+
+    /**
+     * @return 每秒加载的村庄数量
+     */
+    private double measure(File file, Connection writer, List<VillageSnapshot> villages, int poolSize) throws Exception {
+        AtomicBoolean running = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(poolSize + 1);
+        try {
+            List<Future<long[]>> readers = new ArrayList<>();
+            for (int i = 0; i < poolSize; i++) {
+                readers.add(executor.submit(() -> readLoop(file, villages, running)));
+            }
+            Future<Integer> writes = executor.submit(() -> writeLoop(writer, villages, running));
+
+            Thread.sleep(DURATION_MILLIS);
+            running.set(false);
+
+            long loads = 0L;
+            List<long[]> latencies = new ArrayList<>();
+            for (Future<long[]> reader : readers) {
+                long[] result = reader.get();
+                loads += result.length;
+                latencies.add(result);
+            }
+            long[] all = latencies.stream().flatMapToLong(Arrays::stream).sorted().toArray();
+            double rate = loads / (DURATION_MILLIS / 1000.0);
+            System.out.printf("[读连接] %d 个: %.0f 个/秒, p50 %.3f ms, p99 %.3f ms, 同时重写 %d 个村庄%n",
+                    poolSize, rate, percentile(all, 0.50), percentile(all, 0.99), writes.get());
+            return rate;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * @return 每次加载的耗时（纳秒）
+     */
+    private static long[] readLoop(File file, List<VillageSnapshot> villages, AtomicBoolean running) throws SQLException {
+        long[] latencies = new long[1024];
+        int count = 0;
+        try (Connection connection = BenchmarkDatabase.openReader(file);
+             PreparedStatement village = connection.prepareStatement("SELECT follow_enabled, version FROM villages WHERE ownerUuid = ?");
+             PreparedStatement villagers = connection.prepareStatement("SELECT villager FROM village_villagers WHERE owner = ?");
+             PreparedStatement upgrades = connection.prepareStatement("SELECT type, level FROM village_upgrades WHERE owner = ?")) {
+            while (running.get()) {
+                String owner = villages.get(ThreadLocalRandom.current().nextInt(villages.size())).getOwnerUuid().toString();
+                long start = System.nanoTime();
+                for (PreparedStatement stmt : List.of(village, villagers, upgrades)) {
+                    stmt.setString(1, owner);
+                    try (ResultSet rs = stmt.executeQuery()) {
+                        while (rs.next()) {
+                            rs.getObject(1);
+                        }
+                    }
+                }
+                if (count == latencies.length) {
+                    latencies = Arrays.copyOf(latencies, count * 2);
+                }
+                latencies[count++] = System.nanoTime() - start;
+            }
+        }
+        return Arrays.copyOf(latencies, count);
+    }
+
+    /**
+     * @return 重写的村庄数量
+     */
+    private static int writeLoop(Connection writer, List<VillageSnapshot> villages, AtomicBoolean running) throws SQLException {
+        int written = 0;
+        int offset = 0;
+        while (running.get()) {
+            List<VillageSnapshot> chunk = villages.subList(offset, Math.min(villages.size(), offset + WRITE_CHUNK));
+            BenchmarkDatabase.writeVillages(writer, chunk, WRITE_CHUNK);
+            written += chunk.size();
+            offset = offset + WRITE_CHUNK >= villages.size() ? 0 : offset + WRITE_CHUNK;
+        }
+        return written;
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        if (sorted.length == 0) {
+            return 0.0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))] / 1_000_000.0;
+    }
+}
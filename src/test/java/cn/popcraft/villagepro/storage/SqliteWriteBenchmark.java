@@ -0,0 +1,107 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.VillageSnapshot;
+import com.google.gson.Gson;
+import org.junit.jupiter.api.Tag;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 批量保存的吞吐量：原来每个村庄一条自动提交的 JSON 行，与现在的 WAL 模式下按块提交的事务对比
+ * 每种方式先写入一遍，再多次计时重写同一批村庄并取中位数，与定时保存覆盖已有数据的情况相同。
+ * 通过 gradle benchmark 运行，结果输出到标准输出
+ */
+@Tag("benchmark")
+class SqliteWriteBenchmark {
+    private static final int VILLAGES = 4000;
+    private static final int[] CHUNK_SIZES = {50, 200, 500, 2000, VILLAGES};
+    private static final int ROUNDS = 5;
+
+    @TempDir
+    File directory;
+
+    @Test
+    void bulkSave() throws SQLException {
+        List<VillageSnapshot> villages = BenchmarkDatabase.typicalSnapshots(VILLAGES, 3L);
+
+        double before = saveJsonRows(villages);
+        System.out.printf("[批量保存] JSON 行, 自动提交, journal_mode=DELETE, synchronous=FULL: %.0f 个/秒%n", before);
+
+        double autoCommit = saveRows("autocommit", villages, 0);
+        System.out.printf("[批量保存] 规范化行, 自动提交, WAL/NORMAL: %.0f 个/秒%n", autoCommit);
+
+        double best = 0.0;
+        for (int chunkSize : CHUNK_SIZES) {
+            double rate = saveRows("chunk-" + chunkSize, villages, chunkSize);
+            best = Math.max(best, rate);
+            System.out.printf("[批量保存] 规范化行, 每个事务 %d 个村庄, WAL/NORMAL: %.0f 个/秒%n", chunkSize, rate);
+        }
+        assertTrue(best > before);
+    }
+
+    /**
+     * 改动前的保存方式：每个村庄一条自动提交的 INSERT OR REPLACE，SQLite 默认的日志模式
+     *
+     * @return 每秒保存的村庄数量
+     */
+    private double saveJsonRows(List<VillageSnapshot> villages) throws SQLException {
+        Gson gson = new Gson();
+        List<String> json = villages.stream().map(village -> gson.toJson(village.toVillage())).toList();
+        try (Connection connection = BenchmarkDatabase.openWriter(new File(directory, "json.db"), "DELETE", "FULL")) {
+            try (Statement stmt = connection.createStatement()) {
+                stmt.execute("CREATE TABLE villages (id TEXT PRIMARY KEY, data TEXT)");
+            }
+            long[] times = new long[ROUNDS + 1];
+            for (int round = 0; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                try (PreparedStatement stmt = connection.prepareStatement("INSERT OR REPLACE INTO villages(id, data) VALUES(?,?)")) {
+                    for (int i = 0; i < villages.size(); i++) {
+                        stmt.setString(1, villages.get(i).getOwnerUuid().toString());
+                        stmt.setString(2, json.get(i));
+                        stmt.executeUpdate();
+                    }
+                }
+                times[round] = System.nanoTime() - start;
+            }
+            return rate(villages.size(), times);
+        }
+    }
+
+    /**
+     * @param chunkSize 每个事务的村庄数量，0 表示自动提交
+     * @return 每秒保存的村庄数量
+     */
+    private double saveRows(String name, List<VillageSnapshot> villages, int chunkSize) throws SQLException {
+        try (Connection connection = BenchmarkDatabase.openWriter(new File(directory, name + ".db"), "WAL", "NORMAL")) {
+            BenchmarkDatabase.createSchema(connection);
+            long[] times = new long[ROUNDS + 1];
+            for (int round = 0; round <= ROUNDS; round++) {
+                long start = System.nanoTime();
+                BenchmarkDatabase.writeVillages(connection, villages, chunkSize);
+                times[round] = System.nanoTime() - start;
+            }
+            return rate(villages.size(), times);
+        }
+    }
+
+    /**
+     * 忽略第一轮插入，取之后各轮重写耗时的中位数
+     *
+     * @return 每秒保存的村庄数量
+     */
+    private static double rate(int count, long[] times) {
+        long[] rewrites = Arrays.copyOfRange(times, 1, times.length);
+        Arrays.sort(rewrites);
+        return count / (rewrites[rewrites.length / 2] / 1_000_000_000.0);
+    }
+}
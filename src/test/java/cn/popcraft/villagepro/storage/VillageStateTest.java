@@ -0,0 +1,105 @@
+package cn.popcraft.villagepro.storage;
+
+import cn.popcraft.villagepro.model.UpgradeType;
+import org.junit.jupiter.api.Test;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * 版本冲突时的三方合并：base 为本进程上次写入的状态，current 为本进程当前的状态，stored 为数据库中其他写入方留下的状态
+ */
+class VillageStateTest {
+    private static final UUID A = UUID.fromString("00000000-0000-0000-0000-00000000000a");
+    private static final UUID B = UUID.fromString("00000000-0000-0000-0000-00000000000b");
+    private static final UUID C = UUID.fromString("00000000-0000-0000-0000-00000000000c");
+    private static final UUID D = UUID.fromString("00000000-0000-0000-0000-00000000000d");
+    private static final UUID E = UUID.fromString("00000000-0000-0000-0000-00000000000e");
+
+    private static VillageState villagers(UUID... villagerIds) {
+        return new VillageState(false, Set.of(villagerIds), Map.of());
+    }
+
+    private static VillageState upgrades(Map<UpgradeType, Integer> upgradeLevels) {
+        return new VillageState(false, Set.of(), upgradeLevels);
+    }
+
+    @Test
+    void villagersAddedAndRemovedOnBothSides() {
+        VillageState base = villagers(A, B, C);
+        // 本进程移除 A、添加 D，其他写入方移除 B、添加 E
+        VillageState current = villagers(B, C, D);
+        VillageState stored = villagers(A, C, E);
+
+        assertEquals(Set.of(C, D, E), VillageState.merge(base, current, stored).villagerIds);
+    }
+
+    @Test
+    void sameVillagerChangedOnBothSides() {
+        VillageState base = villagers(A, B);
+        // 双方都移除了 A、都添加了 C
+        VillageState current = villagers(B, C);
+        VillageState stored = villagers(B, C);
+
+        assertEquals(Set.of(B, C), VillageState.merge(base, current, stored).villagerIds);
+    }
+
+    @Test
+    void upgradeChangedOnOneSideKeepsThatChange() {
+        VillageState base = upgrades(Map.of(UpgradeType.TRADE, 1, UpgradeType.HEALTH, 1));
+        VillageState current = upgrades(Map.of(UpgradeType.TRADE, 2, UpgradeType.HEALTH, 1));
+        VillageState stored = upgrades(Map.of(UpgradeType.TRADE, 1, UpgradeType.HEALTH, 3));
+
+        assertEquals(Map.of(UpgradeType.TRADE, 2, UpgradeType.HEALTH, 3), VillageState.merge(base, current, stored).upgradeLevels);
+    }
+
+    @Test
+    void upgradeChangedOnBothSidesTakesHigherLevel() {
+        VillageState base = upgrades(Map.of(UpgradeType.TRADE, 1, UpgradeType.HEALTH, 1));
+        VillageState current = upgrades(Map.of(UpgradeType.TRADE, 2, UpgradeType.HEALTH, 4, UpgradeType.SPEED, 2));
+        VillageState stored = upgrades(Map.of(UpgradeType.TRADE, 3, UpgradeType.HEALTH, 2, UpgradeType.SPEED, 5));
+
+        assertEquals(Map.of(UpgradeType.TRADE, 3, UpgradeType.HEALTH, 4, UpgradeType.SPEED, 5),
+                VillageState.merge(base, current, stored).upgradeLevels);
+    }
+
+    @Test
+    void removedUpgradeStaysRemoved() {
+        // 本进程移除的升级项即使其他写入方修改过也会被移除
+        VillageState base = upgrades(Map.of(UpgradeType.TRADE, 2, UpgradeType.HEALTH, 2));
+        VillageState current = upgrades(Map.of(UpgradeType.HEALTH, 2));
+        VillageState stored = upgrades(Map.of(UpgradeType.TRADE, 3, UpgradeType.HEALTH, 2));
+        assertEquals(Map.of(UpgradeType.HEALTH, 2), VillageState.merge(base, current, stored).upgradeLevels);
+
+        // 其他写入方移除、本进程没有修改的升级项不会恢复
+        VillageState unchanged = upgrades(Map.of(UpgradeType.TRADE, 2, UpgradeType.HEALTH, 2));
+        VillageState removedThere = upgrades(Map.of(UpgradeType.HEALTH, 2));
+        assertEquals(Map.of(UpgradeType.HEALTH, 2), VillageState.merge(base, unchanged, removedThere).upgradeLevels);
+    }
+
+    @Test
+    void followEnabledTakesOurChangeOtherwiseStored() {
+        VillageState off = new VillageState(false, Set.of(), Map.of());
+        VillageState on = new VillageState(true, Set.of(), Map.of());
+
+        assertTrue(VillageState.merge(off, on, off).followEnabled);
+        assertFalse(VillageState.merge(on, off, on).followEnabled);
+        assertTrue(VillageState.merge(off, off, on).followEnabled);
+        assertFalse(VillageState.merge(on, on, off).followEnabled);
+    }
+
+    @Test
+    void mergedStateKeepsStoredVersion() {
+        VillageState base = villagers(A).withVersion(3L);
+        VillageState stored = villagers(A, B).withVersion(5L);
+
+        VillageState merged = VillageState.merge(base, villagers(A, C), stored);
+        assertEquals(5L, merged.version);
+        assertTrue(merged.sameContent(villagers(A, B, C)));
+    }
+}